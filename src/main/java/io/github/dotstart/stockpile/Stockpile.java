@@ -16,8 +16,29 @@
  */
 package io.github.dotstart.stockpile;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.cache.BlacklistCache;
+import io.github.dotstart.stockpile.cache.CacheSynchronizer;
+import io.github.dotstart.stockpile.cache.ProfileCache;
+import io.github.dotstart.stockpile.cache.ProfileIdCache;
+import io.github.dotstart.stockpile.channel.AdaptiveConcurrencyLimiter;
+import io.github.dotstart.stockpile.channel.BalancingChannel;
+import io.github.dotstart.stockpile.channel.CallPriority;
+import io.github.dotstart.stockpile.channel.ChannelPool;
+import io.github.dotstart.stockpile.channel.CompressionInterceptor;
+import io.github.dotstart.stockpile.channel.DeadlineInterceptor;
+import io.github.dotstart.stockpile.channel.HedgingInterceptor;
+import io.github.dotstart.stockpile.channel.Limiter;
+import io.github.dotstart.stockpile.channel.LimitingInterceptor;
+import io.github.dotstart.stockpile.channel.RetryInterceptor;
+import io.github.dotstart.stockpile.channel.TokenBucketLimiter;
+import io.github.dotstart.stockpile.channel.Transport;
+import io.github.dotstart.stockpile.entity.server.Blacklist;
 import io.github.dotstart.stockpile.operations.EventOperations;
+import io.github.dotstart.stockpile.operations.ProfileIdBatcher;
 import io.github.dotstart.stockpile.operations.ProfileOperations;
 import io.github.dotstart.stockpile.operations.ServerOperations;
 import io.github.dotstart.stockpile.operations.SystemOperations;
@@ -25,42 +46,363 @@ import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
 import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc;
 import io.github.dotstart.stockpile.rpc.ServerServiceGrpc;
 import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.utility.Backoff;
+import io.github.dotstart.stockpile.utility.RetryBudget;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.CompressorRegistry;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
+import io.grpc.netty.NettyChannelBuilder;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
- * Provides a client for an arbitrary Stockpile server instance.
+ * <p>Provides a client for an arbitrary Stockpile server instance.</p>
+ *
+ * <p>Results of non-blocking operations are converted and passed to their respective callbacks
+ * using the callback executor which has been passed at construction time (or the common fork join
+ * pool if none has been specified).</p>
+ *
+ * <p>Additional aspects of the client (such as client side caching) may be configured using the
+ * builder returned by {@link #builder()}.</p>
  *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
 public class Stockpile implements AutoCloseable {
 
+  /**
+   * Specifies the port on which Stockpile servers listen by default.
+   */
+  public static final int DEFAULT_PORT = 36623;
+
+  /**
+   * Specifies the maximum size of a single response (in bytes) by default.
+   */
+  public static final int DEFAULT_MAX_INBOUND_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * Specifies a backoff which is suitable for retries against a Stockpile server.
+   *
+   * @see Builder#retries(int, Backoff, double)
+   */
+  public static final Backoff DEFAULT_RETRY_BACKOFF =
+      new Backoff(Duration.ofMillis(50), Duration.ofSeconds(1), 2, 0.5);
+
+  /**
+   * Specifies a maximum ratio of retries to calls which is suitable for most clients.
+   *
+   * @see Builder#retries(int, Backoff, double)
+   */
+  public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+
+  /**
+   * Specifies the maximum amount of retries which may be performed in a single burst.
+   */
+  private static final int RETRY_BUDGET_CAPACITY = 10;
+
+  /**
+   * Specifies the idempotent methods which may be retried.
+   */
+  private static final List<MethodDescriptor<?, ?>> IDEMPOTENT_METHODS = Arrays.asList(
+      ProfileServiceGrpc.getGetIdMethod(),
+      ProfileServiceGrpc.getGetNameHistoryMethod(),
+      ProfileServiceGrpc.getBulkGetIdMethod(),
+      ProfileServiceGrpc.getGetProfileMethod(),
+      ServerServiceGrpc.getGetBlacklistMethod(),
+      ServerServiceGrpc.getGetBlacklistUpdateMethod(),
+      ServerServiceGrpc.getCheckBlacklistMethod(),
+      SystemServiceGrpc.getGetStatusMethod(),
+      SystemServiceGrpc.getGetPluginsMethod()
+  );
+
+  /**
+   * Specifies the idempotent methods which may be hedged.
+   */
+  private static final List<MethodDescriptor<?, ?>> HEDGED_METHODS = Arrays.asList(
+      ProfileServiceGrpc.getGetIdMethod(),
+      ProfileServiceGrpc.getGetNameHistoryMethod(),
+      ProfileServiceGrpc.getGetProfileMethod(),
+      ServerServiceGrpc.getCheckBlacklistMethod()
+  );
+
   private final ManagedChannel channel;
+  private final ScheduledExecutorService scheduler;
+  private final Transport transport;
+  private final HedgingInterceptor hedgingInterceptor;
+  private final RetryInterceptor retryInterceptor;
+  private final LimitingInterceptor limitingInterceptor;
+  private final ProfileIdBatcher batcher;
+  private final CacheSynchronizer cacheSynchronizer;
   private final EventOperations eventOperations;
   private final ProfileOperations profileOperations;
   private final ServerOperations serverOperations;
   private final SystemOperations systemOperations;
 
   public Stockpile(@NonNull String hostname) {
-    this(hostname, 36623);
+    this(builder().address(hostname));
   }
 
   public Stockpile(@NonNull String hostname, int port) {
-    this(
-        ManagedChannelBuilder.forAddress(hostname, port)
-            .usePlaintext()
-            .build()
-    );
+    this(builder().address(hostname, port));
+  }
+
+  public Stockpile(@NonNull String hostname, int port, @NonNull Executor executor) {
+    this(builder().address(hostname, port).executor(executor));
   }
 
   public Stockpile(@NonNull ManagedChannel channel) {
+    this(builder().channel(channel));
+  }
+
+  public Stockpile(@NonNull ManagedChannel channel, @NonNull Executor executor) {
+    this(builder().channel(channel).executor(executor));
+  }
+
+  protected Stockpile(@NonNull Builder builder) {
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("stockpile-scheduler-%d")
+            .setDaemon(true)
+            .build()
+    );
+
+    ManagedChannel channel = builder.channel;
+    Transport ownedTransport = null;
+    if (channel == null) {
+      if (builder.endpoints.isEmpty() && builder.hostname == null) {
+        this.scheduler.shutdownNow();
+        throw new IllegalStateException("Illegal configuration: No server address specified");
+      }
+
+      Transport transport = builder.transport;
+      if (transport == null && builder.nativeTransport) {
+        transport = ownedTransport = Transport.create(0, true);
+      }
+
+      List<ManagedChannel> channels = new ArrayList<>(Math.max(1, builder.endpoints.size()));
+      try {
+        if (!builder.endpoints.isEmpty()) {
+          for (InetSocketAddress address : builder.endpoints) {
+            channels.add(createChannel(builder, transport, address.getHostString(),
+                address.getPort()));
+          }
+
+          channel = new BalancingChannel(channels, this.scheduler, builder.healthCheckInterval,
+              builder.failureThreshold, builder.ejectionTime);
+        } else {
+          channel = createChannel(builder, transport, builder.hostname, builder.port);
+        }
+      } catch (RuntimeException ex) {
+        // channels which have been constructed already would otherwise keep their resources (and
+        // the scheduler and transport their threads)
+        channels.forEach(ManagedChannel::shutdownNow);
+        this.scheduler.shutdownNow();
+        if (ownedTransport != null) {
+          ownedTransport.close();
+        }
+
+        throw ex;
+      }
+    }
+    this.transport = ownedTransport;
+
+    // interceptors are invoked in reverse order (deadlines are thus assigned to the call as a
+    // whole while each retry may be hedged and each attempt is compressed and admitted
+    // individually)
+    List<ClientInterceptor> interceptors = new ArrayList<>();
+    if (builder.limiter != null || !builder.concurrencyLimits.isEmpty()) {
+      Limiter limiter = builder.limiter != null ? builder.limiter : Limiter.unlimited();
+
+      this.limitingInterceptor = new LimitingInterceptor(limiter, this.scheduler,
+          builder.limiterQueueSize, builder.priorities, builder.concurrencyLimits);
+      interceptors.add(this.limitingInterceptor);
+    } else {
+      this.limitingInterceptor = null;
+    }
+    if (!builder.compressors.isEmpty()) {
+      interceptors.add(new CompressionInterceptor(builder.compressors));
+    }
+    if (builder.hedgingDelay != null) {
+      this.hedgingInterceptor = new HedgingInterceptor(HEDGED_METHODS, this.scheduler,
+          builder.hedgingDelay, builder.hedgingPercentile);
+      interceptors.add(this.hedgingInterceptor);
+    } else {
+      this.hedgingInterceptor = null;
+    }
+    if (builder.maximumRetries > 0) {
+      this.retryInterceptor = new RetryInterceptor(IDEMPOTENT_METHODS, this.scheduler,
+          builder.maximumRetries, builder.retryBackoff,
+          new RetryBudget(builder.retryBudgetRatio, RETRY_BUDGET_CAPACITY));
+      interceptors.add(this.retryInterceptor);
+    } else {
+      this.retryInterceptor = null;
+    }
+    if (!builder.deadlines.isEmpty() || builder.defaultDeadline != null) {
+      interceptors.add(new DeadlineInterceptor(builder.deadlines, builder.defaultDeadline));
+    }
+    Channel callChannel = ClientInterceptors.intercept(channel, interceptors);
+
+    Executor executor = builder.executor;
+    ProfileIdCache idCache =
+        builder.profileIdCacheSize > 0 ? new ProfileIdCache(builder.profileIdCacheSize) : null;
+    ProfileCache profileCache = builder.profileCacheWeight > 0 ? new ProfileCache(
+        builder.profileCacheWeight, builder.profileCacheExpiration) : null;
+    BlacklistCache blacklistCache = builder.localBlacklist ? new BlacklistCache() : null;
+
     this.channel = channel;
-    this.eventOperations = new EventOperations(EventServiceGrpc.newBlockingStub(channel));
+    this.eventOperations = new EventOperations(
+        EventServiceGrpc.newBlockingStub(callChannel),
+        EventServiceGrpc.newStub(callChannel),
+        executor,
+        this.scheduler);
+    this.batcher = builder.batchSize > 0 ? new ProfileIdBatcher(this.scheduler,
+        builder.batchWindow, builder.batchSize) : null;
     this.profileOperations = new ProfileOperations(
-        ProfileServiceGrpc.newBlockingStub(channel));
-    this.serverOperations = new ServerOperations(ServerServiceGrpc.newBlockingStub(channel));
-    this.systemOperations = new SystemOperations(SystemServiceGrpc.newBlockingStub(channel));
+        ProfileServiceGrpc.newFutureStub(callChannel), executor, idCache, profileCache,
+        this.batcher, builder.bulkChunkSize, builder.bulkParallelism);
+    this.serverOperations = new ServerOperations(ServerServiceGrpc.newFutureStub(callChannel),
+        executor, blacklistCache);
+    this.systemOperations = new SystemOperations(SystemServiceGrpc.newFutureStub(callChannel),
+        executor);
+
+    if (builder.synchronizeCaches
+        && (idCache != null || profileCache != null || blacklistCache != null)) {
+      this.cacheSynchronizer = new CacheSynchronizer(this.eventOperations, idCache,
+          profileCache, blacklistCache, builder.prefillCaches, builder.cacheEventWindow);
+      this.cacheSynchronizer.start();
+    } else {
+      this.cacheSynchronizer = null;
+    }
+
+    if (blacklistCache != null) {
+      if (builder.blacklistRefreshInterval != null) {
+        long interval = builder.blacklistRefreshInterval.toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::refreshBlacklist, 0, interval,
+            TimeUnit.MILLISECONDS);
+      } else {
+        this.refreshBlacklist();
+      }
+    }
+  }
+
+  /**
+   * Creates a channel (or pool of channels) to a given server.
+   *
+   * @param builder a builder which provides the channel configuration.
+   * @param transport a transport or null to use the default transport.
+   * @param hostname a hostname or IP address.
+   * @param port a port number.
+   * @return a channel.
+   */
+  @NonNull
+  private static ManagedChannel createChannel(
+      @NonNull Builder builder,
+      @Nullable Transport transport,
+      @NonNull String hostname,
+      int port) {
+    Supplier<ManagedChannel> factory = () -> {
+      NettyChannelBuilder channelBuilder = NettyChannelBuilder.forAddress(hostname, port)
+          .usePlaintext()
+          .flowControlWindow(builder.flowControlWindow)
+          .maxInboundMessageSize(builder.maxInboundMessageSize);
+
+      if (transport != null) {
+        channelBuilder
+            .eventLoopGroup(transport.getEventLoopGroup())
+            .channelType(transport.getChannelType());
+      }
+      if (builder.transportExecutor != null) {
+        channelBuilder.executor(builder.transportExecutor);
+      }
+      if (builder.keepAliveTime != null) {
+        channelBuilder
+            .keepAliveTime(builder.keepAliveTime.toNanos(), TimeUnit.NANOSECONDS)
+            .keepAliveTimeout(builder.keepAliveTimeout.toNanos(), TimeUnit.NANOSECONDS)
+            .keepAliveWithoutCalls(builder.keepAliveWithoutCalls);
+      }
+
+      return channelBuilder.build();
+    };
+
+    if (builder.poolSize > 0) {
+      return new ChannelPool(factory, builder.poolSize, builder.poolStrategy);
+    }
+
+    return factory.get();
+  }
+
+  /**
+   * Retrieves a fresh copy of the server blacklist in order to update the local copy (failures
+   * are ignored since the previous copy remains valid until the next refresh).
+   */
+  private void refreshBlacklist() {
+    Optional<Blacklist> previous = this.serverOperations.getBlacklistCache()
+        .flatMap(BlacklistCache::get);
+
+    if (previous.isPresent()) {
+      this.serverOperations.getBlacklistAsync(previous.get());
+    } else {
+      this.serverOperations.getBlacklistAsync();
+    }
+  }
+
+  /**
+   * Creates a new builder which permits the detailed configuration of a client.
+   *
+   * @return a builder.
+   */
+  @NonNull
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Retrieves the interceptor which hedges calls to idempotent methods (if enabled).
+   *
+   * @return an interceptor or an empty optional if hedging is disabled.
+   * @see Builder#hedging(Duration, double)
+   */
+  @NonNull
+  public Optional<HedgingInterceptor> hedging() {
+    return Optional.ofNullable(this.hedgingInterceptor);
+  }
+
+  /**
+   * Retrieves the interceptor which retries failed calls to idempotent methods (if enabled).
+   *
+   * @return an interceptor or an empty optional if retries are disabled.
+   * @see Builder#retries(int, Backoff, double)
+   */
+  @NonNull
+  public Optional<RetryInterceptor> retries() {
+    return Optional.ofNullable(this.retryInterceptor);
+  }
+
+  /**
+   * Retrieves the interceptor which limits the calls passed to the server (if enabled).
+   *
+   * @return an interceptor or an empty optional if no limiter has been configured.
+   * @see Builder#limiter(Limiter, int)
+   */
+  @NonNull
+  public Optional<LimitingInterceptor> limiting() {
+    return Optional.ofNullable(this.limitingInterceptor);
   }
 
   @NonNull
@@ -84,10 +426,774 @@ public class Stockpile implements AutoCloseable {
   }
 
   /**
-   * {@inheritDoc}
+   * <p>Shuts down this client and waits for its pending calls to complete.</p>
+   *
+   * <p>When the calling thread is interrupted while waiting, pending calls are cancelled, the
+   * remaining resources are released without waiting and the interrupt flag of the calling thread
+   * is restored.</p>
    */
   @Override
-  public void close() throws InterruptedException {
-    this.channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+  public void close() {
+    if (this.cacheSynchronizer != null) {
+      this.cacheSynchronizer.close();
+    }
+
+    // streams are never completed by the server and would otherwise keep the channel from
+    // terminating (as well as attempt to reconnect through the scheduler once it has been shut
+    // down)
+    this.eventOperations.close();
+
+    // pending batches are dispatched while the channel still accepts new calls
+    if (this.batcher != null) {
+      this.batcher.close();
+    }
+    this.channel.shutdown();
+
+    // calls which are waiting for the scheduler are completed right away since their scheduled
+    // tasks would otherwise be discarded along with the scheduler
+    if (this.limitingInterceptor != null) {
+      this.limitingInterceptor.close();
+    }
+    if (this.retryInterceptor != null) {
+      this.retryInterceptor.close();
+    }
+
+    this.scheduler.shutdownNow();
+    try {
+      if (!this.channel.awaitTermination(5, TimeUnit.SECONDS)) {
+        // the transport must not be released while calls are still using it
+        this.channel.shutdownNow();
+        this.channel.awaitTermination(5, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException ex) {
+      this.channel.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+
+    if (this.transport != null) {
+      this.transport.close();
+    }
+  }
+
+  /**
+   * Provides a factory for customized client instances.
+   */
+  public static class Builder {
+
+    private String hostname;
+    private int port = DEFAULT_PORT;
+    private ManagedChannel channel;
+    private final List<InetSocketAddress> endpoints = new ArrayList<>();
+    private Duration healthCheckInterval;
+    private int failureThreshold = BalancingChannel.DEFAULT_FAILURE_THRESHOLD;
+    private Duration ejectionTime = BalancingChannel.DEFAULT_EJECTION_TIME;
+    private int poolSize;
+    private ChannelPool.Strategy poolStrategy = ChannelPool.Strategy.LEAST_IN_FLIGHT;
+    private Transport transport;
+    private boolean nativeTransport;
+    private Executor executor = ForkJoinPool.commonPool();
+    private Executor transportExecutor;
+    private Duration keepAliveTime;
+    private Duration keepAliveTimeout;
+    private boolean keepAliveWithoutCalls;
+    private int flowControlWindow = NettyChannelBuilder.DEFAULT_FLOW_CONTROL_WINDOW;
+    private int maxInboundMessageSize = DEFAULT_MAX_INBOUND_MESSAGE_SIZE;
+    private final Map<String, String> compressors = new HashMap<>();
+    private final Map<String, Duration> deadlines = new HashMap<>();
+    private Duration defaultDeadline;
+    private Duration hedgingDelay;
+    private double hedgingPercentile;
+    private int maximumRetries;
+    private Backoff retryBackoff;
+    private double retryBudgetRatio;
+    private Limiter limiter;
+    private int limiterQueueSize;
+    private final Map<String, CallPriority> priorities = new HashMap<>();
+    private final Map<CallPriority, Integer> concurrencyLimits = new EnumMap<>(CallPriority.class);
+    private long profileIdCacheSize;
+    private long profileCacheWeight;
+    private Duration profileCacheExpiration;
+    private boolean synchronizeCaches;
+    private boolean prefillCaches;
+    private Duration cacheEventWindow;
+    private Duration batchWindow;
+    private int batchSize;
+    private boolean localBlacklist;
+    private Duration blacklistRefreshInterval;
+    private int bulkChunkSize = ProfileOperations.DEFAULT_BULK_CHUNK_SIZE;
+    private int bulkParallelism = ProfileOperations.DEFAULT_BULK_PARALLELISM;
+
+    protected Builder() {
+      this.priority(ServerServiceGrpc.getLoginMethod(), CallPriority.INTERACTIVE);
+      this.priority(ServerServiceGrpc.getCheckBlacklistMethod(), CallPriority.INTERACTIVE);
+      this.priority(ProfileServiceGrpc.getBulkGetIdMethod(), CallPriority.BATCH);
+      this.priority(ProfileServiceGrpc.getGetNameHistoryMethod(), CallPriority.BATCH);
+    }
+
+    /**
+     * Constructs a new client using the current builder configuration.
+     *
+     * @return a client.
+     * @throws IllegalStateException when no server address or channel has been specified.
+     */
+    @NonNull
+    public Stockpile build() {
+      return new Stockpile(this);
+    }
+
+    /**
+     * Selects the server to connect to (using the default port).
+     *
+     * @param hostname a hostname or IP address.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder address(@NonNull String hostname) {
+      return this.address(hostname, DEFAULT_PORT);
+    }
+
+    /**
+     * Selects the server to connect to (replaces any previously specified channel).
+     *
+     * @param hostname a hostname or IP address.
+     * @param port a port number.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder address(@NonNull String hostname, int port) {
+      this.hostname = hostname;
+      this.port = port;
+      this.channel = null;
+      this.endpoints.clear();
+      return this;
+    }
+
+    /**
+     * <p>Selects a set of equivalent servers across which calls are distributed (replaces any
+     * previously specified server address or channel).</p>
+     *
+     * <p>Each call is passed to the server which is expected to respond sooner based on its
+     * observed latency and amount of outstanding calls. Servers which repeatedly fail calls are
+     * temporarily ejected.</p>
+     *
+     * @param addresses a collection of server addresses.
+     * @return a reference to this builder.
+     * @see BalancingChannel
+     */
+    @NonNull
+    public Builder endpoints(@NonNull Collection<InetSocketAddress> addresses) {
+      if (addresses.isEmpty()) {
+        throw new IllegalArgumentException(
+            "Illegal endpoint list: Expected at least one address but got none");
+      }
+
+      this.hostname = null;
+      this.channel = null;
+      this.endpoints.clear();
+      this.endpoints.addAll(addresses);
+      return this;
+    }
+
+    /**
+     * <p>Distributes unary calls across multiple connections to each server.</p>
+     *
+     * <p>Streaming calls (such as event subscriptions) are passed to an additional dedicated
+     * connection in order to keep them from competing with unary calls. This setting has no
+     * effect when a pre-configured channel is used.</p>
+     *
+     * @param size an amount of connections for unary calls or zero to use a single connection for
+     * all calls.
+     * @param strategy a strategy which selects the connection for each call.
+     * @return a reference to this builder.
+     * @see ChannelPool
+     */
+    @NonNull
+    public Builder channelPool(int size, @NonNull ChannelPool.Strategy strategy) {
+      if (size < 0) {
+        throw new IllegalArgumentException(
+            "Illegal pool size: Expected a positive value or zero but got " + size);
+      }
+
+      this.poolSize = size;
+      this.poolStrategy = strategy;
+      return this;
+    }
+
+    /**
+     * <p>Configures when servers are ejected from the set of endpoints.</p>
+     *
+     * <p>Servers are ejected when they fail the specified amount of consecutive calls or health
+     * probes (when a probe interval is given, both count towards the same threshold). The ejection
+     * time doubles with each consecutive ejection and is reset once a server completes a long
+     * enough run of successful calls. Successful probes re-admit servers immediately.</p>
+     *
+     * @param probeInterval an interval at which servers are probed or null to disable probes.
+     * @param failureThreshold an amount of consecutive failures after which a server is ejected.
+     * @param ejectionTime a duration for which a server is ejected upon its first ejection.
+     * @return a reference to this builder.
+     * @see #endpoints(Collection)
+     */
+    @NonNull
+    public Builder healthChecks(
+        @Nullable Duration probeInterval,
+        int failureThreshold,
+        @NonNull Duration ejectionTime) {
+      if (probeInterval != null && (probeInterval.isNegative() || probeInterval.isZero())) {
+        throw new IllegalArgumentException(
+            "Illegal probe interval: Expected a positive duration but got " + probeInterval);
+      }
+      if (failureThreshold <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal failure threshold: Expected a positive value but got " + failureThreshold);
+      }
+      if (ejectionTime.isNegative() || ejectionTime.isZero()) {
+        throw new IllegalArgumentException(
+            "Illegal ejection time: Expected a positive duration but got " + ejectionTime);
+      }
+
+      this.healthCheckInterval = probeInterval;
+      this.failureThreshold = failureThreshold;
+      this.ejectionTime = ejectionTime;
+      return this;
+    }
+
+    /**
+     * Selects a pre-configured channel which is to be used for all server communication (replaces
+     * any previously specified server address).
+     *
+     * @param channel a channel or null to construct a channel from the configured address.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder channel(@Nullable ManagedChannel channel) {
+      this.channel = channel;
+      return this;
+    }
+
+    /**
+     * Selects the executor on which the results of non-blocking operations are converted and
+     * passed to their callbacks.
+     *
+     * @param executor an executor.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder executor(@NonNull Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Selects the executor on which the transport invokes call listeners (before results are
+     * passed to the callback executor).
+     *
+     * @param executor an executor or null to use a shared cached thread pool.
+     * @return a reference to this builder.
+     * @see #executor(Executor)
+     */
+    @NonNull
+    public Builder transportExecutor(@Nullable Executor executor) {
+      this.transportExecutor = executor;
+      return this;
+    }
+
+    /**
+     * <p>Executes call listeners and callbacks directly on the network threads.</p>
+     *
+     * <p>This eliminates two thread hand-offs per call and thus reduces latency. However, callbacks
+     * must never block since a blocked callback stalls all calls which share its network
+     * thread.</p>
+     *
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder directExecutor() {
+      this.executor = MoreExecutors.directExecutor();
+      this.transportExecutor = MoreExecutors.directExecutor();
+      return this;
+    }
+
+    /**
+     * <p>Prefers the native epoll transport over the portable NIO transport.</p>
+     *
+     * <p>The native transport requires the {@code netty-transport-native-epoll} artifact to be
+     * present on the class path and is only available on Linux. When it is unavailable, the
+     * portable transport is used instead. This setting has no effect when a shared transport or
+     * a pre-configured channel is used.</p>
+     *
+     * @param enabled true if the native transport is preferred, false otherwise.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder nativeTransport(boolean enabled) {
+      this.nativeTransport = enabled;
+      return this;
+    }
+
+    /**
+     * <p>Selects a transport which is shared with other clients.</p>
+     *
+     * <p>Sharing a transport limits the total amount of network threads when multiple clients are
+     * used within the same application. The transport is not closed along with the client.</p>
+     *
+     * @param transport a transport or null to use the default transport.
+     * @return a reference to this builder.
+     * @see Transport#create(int, boolean)
+     */
+    @NonNull
+    public Builder transport(@Nullable Transport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * <p>Enables keepalive pings on idle connections.</p>
+     *
+     * <p>Keepalive pings permit the detection of broken connections before a call is attempted on
+     * them. Note that servers may close connections which send pings more frequently than they
+     * permit.</p>
+     *
+     * @param time a duration of inactivity after which a ping is sent or null to disable
+     * keepalive pings.
+     * @param timeout a duration after which a connection is considered broken when a ping remains
+     * unanswered.
+     * @param withoutCalls true if pings are sent while no calls are in flight, false otherwise.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder keepAlive(
+        @Nullable Duration time,
+        @NonNull Duration timeout,
+        boolean withoutCalls) {
+      if (time != null && (time.isNegative() || time.isZero())) {
+        throw new IllegalArgumentException(
+            "Illegal keepalive time: Expected a positive duration but got " + time);
+      }
+      if (timeout.isNegative() || timeout.isZero()) {
+        throw new IllegalArgumentException(
+            "Illegal keepalive timeout: Expected a positive duration but got " + timeout);
+      }
+
+      this.keepAliveTime = time;
+      this.keepAliveTimeout = timeout;
+      this.keepAliveWithoutCalls = withoutCalls;
+      return this;
+    }
+
+    /**
+     * Selects the amount of data which a server may send on a single connection before it has to
+     * wait for an acknowledgement.
+     *
+     * @param bytes a window size (in bytes).
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder flowControlWindow(int bytes) {
+      if (bytes <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal flow control window: Expected a positive value but got " + bytes);
+      }
+
+      this.flowControlWindow = bytes;
+      return this;
+    }
+
+    /**
+     * Selects the maximum size of a single response (such as the result of a bulk lookup).
+     *
+     * @param bytes a maximum size (in bytes).
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder maxInboundMessageSize(int bytes) {
+      if (bytes <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal message size: Expected a positive value but got " + bytes);
+      }
+
+      this.maxInboundMessageSize = bytes;
+      return this;
+    }
+
+    /**
+     * <p>Compresses the requests of a given method.</p>
+     *
+     * <p>Compression is typically only worth its cost for methods with large requests (such as
+     * {@link ProfileServiceGrpc#getBulkGetIdMethod()}). Unlike the remaining transport settings,
+     * this setting is also applied to pre-configured channels.</p>
+     *
+     * @param method a method.
+     * @param compressor a compressor name (such as "gzip") or null to disable compression.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder compression(
+        @NonNull MethodDescriptor<?, ?> method,
+        @Nullable String compressor) {
+      if (compressor == null) {
+        this.compressors.remove(method.getFullMethodName());
+        return this;
+      }
+      if (CompressorRegistry.getDefaultInstance().lookupCompressor(compressor) == null) {
+        throw new IllegalArgumentException(
+            "Illegal compressor: Expected a registered compressor but got " + compressor);
+      }
+
+      this.compressors.put(method.getFullMethodName(), compressor);
+      return this;
+    }
+
+    /**
+     * <p>Selects the deadline which is applied to unary calls for which no method specific
+     * deadline has been configured.</p>
+     *
+     * <p>Streaming calls (such as event subscriptions) are not subject to the default
+     * deadline. By default, calls are permitted to wait indefinitely.</p>
+     *
+     * @param deadline a deadline or null to permit calls to wait indefinitely.
+     * @return a reference to this builder.
+     * @see #deadline(MethodDescriptor, Duration)
+     */
+    @NonNull
+    public Builder defaultDeadline(@Nullable Duration deadline) {
+      if (deadline != null && (deadline.isNegative() || deadline.isZero())) {
+        throw new IllegalArgumentException(
+            "Illegal deadline: Expected a positive duration but got " + deadline);
+      }
+
+      this.defaultDeadline = deadline;
+      return this;
+    }
+
+    /**
+     * Selects the deadline which is applied to calls of a given method.
+     *
+     * @param method a method.
+     * @param deadline a deadline or null to apply the default deadline.
+     * @return a reference to this builder.
+     * @see #defaultDeadline(Duration)
+     */
+    @NonNull
+    public Builder deadline(@NonNull MethodDescriptor<?, ?> method, @Nullable Duration deadline) {
+      if (deadline == null) {
+        this.deadlines.remove(method.getFullMethodName());
+        return this;
+      }
+      if (deadline.isNegative() || deadline.isZero()) {
+        throw new IllegalArgumentException(
+            "Illegal deadline: Expected a positive duration but got " + deadline);
+      }
+
+      this.deadlines.put(method.getFullMethodName(), deadline);
+      return this;
+    }
+
+    /**
+     * <p>Sends a second attempt for slow lookups of profiles, name histories and blacklist
+     * entries and completes each lookup with whichever attempt responds first.</p>
+     *
+     * <p>The second attempt is sent once the first attempt has been outstanding for longer than
+     * the given percentile of the recently observed latencies (or the minimum delay, whichever is
+     * longer). This reduces the tail latency of lookups at the cost of a proportional amount of
+     * additional requests.</p>
+     *
+     * @param minimumDelay a minimum delay before a second attempt is sent or null to disable
+     * hedging.
+     * @param percentile a latency percentile (between zero and one exclusively).
+     * @return a reference to this builder.
+     * @see HedgingInterceptor
+     */
+    @NonNull
+    public Builder hedging(@Nullable Duration minimumDelay, double percentile) {
+      if (minimumDelay != null && minimumDelay.isNegative()) {
+        throw new IllegalArgumentException(
+            "Illegal minimum delay: Expected a positive duration or zero but got "
+                + minimumDelay);
+      }
+      if (percentile <= 0 || percentile >= 1) {
+        throw new IllegalArgumentException(
+            "Illegal percentile: Expected a value between 0 and 1 but got " + percentile);
+      }
+
+      this.hedgingDelay = minimumDelay;
+      this.hedgingPercentile = percentile;
+      return this;
+    }
+
+    /**
+     * <p>Configures how lookups which fail due to an unavailable server are retried.</p>
+     *
+     * <p>Only idempotent methods are retried. The total amount of retries is limited to the given
+     * ratio of calls (shared by all methods of this client) in order to prevent retries from
+     * multiplying the load on an overloaded server.</p>
+     *
+     * <p>By default, calls are not retried.</p>
+     *
+     * @param maximumRetries a maximum amount of retries per call or zero to disable retries.
+     * @param backoff a backoff which computes the delay before each retry.
+     * @param budgetRatio a maximum ratio of retries to calls (between zero and one).
+     * @return a reference to this builder.
+     * @see RetryInterceptor
+     */
+    @NonNull
+    public Builder retries(int maximumRetries, @NonNull Backoff backoff, double budgetRatio) {
+      if (maximumRetries < 0) {
+        throw new IllegalArgumentException(
+            "Illegal amount of retries: Expected a positive value or zero but got "
+                + maximumRetries);
+      }
+      if (budgetRatio <= 0 || budgetRatio > 1) {
+        throw new IllegalArgumentException(
+            "Illegal budget ratio: Expected a value between 0 and 1 but got " + budgetRatio);
+      }
+
+      this.maximumRetries = maximumRetries;
+      this.retryBackoff = backoff;
+      this.retryBudgetRatio = budgetRatio;
+      return this;
+    }
+
+    /**
+     * <p>Limits the unary calls which are passed to the server (such as by rate or by amount of
+     * concurrent calls).</p>
+     *
+     * <p>Calls which are not permitted immediately are queued until they are permitted or their
+     * deadline expires. Queued calls are passed to the server in the order of their priority.
+     * When the queue is full, calls of the lowest priority are rejected with {@link
+     * io.grpc.Status#RESOURCE_EXHAUSTED}. Note that retries and hedged attempts are subject to the
+     * limiter as well.</p>
+     *
+     * @param limiter a limiter or null to pass all calls to the server immediately.
+     * @param maximumQueueSize a maximum amount of queued calls or zero to reject all calls which
+     * are not permitted immediately.
+     * @return a reference to this builder.
+     * @see TokenBucketLimiter
+     * @see AdaptiveConcurrencyLimiter
+     * @see Limiter#all(Limiter...)
+     * @see #priority(MethodDescriptor, CallPriority)
+     */
+    @NonNull
+    public Builder limiter(@Nullable Limiter limiter, int maximumQueueSize) {
+      if (maximumQueueSize < 0) {
+        throw new IllegalArgumentException(
+            "Illegal queue size: Expected a positive value or zero but got " + maximumQueueSize);
+      }
+
+      this.limiter = limiter;
+      this.limiterQueueSize = maximumQueueSize;
+      return this;
+    }
+
+    /**
+     * <p>Selects the priority with which calls of a given method are passed to the server when
+     * calls are queued by the limiter.</p>
+     *
+     * <p>By default, logins and blacklist checks are called with {@link
+     * CallPriority#INTERACTIVE} while bulk lookups and name history lookups are called with {@link
+     * CallPriority#BATCH}. All remaining methods are called with {@link CallPriority#NORMAL}.
+     * Bulk lookups which merge individual lookups (see {@link
+     * #batchProfileIdLookups(Duration, int)}) are always called with {@link
+     * CallPriority#NORMAL}.</p>
+     *
+     * @param method a method.
+     * @param priority a priority.
+     * @return a reference to this builder.
+     * @see #limiter(Limiter, int)
+     */
+    @NonNull
+    public Builder priority(
+        @NonNull MethodDescriptor<?, ?> method,
+        @NonNull CallPriority priority) {
+      this.priorities.put(method.getFullMethodName(), priority);
+      return this;
+    }
+
+    /**
+     * <p>Limits the amount of concurrent calls of a given priority.</p>
+     *
+     * <p>This reserves capacity for calls of other priorities (for instance, limiting {@link
+     * CallPriority#BATCH} calls keeps background lookups from occupying the connections on which
+     * logins are performed). Calls which exceed the limit are queued.</p>
+     *
+     * @param priority a priority.
+     * @param maximumCalls a maximum amount of concurrent calls or zero to remove the limit.
+     * @return a reference to this builder.
+     * @see #limiter(Limiter, int)
+     */
+    @NonNull
+    public Builder concurrencyLimit(@NonNull CallPriority priority, int maximumCalls) {
+      if (maximumCalls < 0) {
+        throw new IllegalArgumentException(
+            "Illegal concurrency limit: Expected a positive value or zero but got "
+                + maximumCalls);
+      }
+
+      if (maximumCalls == 0) {
+        this.concurrencyLimits.remove(priority);
+      } else {
+        this.concurrencyLimits.put(priority, maximumCalls);
+      }
+      return this;
+    }
+
+    /**
+     * <p>Enables the client side cache for name to profile associations.</p>
+     *
+     * <p>Cached associations are only returned for as long as they are considered valid by the
+     * server. When the cache exceeds the specified size, the least recently used associations are
+     * evicted.</p>
+     *
+     * @param maximumSize a maximum amount of cached associations or zero to disable caching.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder profileIdCache(long maximumSize) {
+      if (maximumSize < 0) {
+        throw new IllegalArgumentException(
+            "Illegal cache size: Expected a positive value or zero but got " + maximumSize);
+      }
+
+      this.profileIdCacheSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * <p>Enables the client side cache for complete profiles.</p>
+     *
+     * <p>Each profile is charged by its estimated heap footprint. When the total weight of the
+     * cache exceeds the specified limit, the least recently used profiles are evicted.</p>
+     *
+     * @param maximumWeight a maximum amount of (estimated) bytes or zero to disable caching.
+     * @param expireAfterWrite a duration after which profiles are considered stale or null to
+     * retain profiles until they are evicted based on their weight.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder profileCache(long maximumWeight, @Nullable Duration expireAfterWrite) {
+      if (maximumWeight < 0) {
+        throw new IllegalArgumentException(
+            "Illegal cache weight: Expected a positive value or zero but got " + maximumWeight);
+      }
+
+      this.profileCacheWeight = maximumWeight;
+      this.profileCacheExpiration = expireAfterWrite;
+      return this;
+    }
+
+    /**
+     * <p>Keeps all enabled client side caches consistent with the server by maintaining a
+     * background subscription to its event stream.</p>
+     *
+     * <p>Cached entries are replaced as soon as the server reports an update. When prefilling is
+     * enabled, entries which have not been requested by this client are inserted as well (note
+     * that this may cause frequently requested entries to be evicted earlier).</p>
+     *
+     * @param prefill true if unknown entries are to be inserted, false otherwise.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder synchronizeCaches(boolean prefill) {
+      this.synchronizeCaches = true;
+      this.prefillCaches = prefill;
+      return this;
+    }
+
+    /**
+     * <p>Collapses bursts of cache events which refer to the same entry before they are applied
+     * to the synchronized caches.</p>
+     *
+     * <p>Within the specified window, only the most recent update of each entry is applied. Note
+     * that this delays the application of all updates by up to the specified window.</p>
+     *
+     * @param window a collection window or null to apply each event immediately.
+     * @return a reference to this builder.
+     * @see #synchronizeCaches(boolean)
+     */
+    @NonNull
+    public Builder coalesceCacheEvents(@Nullable Duration window) {
+      if (window != null && (window.isNegative() || window.isZero())) {
+        throw new IllegalArgumentException(
+            "Illegal coalescing window: Expected a positive duration but got " + window);
+      }
+
+      this.cacheEventWindow = window;
+      return this;
+    }
+
+    /**
+     * <p>Merges lookups of name associations at the current time into bulk requests.</p>
+     *
+     * <p>Lookups are collected for the specified window (starting with the first lookup) or until
+     * the maximum batch size has been reached. Note that this introduces an additional latency of
+     * up to the specified window for each individual lookup.</p>
+     *
+     * @param window a collection window.
+     * @param maximumBatchSize a maximum amount of names per bulk request or zero to disable
+     * batching.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder batchProfileIdLookups(@NonNull Duration window, int maximumBatchSize) {
+      if (window.isNegative()) {
+        throw new IllegalArgumentException(
+            "Illegal batch window: Expected a positive duration or zero but got " + window);
+      }
+      if (maximumBatchSize < 0) {
+        throw new IllegalArgumentException(
+            "Illegal batch size: Expected a positive value or zero but got " + maximumBatchSize);
+      }
+
+      this.batchWindow = window;
+      this.batchSize = maximumBatchSize;
+      return this;
+    }
+
+    /**
+     * <p>Evaluates blacklist checks locally using a copy of the server blacklist.</p>
+     *
+     * <p>The local copy is retrieved when the client is constructed and replaced periodically
+     * (when a refresh interval is given) as well as whenever the server reports an update via its
+     * event stream (when caches are synchronized). Checks are passed to the server until the
+     * initial copy has been retrieved.</p>
+     *
+     * @param refreshInterval an interval at which the blacklist is refreshed or null to rely on
+     * cache events exclusively.
+     * @return a reference to this builder.
+     * @see #synchronizeCaches(boolean)
+     */
+    @NonNull
+    public Builder localBlacklist(@Nullable Duration refreshInterval) {
+      if (refreshInterval != null && (refreshInterval.isNegative() || refreshInterval.isZero())) {
+        throw new IllegalArgumentException(
+            "Illegal refresh interval: Expected a positive duration but got " + refreshInterval);
+      }
+
+      this.localBlacklist = true;
+      this.blacklistRefreshInterval = refreshInterval;
+      return this;
+    }
+
+    /**
+     * Configures how large bulk lookups are split into multiple concurrent requests.
+     *
+     * @param chunkSize a maximum amount of names per request.
+     * @param parallelism a maximum amount of concurrent requests per bulk lookup.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder bulkChunking(int chunkSize, int parallelism) {
+      if (chunkSize <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal chunk size: Expected a positive value but got " + chunkSize);
+      }
+      if (parallelism <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal parallelism: Expected a positive value but got " + parallelism);
+      }
+
+      this.bulkChunkSize = chunkSize;
+      this.bulkParallelism = parallelism;
+      return this;
+    }
   }
 }
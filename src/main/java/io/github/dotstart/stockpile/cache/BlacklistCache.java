@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.server.Blacklist;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Stores a local copy of the server blacklist.</p>
+ *
+ * <p>The blacklist is always replaced as a whole. As such, readers will either observe the
+ * previous or the new version of the blacklist but never a partially updated state.</p>
+ *
+ * <p>Unlike other caches, the blacklist is not discarded when the server becomes unavailable since
+ * serving a slightly outdated blacklist is preferable to failing connection attempts.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class BlacklistCache {
+
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+  /**
+   * Retrieves the current local copy of the blacklist.
+   *
+   * @return a blacklist or, if no blacklist has been retrieved yet, an empty optional.
+   */
+  @NonNull
+  public Optional<Blacklist> get() {
+    Snapshot snapshot = this.snapshot.get();
+    return snapshot == null ? Optional.empty() : Optional.of(snapshot.blacklist);
+  }
+
+  /**
+   * Retrieves the time at which the local copy of the blacklist has last been replaced.
+   *
+   * @return a timestamp or, if no blacklist has been retrieved yet, an empty optional.
+   */
+  @NonNull
+  public Optional<Instant> getLastUpdated() {
+    Snapshot snapshot = this.snapshot.get();
+    return snapshot == null ? Optional.empty() : Optional.of(snapshot.updatedAt);
+  }
+
+  /**
+   * Replaces the local copy of the blacklist.
+   *
+   * @param blacklist a blacklist.
+   */
+  public void update(@NonNull Blacklist blacklist) {
+    this.snapshot.set(new Snapshot(blacklist, Instant.now()));
+  }
+
+  /**
+   * <p>Replaces the local copy of the blacklist unless it has been replaced since a given version
+   * of the blacklist has been retrieved.</p>
+   *
+   * <p>This permits the safe application of responses to requests which were issued relative to a
+   * previous version of the blacklist (for instance, when a more recent version has been received
+   * via the event stream while the request was in flight).</p>
+   *
+   * @param previous the local copy at the time the request was issued or null if no blacklist had
+   * been retrieved at the time.
+   * @param blacklist a blacklist (which may be identical to the previous version in order to mark
+   * it as up to date).
+   * @return true if replaced, false if the local copy has been replaced in the meantime.
+   */
+  public boolean update(@Nullable Blacklist previous, @NonNull Blacklist blacklist) {
+    Snapshot replacement = new Snapshot(blacklist, Instant.now());
+
+    while (true) {
+      Snapshot current = this.snapshot.get();
+      if (current != null && current.blacklist != previous) {
+        return false;
+      }
+
+      if (this.snapshot.compareAndSet(current, replacement)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Represents a blacklist along with the time of its retrieval.
+   */
+  private static final class Snapshot {
+
+    private final Blacklist blacklist;
+    private final Instant updatedAt;
+
+    private Snapshot(@NonNull Blacklist blacklist, @NonNull Instant updatedAt) {
+      this.blacklist = blacklist;
+      this.updatedAt = updatedAt;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.entity.event.ProfileIdKey;
+import io.github.dotstart.stockpile.entity.profile.Profile;
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import io.github.dotstart.stockpile.entity.server.Blacklist;
+import io.github.dotstart.stockpile.operations.EventOperations;
+import io.github.dotstart.stockpile.operations.ResumableEventObserver;
+import io.github.dotstart.stockpile.operations.ResumableEventSubscription;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>Keeps the client side caches of a client consistent with the server by consuming its cache
+ * event stream.</p>
+ *
+ * <p>Cached entries are replaced whenever the server reports a new version of the entry. When
+ * prefilling is enabled, entries which are not yet known to the client are inserted as well. Only
+ * events which refer to a locally cached type of entry are requested from the server.</p>
+ *
+ * <p>Interrupted subscriptions are resumed automatically. Cached entries (with exception of the
+ * blacklist which remains usable during server outages) are only discarded when events have
+ * actually been lost in the process (e.g. when the server was unable to replay all events which
+ * were emitted during the interruption or does not support resumption at all). When the entries
+ * to which the lost events refer are known, only those entries are discarded. Otherwise, all
+ * synchronized caches are flushed.</p>
+ *
+ * <p>When a coalescing window is configured, bursts of events which refer to the same entry are
+ * collapsed into a single update. Blacklist updates are exempt from coalescing and are applied
+ * right away.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class CacheSynchronizer implements AutoCloseable {
+
+  private final EventOperations operations;
+  private final ProfileIdCache idCache;
+  private final ProfileCache profileCache;
+  private final BlacklistCache blacklistCache;
+  private final boolean prefill;
+  private final Duration coalescingWindow;
+
+  private volatile ResumableEventSubscription subscription;
+  private volatile boolean closed;
+
+  public CacheSynchronizer(
+      @NonNull EventOperations operations,
+      @Nullable ProfileIdCache idCache,
+      @Nullable ProfileCache profileCache,
+      @Nullable BlacklistCache blacklistCache,
+      boolean prefill) {
+    this(operations, idCache, profileCache, blacklistCache, prefill, null);
+  }
+
+  public CacheSynchronizer(
+      @NonNull EventOperations operations,
+      @Nullable ProfileIdCache idCache,
+      @Nullable ProfileCache profileCache,
+      @Nullable BlacklistCache blacklistCache,
+      boolean prefill,
+      @Nullable Duration coalescingWindow) {
+    this.operations = operations;
+    this.idCache = idCache;
+    this.profileCache = profileCache;
+    this.blacklistCache = blacklistCache;
+    this.prefill = prefill;
+    this.coalescingWindow = coalescingWindow;
+  }
+
+  /**
+   * Subscribes to the server's event stream.
+   */
+  public synchronized void start() {
+    if (this.closed || this.subscription != null) {
+      return;
+    }
+
+    ResumableEventObserver observer = new ResumableEventObserver() {
+      @Override
+      public void onEvent(@NonNull Event<?, ?> event) {
+        CacheSynchronizer.this.applySafely(event);
+      }
+
+      @Override
+      public void onGap(@NonNull EventGap gap) {
+        CacheSynchronizer.this.invalidate(gap);
+      }
+    };
+
+    if (this.coalescingWindow != null) {
+      ResumableEventObserver coalescing = this.operations.coalesce(observer,
+          this.coalescingWindow);
+
+      observer = new ResumableEventObserver() {
+        @Override
+        public void onEvent(@NonNull Event<?, ?> event) {
+          // blacklist events are applied right away as the local copy would otherwise be replaced
+          // with an outdated version when a more recent copy is retrieved within the window
+          if (event.getType() == Event.Type.BLACKLIST) {
+            CacheSynchronizer.this.applySafely(event);
+          } else {
+            coalescing.onEvent(event);
+          }
+        }
+
+        @Override
+        public void onGap(@NonNull EventGap gap) {
+          coalescing.onGap(gap);
+        }
+      };
+    }
+
+    this.subscription = this.operations.subscribe(this.createFilter(), observer);
+  }
+
+  /**
+   * Creates a filter which restricts the event stream to the types of entries which are cached
+   * locally.
+   *
+   * @return a filter.
+   */
+  @NonNull
+  private EventFilter createFilter() {
+    EventFilter.Builder builder = EventFilter.builder();
+
+    if (this.idCache != null) {
+      builder.types(Event.Type.PROFILE_ID);
+    }
+    if (this.profileCache != null) {
+      builder.types(Event.Type.PROFILE);
+    }
+    if (this.blacklistCache != null) {
+      builder.types(Event.Type.BLACKLIST);
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Applies a single event to the respective cache while discarding the entries to which
+   * malformed events refer.
+   *
+   * @param event an event.
+   */
+  private void applySafely(@NonNull Event<?, ?> event) {
+    try {
+      this.apply(event);
+    } catch (IllegalArgumentException ex) {
+      // malformed payloads cannot be applied but the cached entry is outdated regardless
+      this.invalidate(EventKey.of(event));
+    }
+  }
+
+  /**
+   * Applies a single event to the respective cache.
+   *
+   * @param event an event.
+   */
+  public void apply(@NonNull Event<?, ?> event) {
+    switch (event.getType()) {
+      case PROFILE_ID:
+        if (this.idCache != null) {
+          ProfileId id = (ProfileId) event.getValue();
+
+          if (this.prefill || this.idCache.contains(id.getName())) {
+            this.idCache.invalidate(id.getName());
+            this.idCache.put(id);
+          }
+        }
+        break;
+      case PROFILE:
+        if (this.profileCache != null) {
+          Profile profile = (Profile) event.getValue();
+
+          if (this.prefill || this.profileCache.contains(profile.getId())) {
+            this.profileCache.put(profile);
+          }
+        }
+        break;
+      case BLACKLIST:
+        if (this.blacklistCache != null) {
+          // events are passed in stream order and thus always carry a more recent version than
+          // any preceding event - retrievals which are still in flight are derived from the copy
+          // which is replaced here and will thus be rejected by the cache once they complete
+          this.blacklistCache.update((Blacklist) event.getValue());
+        }
+        break;
+      default:
+        // no local cache for this type of entry
+        break;
+    }
+  }
+
+  /**
+   * Removes the entries to which the events within a given gap refer from the synchronized
+   * caches.
+   *
+   * @param gap a gap.
+   */
+  private void invalidate(@NonNull EventGap gap) {
+    Optional<Set<EventKey>> keys = gap.getKeys();
+
+    // when the gap merely identifies the position of the missed events within the stream, they may
+    // refer to any cached entry and none of the entries is known to be unaffected
+    if (!keys.isPresent()) {
+      this.invalidateAll();
+      return;
+    }
+
+    keys.get().forEach(this::invalidate);
+  }
+
+  /**
+   * Removes the entries which are identified by a given key from the respective cache.
+   *
+   * @param key a key.
+   */
+  private void invalidate(@NonNull EventKey key) {
+    Object value = key.getKey();
+
+    switch (key.getType()) {
+      case PROFILE_ID:
+        if (this.idCache != null) {
+          if (value instanceof ProfileIdKey) {
+            this.idCache.invalidate(((ProfileIdKey) value).name());
+          } else {
+            this.idCache.invalidateAll();
+          }
+        }
+        break;
+      case PROFILE:
+        if (this.profileCache != null) {
+          if (value instanceof UUID) {
+            this.profileCache.invalidate((UUID) value);
+          } else {
+            this.profileCache.invalidateAll();
+          }
+        }
+        break;
+      default:
+        // the blacklist remains usable until the next update and other types are not cached
+        break;
+    }
+  }
+
+  /**
+   * Removes all entries from the synchronized caches.
+   */
+  private void invalidateAll() {
+    if (this.idCache != null) {
+      this.idCache.invalidateAll();
+    }
+    if (this.profileCache != null) {
+      this.profileCache.invalidateAll();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void close() {
+    this.closed = true;
+
+    ResumableEventSubscription subscription = this.subscription;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.profile.Profile;
+import io.github.dotstart.stockpile.entity.profile.ProfileProperty;
+import io.github.dotstart.stockpile.entity.profile.ProfileTextures;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Provides a memory bounded client side cache for complete profiles.</p>
+ *
+ * <p>Each entry is charged by its estimated heap footprint (which is dominated by the decoded
+ * property payloads) rather than by count. Once the total weight exceeds the configured limit, the
+ * least recently used profiles are evicted. Additionally, profiles may be expired after a fixed
+ * amount of time has passed since they were stored.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileCache {
+
+  /**
+   * Specifies the approximate amount of bytes occupied by an object header and its references.
+   */
+  private static final int OBJECT_OVERHEAD = 16;
+
+  /**
+   * Specifies the approximate amount of bytes occupied by a profile and its fixed size members
+   * (such as its identifier, property map and texture object).
+   */
+  private static final int PROFILE_OVERHEAD = 256;
+
+  /**
+   * Specifies the approximate amount of bytes occupied by a property and its map entry.
+   */
+  private static final int PROPERTY_OVERHEAD = 96;
+
+  private final Cache<UUID, Profile> cache;
+  private final long maximumWeight;
+  private final Duration expireAfterWrite;
+
+  public ProfileCache(long maximumWeight, @Nullable Duration expireAfterWrite) {
+    if (maximumWeight <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal maximum weight: Expected a positive value but got " + maximumWeight);
+    }
+
+    CacheBuilder<UUID, Profile> builder = CacheBuilder.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher((UUID id, Profile profile) -> estimateWeight(profile))
+        .recordStats();
+
+    if (expireAfterWrite != null) {
+      if (expireAfterWrite.isNegative() || expireAfterWrite.isZero()) {
+        throw new IllegalArgumentException(
+            "Illegal expiration: Expected a positive duration but got " + expireAfterWrite);
+      }
+
+      builder.expireAfterWrite(expireAfterWrite.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    this.cache = builder.build();
+    this.maximumWeight = maximumWeight;
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  /**
+   * Estimates the amount of heap memory occupied by a given profile.
+   *
+   * @param profile a profile.
+   * @return an estimated amount of bytes.
+   */
+  public static int estimateWeight(@NonNull Profile profile) {
+    long weight = PROFILE_OVERHEAD + estimateWeight(profile.getName());
+
+    for (ProfileProperty property : profile.getPropertyMap().values()) {
+      weight += PROPERTY_OVERHEAD
+          + estimateWeight(property.getName())
+          + OBJECT_OVERHEAD + property.getValueLength()
+          + estimateWeight(property.getSignature());
+    }
+
+    ProfileTextures textures = profile.getTextures();
+    weight += estimateWeight(textures.getProfileName());
+    weight += textures.getSkinUrl().map(ProfileCache::estimateWeight).orElse(0);
+    weight += textures.getCapeUrl().map(ProfileCache::estimateWeight).orElse(0);
+
+    return (int) Math.min(Integer.MAX_VALUE, weight);
+  }
+
+  /**
+   * Estimates the amount of heap memory occupied by a given string.
+   *
+   * @param value a string.
+   * @return an estimated amount of bytes.
+   */
+  private static int estimateWeight(@NonNull String value) {
+    return OBJECT_OVERHEAD * 2 + value.length() * 2;
+  }
+
+  /**
+   * Estimates the amount of heap memory occupied by a given URL (including its parsed
+   * components).
+   *
+   * @param url a URL.
+   * @return an estimated amount of bytes.
+   */
+  private static int estimateWeight(@NonNull URL url) {
+    return OBJECT_OVERHEAD * 4 + estimateWeight(url.toExternalForm()) * 2;
+  }
+
+  /**
+   * Retrieves a cached profile.
+   *
+   * @param id a profile identifier.
+   * @return a profile or, if no such profile is cached, an empty optional.
+   */
+  @NonNull
+  public Optional<Profile> get(@NonNull UUID id) {
+    return Optional.ofNullable(this.cache.getIfPresent(id));
+  }
+
+  /**
+   * Evaluates whether a profile is currently cached.
+   *
+   * @param id a profile identifier.
+   * @return true if cached, false otherwise.
+   */
+  public boolean contains(@NonNull UUID id) {
+    return this.cache.asMap().containsKey(id);
+  }
+
+  /**
+   * Stores a profile within the cache (replacing any previously cached version).
+   *
+   * @param profile a profile.
+   */
+  public void put(@NonNull Profile profile) {
+    this.cache.put(profile.getId(), profile);
+  }
+
+  /**
+   * Removes a profile from the cache.
+   *
+   * @param id a profile identifier.
+   */
+  public void invalidate(@NonNull UUID id) {
+    this.cache.invalidate(id);
+  }
+
+  /**
+   * Removes all profiles from the cache.
+   */
+  public void invalidateAll() {
+    this.cache.invalidateAll();
+  }
+
+  /**
+   * Retrieves the maximum total weight (in estimated bytes) of this cache.
+   *
+   * @return a weight.
+   */
+  public long getMaximumWeight() {
+    return this.maximumWeight;
+  }
+
+  /**
+   * Retrieves the duration after which stored profiles expire.
+   *
+   * @return a duration or, if profiles do not expire based on time, an empty optional.
+   */
+  @NonNull
+  public Optional<Duration> getExpireAfterWrite() {
+    return Optional.ofNullable(this.expireAfterWrite);
+  }
+
+  /**
+   * Retrieves the approximate amount of profiles within the cache.
+   *
+   * @return an amount of entries.
+   */
+  public long size() {
+    return this.cache.size();
+  }
+
+  /**
+   * Retrieves a snapshot of the statistics (such as hits and evictions) of this cache.
+   *
+   * @return a set of statistics.
+   */
+  @NonNull
+  public CacheStats stats() {
+    return this.cache.stats();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * <p>Provides a bounded client side cache for name to profile associations.</p>
+ *
+ * <p>Entries are keyed by their case insensitive display name and are only considered valid for as
+ * long as indicated by the server (e.g. until {@link ProfileId#getValidUntil()} has passed). Once
+ * the size limit has been reached, the least recently used entries are evicted.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileIdCache {
+
+  private final Cache<String, ProfileId> cache;
+
+  public ProfileIdCache(long maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal maximum size: Expected a positive value but got " + maximumSize);
+    }
+
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Normalizes a display name for use as a cache key.
+   *
+   * @param name a display name.
+   * @return a cache key.
+   */
+  @NonNull
+  private static String key(@NonNull String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Retrieves the association for a given name which is valid at the specified time.
+   *
+   * @param name a display name.
+   * @param at a timestamp.
+   * @return an association or, if no valid association is cached, an empty optional.
+   */
+  @NonNull
+  public Optional<ProfileId> get(@NonNull String name, @NonNull Instant at) {
+    String key = key(name);
+    ProfileId id = this.cache.getIfPresent(key);
+
+    if (id == null) {
+      return Optional.empty();
+    }
+    if (!id.isValid()) {
+      this.cache.invalidate(key);
+      return Optional.empty();
+    }
+    if (!id.isValid(at)) {
+      return Optional.empty();
+    }
+
+    return Optional.of(id);
+  }
+
+  /**
+   * Evaluates whether an association for a given name is currently cached (regardless of its
+   * validity).
+   *
+   * @param name a display name.
+   * @return true if cached, false otherwise.
+   */
+  public boolean contains(@NonNull String name) {
+    return this.cache.asMap().containsKey(key(name));
+  }
+
+  /**
+   * Stores an association within the cache (given that it is still valid at the current time).
+   *
+   * @param id an association.
+   */
+  public void put(@NonNull ProfileId id) {
+    if (!id.isValid()) {
+      return;
+    }
+
+    this.cache.put(key(id.getName()), id);
+  }
+
+  /**
+   * Removes the association for a given name from the cache.
+   *
+   * @param name a display name.
+   */
+  public void invalidate(@NonNull String name) {
+    this.cache.invalidate(key(name));
+  }
+
+  /**
+   * Removes all associations from the cache.
+   */
+  public void invalidateAll() {
+    this.cache.invalidateAll();
+  }
+
+  /**
+   * Retrieves the approximate amount of associations within the cache.
+   *
+   * @return an amount of entries.
+   */
+  public long size() {
+    return this.cache.size();
+  }
+
+  /**
+   * Retrieves a snapshot of the statistics (such as hits and evictions) of this cache.
+   *
+   * @return a set of statistics.
+   */
+  @NonNull
+  public CacheStats stats() {
+    return this.cache.stats();
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Limits the amount of concurrent calls based on the observed latency.</p>
+ *
+ * <p>The limit is increased by one call for every limit's worth of successful calls (additive
+ * increase) and is reduced by a fixed fraction whenever a call indicates an overloaded server
+ * (multiplicative decrease). Calls are considered to indicate overload when they fail due to an
+ * unavailable or exhausted server, exceed their deadline or take longer than the configured
+ * multiple of the lowest recently observed latency of their method.</p>
+ *
+ * <p>The limit is reduced at most once per round trip: Calls which have been passed to the server
+ * before the most recent reduction are expected to be affected by the same overload and are thus
+ * not permitted to reduce the limit again.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class AdaptiveConcurrencyLimiter implements Limiter {
+
+  /**
+   * Specifies the multiple of the lowest recently observed latency after which a call is
+   * considered to indicate overload by default.
+   */
+  public static final double DEFAULT_TOLERANCE = 2;
+
+  /**
+   * Specifies the factor by which the limit is reduced upon overload.
+   */
+  private static final double BACKOFF_RATIO = 0.9;
+
+  /**
+   * Specifies the amount of calls after which the lowest observed latency is re-evaluated.
+   */
+  private static final int LATENCY_WINDOW = 500;
+
+  private final int minimumLimit;
+  private final int maximumLimit;
+  private final double tolerance;
+  private final Map<String, LatencyWindow> windows = new HashMap<>();
+  private double limit;
+  private int inFlight;
+  private long lastDecrease = System.nanoTime();
+
+  /**
+   * @param initialLimit an initial amount of concurrent calls.
+   * @param minimumLimit a lower bound for the amount of concurrent calls.
+   * @param maximumLimit an upper bound for the amount of concurrent calls.
+   * @param tolerance a multiple of the lowest recently observed latency after which calls are
+   * considered to indicate overload.
+   */
+  public AdaptiveConcurrencyLimiter(
+      int initialLimit,
+      int minimumLimit,
+      int maximumLimit,
+      double tolerance) {
+    if (minimumLimit <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal minimum limit: Expected a positive value but got " + minimumLimit);
+    }
+    if (maximumLimit < minimumLimit) {
+      throw new IllegalArgumentException(
+          "Illegal maximum limit: Expected a value of at least " + minimumLimit + " but got "
+              + maximumLimit);
+    }
+    if (initialLimit < minimumLimit || initialLimit > maximumLimit) {
+      throw new IllegalArgumentException(
+          "Illegal initial limit: Expected a value between " + minimumLimit + " and "
+              + maximumLimit + " but got " + initialLimit);
+    }
+    if (tolerance <= 1) {
+      throw new IllegalArgumentException(
+          "Illegal tolerance: Expected a value greater than 1 but got " + tolerance);
+    }
+
+    this.minimumLimit = minimumLimit;
+    this.maximumLimit = maximumLimit;
+    this.tolerance = tolerance;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Nullable
+  @Override
+  public synchronized Permit tryAcquire(@NonNull MethodDescriptor<?, ?> method) {
+    if (this.inFlight >= (int) this.limit) {
+      return null;
+    }
+
+    this.inFlight++;
+
+    LatencyWindow window = this.windows
+        .computeIfAbsent(method.getFullMethodName(), (m) -> new LatencyWindow());
+    long startTime = System.nanoTime();
+    return (status, latency) -> this.release(window, startTime, status, latency);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized long getRefillDelay(@NonNull MethodDescriptor<?, ?> method) {
+    return this.inFlight < (int) this.limit ? 0 : -1;
+  }
+
+  /**
+   * Adjusts the limit based on the outcome of a call.
+   *
+   * @param window the latency window of the called method.
+   * @param startTime the time at which the call has been permitted.
+   * @param status a call status or null if the call has not been passed to the server.
+   * @param latency a call latency (in nanoseconds).
+   */
+  private synchronized void release(
+      @NonNull LatencyWindow window,
+      long startTime,
+      @Nullable Status status,
+      long latency) {
+    int inFlight = this.inFlight--;
+    if (status == null) {
+      return;
+    }
+
+    // every successful call contributes to the latency window (including those which are
+    // considered to indicate overload) as the minimum would otherwise never be permitted to rise
+    // once the server has become slower permanently
+    long minimum = window.minimum;
+    if (status.isOk()) {
+      window.record(latency);
+    }
+
+    if (isOverload(status)
+        || (status.isOk() && minimum != 0 && latency > this.tolerance * minimum)) {
+      // calls which have been in flight during the previous reduction are expected to be
+      // affected by the same overload and are thus not reported again
+      if (startTime - this.lastDecrease >= 0) {
+        this.limit = Math.max(this.minimumLimit, this.limit * BACKOFF_RATIO);
+        this.lastDecrease = System.nanoTime();
+      }
+      return;
+    }
+    if (!status.isOk()) {
+      return;
+    }
+
+    // the limit is only raised while it is actually being used (otherwise idle clients would
+    // accumulate an arbitrarily high limit)
+    if (inFlight * 2 >= this.limit) {
+      this.limit = Math.min(this.maximumLimit, this.limit + 1 / this.limit);
+    }
+  }
+
+  /**
+   * Retrieves the current amount of concurrent calls which are permitted.
+   *
+   * @return an amount of calls.
+   */
+  public synchronized int getLimit() {
+    return (int) this.limit;
+  }
+
+  /**
+   * Retrieves the amount of calls which are currently in flight.
+   *
+   * @return an amount of calls.
+   */
+  public synchronized int getInFlight() {
+    return this.inFlight;
+  }
+
+  /**
+   * Evaluates whether a given call status indicates an overloaded server.
+   *
+   * @param status a call status.
+   * @return true if overloaded, false otherwise.
+   */
+  private static boolean isOverload(@NonNull Status status) {
+    switch (status.getCode()) {
+      case UNAVAILABLE:
+      case RESOURCE_EXHAUSTED:
+      case DEADLINE_EXCEEDED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Tracks the lowest latency of a single method within a sliding window of calls (must be
+   * accessed while holding the limiter lock).
+   */
+  private static final class LatencyWindow {
+
+    private long minimum;
+    private long windowMinimum = Long.MAX_VALUE;
+    private int samples;
+
+    /**
+     * Records the latency of a successful call.
+     *
+     * @param latency a call latency (in nanoseconds).
+     */
+    private void record(long latency) {
+      if (this.minimum == 0 || latency < this.minimum) {
+        this.minimum = latency;
+      }
+
+      this.windowMinimum = Math.min(this.windowMinimum, latency);
+      if (++this.samples >= LATENCY_WINDOW) {
+        // permit the minimum to rise again when the server (or the network path) becomes slower
+        // permanently
+        this.minimum = this.windowMinimum;
+        this.windowMinimum = Long.MAX_VALUE;
+        this.samples = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Empty;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.rpc.System.Status;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Distributes calls across multiple servers.</p>
+ *
+ * <p>Each call is assigned to one of two randomly chosen servers (whichever is expected to respond
+ * sooner based on its observed latency and its amount of outstanding calls). This keeps the load
+ * even across all servers while quickly shifting load away from servers which slow down.</p>
+ *
+ * <p>Servers which repeatedly fail calls with a status which indicates an unhealthy server (or
+ * repeatedly fail a periodic health probe when probes are enabled) are ejected for an exponentially
+ * growing duration. The duration is reset once the server passes a health probe or completes a
+ * long enough run of successful calls. When all servers have been ejected, calls are distributed
+ * across all servers regardless of their health.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class BalancingChannel extends ManagedChannel {
+
+  /**
+   * Specifies the amount of consecutive failures after which a server is ejected by default.
+   */
+  public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+  /**
+   * Specifies the duration for which a server is ejected upon its first ejection by default.
+   */
+  public static final Duration DEFAULT_EJECTION_TIME = Duration.ofSeconds(10);
+
+  /**
+   * Specifies the maximum duration for which a server is ejected.
+   */
+  private static final long MAXIMUM_EJECTION_TIME = TimeUnit.MINUTES.toNanos(5);
+
+  /**
+   * Specifies the amount of consecutive successful calls after which the ejection duration of a
+   * server is reset.
+   */
+  private static final int RECOVERY_THRESHOLD = 100;
+
+  /**
+   * Specifies the weight of new samples within the moving latency average.
+   */
+  private static final double LATENCY_DECAY = 0.3;
+
+  private final List<Endpoint> endpoints;
+  private final int failureThreshold;
+  private final long ejectionTime;
+  private final ScheduledFuture<?> probe;
+
+  /**
+   * @param channels a list of channels (one for each server).
+   * @param scheduler an executor on which health probes are scheduled.
+   * @param probeInterval an interval at which servers are probed or null to rely on call
+   * failures exclusively.
+   * @param failureThreshold an amount of consecutive failures after which a server is ejected.
+   * @param ejectionTime a duration for which a server is ejected upon its first ejection.
+   */
+  public BalancingChannel(
+      @NonNull List<ManagedChannel> channels,
+      @NonNull ScheduledExecutorService scheduler,
+      @Nullable Duration probeInterval,
+      int failureThreshold,
+      @NonNull Duration ejectionTime) {
+    if (channels.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Illegal channel list: Expected at least one channel but got none");
+    }
+    if (probeInterval != null && (probeInterval.isNegative() || probeInterval.isZero())) {
+      throw new IllegalArgumentException(
+          "Illegal probe interval: Expected a positive duration but got " + probeInterval);
+    }
+    if (failureThreshold <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal failure threshold: Expected a positive value but got " + failureThreshold);
+    }
+    if (ejectionTime.isNegative() || ejectionTime.isZero()) {
+      throw new IllegalArgumentException(
+          "Illegal ejection time: Expected a positive duration but got " + ejectionTime);
+    }
+
+    List<Endpoint> endpoints = new ArrayList<>(channels.size());
+    channels.forEach((c) -> endpoints.add(new Endpoint(c)));
+
+    this.endpoints = Collections.unmodifiableList(endpoints);
+    this.failureThreshold = failureThreshold;
+    this.ejectionTime = ejectionTime.toNanos();
+
+    if (probeInterval != null) {
+      long interval = probeInterval.toMillis();
+      this.probe = scheduler
+          .scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+    } else {
+      this.probe = null;
+    }
+  }
+
+  /**
+   * Retrieves the list of servers to which calls are distributed.
+   *
+   * @return a list of servers.
+   */
+  @NonNull
+  public List<Endpoint> getEndpoints() {
+    return this.endpoints;
+  }
+
+  /**
+   * Selects the server which is to handle the next call.
+   *
+   * @return a server.
+   */
+  @NonNull
+  private Endpoint select() {
+    long now = System.nanoTime();
+    List<Endpoint> candidates = new ArrayList<>(this.endpoints.size());
+    for (Endpoint endpoint : this.endpoints) {
+      if (!endpoint.isEjected(now)) {
+        candidates.add(endpoint);
+      }
+    }
+
+    if (candidates.isEmpty()) {
+      // when all servers appear to be down, we'll keep trying all of them rather than failing
+      // calls outright
+      candidates = this.endpoints;
+    }
+    if (candidates.size() == 1) {
+      return candidates.get(0);
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first) {
+      ++second;
+    }
+
+    Endpoint a = candidates.get(first);
+    Endpoint b = candidates.get(second);
+    return a.getCost() <= b.getCost() ? a : b;
+  }
+
+  /**
+   * Probes the health of all servers.
+   */
+  private void probe() {
+    for (Endpoint endpoint : this.endpoints) {
+      Futures.addCallback(
+          SystemServiceGrpc.newFutureStub(endpoint.channel)
+              .withDeadlineAfter(5, TimeUnit.SECONDS)
+              .getStatus(Empty.getDefaultInstance()),
+          new FutureCallback<Status>() {
+            @Override
+            public void onSuccess(@Nullable Status result) {
+              endpoint.recover();
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+              endpoint.fail();
+            }
+          },
+          MoreExecutors.directExecutor()
+      );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> newCall(
+      MethodDescriptor<I, O> methodDescriptor,
+      CallOptions callOptions) {
+    Endpoint endpoint = this.select();
+    boolean unary = methodDescriptor.getType() == MethodType.UNARY;
+
+    return CallTracking.track(endpoint.channel.newCall(methodDescriptor, callOptions),
+        endpoint.outstanding,
+        (status, duration) -> endpoint.record(status, unary ? duration : -1));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String authority() {
+    return this.endpoints.get(0).channel.authority();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ManagedChannel shutdown() {
+    if (this.probe != null) {
+      this.probe.cancel(false);
+    }
+
+    this.endpoints.forEach((e) -> e.channel.shutdown());
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isShutdown() {
+    return this.endpoints.stream().allMatch((e) -> e.channel.isShutdown());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTerminated() {
+    return this.endpoints.stream().allMatch((e) -> e.channel.isTerminated());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ManagedChannel shutdownNow() {
+    if (this.probe != null) {
+      this.probe.cancel(false);
+    }
+
+    this.endpoints.forEach((e) -> e.channel.shutdownNow());
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    for (Endpoint endpoint : this.endpoints) {
+      long remaining = deadline - System.nanoTime();
+      if (!endpoint.channel.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Represents a single server along with its statistics.
+   */
+  public final class Endpoint {
+
+    private final ManagedChannel channel;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private int consecutiveFailures;
+    private int consecutiveSuccesses;
+    private int ejections;
+    private long ejectedUntil;
+    private double latency;
+
+    private Endpoint(@NonNull ManagedChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param status a call status.
+     * @param latency a latency (in nanoseconds) or a negative value if the latency is not to be
+     * recorded.
+     */
+    private synchronized void record(@NonNull io.grpc.Status status, long latency) {
+      if (isServerFailure(status)) {
+        this.fail();
+        return;
+      }
+
+      switch (status.getCode()) {
+        case CANCELLED:
+          // cancelled calls (such as hedges which lost the race) have been abandoned by the caller
+          // and their duration merely reflects when this happened
+          return;
+        case DEADLINE_EXCEEDED:
+          // deadlines are chosen by the caller and may be shorter than the server could possibly
+          // respond within - as such, the call does not count towards ejection but the server
+          // took at least this long to respond (which shifts load away from servers which stop
+          // responding when probes are disabled)
+          this.sample(latency);
+          return;
+        default:
+          break;
+      }
+
+      this.consecutiveFailures = 0;
+      if (this.ejections != 0 && ++this.consecutiveSuccesses >= RECOVERY_THRESHOLD) {
+        // servers which have been healthy for a while are no longer penalized for past failures
+        // (otherwise their ejection time would keep growing when probes are disabled)
+        this.ejections = 0;
+        this.consecutiveSuccesses = 0;
+      }
+      this.sample(latency);
+    }
+
+    /**
+     * Adds a latency sample to the moving average.
+     *
+     * @param latency a latency (in nanoseconds) or a negative value if the latency is not to be
+     * recorded.
+     */
+    private synchronized void sample(long latency) {
+      if (latency >= 0) {
+        this.latency = this.latency == 0 ? latency
+            : this.latency + LATENCY_DECAY * (latency - this.latency);
+      }
+    }
+
+    /**
+     * Records a failed call or health probe and ejects this server once the failure threshold has
+     * been reached.
+     */
+    private synchronized void fail() {
+      this.consecutiveSuccesses = 0;
+
+      if (++this.consecutiveFailures >= BalancingChannel.this.failureThreshold) {
+        this.eject();
+      }
+    }
+
+    /**
+     * Ejects this server for an exponentially growing duration.
+     */
+    private synchronized void eject() {
+      long duration = Math.min(MAXIMUM_EJECTION_TIME,
+          BalancingChannel.this.ejectionTime << Math.min(this.ejections, 16));
+
+      this.ejections++;
+      this.consecutiveFailures = 0;
+      this.ejectedUntil = System.nanoTime() + duration;
+    }
+
+    /**
+     * Re-admits this server after a successful health probe.
+     */
+    private synchronized void recover() {
+      this.consecutiveFailures = 0;
+      this.ejections = 0;
+      this.ejectedUntil = 0;
+    }
+
+    /**
+     * Evaluates whether this server is currently ejected.
+     *
+     * @param now the current value of {@link System#nanoTime()}.
+     * @return true if ejected, false otherwise.
+     */
+    private synchronized boolean isEjected(long now) {
+      return this.ejectedUntil != 0 && this.ejectedUntil - now > 0;
+    }
+
+    /**
+     * Estimates the relative cost of assigning another call to this server.
+     *
+     * @return a cost.
+     */
+    private synchronized double getCost() {
+      // servers which have not responded yet are assumed to be fast in order to sample them
+      // quickly
+      return Math.max(this.latency, 1) * (this.outstanding.get() + 1);
+    }
+
+    @NonNull
+    public String getAuthority() {
+      return this.channel.authority();
+    }
+
+    public int getOutstandingCalls() {
+      return this.outstanding.get();
+    }
+
+    /**
+     * Retrieves the moving average of the latency of unary calls to this server.
+     *
+     * @return a latency.
+     */
+    @NonNull
+    public synchronized Duration getLatency() {
+      return Duration.ofNanos((long) this.latency);
+    }
+
+    public boolean isEjected() {
+      return this.isEjected(System.nanoTime());
+    }
+  }
+
+  /**
+   * Evaluates whether a given call status indicates a problem with the server itself (rather than
+   * with the call).
+   *
+   * @param status a call status.
+   * @return true if unhealthy, false otherwise.
+   */
+  private static boolean isServerFailure(@NonNull io.grpc.Status status) {
+    switch (status.getCode()) {
+      case UNAVAILABLE:
+      case INTERNAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+/**
+ * <p>Provides a list of priorities which decide the order in which queued calls are passed to the
+ * server.</p>
+ *
+ * <p>Priorities are declared in descending order (calls of a priority are passed to the server
+ * before calls of any subsequent priority).</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ * @see LimitingInterceptor
+ */
+public enum CallPriority {
+
+  /**
+   * Identifies calls on which a user is actively waiting (such as logins).
+   */
+  INTERACTIVE,
+
+  /**
+   * Identifies all calls without an explicitly assigned priority.
+   */
+  NORMAL,
+
+  /**
+   * Identifies background calls which may be delayed in favor of all other calls (such as bulk
+   * lookups).
+   */
+  BATCH
+}
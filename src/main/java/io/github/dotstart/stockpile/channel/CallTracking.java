@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides utility methods which keep track of the calls in flight on a channel.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+final class CallTracking {
+
+  private CallTracking() {
+  }
+
+  /**
+   * Wraps a call in order to keep track of its lifetime.
+   *
+   * @param call a call.
+   * @param inFlight a counter which is incremented while the call is in flight.
+   * @param listener a listener which is notified when the call completes.
+   * @param <I> a request type.
+   * @param <O> a response type.
+   * @return a tracked call.
+   */
+  @NonNull
+  static <I, O> ClientCall<I, O> track(
+      @NonNull ClientCall<I, O> call,
+      @NonNull AtomicInteger inFlight,
+      @NonNull CompletionListener listener) {
+    return new SimpleForwardingClientCall<I, O>(call) {
+      @Override
+      public void start(Listener<O> responseListener, Metadata headers) {
+        long startedAt = System.nanoTime();
+        inFlight.incrementAndGet();
+
+        try {
+          super.start(new SimpleForwardingClientCallListener<O>(responseListener) {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+              inFlight.decrementAndGet();
+              listener.onCompleted(status, System.nanoTime() - startedAt);
+
+              super.onClose(status, trailers);
+            }
+          }, headers);
+        } catch (RuntimeException ex) {
+          inFlight.decrementAndGet();
+          throw ex;
+        }
+      }
+    };
+  }
+
+  /**
+   * Receives the outcome of tracked calls.
+   */
+  @FunctionalInterface
+  interface CompletionListener {
+
+    /**
+     * Handles the completion of a call.
+     *
+     * @param status a final call status.
+     * @param duration a call duration (in nanoseconds).
+     */
+    void onCompleted(@NonNull Status status, long duration);
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>Distributes calls across multiple connections to the same server.</p>
+ *
+ * <p>Since each connection is limited in the amount of concurrent streams and is served by a
+ * single event loop, spreading calls across multiple connections increases the throughput which
+ * may be achieved by a single client.</p>
+ *
+ * <p>Streaming calls (such as event subscriptions) are long lived and are thus passed to a
+ * dedicated connection in order to keep them from competing with unary calls.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ChannelPool extends ManagedChannel {
+
+  private final List<ManagedChannel> channels;
+  private final AtomicInteger[] inFlight;
+  private final ManagedChannel streamChannel;
+  private final Strategy strategy;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * @param factory a factory which constructs the pooled channels.
+   * @param size an amount of channels to which unary calls are distributed.
+   * @param strategy a strategy which selects the channel for each call.
+   */
+  public ChannelPool(
+      @NonNull Supplier<ManagedChannel> factory,
+      int size,
+      @NonNull Strategy strategy) {
+    if (size <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal pool size: Expected a positive value but got " + size);
+    }
+
+    this.channels = new ArrayList<>(size);
+    this.inFlight = new AtomicInteger[size];
+    try {
+      for (int i = 0; i < size; ++i) {
+        this.channels.add(factory.get());
+        this.inFlight[i] = new AtomicInteger();
+      }
+
+      this.streamChannel = factory.get();
+    } catch (RuntimeException ex) {
+      // channels which have been constructed already would otherwise keep their resources
+      this.channels.forEach(ManagedChannel::shutdownNow);
+      throw ex;
+    }
+    this.strategy = strategy;
+  }
+
+  /**
+   * Selects the index of the channel which is to handle the next unary call.
+   *
+   * @return a channel index.
+   */
+  private int select() {
+    if (this.strategy == Strategy.ROUND_ROBIN) {
+      return (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.channels.size();
+    }
+
+    // start at a rotating offset in order to spread calls evenly while the pool is idle
+    int offset = (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.channels.size();
+    int selected = offset;
+    int minimum = Integer.MAX_VALUE;
+
+    for (int i = 0; i < this.channels.size(); ++i) {
+      int index = (offset + i) % this.channels.size();
+      int calls = this.inFlight[index].get();
+
+      if (calls < minimum) {
+        minimum = calls;
+        selected = index;
+      }
+    }
+
+    return selected;
+  }
+
+  /**
+   * Retrieves the amount of unary calls which are currently in flight on each channel.
+   *
+   * @return an array of call counts.
+   */
+  @NonNull
+  public int[] getInFlightCalls() {
+    int[] calls = new int[this.inFlight.length];
+    for (int i = 0; i < calls.length; ++i) {
+      calls[i] = this.inFlight[i].get();
+    }
+    return calls;
+  }
+
+  @NonNull
+  public Strategy getStrategy() {
+    return this.strategy;
+  }
+
+  /**
+   * Retrieves the amount of channels to which unary calls are distributed.
+   *
+   * @return an amount of channels.
+   */
+  public int getSize() {
+    return this.channels.size();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> newCall(
+      MethodDescriptor<I, O> methodDescriptor,
+      CallOptions callOptions) {
+    if (methodDescriptor.getType() != MethodType.UNARY) {
+      return this.streamChannel.newCall(methodDescriptor, callOptions);
+    }
+
+    int index = this.select();
+    return CallTracking.track(this.channels.get(index).newCall(methodDescriptor, callOptions),
+        this.inFlight[index], (status, duration) -> {
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String authority() {
+    return this.streamChannel.authority();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ManagedChannel shutdown() {
+    this.channels.forEach(ManagedChannel::shutdown);
+    this.streamChannel.shutdown();
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isShutdown() {
+    return this.streamChannel.isShutdown()
+        && this.channels.stream().allMatch(ManagedChannel::isShutdown);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTerminated() {
+    return this.streamChannel.isTerminated()
+        && this.channels.stream().allMatch(ManagedChannel::isTerminated);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ManagedChannel shutdownNow() {
+    this.channels.forEach(ManagedChannel::shutdownNow);
+    this.streamChannel.shutdownNow();
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    List<ManagedChannel> channels = new ArrayList<>(this.channels);
+    channels.add(this.streamChannel);
+
+    for (ManagedChannel channel : channels) {
+      long remaining = deadline - System.nanoTime();
+      if (!channel.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Provides a list of strategies which select the channel for each call.
+   */
+  public enum Strategy {
+
+    /**
+     * Passes calls to each channel in turn.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Passes calls to the channel with the least amount of calls in flight.
+     */
+    LEAST_IN_FLIGHT
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.grpc.MethodDescriptor;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Permits calls which are permitted by all of a set of limiters.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ * @see Limiter#all(Limiter...)
+ */
+final class CompositeLimiter implements Limiter {
+
+  private final List<Limiter> limiters;
+
+  CompositeLimiter(@NonNull List<Limiter> limiters) {
+    this.limiters = new ArrayList<>(limiters);
+
+    // rate limiters are consulted last since they would otherwise consume a token for every call
+    // which is subsequently denied by a concurrency limiter
+    this.limiters.sort(Comparator.comparing((l) -> l instanceof TokenBucketLimiter));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Nullable
+  @Override
+  public Permit tryAcquire(@NonNull MethodDescriptor<?, ?> method) {
+    List<Permit> permits = new ArrayList<>(this.limiters.size());
+
+    for (Limiter limiter : this.limiters) {
+      Permit permit = limiter.tryAcquire(method);
+
+      if (permit == null) {
+        // return the permits of all preceding limiters since the call will not be passed on
+        permits.forEach((p) -> p.release(null, 0));
+        return null;
+      }
+
+      permits.add(permit);
+    }
+
+    return (status, latency) -> permits.forEach((p) -> p.release(status, latency));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRefillDelay(@NonNull MethodDescriptor<?, ?> method) {
+    long delay = 0;
+    for (Limiter limiter : this.limiters) {
+      long limiterDelay = limiter.getRefillDelay(method);
+
+      // the call cannot be permitted before any outstanding call completes when a single limiter
+      // is only freed by completing calls
+      if (limiterDelay < 0) {
+        return -1;
+      }
+
+      delay = Math.max(delay, limiterDelay);
+    }
+    return delay;
+  }
+}
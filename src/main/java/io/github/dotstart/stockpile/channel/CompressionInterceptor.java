@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import com.google.common.collect.ImmutableMap;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+import java.util.Map;
+
+/**
+ * <p>Compresses the requests of selected methods.</p>
+ *
+ * <p>Compression is worth its CPU cost for methods which transmit large requests (such as bulk
+ * lookups) while it merely adds latency to small requests.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class CompressionInterceptor implements ClientInterceptor {
+
+  private final Map<String, String> compressors;
+
+  /**
+   * @param compressors a map of fully qualified method names and their respective compressor
+   * names (such as "gzip").
+   */
+  public CompressionInterceptor(@NonNull Map<String, String> compressors) {
+    this.compressors = ImmutableMap.copyOf(compressors);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> interceptCall(
+      MethodDescriptor<I, O> method,
+      CallOptions callOptions,
+      Channel next) {
+    String compressor = this.compressors.get(method.getFullMethodName());
+    if (compressor != null) {
+      callOptions = callOptions.withCompression(compressor);
+    }
+
+    return next.newCall(method, callOptions);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Applies default deadlines to calls which do not specify a deadline of their own.</p>
+ *
+ * <p>Methods may be assigned individual deadlines. All remaining unary calls are assigned the
+ * default deadline (if any) while streaming calls (such as event subscriptions) are left
+ * unrestricted.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class DeadlineInterceptor implements ClientInterceptor {
+
+  private final Map<String, Long> deadlines;
+  private final long defaultDeadline;
+
+  /**
+   * @param deadlines a map of fully qualified method names and their respective deadlines.
+   * @param defaultDeadline a deadline for all remaining unary calls or null to leave them
+   * unrestricted.
+   */
+  public DeadlineInterceptor(
+      @NonNull Map<String, Duration> deadlines,
+      @Nullable Duration defaultDeadline) {
+    Map<String, Long> nanos = new HashMap<>();
+    deadlines.forEach((m, d) -> nanos.put(m, d.toNanos()));
+
+    this.deadlines = nanos;
+    this.defaultDeadline = defaultDeadline != null ? defaultDeadline.toNanos() : -1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> interceptCall(
+      MethodDescriptor<I, O> method,
+      CallOptions callOptions,
+      Channel next) {
+    if (callOptions.getDeadline() == null) {
+      Long deadline = this.deadlines.get(method.getFullMethodName());
+      if (deadline == null && this.defaultDeadline >= 0
+          && method.getType() == MethodType.UNARY) {
+        deadline = this.defaultDeadline;
+      }
+
+      if (deadline != null) {
+        callOptions = callOptions.withDeadlineAfter(deadline, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    return next.newCall(method, callOptions);
+  }
+}
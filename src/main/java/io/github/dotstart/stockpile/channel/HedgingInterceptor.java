@@ -0,0 +1,505 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Sends a second attempt for slow calls to idempotent methods and completes each call with
+ * whichever attempt responds first.</p>
+ *
+ * <p>The second attempt is sent once the first attempt has been outstanding for longer than the
+ * configured percentile of the recently observed latencies of its method (or the minimum delay,
+ * whichever is longer). When used on top of a {@link BalancingChannel}, the second attempt is
+ * typically passed to a different server. Since only the slowest calls are hedged, the additional
+ * load on the server roughly equals the remaining fraction of calls.</p>
+ *
+ * <p>Calls are not hedged until enough latencies have been observed for their method. Latencies
+ * are measured from the submission of the first attempt to the server until the call completes
+ * (regardless of which attempt completes it). When used on top of a {@link LimitingInterceptor},
+ * the time which the first attempt spends in the client side queue is excluded and no second
+ * attempt is sent until the first attempt has left the queue.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class HedgingInterceptor implements ClientInterceptor {
+
+  /**
+   * Specifies the latency percentile after which a second attempt is sent by default.
+   */
+  public static final double DEFAULT_PERCENTILE = 0.95;
+
+  /**
+   * Specifies the amount of latencies which are retained for each method.
+   */
+  private static final int WINDOW_SIZE = 256;
+
+  /**
+   * Specifies the amount of latencies which have to be observed before calls are hedged.
+   */
+  private static final int WARMUP_SIZE = 32;
+
+  /**
+   * Specifies the amount of latencies after which the hedging delay is re-evaluated.
+   */
+  private static final int UPDATE_INTERVAL = 16;
+
+  private final Map<String, LatencyWindow> windows;
+  private final ScheduledExecutorService scheduler;
+  private final long minimumDelay;
+  private final double percentile;
+  private final AtomicLong hedgedCalls = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
+  /**
+   * @param methods a collection of idempotent methods which may be hedged.
+   * @param scheduler an executor on which second attempts are scheduled.
+   * @param minimumDelay a minimum delay before a second attempt is sent.
+   * @param percentile a latency percentile (between zero and one exclusively) after which a
+   * second attempt is sent.
+   */
+  public HedgingInterceptor(
+      @NonNull Collection<MethodDescriptor<?, ?>> methods,
+      @NonNull ScheduledExecutorService scheduler,
+      @NonNull Duration minimumDelay,
+      double percentile) {
+    if (minimumDelay.isNegative()) {
+      throw new IllegalArgumentException(
+          "Illegal minimum delay: Expected a positive duration or zero but got " + minimumDelay);
+    }
+    if (percentile <= 0 || percentile >= 1) {
+      throw new IllegalArgumentException(
+          "Illegal percentile: Expected a value between 0 and 1 but got " + percentile);
+    }
+
+    Map<String, LatencyWindow> windows = new HashMap<>();
+    methods.forEach((m) -> windows.put(m.getFullMethodName(), new LatencyWindow()));
+
+    this.windows = windows;
+    this.scheduler = scheduler;
+    this.minimumDelay = minimumDelay.toNanos();
+    this.percentile = percentile;
+  }
+
+  /**
+   * Retrieves the delay after which a second attempt is sent for a given method.
+   *
+   * @param method a method.
+   * @return a delay or null if the method is not hedged (or not enough latencies have been
+   * observed yet).
+   */
+  @Nullable
+  public Duration getDelay(@NonNull MethodDescriptor<?, ?> method) {
+    LatencyWindow window = this.windows.get(method.getFullMethodName());
+    if (window == null) {
+      return null;
+    }
+
+    long delay = window.getDelay();
+    return delay < 0 ? null : Duration.ofNanos(delay);
+  }
+
+  /**
+   * Retrieves the total amount of calls for which a second attempt has been sent.
+   *
+   * @return an amount of calls.
+   */
+  public long getHedgedCallCount() {
+    return this.hedgedCalls.get();
+  }
+
+  /**
+   * Retrieves the total amount of calls which have been completed by their second attempt.
+   *
+   * @return an amount of calls.
+   */
+  public long getHedgeWinCount() {
+    return this.hedgeWins.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> interceptCall(
+      MethodDescriptor<I, O> method,
+      CallOptions callOptions,
+      Channel next) {
+    LatencyWindow window = this.windows.get(method.getFullMethodName());
+    if (window == null || method.getType() != MethodType.UNARY) {
+      return next.newCall(method, callOptions);
+    }
+
+    return new HedgedCall<>(method, callOptions, next, window);
+  }
+
+  /**
+   * Retains the most recently observed latencies of a single method.
+   */
+  private final class LatencyWindow {
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int index;
+    private long count;
+    private volatile long delay = -1;
+
+    /**
+     * Records the latency of a successful attempt.
+     *
+     * @param latency a latency (in nanoseconds).
+     */
+    private synchronized void record(long latency) {
+      this.samples[this.index] = latency;
+      this.index = (this.index + 1) % this.samples.length;
+      this.count++;
+
+      if (this.count >= WARMUP_SIZE && this.count % UPDATE_INTERVAL == 0) {
+        int size = (int) Math.min(this.count, this.samples.length);
+        long[] sorted = Arrays.copyOf(this.samples, size);
+        Arrays.sort(sorted);
+
+        long threshold = sorted[(int) (HedgingInterceptor.this.percentile * (sorted.length - 1))];
+        this.delay = Math.max(HedgingInterceptor.this.minimumDelay, threshold);
+      }
+    }
+
+    /**
+     * Retrieves the delay after which a second attempt is sent.
+     *
+     * @return a delay (in nanoseconds) or a negative value if calls are not hedged yet.
+     */
+    private long getDelay() {
+      return this.delay;
+    }
+  }
+
+  /**
+   * Represents a unary call which is passed to the server in up to two attempts.
+   *
+   * @param <I> the request type.
+   * @param <O> the response type.
+   */
+  private final class HedgedCall<I, O> extends ClientCall<I, O> {
+
+    private final MethodDescriptor<I, O> method;
+    private final CallOptions callOptions;
+    private final Channel channel;
+    private final LatencyWindow window;
+
+    private final List<Attempt> running = new ArrayList<>(2);
+    private Attempt primary;
+    private Listener<O> listener;
+    private Metadata headers;
+    private I message;
+    private int attempts;
+    private ScheduledFuture<?> hedge;
+    private Attempt committed;
+    private boolean cancelled;
+
+    private HedgedCall(
+        @NonNull MethodDescriptor<I, O> method,
+        @NonNull CallOptions callOptions,
+        @NonNull Channel channel,
+        @NonNull LatencyWindow window) {
+      this.method = method;
+      this.callOptions = callOptions;
+      this.channel = channel;
+      this.window = window;
+    }
+
+    /**
+     * Sends a new attempt unless the call has been completed already.
+     */
+    private synchronized void startAttempt() {
+      if (this.committed != null || this.cancelled) {
+        return;
+      }
+
+      boolean hedge = ++this.attempts > 1;
+      if (hedge) {
+        HedgingInterceptor.this.hedgedCalls.incrementAndGet();
+      }
+
+      Attempt attempt = new Attempt(hedge);
+      if (!hedge) {
+        this.primary = attempt;
+      }
+
+      this.running.add(attempt);
+      attempt.start();
+    }
+
+    /**
+     * Schedules a second attempt once the first attempt has been passed to the server.
+     */
+    private synchronized void scheduleHedge() {
+      if (this.committed != null || this.cancelled || this.hedge != null) {
+        return;
+      }
+
+      long delay = this.window.getDelay();
+      if (delay < 0) {
+        return;
+      }
+
+      try {
+        this.hedge = HedgingInterceptor.this.scheduler
+            .schedule(this::startAttempt, delay, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ignore) {
+        // the scheduler has been shut down - the call simply isn't hedged
+      }
+    }
+
+    /**
+     * Handles the completion of an attempt.
+     *
+     * @param attempt an attempt.
+     * @param status a call status.
+     * @param trailers a set of trailers.
+     */
+    private void complete(
+        @NonNull Attempt attempt,
+        @NonNull Status status,
+        @NonNull Metadata trailers) {
+      List<Attempt> losers;
+      Attempt primary;
+      synchronized (this) {
+        this.running.remove(attempt);
+
+        // failed attempts are only reported when no other attempt may still succeed
+        if (this.committed != null || (!status.isOk() && !this.running.isEmpty())) {
+          return;
+        }
+
+        this.committed = attempt;
+        if (this.hedge != null) {
+          this.hedge.cancel(false);
+        }
+
+        losers = new ArrayList<>(this.running);
+        this.running.clear();
+        primary = this.primary;
+      }
+
+      losers.forEach((a) -> a.call.cancel("Hedged call has been completed", null));
+
+      if (status.isOk()) {
+        // the latency of the call (rather than the winning attempt) is recorded since a hedge
+        // which wins would otherwise only contribute the remainder of the call latency
+        this.window.record(System.nanoTime() - primary.startTime);
+
+        if (attempt.hedge) {
+          HedgingInterceptor.this.hedgeWins.incrementAndGet();
+        }
+      }
+
+      if (attempt.headers != null) {
+        this.listener.onHeaders(attempt.headers);
+      }
+      if (attempt.message != null) {
+        this.listener.onMessage(attempt.message);
+      }
+      this.listener.onClose(status, trailers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Listener<O> responseListener, Metadata headers) {
+      this.listener = responseListener;
+      this.headers = headers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void request(int numMessages) {
+      // attempts request their single response themselves
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      List<Attempt> attempts;
+      synchronized (this) {
+        if (this.committed != null || this.cancelled) {
+          return;
+        }
+
+        this.cancelled = true;
+        if (this.hedge != null) {
+          this.hedge.cancel(false);
+        }
+
+        attempts = new ArrayList<>(this.running);
+      }
+
+      if (attempts.isEmpty()) {
+        if (this.listener != null) {
+          this.listener.onClose(
+              Status.CANCELLED.withDescription(message).withCause(cause), new Metadata());
+        }
+        return;
+      }
+
+      attempts.forEach((a) -> a.call.cancel(message, cause));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void halfClose() {
+      this.startAttempt();
+
+      Attempt primary;
+      synchronized (this) {
+        primary = this.primary;
+      }
+
+      // queued attempts schedule their hedge once they are passed to the server since a second
+      // attempt would otherwise only wait in the same queue
+      if (primary != null && !primary.queued) {
+        this.scheduleHedge();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(I message) {
+      this.message = message;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Attributes getAttributes() {
+      if (this.committed != null) {
+        return this.committed.call.getAttributes();
+      }
+
+      return this.running.isEmpty() ? Attributes.EMPTY : this.running.get(0).call.getAttributes();
+    }
+
+    /**
+     * Represents a single attempt of a hedged call.
+     */
+    private final class Attempt extends ClientCall.Listener<O> implements
+        LimitingInterceptor.QueueListener {
+
+      private final ClientCall<I, O> call;
+      private final boolean hedge;
+      private volatile long startTime;
+      private volatile boolean queued;
+      private Metadata headers;
+      private O message;
+
+      private Attempt(boolean hedge) {
+        this.hedge = hedge;
+        this.call = HedgedCall.this.channel.newCall(HedgedCall.this.method,
+            HedgedCall.this.callOptions.withOption(LimitingInterceptor.QUEUE_LISTENER, this));
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onQueued() {
+        this.queued = true;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onDispatched() {
+        this.startTime = System.nanoTime();
+
+        if (!this.hedge) {
+          HedgedCall.this.scheduleHedge();
+        }
+      }
+
+      /**
+       * Passes the buffered request to the server.
+       */
+      private void start() {
+        Metadata headers = new Metadata();
+        headers.merge(HedgedCall.this.headers);
+
+        this.startTime = System.nanoTime();
+        this.call.start(this, headers);
+        this.call.request(2);
+        this.call.sendMessage(HedgedCall.this.message);
+        this.call.halfClose();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onHeaders(Metadata headers) {
+        this.headers = headers;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onMessage(O message) {
+        this.message = message;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onClose(Status status, Metadata trailers) {
+        HedgedCall.this.complete(this, status, trailers);
+      }
+    }
+  }
+}
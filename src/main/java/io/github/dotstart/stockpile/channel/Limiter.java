@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.Arrays;
+
+/**
+ * <p>Decides whether a call may be passed to the server at the current time.</p>
+ *
+ * <p>Calls which are not permitted immediately are queued by the {@link LimitingInterceptor} and
+ * re-evaluated whenever a previously permitted call completes (or the delay reported by {@link
+ * #getRefillDelay(MethodDescriptor)} elapses).</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public interface Limiter {
+
+  /**
+   * Combines multiple limiters (a call is only permitted when all limiters permit it).
+   *
+   * @param limiters an array of limiters.
+   * @return a limiter.
+   */
+  @NonNull
+  static Limiter all(@NonNull Limiter... limiters) {
+    return new CompositeLimiter(Arrays.asList(limiters));
+  }
+
+  /**
+   * Creates a limiter which permits all calls.
+   *
+   * @return a limiter.
+   */
+  @NonNull
+  static Limiter unlimited() {
+    return (method) -> (status, latency) -> {
+    };
+  }
+
+  /**
+   * Attempts to acquire permission for a call.
+   *
+   * @param method the called method.
+   * @return a permit or null if the call may not be passed to the server at this time.
+   */
+  @Nullable
+  Permit tryAcquire(@NonNull MethodDescriptor<?, ?> method);
+
+  /**
+   * Retrieves the delay after which a call to the given method may be permitted regardless of
+   * whether any outstanding calls complete in the meantime.
+   *
+   * @param method the called method.
+   * @return a delay (in nanoseconds), zero if a call may be permitted immediately or a negative
+   * value if only completing calls free capacity.
+   */
+  default long getRefillDelay(@NonNull MethodDescriptor<?, ?> method) {
+    return -1;
+  }
+
+  /**
+   * Represents the permission to pass a single call to the server.
+   */
+  interface Permit {
+
+    /**
+     * Releases this permit once its call has completed.
+     *
+     * @param status the call status or null if the call has never been passed to the server.
+     * @param latency the call latency (in nanoseconds).
+     */
+    void release(@Nullable Status status, long latency);
+  }
+}
@@ -0,0 +1,696 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.channel.Limiter.Permit;
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Deadline;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Passes unary calls to the server only when permitted by a {@link Limiter}.</p>
+ *
+ * <p>Calls which are not permitted immediately are queued until they are permitted or their
+ * deadline expires. Each {@link CallPriority} is assigned a queue of its own. Queued calls are
+ * passed to the server in the order of their priority (and in the order of their submission
+ * within the same priority). When the queue is full, the most recently queued call of the lowest
+ * priority is rejected with {@link Status#RESOURCE_EXHAUSTED} without being passed to the server.
+ * Streaming calls are never limited.</p>
+ *
+ * <p>The priority of a method may be overridden for individual calls via the {@link #PRIORITY}
+ * call option (for instance, when a bulk method is used to serve interactive lookups).</p>
+ *
+ * <p>In addition, the amount of concurrent calls may be limited for each priority individually.
+ * This permits the reservation of capacity for calls of higher priorities since calls of lower
+ * priorities may never occupy the entire capacity of the limiter.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class LimitingInterceptor implements ClientInterceptor {
+
+  /**
+   * Overrides the priority which has been assigned to the method of a call.
+   */
+  public static final CallOptions.Key<CallPriority> PRIORITY = CallOptions.Key.create("priority");
+
+  /**
+   * Notifies a listener when a call is queued and when it is passed to the server after having
+   * been queued.
+   */
+  public static final CallOptions.Key<QueueListener> QUEUE_LISTENER =
+      CallOptions.Key.create("queueListener");
+
+  private final Limiter limiter;
+  private final ScheduledExecutorService scheduler;
+  private final int maximumQueueSize;
+  private final Map<String, CallPriority> priorities;
+  private final Map<CallPriority, Integer> concurrencyLimits;
+
+  private final Map<CallPriority, LinkedList<LimitedCall<?, ?>>> queues =
+      new EnumMap<>(CallPriority.class);
+  private final Map<CallPriority, Integer> inFlight = new EnumMap<>(CallPriority.class);
+  private int queueDepth;
+  private ScheduledFuture<?> refill;
+  private long rejected;
+  private long expired;
+  private boolean closed;
+
+  /**
+   * @param limiter a limiter which decides when calls are passed to the server.
+   * @param scheduler an executor on which queued calls are expired and re-evaluated.
+   * @param maximumQueueSize a maximum amount of queued calls or zero to reject all calls which
+   * are not permitted immediately.
+   */
+  public LimitingInterceptor(
+      @NonNull Limiter limiter,
+      @NonNull ScheduledExecutorService scheduler,
+      int maximumQueueSize) {
+    this(limiter, scheduler, maximumQueueSize, new HashMap<>(),
+        new EnumMap<>(CallPriority.class));
+  }
+
+  /**
+   * @param limiter a limiter which decides when calls are passed to the server.
+   * @param scheduler an executor on which queued calls are expired and re-evaluated.
+   * @param maximumQueueSize a maximum amount of queued calls or zero to reject all calls which
+   * are not permitted immediately.
+   * @param priorities a map of fully qualified method names and their respective priorities
+   * (methods without an assigned priority are called with {@link CallPriority#NORMAL}).
+   * @param concurrencyLimits a map of priorities and the maximum amount of concurrent calls of
+   * the respective priority.
+   */
+  public LimitingInterceptor(
+      @NonNull Limiter limiter,
+      @NonNull ScheduledExecutorService scheduler,
+      int maximumQueueSize,
+      @NonNull Map<String, CallPriority> priorities,
+      @NonNull Map<CallPriority, Integer> concurrencyLimits) {
+    if (maximumQueueSize < 0) {
+      throw new IllegalArgumentException(
+          "Illegal queue size: Expected a positive value or zero but got " + maximumQueueSize);
+    }
+    concurrencyLimits.forEach((p, l) -> {
+      if (l <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal concurrency limit: Expected a positive value but got " + l);
+      }
+    });
+
+    this.limiter = limiter;
+    this.scheduler = scheduler;
+    this.maximumQueueSize = maximumQueueSize;
+    this.priorities = new HashMap<>(priorities);
+    this.concurrencyLimits = new EnumMap<>(CallPriority.class);
+    this.concurrencyLimits.putAll(concurrencyLimits);
+
+    for (CallPriority priority : CallPriority.values()) {
+      this.queues.put(priority, new LinkedList<>());
+      this.inFlight.put(priority, 0);
+    }
+  }
+
+  @NonNull
+  public Limiter getLimiter() {
+    return this.limiter;
+  }
+
+  public int getMaximumQueueSize() {
+    return this.maximumQueueSize;
+  }
+
+  /**
+   * Retrieves the priority with which a given method is called.
+   *
+   * @param method a method.
+   * @return a priority.
+   */
+  @NonNull
+  public CallPriority getPriority(@NonNull MethodDescriptor<?, ?> method) {
+    return this.priorities.getOrDefault(method.getFullMethodName(), CallPriority.NORMAL);
+  }
+
+  /**
+   * Retrieves the amount of calls which are currently waiting to be passed to the server.
+   *
+   * @return an amount of calls.
+   */
+  public synchronized int getQueueDepth() {
+    return this.queueDepth;
+  }
+
+  /**
+   * Retrieves the amount of calls of a given priority which are currently waiting to be passed to
+   * the server.
+   *
+   * @param priority a priority.
+   * @return an amount of calls.
+   */
+  public synchronized int getQueueDepth(@NonNull CallPriority priority) {
+    return this.queues.get(priority).size();
+  }
+
+  /**
+   * Retrieves the amount of calls of a given priority which are currently in flight.
+   *
+   * @param priority a priority.
+   * @return an amount of calls.
+   */
+  public synchronized int getInFlight(@NonNull CallPriority priority) {
+    return this.inFlight.get(priority);
+  }
+
+  /**
+   * Retrieves the total amount of calls which have been rejected due to a full queue.
+   *
+   * @return an amount of calls.
+   */
+  public synchronized long getRejectedCount() {
+    return this.rejected;
+  }
+
+  /**
+   * Retrieves the total amount of calls which have exceeded their deadline while queued.
+   *
+   * @return an amount of calls.
+   */
+  public synchronized long getExpiredCount() {
+    return this.expired;
+  }
+
+  /**
+   * <p>Fails all queued calls with {@link Status#UNAVAILABLE} and rejects all subsequent calls
+   * which are not permitted immediately.</p>
+   *
+   * <p>This method is invoked before the scheduler is shut down since queued calls would
+   * otherwise never expire (and may never be passed to the server).</p>
+   */
+  public void close() {
+    List<LimitedCall<?, ?>> calls = new ArrayList<>();
+
+    synchronized (this) {
+      this.closed = true;
+
+      this.queues.values().forEach((q) -> {
+        calls.addAll(q);
+        q.clear();
+      });
+      this.queueDepth = 0;
+
+      if (this.refill != null) {
+        this.refill.cancel(false);
+        this.refill = null;
+      }
+    }
+
+    calls.forEach((c) -> {
+      if (c.expiration != null) {
+        c.expiration.cancel(false);
+      }
+
+      c.close(Status.UNAVAILABLE.withDescription("Client has been closed"));
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> interceptCall(
+      MethodDescriptor<I, O> method,
+      CallOptions callOptions,
+      Channel next) {
+    if (method.getType() != MethodType.UNARY) {
+      return next.newCall(method, callOptions);
+    }
+
+    CallPriority priority = callOptions.getOption(PRIORITY);
+    if (priority == null) {
+      priority = this.getPriority(method);
+    }
+
+    return new LimitedCall<>(method, priority, callOptions, next);
+  }
+
+  /**
+   * Passes a call to the server when permitted or queues it otherwise.
+   *
+   * @param call a call.
+   */
+  private void submit(@NonNull LimitedCall<?, ?> call) {
+    Permit permit = null;
+    LimitedCall<?, ?> rejection = null;
+    boolean closed = false;
+
+    synchronized (this) {
+      // calls may only bypass the queue while no other calls of the same or a higher priority
+      // are waiting
+      if (!this.hasQueuedCalls(call.priority)) {
+        permit = this.tryAcquire(call);
+      }
+
+      if (permit == null) {
+        if (this.closed) {
+          closed = true;
+        } else if (this.queueDepth < this.maximumQueueSize) {
+          this.enqueue(call);
+        } else {
+          LimitedCall<?, ?> victim = this.findVictim(call.priority);
+
+          if (victim != null) {
+            this.dequeue(victim);
+            this.enqueue(call);
+            rejection = victim;
+          } else {
+            rejection = call;
+          }
+
+          this.rejected++;
+        }
+      }
+    }
+
+    if (permit != null) {
+      call.begin(permit);
+    } else if (closed) {
+      call.close(Status.UNAVAILABLE.withDescription("Client has been closed"));
+    } else if (rejection != null) {
+      if (rejection.expiration != null) {
+        rejection.expiration.cancel(false);
+      }
+
+      rejection.close(Status.RESOURCE_EXHAUSTED
+          .withDescription("Client side call limit has been exceeded"));
+    }
+  }
+
+  /**
+   * Passes all queued calls which are permitted at this time to the server (in the order of their
+   * priority).
+   */
+  private void drain() {
+    List<LimitedCall<?, ?>> calls = new ArrayList<>();
+    List<Permit> permits = new ArrayList<>();
+
+    synchronized (this) {
+      this.refill = null;
+
+      for (CallPriority priority : CallPriority.values()) {
+        Iterator<LimitedCall<?, ?>> it = this.queues.get(priority).iterator();
+
+        while (it.hasNext()) {
+          LimitedCall<?, ?> call = it.next();
+          if (this.isSaturated(priority)) {
+            break;
+          }
+
+          Permit permit = this.tryAcquire(call);
+          if (permit != null) {
+            it.remove();
+            this.queueDepth--;
+
+            calls.add(call);
+            permits.add(permit);
+          } else {
+            this.scheduleRefill(call.method);
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < calls.size(); ++i) {
+      calls.get(i).begin(permits.get(i));
+    }
+  }
+
+  /**
+   * Evaluates whether calls of a given priority or any higher priority are currently queued.
+   *
+   * @param priority a priority.
+   * @return true if queued, false otherwise.
+   */
+  private boolean hasQueuedCalls(@NonNull CallPriority priority) {
+    for (CallPriority p : CallPriority.values()) {
+      if (!this.queues.get(p).isEmpty()) {
+        return true;
+      }
+      if (p == priority) {
+        break;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Evaluates whether the concurrency limit of a given priority has been reached.
+   *
+   * @param priority a priority.
+   * @return true if saturated, false otherwise.
+   */
+  private boolean isSaturated(@NonNull CallPriority priority) {
+    Integer limit = this.concurrencyLimits.get(priority);
+    return limit != null && this.inFlight.get(priority) >= limit;
+  }
+
+  /**
+   * Attempts to acquire a permit for a given call from its priority and the limiter.
+   *
+   * @param call a call.
+   * @return a permit or null if the call may not be passed to the server at this time.
+   */
+  @Nullable
+  private Permit tryAcquire(@NonNull LimitedCall<?, ?> call) {
+    if (this.isSaturated(call.priority)) {
+      return null;
+    }
+
+    Permit permit = this.limiter.tryAcquire(call.method);
+    if (permit == null) {
+      return null;
+    }
+
+    CallPriority priority = call.priority;
+    this.inFlight.merge(priority, 1, Integer::sum);
+
+    return (status, latency) -> {
+      synchronized (this) {
+        this.inFlight.merge(priority, -1, Integer::sum);
+      }
+
+      permit.release(status, latency);
+    };
+  }
+
+  /**
+   * Selects the queued call which is rejected in favor of a call of a given priority when the
+   * queue is full.
+   *
+   * @param priority a priority.
+   * @return the most recently queued call of the lowest priority below the given priority or
+   * null if no such call exists.
+   */
+  @Nullable
+  private LimitedCall<?, ?> findVictim(@NonNull CallPriority priority) {
+    CallPriority[] priorities = CallPriority.values();
+
+    for (int i = priorities.length - 1; i > priority.ordinal(); --i) {
+      LinkedList<LimitedCall<?, ?>> queue = this.queues.get(priorities[i]);
+      if (!queue.isEmpty()) {
+        return queue.getLast();
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Appends a call to the queue of its priority.
+   *
+   * @param call a call.
+   */
+  private void enqueue(@NonNull LimitedCall<?, ?> call) {
+    this.queues.get(call.priority).add(call);
+    this.queueDepth++;
+
+    call.queued = true;
+    if (call.queueListener != null) {
+      call.queueListener.onQueued();
+    }
+
+    call.scheduleExpiration();
+    this.scheduleRefill(call.method);
+  }
+
+  /**
+   * Schedules the re-evaluation of the queue once the limiter expects a call to the given method
+   * to be permitted (unless a sooner re-evaluation has been scheduled already).
+   *
+   * @param method a method.
+   */
+  private synchronized void scheduleRefill(@NonNull MethodDescriptor<?, ?> method) {
+    long delay = this.limiter.getRefillDelay(method);
+    if (delay < 0) {
+      return;
+    }
+
+    if (this.refill != null) {
+      if (this.refill.getDelay(TimeUnit.NANOSECONDS) <= delay) {
+        return;
+      }
+      this.refill.cancel(false);
+    }
+
+    this.refill = this.scheduler.schedule(this::drain, delay, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Removes a call from the queue.
+   *
+   * @param call a call.
+   * @return true if the call has been queued, false otherwise.
+   */
+  private synchronized boolean dequeue(@NonNull LimitedCall<?, ?> call) {
+    if (!this.queues.get(call.priority).remove(call)) {
+      return false;
+    }
+
+    this.queueDepth--;
+    return true;
+  }
+
+  /**
+   * Receives notifications about calls which are not permitted immediately.
+   *
+   * @see #QUEUE_LISTENER
+   */
+  public interface QueueListener {
+
+    /**
+     * Handles the queueing of a call.
+     *
+     * <p>This method is invoked while holding the interceptor lock and thus must neither block
+     * nor call into the interceptor.</p>
+     */
+    void onQueued();
+
+    /**
+     * Handles the submission of a previously queued call to the server.
+     */
+    void onDispatched();
+  }
+
+  /**
+   * Represents a unary call which is passed to the server once permitted.
+   *
+   * @param <I> the request type.
+   * @param <O> the response type.
+   */
+  private final class LimitedCall<I, O> extends ClientCall<I, O> {
+
+    private final MethodDescriptor<I, O> method;
+    private final CallPriority priority;
+    private final CallOptions callOptions;
+    private final Channel channel;
+    private final QueueListener queueListener;
+
+    private Listener<O> listener;
+    private Metadata headers;
+    private I message;
+    private int requested;
+    private ClientCall<I, O> call;
+    private ScheduledFuture<?> expiration;
+    private boolean cancelled;
+    private boolean queued;
+
+    private LimitedCall(
+        @NonNull MethodDescriptor<I, O> method,
+        @NonNull CallPriority priority,
+        @NonNull CallOptions callOptions,
+        @NonNull Channel channel) {
+      this.method = method;
+      this.priority = priority;
+      this.callOptions = callOptions;
+      this.channel = channel;
+      this.queueListener = callOptions.getOption(QUEUE_LISTENER);
+    }
+
+    /**
+     * Schedules the removal of this call from the queue once its deadline expires.
+     */
+    private void scheduleExpiration() {
+      Deadline deadline = this.callOptions.getDeadline();
+      if (deadline == null) {
+        return;
+      }
+
+      this.expiration = LimitingInterceptor.this.scheduler.schedule(() -> {
+        if (LimitingInterceptor.this.dequeue(this)) {
+          synchronized (LimitingInterceptor.this) {
+            LimitingInterceptor.this.expired++;
+          }
+
+          this.close(Status.DEADLINE_EXCEEDED
+              .withDescription("Deadline exceeded while waiting for the client side call limit"));
+        }
+      }, deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Passes this call to the server.
+     *
+     * @param permit a permit which is released once the call completes.
+     */
+    private void begin(@NonNull Permit permit) {
+      if (this.queued && this.queueListener != null) {
+        this.queueListener.onDispatched();
+      }
+
+      synchronized (this) {
+        if (this.expiration != null) {
+          this.expiration.cancel(false);
+        }
+
+        if (!this.cancelled) {
+          long startTime = System.nanoTime();
+
+          this.call = this.channel.newCall(this.method, this.callOptions);
+          this.call.start(new SimpleForwardingClientCallListener<O>(this.listener) {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+              permit.release(status, System.nanoTime() - startTime);
+              LimitingInterceptor.this.drain();
+
+              super.onClose(status, trailers);
+            }
+          }, this.headers);
+          this.call.request(Math.max(1, this.requested));
+          this.call.sendMessage(this.message);
+          this.call.halfClose();
+          return;
+        }
+      }
+
+      // the call has been cancelled while it was being removed from the queue
+      permit.release(null, 0);
+      LimitingInterceptor.this.drain();
+      this.close(Status.CANCELLED.withDescription("Call has been cancelled"));
+    }
+
+    /**
+     * Completes this call without passing it to the server.
+     *
+     * @param status a status.
+     */
+    private void close(@NonNull Status status) {
+      if (this.listener != null) {
+        this.listener.onClose(status, new Metadata());
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Listener<O> responseListener, Metadata headers) {
+      this.listener = responseListener;
+      this.headers = headers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void request(int numMessages) {
+      if (this.call != null) {
+        this.call.request(numMessages);
+        return;
+      }
+
+      this.requested += numMessages;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      ClientCall<I, O> call;
+      synchronized (this) {
+        if (this.cancelled) {
+          return;
+        }
+
+        this.cancelled = true;
+        call = this.call;
+      }
+
+      if (call != null) {
+        call.cancel(message, cause);
+      } else if (LimitingInterceptor.this.dequeue(this)) {
+        if (this.expiration != null) {
+          this.expiration.cancel(false);
+        }
+
+        this.close(Status.CANCELLED.withDescription(message).withCause(cause));
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void halfClose() {
+      LimitingInterceptor.this.submit(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(I message) {
+      this.message = message;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Attributes getAttributes() {
+      return this.call != null ? this.call.getAttributes() : Attributes.EMPTY;
+    }
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.utility.Backoff;
+import io.github.dotstart.stockpile.utility.RetryBudget;
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Retries calls to idempotent methods which fail due to a transient server or network
+ * problem.</p>
+ *
+ * <p>Retries are delayed using a jittered exponential backoff and are governed by a budget which
+ * is shared by all methods. Once the budget has been exhausted, failures are passed to the caller
+ * immediately. Retries are never scheduled past the deadline of their call.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class RetryInterceptor implements ClientInterceptor {
+
+  private final Set<String> methods;
+  private final ScheduledExecutorService scheduler;
+  private final int maximumRetries;
+  private final Backoff backoff;
+  private final RetryBudget budget;
+
+  private final Set<RetryingCall<?, ?>> pending = new HashSet<>();
+  private boolean closed;
+
+  /**
+   * @param methods a collection of idempotent methods which may be retried.
+   * @param scheduler an executor on which retries are scheduled.
+   * @param maximumRetries a maximum amount of retries per call.
+   * @param backoff a backoff which computes the delay before each retry.
+   * @param budget a budget which limits the total amount of retries.
+   */
+  public RetryInterceptor(
+      @NonNull Collection<MethodDescriptor<?, ?>> methods,
+      @NonNull ScheduledExecutorService scheduler,
+      int maximumRetries,
+      @NonNull Backoff backoff,
+      @NonNull RetryBudget budget) {
+    if (maximumRetries <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal amount of retries: Expected a positive value but got " + maximumRetries);
+    }
+
+    Set<String> names = new HashSet<>();
+    methods.forEach((m) -> names.add(m.getFullMethodName()));
+
+    this.methods = names;
+    this.scheduler = scheduler;
+    this.maximumRetries = maximumRetries;
+    this.backoff = backoff;
+    this.budget = budget;
+  }
+
+  @NonNull
+  public RetryBudget getBudget() {
+    return this.budget;
+  }
+
+  public int getMaximumRetries() {
+    return this.maximumRetries;
+  }
+
+  /**
+   * <p>Completes all calls which are currently waiting for a retry with the status of their most
+   * recent attempt and disables retries for all subsequent failures.</p>
+   *
+   * <p>This method is invoked before the scheduler is shut down since pending retries would
+   * otherwise never be performed (and their calls would never complete).</p>
+   */
+  public void close() {
+    List<RetryingCall<?, ?>> calls;
+    synchronized (this) {
+      this.closed = true;
+      calls = new ArrayList<>(this.pending);
+      this.pending.clear();
+    }
+
+    calls.forEach(RetryingCall::abort);
+  }
+
+  /**
+   * Evaluates whether a given call status indicates a transient problem which may be resolved by
+   * retrying the call.
+   *
+   * @param status a call status.
+   * @return true if retryable, false otherwise.
+   */
+  private static boolean isRetryable(@NonNull Status status) {
+    return status.getCode() == Status.Code.UNAVAILABLE;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I, O> ClientCall<I, O> interceptCall(
+      MethodDescriptor<I, O> method,
+      CallOptions callOptions,
+      Channel next) {
+    if (method.getType() != MethodType.UNARY
+        || !this.methods.contains(method.getFullMethodName())) {
+      return next.newCall(method, callOptions);
+    }
+
+    this.budget.deposit();
+    return new RetryingCall<>(method, callOptions, next);
+  }
+
+  /**
+   * Represents a unary call which is passed to the server until it succeeds, fails permanently or
+   * runs out of retries.
+   *
+   * @param <I> the request type.
+   * @param <O> the response type.
+   */
+  private final class RetryingCall<I, O> extends ClientCall<I, O> {
+
+    private final MethodDescriptor<I, O> method;
+    private final CallOptions callOptions;
+    private final Channel channel;
+
+    private Listener<O> listener;
+    private Metadata headers;
+    private I message;
+    private int retries;
+    private Attempt current;
+    private ScheduledFuture<?> retry;
+    private Attempt failed;
+    private boolean cancelled;
+    private boolean closed;
+
+    private RetryingCall(
+        @NonNull MethodDescriptor<I, O> method,
+        @NonNull CallOptions callOptions,
+        @NonNull Channel channel) {
+      this.method = method;
+      this.callOptions = callOptions;
+      this.channel = channel;
+    }
+
+    /**
+     * Sends a new attempt unless the call has been cancelled.
+     */
+    private synchronized void startAttempt() {
+      synchronized (RetryInterceptor.this) {
+        RetryInterceptor.this.pending.remove(this);
+      }
+
+      if (this.cancelled) {
+        return;
+      }
+
+      this.current = new Attempt(this.channel.newCall(this.method, this.callOptions));
+      this.current.start();
+    }
+
+    /**
+     * Handles the completion of an attempt.
+     *
+     * @param attempt an attempt.
+     * @param status a call status.
+     * @param trailers a set of trailers.
+     */
+    private void complete(
+        @NonNull Attempt attempt,
+        @NonNull Status status,
+        @NonNull Metadata trailers) {
+      synchronized (this) {
+        this.current = null;
+
+        if (!this.cancelled && isRetryable(status)
+            && this.retries < RetryInterceptor.this.maximumRetries
+            && this.scheduleRetry(attempt, status, trailers)) {
+          return;
+        }
+
+        this.closed = true;
+      }
+
+      this.deliver(attempt, status, trailers);
+    }
+
+    /**
+     * Schedules a retry of this call if permitted by its deadline and the retry budget (must be
+     * called while holding the lock of this call).
+     *
+     * @param attempt the failed attempt.
+     * @param status the status of the failed attempt.
+     * @param trailers the trailers of the failed attempt.
+     * @return true if a retry has been scheduled, false otherwise.
+     */
+    private boolean scheduleRetry(
+        @NonNull Attempt attempt,
+        @NonNull Status status,
+        @NonNull Metadata trailers) {
+      long delay = RetryInterceptor.this.backoff.getDelay(this.retries);
+      Deadline deadline = this.callOptions.getDeadline();
+
+      if (deadline != null && deadline.timeRemaining(TimeUnit.MILLISECONDS) <= delay) {
+        return false;
+      }
+
+      synchronized (RetryInterceptor.this) {
+        if (RetryInterceptor.this.closed || !RetryInterceptor.this.budget.tryWithdraw()) {
+          return false;
+        }
+
+        try {
+          this.retry = RetryInterceptor.this.scheduler
+              .schedule(this::startAttempt, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+          // the scheduler has been shut down - the failure is passed to the caller instead
+          return false;
+        }
+
+        RetryInterceptor.this.pending.add(this);
+      }
+
+      attempt.status = status;
+      attempt.trailers = trailers;
+
+      this.retries++;
+      this.failed = attempt;
+      return true;
+    }
+
+    /**
+     * Completes this call with the status of its most recent attempt if it is still waiting for a
+     * retry.
+     */
+    private void abort() {
+      Attempt attempt;
+      synchronized (this) {
+        if (this.cancelled || this.closed || this.current != null || !this.retry.cancel(false)) {
+          return;
+        }
+
+        this.closed = true;
+        attempt = this.failed;
+      }
+
+      this.deliver(attempt, attempt.status, attempt.trailers);
+    }
+
+    /**
+     * Passes the response of a given attempt to the caller.
+     *
+     * @param attempt an attempt.
+     * @param status a call status.
+     * @param trailers a set of trailers.
+     */
+    private void deliver(
+        @NonNull Attempt attempt,
+        @NonNull Status status,
+        @NonNull Metadata trailers) {
+      if (attempt.headers != null) {
+        this.listener.onHeaders(attempt.headers);
+      }
+      if (attempt.message != null) {
+        this.listener.onMessage(attempt.message);
+      }
+      this.listener.onClose(status, trailers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Listener<O> responseListener, Metadata headers) {
+      this.listener = responseListener;
+      this.headers = headers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void request(int numMessages) {
+      // attempts request their single response themselves
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      Attempt attempt;
+      synchronized (this) {
+        if (this.cancelled || this.closed) {
+          return;
+        }
+
+        this.cancelled = true;
+        attempt = this.current;
+        if (this.retry != null) {
+          this.retry.cancel(false);
+        }
+      }
+
+      synchronized (RetryInterceptor.this) {
+        RetryInterceptor.this.pending.remove(this);
+      }
+
+      if (attempt != null) {
+        attempt.call.cancel(message, cause);
+        return;
+      }
+
+      // when waiting for a retry, there is no attempt which could report the cancellation
+      if (this.listener != null) {
+        this.listener.onClose(
+            Status.CANCELLED.withDescription(message).withCause(cause), new Metadata());
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void halfClose() {
+      this.startAttempt();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(I message) {
+      this.message = message;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Attributes getAttributes() {
+      return this.current != null ? this.current.call.getAttributes() : Attributes.EMPTY;
+    }
+
+    /**
+     * Represents a single attempt of a retried call.
+     */
+    private final class Attempt extends ClientCall.Listener<O> {
+
+      private final ClientCall<I, O> call;
+      private Metadata headers;
+      private O message;
+      private Status status;
+      private Metadata trailers;
+
+      private Attempt(@NonNull ClientCall<I, O> call) {
+        this.call = call;
+      }
+
+      /**
+       * Passes the buffered request to the server.
+       */
+      private void start() {
+        Metadata headers = new Metadata();
+        headers.merge(RetryingCall.this.headers);
+
+        this.call.start(this, headers);
+        this.call.request(2);
+        this.call.sendMessage(RetryingCall.this.message);
+        this.call.halfClose();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onHeaders(Metadata headers) {
+        this.headers = headers;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onMessage(O message) {
+        this.message = message;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void onClose(Status status, Metadata trailers) {
+        RetryingCall.this.complete(this, status, trailers);
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.grpc.MethodDescriptor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Limits the rate at which individual methods are called.</p>
+ *
+ * <p>Each limited method is assigned a bucket which is refilled at a fixed rate up to its burst
+ * size. Each call consumes a single token. Methods without a bucket are not limited.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class TokenBucketLimiter implements Limiter {
+
+  private static final Permit PERMIT = (status, latency) -> {
+  };
+
+  private final Map<String, Bucket> buckets;
+
+  private TokenBucketLimiter(@NonNull Map<String, Bucket> buckets) {
+    this.buckets = buckets;
+  }
+
+  /**
+   * Creates a new empty builder.
+   *
+   * @return a builder.
+   */
+  @NonNull
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Nullable
+  @Override
+  public Permit tryAcquire(@NonNull MethodDescriptor<?, ?> method) {
+    Bucket bucket = this.buckets.get(method.getFullMethodName());
+    if (bucket == null) {
+      return PERMIT;
+    }
+    if (!bucket.tryConsume()) {
+      return null;
+    }
+
+    return (status, latency) -> {
+      // calls which are never passed to the server (for instance because another limiter has
+      // denied them) do not count towards the rate
+      if (status == null) {
+        bucket.refund();
+      }
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRefillDelay(@NonNull MethodDescriptor<?, ?> method) {
+    Bucket bucket = this.buckets.get(method.getFullMethodName());
+    return bucket != null ? bucket.getRefillDelay() : 0;
+  }
+
+  /**
+   * Retrieves the amount of calls to a given method which may currently be performed.
+   *
+   * @param method a method.
+   * @return an amount of calls or -1 if the method is not limited.
+   */
+  public int getAvailable(@NonNull MethodDescriptor<?, ?> method) {
+    Bucket bucket = this.buckets.get(method.getFullMethodName());
+    return bucket != null ? bucket.getAvailable() : -1;
+  }
+
+  /**
+   * Represents the tokens of a single method.
+   */
+  private static final class Bucket {
+
+    private final double rate;
+    private final int burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    private Bucket(double rate, int burst) {
+      this.rate = rate / TimeUnit.SECONDS.toNanos(1);
+      this.burst = burst;
+      this.tokens = burst;
+    }
+
+    /**
+     * Adds all tokens which have accumulated since the last refill.
+     */
+    private void refill() {
+      long now = System.nanoTime();
+      this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.rate);
+      this.lastRefill = now;
+    }
+
+    private synchronized boolean tryConsume() {
+      this.refill();
+
+      if (this.tokens < 1) {
+        return false;
+      }
+
+      this.tokens--;
+      return true;
+    }
+
+    private synchronized void refund() {
+      this.refill();
+      this.tokens = Math.min(this.burst, this.tokens + 1);
+    }
+
+    private synchronized long getRefillDelay() {
+      this.refill();
+      return this.tokens >= 1 ? 0 : (long) Math.ceil((1 - this.tokens) / this.rate);
+    }
+
+    private synchronized int getAvailable() {
+      this.refill();
+      return (int) this.tokens;
+    }
+  }
+
+  /**
+   * Provides a factory for token bucket limiters.
+   */
+  public static final class Builder {
+
+    private final Map<String, Double> rates = new HashMap<>();
+    private final Map<String, Integer> bursts = new HashMap<>();
+
+    private Builder() {
+    }
+
+    /**
+     * Constructs a new limiter using the current builder configuration.
+     *
+     * @return a limiter.
+     */
+    @NonNull
+    public TokenBucketLimiter build() {
+      Map<String, Bucket> buckets = new HashMap<>();
+      this.rates.forEach((m, r) -> buckets.put(m, new Bucket(r, this.bursts.get(m))));
+
+      return new TokenBucketLimiter(buckets);
+    }
+
+    /**
+     * Limits the rate at which a given method is called.
+     *
+     * @param method a method.
+     * @param callsPerSecond a maximum sustained amount of calls per second.
+     * @param burst a maximum amount of calls which may be performed in a single burst.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder limit(
+        @NonNull MethodDescriptor<?, ?> method,
+        double callsPerSecond,
+        int burst) {
+      if (callsPerSecond <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal rate: Expected a positive value but got " + callsPerSecond);
+      }
+      if (burst <= 0) {
+        throw new IllegalArgumentException(
+            "Illegal burst size: Expected a positive value but got " + burst);
+      }
+
+      this.rates.put(method.getFullMethodName(), callsPerSecond);
+      this.bursts.put(method.getFullMethodName(), burst);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Represents a set of network threads (along with their socket implementation) which may be
+ * shared between multiple clients.</p>
+ *
+ * <p>When requested, the native epoll transport is used on Linux (this requires the
+ * {@code netty-transport-native-epoll} artifact to be present on the class path). Otherwise, the
+ * portable NIO transport is used instead.</p>
+ *
+ * <p>Transports which are passed to a client are not shut down along with the client and thus have
+ * to be closed once all clients which share them have been closed.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class Transport implements AutoCloseable {
+
+  private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+
+  private final EventLoopGroup eventLoopGroup;
+  private final Class<? extends Channel> channelType;
+  private final boolean nativeTransport;
+
+  private Transport(
+      @NonNull EventLoopGroup eventLoopGroup,
+      @NonNull Class<? extends Channel> channelType,
+      boolean nativeTransport) {
+    this.eventLoopGroup = eventLoopGroup;
+    this.channelType = channelType;
+    this.nativeTransport = nativeTransport;
+  }
+
+  /**
+   * Creates a new transport.
+   *
+   * @param threads an amount of network threads or zero to select a default based on the amount
+   * of available processors.
+   * @param preferNative true if the native transport shall be used when available, false
+   * otherwise.
+   * @return a transport.
+   */
+  @NonNull
+  public static Transport create(int threads, boolean preferNative) {
+    if (threads < 0) {
+      throw new IllegalArgumentException(
+          "Illegal amount of threads: Expected a positive value or zero but got " + threads);
+    }
+
+    ThreadFactory factory = new DefaultThreadFactory("stockpile-transport", true);
+
+    if (preferNative && isNativeAvailable()) {
+      try {
+        EventLoopGroup group = (EventLoopGroup) Class
+            .forName(EPOLL_PACKAGE + "EpollEventLoopGroup")
+            .getConstructor(int.class, ThreadFactory.class)
+            .newInstance(threads, factory);
+        Class<? extends Channel> channelType = Class.forName(EPOLL_PACKAGE + "EpollSocketChannel")
+            .asSubclass(Channel.class);
+
+        return new Transport(group, channelType, true);
+      } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException
+          | IllegalAccessException | InvocationTargetException ignore) {
+        // fall back to the portable transport
+      }
+    }
+
+    return new Transport(new NioEventLoopGroup(threads, factory), NioSocketChannel.class, false);
+  }
+
+  /**
+   * Evaluates whether the native transport is available on this system.
+   *
+   * @return true if available, false otherwise.
+   */
+  public static boolean isNativeAvailable() {
+    try {
+      return (Boolean) Class.forName(EPOLL_PACKAGE + "Epoll")
+          .getMethod("isAvailable")
+          .invoke(null);
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+        | InvocationTargetException | LinkageError ex) {
+      return false;
+    }
+  }
+
+  @NonNull
+  public EventLoopGroup getEventLoopGroup() {
+    return this.eventLoopGroup;
+  }
+
+  @NonNull
+  public Class<? extends Channel> getChannelType() {
+    return this.channelType;
+  }
+
+  /**
+   * Evaluates whether this transport makes use of the native epoll implementation.
+   *
+   * @return true if native, false otherwise.
+   */
+  public boolean isNative() {
+    return this.nativeTransport;
+  }
+
+  /**
+   * <p>Shuts down the network threads of this transport and waits for them to terminate.</p>
+   *
+   * <p>When the calling thread is interrupted, the threads continue to shut down in the background
+   * and the interrupt flag of the calling thread is restored.</p>
+   */
+  @Override
+  public void close() {
+    try {
+      this.eventLoopGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -16,6 +16,7 @@
  */
 package io.github.dotstart.stockpile.entity.event;
 
+import com.google.protobuf.Any;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import io.github.dotstart.stockpile.entity.profile.NameChangeHistory;
@@ -33,8 +34,8 @@ import java.util.UUID;
 /**
  * <p>Represents a cache event.</p>
  *
- * <p>At the moment, cache events are limited to updates in which a cache entry is populated.
- * Specifically, we currently recognize the following entry types:</p>
+ * <p>At the moment, cache events are limited to updates in which a cache entry is populated or
+ * updated. Specifically, we currently recognize the following entry types:</p>
  *
  * <ul>
  * <li>ProfileId Assignments</li>
@@ -45,39 +46,60 @@ import java.util.UUID;
  *
  * <p>Note that events about purge requests are not passed at the moment.</p>
  *
+ * <p>When constructed from its RPC representation, the event payload is decoded lazily upon the
+ * first call to {@link #getValue()} (the result is retained for subsequent calls). As such,
+ * consumers which merely filter events based on their type or key will not pay for the conversion
+ * of payloads they discard. Note that malformed payloads are only reported at that point.</p>
+ *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
 public class Event<K, V> {
 
-  private static DynamicAnyRegistry KEY_REGISTRY = new DynamicAnyRegistry() {
+  private static final DynamicAnyRegistry KEY_REGISTRY = new DynamicAnyRegistry() {
     {
-      this.register("rpc.IdKey", Events.IdKey.class, (key) -> UUID.fromString(key.getId()));
-      this.register("rpc.ProfileIdKey", Events.ProfileIdKey.class, ProfileIdKey::new);
+      this.register("rpc.IdKey", Events.IdKey.parser(),
+          (Events.IdKey key) -> UUID.fromString(key.getId()));
+      this.register("rpc.ProfileIdKey", Events.ProfileIdKey.parser(), ProfileIdKey::new);
     }
   };
-  private static DynamicAnyRegistry VALUE_REGISTRY = new DynamicAnyRegistry() {
+  private static final DynamicAnyRegistry VALUE_REGISTRY = new DynamicAnyRegistry() {
     {
-      this.register("rpc.ProfileId", io.github.dotstart.stockpile.rpc.Profile.ProfileId.class,
+      this.register("rpc.ProfileId", io.github.dotstart.stockpile.rpc.Profile.ProfileId.parser(),
           ProfileId::new);
-      this.register("rpc.NameHistory", NameHistory.class, NameChangeHistory::new);
-      this.register("rpc.Profile", Common.Profile.class, Profile::new);
-      this.register("rpc.Blacklist", Server.Blacklist.class, Blacklist::new);
+      this.register("rpc.NameHistory", NameHistory.parser(), NameChangeHistory::new);
+      this.register("rpc.Profile", Common.Profile.parser(), Profile::new);
+      this.register("rpc.Blacklist", Server.Blacklist.parser(), Blacklist::new);
     }
   };
 
+  private static final Type[] TYPES = Type.values();
+  private static final Action[] ACTIONS = Action.values();
+
   private final Type type;
+  private final Action action;
   private final K key;
-  private final V value;
+  private final long sequence;
+  private final long previousSequence;
+  private volatile V value;
+  private Any encodedValue;
+
+  public Event(
+      @NonNull Type type,
+      @Nullable K key,
+      @NonNull V value) {
+    this(type, Action.POPULATED, key, value);
+  }
 
   public Event(
       @NonNull Type type,
+      @NonNull Action action,
       @Nullable K key,
       @NonNull V value) {
     Class<?> keyType = type.getKeyType();
-    if ((keyType == void.class && key != null) || !keyType.isInstance(key)) {
+    if (type.hasKey() ? !keyType.isInstance(key) : key != null) {
       throw new IllegalArgumentException(
           "Illegal key for event type " + type + ": Expected key of type " + keyType.getName()
-              + " but got " + key.getClass().getName());
+              + " but got " + (key == null ? "null" : key.getClass().getName()));
     }
     if (!type.getValueType().isInstance(value)) {
       throw new IllegalArgumentException(
@@ -86,26 +108,52 @@ public class Event<K, V> {
     }
 
     this.type = type;
+    this.action = action;
     this.key = key;
+    this.sequence = 0;
+    this.previousSequence = 0;
     this.value = value;
   }
 
   @SuppressWarnings("unchecked") // TODO: Not particularly happy with this concept
   public Event(@NonNull Events.Event rpc) {
-    this.type = Type.values()[rpc.getTypeValue()];
+    this.type = lookup(TYPES, rpc.getTypeValue(), "event type");
+    this.action = lookup(ACTIONS, rpc.getActionValue(), "event action");
     this.key = (K) (rpc.hasKey() ? KEY_REGISTRY.read(rpc.getKey()) : null);
-    this.value = (V) VALUE_REGISTRY.read(rpc.getObject());
+    this.sequence = rpc.getSequence();
+    this.previousSequence = rpc.getPreviousSequence();
+    this.encodedValue = rpc.getObject();
 
     if (this.key != null && !this.type.getKeyType().isInstance(this.key)) {
       throw new IllegalArgumentException(
           "Illegal event key: Expected object of type " + this.type.getKeyType().getName()
               + " but got " + this.key.getClass().getName());
     }
-    if (!this.type.getValueType().isInstance(this.value)) {
+  }
+
+  /**
+   * Resolves the constant which corresponds to a given wire value.
+   *
+   * @param constants an array of constants (in the order of their wire values).
+   * @param value a wire value.
+   * @param name a human readable name of the constant type.
+   * @param <E> the constant type.
+   * @return a constant.
+   * @throws IllegalArgumentException when the value is unknown (for instance, because it has been
+   * introduced by a newer version of the server).
+   */
+  @NonNull
+  private static <E extends Enum<E>> E lookup(
+      @NonNull E[] constants,
+      int value,
+      @NonNull String name) {
+    if (value < 0 || value >= constants.length) {
       throw new IllegalArgumentException(
-          "Illegal event payload: Expected object of type " + this.type.getValueType().getName()
-              + " but got " + this.value.getClass().getName());
+          "Illegal " + name + ": Expected a value between 0 and " + (constants.length - 1)
+              + " but got " + value);
     }
+
+    return constants[value];
   }
 
   @NonNull // type_url: "type.googleapis.com/rpc.ProfileIdKey"
@@ -113,13 +161,74 @@ public class Event<K, V> {
     return this.type;
   }
 
+  @NonNull
+  public Action getAction() {
+    return this.action;
+  }
+
   @Nullable
   public K getKey() {
     return this.key;
   }
 
+  /**
+   * Retrieves the position of this event within the server's event stream.
+   *
+   * @return a strictly increasing sequence number or zero if the server does not assign sequence
+   * numbers (or the event has been constructed locally).
+   */
+  public long getSequence() {
+    return this.sequence;
+  }
+
+  /**
+   * Retrieves the sequence number of the event which preceded this event within the server's
+   * (filtered) event stream.
+   *
+   * @return a sequence number or zero if unknown.
+   */
+  public long getPreviousSequence() {
+    return this.previousSequence;
+  }
+
+  /**
+   * Retrieves the event payload (decoding it if necessary).
+   *
+   * @return an event payload.
+   * @throws IllegalArgumentException when the encoded payload is malformed or does not match the
+   * event type.
+   */
   @NonNull
   public V getValue() {
+    V value = this.value;
+    if (value != null) {
+      return value;
+    }
+
+    return this.decodeValue();
+  }
+
+  /**
+   * Decodes the encoded event payload and retains the result.
+   *
+   * @return an event payload.
+   */
+  @NonNull
+  @SuppressWarnings("unchecked")
+  private synchronized V decodeValue() {
+    if (this.value != null) {
+      return this.value;
+    }
+
+    Object value = VALUE_REGISTRY.read(this.encodedValue);
+    if (!this.type.getValueType().isInstance(value)) {
+      throw new IllegalArgumentException(
+          "Illegal event payload: Expected object of type " + this.type.getValueType().getName()
+              + " but got " + value.getClass().getName());
+    }
+
+    this.value = (V) value;
+    this.encodedValue = null;
     return this.value;
   }
 
@@ -135,9 +244,25 @@ public class Event<K, V> {
       return false;
     }
     Event<?, ?> event = (Event<?, ?>) o;
-    return this.type == event.type &&
-        Objects.equals(this.key, event.key) &&
-        Objects.equals(this.value, event.value);
+    if (this.type != event.type ||
+        this.action != event.action ||
+        !Objects.equals(this.key, event.key)) {
+      return false;
+    }
+
+    // payloads are compared in their encoded form unless either event has been decoded already
+    Any encodedValue = this.getEncodedValue();
+    Any otherEncodedValue = event.getEncodedValue();
+    if (encodedValue != null && otherEncodedValue != null) {
+      return encodedValue.equals(otherEncodedValue);
+    }
+
+    try {
+      return Objects.equals(this.getValue(), event.getValue());
+    } catch (IllegalArgumentException ex) {
+      // malformed payloads are never equal to a valid payload
+      return false;
+    }
   }
 
   /**
@@ -145,7 +270,34 @@ public class Event<K, V> {
    */
   @Override
   public int hashCode() {
-    return Objects.hash(this.type, this.key, this.value);
+    // the payload is omitted since its hash cannot be computed without decoding it
+    return Objects.hash(this.type, this.action, this.key);
+  }
+
+  /**
+   * Retrieves the encoded event payload unless it has been decoded already.
+   *
+   * @return an encoded payload or null.
+   */
+  @Nullable
+  private synchronized Any getEncodedValue() {
+    return this.value == null ? this.encodedValue : null;
+  }
+
+  /**
+   * Provides a list of actions which may cause an event to be emitted.
+   */
+  public enum Action {
+
+    /**
+     * Indicates that a previously unknown entry has been placed within the cache.
+     */
+    POPULATED,
+
+    /**
+     * Indicates that an existing cache entry has been replaced with a more recent version.
+     */
+    UPDATED
   }
 
   /**
@@ -153,7 +305,7 @@ public class Event<K, V> {
    */
   public enum Type {
     PROFILE_ID(ProfileIdKey.class, ProfileId.class),
-    NAME_HISTORY(UUID.class, NameHistory.class),
+    NAME_HISTORY(UUID.class, NameChangeHistory.class),
     PROFILE(UUID.class, Profile.class),
     BLACKLIST(void.class, Blacklist.class);
 
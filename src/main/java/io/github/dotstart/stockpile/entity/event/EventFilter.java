@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.event;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>Restricts an event stream to a subset of events.</p>
+ *
+ * <p>Events are matched based on their type, their action and (optionally) the profile they refer
+ * to. Profile restrictions apply to profile related events only (e.g. profile, name history and
+ * profile Id events) while all other events (such as blacklist updates) are passed regardless of
+ * the configured set of profiles.</p>
+ *
+ * <p>Filters are evaluated by the server. As such, events which do not match the filter are
+ * typically not transmitted to the client. Servers which do not support filtering pass all events
+ * instead. In this case, filters are evaluated by the client and non-matching events are discarded
+ * after they have been received. When evaluated by the client, profile restrictions require the
+ * payload of profile Id events to be decoded.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class EventFilter {
+
+  private static final EventFilter ALL = new EventFilter(EnumSet.allOf(Event.Type.class),
+      EnumSet.allOf(Event.Action.class), Collections.emptySet());
+
+  private final Set<Event.Type> types;
+  private final Set<Event.Action> actions;
+  private final Set<UUID> profileIds;
+
+  private EventFilter(
+      @NonNull Set<Event.Type> types,
+      @NonNull Set<Event.Action> actions,
+      @NonNull Set<UUID> profileIds) {
+    this.types = Collections.unmodifiableSet(types);
+    this.actions = Collections.unmodifiableSet(actions);
+    this.profileIds = Collections.unmodifiableSet(profileIds);
+  }
+
+  /**
+   * Retrieves a filter which matches all events.
+   *
+   * @return a filter.
+   */
+  @NonNull
+  public static EventFilter all() {
+    return ALL;
+  }
+
+  /**
+   * Creates a new empty filter builder.
+   *
+   * @return a builder.
+   */
+  @NonNull
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Retrieves the set of event types which are matched by this filter.
+   *
+   * @return a set of types.
+   */
+  @NonNull
+  public Set<Event.Type> getTypes() {
+    return this.types;
+  }
+
+  /**
+   * Retrieves the set of event actions which are matched by this filter.
+   *
+   * @return a set of actions.
+   */
+  @NonNull
+  public Set<Event.Action> getActions() {
+    return this.actions;
+  }
+
+  /**
+   * Retrieves the set of profiles to which profile related events are restricted.
+   *
+   * @return a set of profile identifiers or, if profile related events are not restricted, an
+   * empty set.
+   */
+  @NonNull
+  public Set<UUID> getProfileIds() {
+    return this.profileIds;
+  }
+
+  /**
+   * Evaluates whether this filter matches all events.
+   *
+   * @return true if unrestricted, false otherwise.
+   */
+  public boolean isUnrestricted() {
+    return this.equals(ALL);
+  }
+
+  /**
+   * Evaluates whether a given event matches this filter.
+   *
+   * @param event an event.
+   * @return true if matched, false otherwise.
+   * @throws IllegalArgumentException when the event payload needs to be inspected and is
+   * malformed.
+   */
+  public boolean matches(@NonNull Event<?, ?> event) {
+    if (!this.types.contains(event.getType()) || !this.actions.contains(event.getAction())) {
+      return false;
+    }
+    if (this.profileIds.isEmpty()) {
+      return true;
+    }
+
+    switch (event.getType()) {
+      case PROFILE:
+      case NAME_HISTORY:
+        return this.profileIds.contains(event.getKey());
+      case PROFILE_ID:
+        // profile Id events are keyed by name and thus require their payload to be decoded
+        return this.profileIds.contains(((ProfileId) event.getValue()).getId());
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof EventFilter)) {
+      return false;
+    }
+    EventFilter filter = (EventFilter) o;
+    return Objects.equals(this.types, filter.types) &&
+        Objects.equals(this.actions, filter.actions) &&
+        Objects.equals(this.profileIds, filter.profileIds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.types, this.actions, this.profileIds);
+  }
+
+  /**
+   * <p>Provides a factory for event filters.</p>
+   *
+   * <p>Restrictions which are not configured match all events.</p>
+   */
+  public static final class Builder {
+
+    private final Set<Event.Type> types = EnumSet.noneOf(Event.Type.class);
+    private final Set<Event.Action> actions = EnumSet.noneOf(Event.Action.class);
+    private final Set<UUID> profileIds = new HashSet<>();
+
+    private Builder() {
+    }
+
+    /**
+     * Constructs a new filter using the current configuration of this builder.
+     *
+     * @return a filter.
+     */
+    @NonNull
+    public EventFilter build() {
+      return new EventFilter(
+          this.types.isEmpty() ? EnumSet.allOf(Event.Type.class) : EnumSet.copyOf(this.types),
+          this.actions.isEmpty() ? EnumSet.allOf(Event.Action.class)
+              : EnumSet.copyOf(this.actions),
+          new HashSet<>(this.profileIds)
+      );
+    }
+
+    /**
+     * Restricts the filter to the given event types.
+     *
+     * @param types a set of types.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder types(@NonNull Event.Type... types) {
+      this.types.addAll(Arrays.asList(types));
+      return this;
+    }
+
+    /**
+     * Restricts the filter to the given event actions.
+     *
+     * @param actions a set of actions.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder actions(@NonNull Event.Action... actions) {
+      this.actions.addAll(Arrays.asList(actions));
+      return this;
+    }
+
+    /**
+     * Restricts profile related events to the given profiles.
+     *
+     * @param profileIds a set of profile identifiers.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder profiles(@NonNull UUID... profileIds) {
+      return this.profiles(Arrays.asList(profileIds));
+    }
+
+    /**
+     * Restricts profile related events to the given profiles.
+     *
+     * @param profileIds a collection of profile identifiers.
+     * @return a reference to this builder.
+     */
+    @NonNull
+    public Builder profiles(@NonNull Collection<UUID> profileIds) {
+      this.profileIds.addAll(profileIds);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.event;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>Describes a range of events which have been missed by a subscriber (for instance, because
+ * they were emitted while the subscription was interrupted and the server was unable to replay
+ * them).</p>
+ *
+ * <p>When the server assigns sequence numbers to its events, the gap is bounded and identifies
+ * the exact range of missed sequence numbers. Otherwise, the gap is unbounded and subscribers have
+ * to assume that an arbitrary amount of events has been lost.</p>
+ *
+ * <p>When the missed events are known to the client (for instance, because they were discarded
+ * after their delivery), the gap additionally identifies the entries to which they refer. This
+ * permits subscribers to discard the state of the affected entries only. Otherwise, subscribers
+ * have to assume that the missed events may refer to any entry.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class EventGap {
+
+  private static final EventGap UNBOUNDED = new EventGap(0, 0, null);
+
+  private final long first;
+  private final long last;
+  private final Set<EventKey> keys;
+
+  private EventGap(long first, long last, @Nullable Set<EventKey> keys) {
+    this.first = first;
+    this.last = last;
+    this.keys = keys;
+  }
+
+  /**
+   * Creates a gap which covers the given (inclusive) range of sequence numbers.
+   *
+   * @param first the sequence number of the first missed event.
+   * @param last the sequence number of the last missed event.
+   * @return a bounded gap.
+   */
+  @NonNull
+  public static EventGap of(long first, long last) {
+    if (first <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal first sequence number: Expected a positive value but got " + first);
+    }
+    if (last < first) {
+      throw new IllegalArgumentException(
+          "Illegal last sequence number: Expected a value of at least " + first + " but got "
+              + last);
+    }
+
+    return new EventGap(first, last, null);
+  }
+
+  /**
+   * Creates a gap which covers a single missed event.
+   *
+   * @param event an event.
+   * @return a gap which refers to the entry of the passed event.
+   */
+  @NonNull
+  public static EventGap of(@NonNull Event<?, ?> event) {
+    return of(event.getSequence(), EventKey.of(event));
+  }
+
+  /**
+   * Creates a gap which covers a single missed event.
+   *
+   * @param sequence the sequence number of the event or zero if unknown.
+   * @param key the key of the entry to which the event refers.
+   * @return a gap which refers to the passed entry.
+   */
+  @NonNull
+  public static EventGap of(long sequence, @NonNull EventKey key) {
+    if (sequence < 0) {
+      throw new IllegalArgumentException(
+          "Illegal sequence number: Expected a positive value or zero but got " + sequence);
+    }
+
+    return new EventGap(sequence, sequence, Collections.singleton(key));
+  }
+
+  /**
+   * Retrieves a gap of unknown extent.
+   *
+   * @return an unbounded gap.
+   */
+  @NonNull
+  public static EventGap unbounded() {
+    return UNBOUNDED;
+  }
+
+  /**
+   * Evaluates whether the extent of this gap is known.
+   *
+   * @return true if bounded, false otherwise.
+   */
+  public boolean isBounded() {
+    return this.first != 0;
+  }
+
+  /**
+   * Retrieves the sequence number of the first missed event.
+   *
+   * @return a sequence number or zero if the gap is unbounded.
+   */
+  public long getFirst() {
+    return this.first;
+  }
+
+  /**
+   * Retrieves the sequence number of the last missed event.
+   *
+   * @return a sequence number or zero if the gap is unbounded.
+   */
+  public long getLast() {
+    return this.last;
+  }
+
+  /**
+   * Retrieves the keys of the entries to which the missed events refer.
+   *
+   * @return a set of keys or, if the missed events may refer to any entry, an empty optional.
+   * @see EventKey#of(Event.Type)
+   */
+  @NonNull
+  public Optional<Set<EventKey>> getKeys() {
+    return Optional.ofNullable(this.keys).map(Collections::unmodifiableSet);
+  }
+
+  /**
+   * Creates a gap which covers both this and the passed gap (as well as any sequence numbers in
+   * between).
+   *
+   * @param other a gap.
+   * @return a combined gap.
+   */
+  @NonNull
+  public EventGap union(@NonNull EventGap other) {
+    Set<EventKey> keys = null;
+    if (this.keys != null && other.keys != null) {
+      keys = new HashSet<>(this.keys);
+      keys.addAll(other.keys);
+    }
+
+    if (!this.isBounded() || !other.isBounded()) {
+      return keys == null ? UNBOUNDED : new EventGap(0, 0, keys);
+    }
+
+    return new EventGap(Math.min(this.first, other.first), Math.max(this.last, other.last), keys);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof EventGap)) {
+      return false;
+    }
+    EventGap gap = (EventGap) o;
+    return this.first == gap.first &&
+        this.last == gap.last &&
+        Objects.equals(this.keys, gap.keys);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.first, this.last, this.keys);
+  }
+}
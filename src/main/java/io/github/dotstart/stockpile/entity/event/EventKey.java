@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.event;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.Objects;
+
+/**
+ * <p>Identifies the cache entry to which an event refers.</p>
+ *
+ * <p>Two events share a key when they are of the same type and carry equal keys (or no key at
+ * all). As such, a more recent event supersedes all prior events with the same key.</p>
+ *
+ * <p>Keys without a value identify all entries of their type (or the sole entry of types which do
+ * not define keys).</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class EventKey {
+
+  private final Event.Type type;
+  private final Object key;
+
+  private EventKey(@NonNull Event.Type type, @Nullable Object key) {
+    this.type = type;
+    this.key = key;
+  }
+
+  /**
+   * Retrieves a key which identifies all entries of a given type.
+   *
+   * @param type an event type.
+   * @return a key.
+   */
+  @NonNull
+  public static EventKey of(@NonNull Event.Type type) {
+    return new EventKey(type, null);
+  }
+
+  /**
+   * Retrieves the key of a given event.
+   *
+   * @param event an event.
+   * @return a key.
+   */
+  @NonNull
+  public static EventKey of(@NonNull Event<?, ?> event) {
+    return new EventKey(event.getType(), event.getKey());
+  }
+
+  @NonNull
+  public Event.Type getType() {
+    return this.type;
+  }
+
+  @Nullable
+  public Object getKey() {
+    return this.key;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof EventKey)) {
+      return false;
+    }
+    EventKey eventKey = (EventKey) o;
+    return this.type == eventKey.type &&
+        Objects.equals(this.key, eventKey.key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.type, this.key);
+  }
+}
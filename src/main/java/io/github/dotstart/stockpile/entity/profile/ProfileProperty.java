@@ -58,6 +58,15 @@ public class ProfileProperty {
     return copy;
   }
 
+  /**
+   * Retrieves the length of the property value without copying it.
+   *
+   * @return an amount of bytes.
+   */
+  public int getValueLength() {
+    return this.value.length;
+  }
+
   @NonNull
   public String getSignature() {
     return this.signature;
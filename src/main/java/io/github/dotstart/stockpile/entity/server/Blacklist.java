@@ -16,19 +16,15 @@
  */
 package io.github.dotstart.stockpile.entity.server;
 
-import com.google.common.hash.Hashing;
-import com.google.common.net.InetAddresses;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
 import io.github.dotstart.stockpile.rpc.Server.BlacklistOrBuilder;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * <p>Represents a complete server blacklist.</p>
@@ -42,30 +38,82 @@ import java.util.stream.Collectors;
  * matching hash is found or the elements are exhausted. The same applies to IP addresses where this
  * schema is invoked in reverse: 10.100.200.1 -&gt; 10.100.200.* -&gt; 10.100.* -&gt; 10.*</p>
  *
+ * <p>Blacklists retrieved from servers which support conditional retrieval additionally carry an
+ * opaque version token which permits clients to only retrieve changes to the blacklist.</p>
+ *
+ * <p>Checks are performed using a pre-compiled {@link BlacklistMatcher} which does not allocate
+ * any objects on its check path.</p>
+ *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
 public class Blacklist {
 
-  private static final Pattern INET_SPLIT_PATTERN = Pattern.compile("\\.");
   private final Set<String> hashes;
+  private final String version;
+  private final BlacklistMatcher matcher;
 
   public Blacklist(@NonNull Collection<String> hashes) {
+    this(hashes, null);
+  }
+
+  public Blacklist(@NonNull Collection<String> hashes, @Nullable String version) {
     this.hashes = new HashSet<>(hashes);
+    this.version = version == null || version.isEmpty() ? null : version;
+    this.matcher = BlacklistMatcher.compile(this.hashes);
   }
 
   public Blacklist(@NonNull BlacklistOrBuilder rpc) {
-    this.hashes = new HashSet<>(rpc.getHashesList());
+    this(rpc.getHashesList(), rpc.getVersion());
+  }
+
+  /**
+   * Creates a new version of this blacklist by applying a set of changes.
+   *
+   * @param addedHashes a collection of hashes which have been added.
+   * @param removedHashes a collection of hashes which have been removed.
+   * @param version a new version token.
+   * @return an updated blacklist.
+   */
+  @NonNull
+  public Blacklist apply(
+      @NonNull Collection<String> addedHashes,
+      @NonNull Collection<String> removedHashes,
+      @Nullable String version) {
+    Set<String> hashes = new HashSet<>(this.hashes);
+    hashes.removeAll(removedHashes);
+    hashes.addAll(addedHashes);
+
+    return new Blacklist(hashes, version);
+  }
+
+  /**
+   * Retrieves the set of hashes within this blacklist.
+   *
+   * @return a set of hex encoded sha1 hashes.
+   */
+  @NonNull
+  public Set<String> getHashes() {
+    return Collections.unmodifiableSet(this.hashes);
+  }
+
+  /**
+   * Retrieves the version token which identifies this version of the blacklist.
+   *
+   * @return a version token or, if the server does not support versioning, an empty optional.
+   */
+  @NonNull
+  public Optional<String> getVersion() {
+    return Optional.ofNullable(this.version);
   }
 
   /**
-   * Computes the hash of an arbitrary input value.
+   * Retrieves the compiled matcher for this blacklist.
    *
-   * @param in an input address.
-   * @return a hash.
+   * @return a matcher.
    */
   @NonNull
-  private static String computeHash(@NonNull CharSequence in) {
-    return Hashing.sha1().hashString(in, StandardCharsets.ISO_8859_1).toString();
+  public BlacklistMatcher getMatcher() {
+    return this.matcher;
   }
 
   /**
@@ -75,11 +123,7 @@ public class Blacklist {
    * @return true if blacklisted, false otherwise.
    */
   public boolean isBlacklisted(@NonNull String address) {
-    if (InetAddresses.isInetAddress(address)) {
-      return this.isBlacklistedInetAddress(address);
-    }
-
-    return this.isBlacklistedHostname(address);
+    return this.matcher.matches(address);
   }
 
   /**
@@ -89,23 +133,7 @@ public class Blacklist {
    * @return true if blacklisted, false otherwise.
    */
   public boolean isBlacklistedInetAddress(@NonNull CharSequence address) {
-    List<String> elements = Arrays.asList(INET_SPLIT_PATTERN.split(address));
-    if (elements.size() != 4) {
-      throw new IllegalArgumentException(
-          "Illegal address: Must contain exactly 4 elements but contains " + elements.size());
-    }
-
-    for (int i = 3; i > 0; --i) {
-      String addr = elements.subList(0, i).stream()
-          .collect(Collectors.joining(".")) + ".*";
-      String hash = computeHash(addr);
-
-      if (this.hashes.contains(hash)) {
-        return true;
-      }
-    }
-
-    return false;
+    return this.matcher.matchesInetAddress(address);
   }
 
   /**
@@ -115,22 +143,7 @@ public class Blacklist {
    * @return true if blacklisted, false otherwise.
    */
   public boolean isBlacklistedHostname(@NonNull CharSequence address) {
-    List<String> elements = Arrays.asList(INET_SPLIT_PATTERN.split(address));
-    if (elements.isEmpty()) {
-      throw new IllegalArgumentException("Illegal TLD: must at least contain a single segment");
-    }
-
-    for (int i = 1; i < elements.size(); ++i) {
-      String addr = "*." + elements.subList(i, elements.size() - 1).stream()
-          .collect(Collectors.joining("."));
-      String hash = computeHash(addr);
-
-      if (this.hashes.contains(hash)) {
-        return true;
-      }
-    }
-
-    return false;
+    return this.matcher.matchesHostname(address);
   }
 
   /**
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.server;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * <p>Provides a pre-compiled matcher for server blacklists.</p>
+ *
+ * <p>Blacklist hashes are stored as raw 160-bit values within an open addressing table. Candidate
+ * addresses are encoded and hashed into per-thread buffers which are re-used between checks. As
+ * such, checks do not allocate any objects once a thread has performed its first check.</p>
+ *
+ * <p>Addresses are evaluated using the schema documented in {@link Blacklist}. Hostnames are
+ * converted to lower case before they are hashed.</p>
+ *
+ * <p>Malformed hashes cannot match any address and are thus skipped when the matcher is
+ * compiled.</p>
+ *
+ * <p>Instances of this type are immutable and may be shared between threads.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class BlacklistMatcher {
+
+  /**
+   * Specifies the length of a hex encoded sha1 hash.
+   */
+  private static final int HASH_LENGTH = 40;
+
+  /**
+   * Specifies the initial size of the per-thread encoding buffer (hostnames are limited to 253
+   * characters; larger inputs will cause the buffer to grow).
+   */
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+  private final long[] keys;
+  private final boolean[] occupied;
+  private final int mask;
+  private final int size;
+  private final int malformed;
+
+  private BlacklistMatcher(
+      @NonNull long[] keys,
+      @NonNull boolean[] occupied,
+      int size,
+      int malformed) {
+    this.keys = keys;
+    this.occupied = occupied;
+    this.mask = occupied.length - 1;
+    this.size = size;
+    this.malformed = malformed;
+  }
+
+  /**
+   * Compiles a matcher for the given set of hex encoded sha1 hashes.
+   *
+   * @param hashes a collection of hashes.
+   * @return a matcher.
+   */
+  @NonNull
+  public static BlacklistMatcher compile(@NonNull Collection<String> hashes) {
+    int capacity = Integer.highestOneBit(Math.max(4, hashes.size() * 2 - 1)) << 1;
+    long[] keys = new long[capacity * 3];
+    boolean[] occupied = new boolean[capacity];
+    int mask = capacity - 1;
+    int size = 0;
+    int malformed = 0;
+
+    for (String hash : hashes) {
+      if (!isHash(hash)) {
+        ++malformed;
+        continue;
+      }
+
+      long a = parseHex(hash, 0, 16);
+      long b = parseHex(hash, 16, 32);
+      long c = parseHex(hash, 32, 40);
+
+      int slot = (int) a & mask;
+      while (occupied[slot] && !equals(keys, slot, a, b, c)) {
+        slot = (slot + 1) & mask;
+      }
+
+      if (!occupied[slot]) {
+        occupied[slot] = true;
+        keys[slot * 3] = a;
+        keys[slot * 3 + 1] = b;
+        keys[slot * 3 + 2] = c;
+        ++size;
+      }
+    }
+
+    return new BlacklistMatcher(keys, occupied, size, malformed);
+  }
+
+  /**
+   * Evaluates whether a given string is a hex encoded sha1 hash.
+   *
+   * @param hash a string.
+   * @return true if valid, false otherwise.
+   */
+  private static boolean isHash(@NonNull String hash) {
+    if (hash.length() != HASH_LENGTH) {
+      return false;
+    }
+
+    for (int i = 0; i < HASH_LENGTH; ++i) {
+      if (Character.digit(hash.charAt(i), 16) == -1) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Parses a segment of a hex encoded string.
+   *
+   * @param hash a hex string.
+   * @param start a start index (inclusive).
+   * @param end an end index (exclusive).
+   * @return the decoded value.
+   */
+  private static long parseHex(@NonNull String hash, int start, int end) {
+    long value = 0;
+
+    for (int i = start; i < end; ++i) {
+      value = (value << 4) | Character.digit(hash.charAt(i), 16);
+    }
+
+    return value;
+  }
+
+  /**
+   * Reads a big endian value from the passed digest.
+   *
+   * @param digest a digest.
+   * @param offset an offset.
+   * @param length an amount of bytes.
+   * @return the decoded value.
+   */
+  private static long readLong(@NonNull byte[] digest, int offset, int length) {
+    long value = 0;
+
+    for (int i = offset; i < offset + length; ++i) {
+      value = (value << 8) | (digest[i] & 0xFF);
+    }
+
+    return value;
+  }
+
+  /**
+   * Evaluates whether the given table slot holds the passed key.
+   */
+  private static boolean equals(@NonNull long[] keys, int slot, long a, long b, long c) {
+    int offset = slot * 3;
+    return keys[offset] == a && keys[offset + 1] == b && keys[offset + 2] == c;
+  }
+
+  /**
+   * Evaluates whether the passed digest is part of this blacklist.
+   *
+   * @param digest a sha1 digest.
+   * @return true if blacklisted, false otherwise.
+   */
+  private boolean contains(@NonNull byte[] digest) {
+    long a = readLong(digest, 0, 8);
+    long b = readLong(digest, 8, 8);
+    long c = readLong(digest, 16, 4);
+
+    int slot = (int) a & this.mask;
+    while (this.occupied[slot]) {
+      if (equals(this.keys, slot, a, b, c)) {
+        return true;
+      }
+
+      slot = (slot + 1) & this.mask;
+    }
+
+    return false;
+  }
+
+  /**
+   * Hashes a section of the thread's encoding buffer and evaluates whether the result is part of
+   * this blacklist.
+   *
+   * @param state a thread state.
+   * @param offset an offset within the buffer.
+   * @param length an amount of bytes.
+   * @return true if blacklisted, false otherwise.
+   */
+  private boolean contains(@NonNull State state, int offset, int length) {
+    state.digest.update(state.buffer, offset, length);
+
+    try {
+      state.digest.digest(state.result, 0, state.result.length);
+    } catch (DigestException ex) {
+      throw new IllegalStateException("Failed to compute address hash", ex);
+    }
+
+    return this.contains(state.result);
+  }
+
+  /**
+   * Evaluates whether the passed value is formatted like an IPv4 address.
+   *
+   * @param address an address.
+   * @return true if formatted like an IPv4 address, false otherwise.
+   */
+  private static boolean isInetAddress(@NonNull CharSequence address) {
+    int dots = 0;
+
+    for (int i = 0; i < address.length(); ++i) {
+      char c = address.charAt(i);
+
+      if (c == '.') {
+        ++dots;
+      } else if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+
+    return dots == 3;
+  }
+
+  /**
+   * Evaluates whether the passed hostname or IP address has been blacklisted.
+   *
+   * @param address an address.
+   * @return true if blacklisted, false otherwise.
+   */
+  public boolean matches(@NonNull CharSequence address) {
+    if (isInetAddress(address)) {
+      return this.matchesInetAddress(address);
+    }
+
+    return this.matchesHostname(address);
+  }
+
+  /**
+   * Evaluates whether the specified IP address has been blacklisted.
+   *
+   * @param address an address.
+   * @return true if blacklisted, false otherwise.
+   * @throws IllegalArgumentException when the address does not consist of exactly four elements.
+   */
+  public boolean matchesInetAddress(@NonNull CharSequence address) {
+    int length = address.length();
+    int elements = 1;
+    for (int i = 0; i < length; ++i) {
+      if (address.charAt(i) == '.') {
+        ++elements;
+      }
+    }
+    if (elements != 4) {
+      throw new IllegalArgumentException(
+          "Illegal address: Must contain exactly 4 elements but contains " + elements);
+    }
+
+    State state = STATE.get();
+    state.encode(address, false);
+
+    if (this.contains(state, 0, length)) {
+      return true;
+    }
+
+    // candidates are written in place from right to left (e.g. a.b.c.* -> a.b.* -> a.*) since
+    // each candidate only overwrites characters which are not part of any following candidate
+    for (int i = length - 1; i > 0; --i) {
+      if (state.buffer[i] == '.') {
+        state.buffer[i + 1] = '*';
+
+        if (this.contains(state, 0, i + 2)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Evaluates whether the specified hostname has been blacklisted.
+   *
+   * @param address a hostname.
+   * @return true if blacklisted, false otherwise.
+   * @throws IllegalArgumentException when an empty hostname is passed.
+   */
+  public boolean matchesHostname(@NonNull CharSequence address) {
+    int length = address.length();
+    if (length == 0) {
+      throw new IllegalArgumentException("Illegal TLD: must at least contain a single segment");
+    }
+
+    State state = STATE.get();
+    state.encode(address, true);
+
+    if (this.contains(state, 0, length)) {
+      return true;
+    }
+
+    // candidates are written in place from left to right (e.g. *.example.tld -> *.tld) by
+    // replacing the character in front of each separator with a wildcard
+    for (int i = 1; i < length; ++i) {
+      if (state.buffer[i] == '.') {
+        state.buffer[i - 1] = '*';
+
+        if (this.contains(state, i - 1, length - i + 1)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Retrieves the amount of unique hashes within this matcher.
+   *
+   * @return an amount of hashes.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Retrieves the amount of malformed hashes which have been skipped when compiling this matcher.
+   *
+   * @return an amount of hashes.
+   */
+  public int getMalformedCount() {
+    return this.malformed;
+  }
+
+  /**
+   * Stores the per-thread buffers which are used to encode and hash candidates.
+   */
+  private static final class State {
+
+    private final MessageDigest digest;
+    private final byte[] result;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private State() {
+      try {
+        this.digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException ex) {
+        throw new IllegalStateException("SHA-1 is not supported by this runtime", ex);
+      }
+
+      this.result = new byte[this.digest.getDigestLength()];
+    }
+
+    /**
+     * Encodes the passed value into the buffer using the ISO-8859-1 encoding.
+     *
+     * @param value a value.
+     * @param lowerCase true if upper case characters are to be converted to lower case.
+     */
+    private void encode(@NonNull CharSequence value, boolean lowerCase) {
+      int length = value.length();
+      if (this.buffer.length < length + 1) {
+        this.buffer = new byte[Integer.highestOneBit(length + 1) << 1];
+      }
+
+      for (int i = 0; i < length; ++i) {
+        char c = value.charAt(i);
+
+        if (lowerCase && c >= 'A' && c <= 'Z') {
+          c += 'a' - 'A';
+        }
+
+        this.buffer[i] = encode(c);
+      }
+    }
+
+    /**
+     * Encodes a single character (unmappable characters are replaced with a question mark as done
+     * by the standard ISO-8859-1 encoder).
+     *
+     * @param c a character.
+     * @return an encoded character.
+     */
+    private static byte encode(char c) {
+      return c <= 0xFF ? (byte) c : (byte) '?';
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.utility.Credits;
+import io.github.dotstart.stockpile.utility.SerialExecutor;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Collapses bursts of events which refer to the same entry before passing them to a delegate
+ * observer.</p>
+ *
+ * <p>Events are collected for the configured window (starting with the first event) or until the
+ * maximum amount of distinct keys has been reached. Within a window, only the most recent event
+ * for each key (e.g. each combination of event type and key) is retained. Retained events are
+ * passed to the delegate in the order in which their keys were first seen.</p>
+ *
+ * <p>Gaps cause all collected events to be passed on immediately in order to preserve their order
+ * relative to the gap. Note that events are acknowledged to the underlying subscription as soon as
+ * they have been collected. As such, events which the delegate fails to process cannot be
+ * delivered again and are reported to the delegate as a gap instead.</p>
+ *
+ * <p>At most twice the maximum amount of keys may be collected or awaiting delivery at any given
+ * time (e.g. one window may be collected while the previous window is being processed). Once this
+ * limit has been reached, the stream is paused until the delegate has caught up. When the delegate
+ * executor has not started processing the collected events yet (for instance, because its only
+ * thread is delivering the stream), they are passed to the delegate on the stream thread instead.
+ * When the stream is delivered on a {@link java.util.concurrent.ForkJoinPool}, the pool is
+ * permitted to compensate for the blocked thread.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class CoalescingEventObserver implements ResumableEventObserver {
+
+  /**
+   * Specifies the maximum amount of distinct keys which are collected within a window by
+   * default.
+   */
+  public static final int DEFAULT_MAXIMUM_KEYS = 1024;
+
+  private final ResumableEventObserver delegate;
+  private final ScheduledExecutorService scheduler;
+  private final SerialExecutor executor;
+  private final Duration window;
+  private final int maximumKeys;
+  private final Credits credits;
+
+  private final Object lock = new Object();
+  private final AtomicLong coalesced = new AtomicLong();
+  private Map<EventKey, Event<?, ?>> pending = new LinkedHashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+
+  /**
+   * @param delegate an observer which receives the coalesced events.
+   * @param scheduler an executor on which windows are timed.
+   * @param executor an executor on which the delegate is notified.
+   * @param window a collection window.
+   * @param maximumKeys a maximum amount of distinct keys per window.
+   */
+  public CoalescingEventObserver(
+      @NonNull ResumableEventObserver delegate,
+      @NonNull ScheduledExecutorService scheduler,
+      @NonNull Executor executor,
+      @NonNull Duration window,
+      int maximumKeys) {
+    if (window.isNegative()) {
+      throw new IllegalArgumentException(
+          "Illegal coalescing window: Expected a positive duration or zero but got " + window);
+    }
+    if (maximumKeys <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal maximum amount of keys: Expected a positive value but got " + maximumKeys);
+    }
+
+    this.delegate = delegate;
+    this.scheduler = scheduler;
+    this.executor = new SerialExecutor(executor);
+    this.window = window;
+    this.maximumKeys = maximumKeys;
+    this.credits = new Credits((int) Math.min(Integer.MAX_VALUE, maximumKeys * 2L));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onEvent(@NonNull Event<?, ?> event) {
+    EventKey key = EventKey.of(event);
+
+    synchronized (this.lock) {
+      if (this.pending.replace(key, event) != null) {
+        this.coalesced.incrementAndGet();
+        return;
+      }
+    }
+
+    // events are passed to us one at a time - as such, the key cannot be added by another thread
+    // while we are waiting for the delegate to catch up
+    this.credits.acquire(this.executor::tryDrain);
+
+    synchronized (this.lock) {
+      this.pending.put(key, event);
+
+      if (this.pending.size() >= this.maximumKeys) {
+        this.dispatch();
+      } else if (this.scheduledFlush == null) {
+        this.scheduledFlush = this.scheduler
+            .schedule(this::flush, this.window.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onGap(@NonNull EventGap gap) {
+    synchronized (this.lock) {
+      this.dispatch();
+      this.executor.execute(() -> this.delegate.onGap(gap));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onDisconnect(@Nullable Throwable cause, long reconnectDelay) {
+    this.executor.execute(() -> this.delegate.onDisconnect(cause, reconnectDelay));
+  }
+
+  /**
+   * Passes all collected events to the delegate immediately.
+   */
+  public void flush() {
+    synchronized (this.lock) {
+      this.dispatch();
+    }
+  }
+
+  /**
+   * Retrieves the amount of events which have been replaced by more recent events for the same
+   * key.
+   *
+   * @return an amount of events.
+   */
+  public long getCoalescedCount() {
+    return this.coalesced.get();
+  }
+
+  /**
+   * Passes the current window to the delegate and starts a new window (must be called while
+   * holding the lock in order to preserve the order of windows).
+   */
+  private void dispatch() {
+    if (this.scheduledFlush != null) {
+      this.scheduledFlush.cancel(false);
+      this.scheduledFlush = null;
+    }
+    if (this.pending.isEmpty()) {
+      return;
+    }
+
+    Map<EventKey, Event<?, ?>> batch = this.pending;
+    this.pending = new LinkedHashMap<>();
+
+    this.executor.execute(() -> {
+      for (Event<?, ?> event : batch.values()) {
+        try {
+          this.delegate.onEvent(event);
+        } catch (RuntimeException ex) {
+          // the event has already been acknowledged and will thus never be delivered again
+          this.reportFailure(event);
+        } finally {
+          this.credits.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Reports an event which the delegate failed to process as a gap (must be called on the
+   * delegate executor).
+   *
+   * @param event a failed event.
+   */
+  private void reportFailure(@NonNull Event<?, ?> event) {
+    try {
+      this.delegate.onGap(EventGap.of(event));
+    } catch (RuntimeException ignore) {
+      // the delegate is already aware that its state is inconsistent
+    }
+  }
+}
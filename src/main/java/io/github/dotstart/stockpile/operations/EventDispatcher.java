@@ -0,0 +1,581 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.utility.SerialExecutor;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Multiplexes a single event stream to an arbitrary amount of listeners.</p>
+ *
+ * <p>The underlying (resumable) stream is opened when the first listener is registered and closed
+ * once the last listener has been removed. Each event is decoded at most once regardless of the
+ * amount of listeners it is passed to.</p>
+ *
+ * <p>Every listener is backed by a bounded queue and receives its events on the callback executor
+ * one at a time and in order. When a listener falls behind and its queue is exhausted, the
+ * configured {@link OverflowPolicy} decides whether the stream waits for the listener or events are
+ * discarded. Discarded events are reported to the respective listener as a gap. The same applies
+ * to events which the listener fails to process.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class EventDispatcher {
+
+  /**
+   * Specifies the amount of events which may be queued for a single listener by default.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private final EventOperations operations;
+  private final Executor executor;
+
+  private final Object lock = new Object();
+  private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+  private ResumableEventSubscription subscription;
+  private boolean closed;
+
+  private final ResumableEventObserver upstream = new ResumableEventObserver() {
+    @Override
+    public void onEvent(@NonNull Event<?, ?> event) {
+      for (Registration registration : EventDispatcher.this.registrations) {
+        registration.offer(event);
+      }
+    }
+
+    @Override
+    public void onGap(@NonNull EventGap gap) {
+      for (Registration registration : EventDispatcher.this.registrations) {
+        registration.offerGap(gap);
+      }
+    }
+  };
+
+  /**
+   * @param operations an operations instance which is used to open the underlying stream.
+   * @param executor an executor on which listeners are notified.
+   */
+  EventDispatcher(@NonNull EventOperations operations, @NonNull Executor executor) {
+    this.operations = operations;
+    this.executor = executor;
+  }
+
+  /**
+   * Registers a listener which receives all events.
+   *
+   * @param listener a listener.
+   * @return a registration handle.
+   */
+  @NonNull
+  public Registration register(@NonNull ResumableEventObserver listener) {
+    return this.register(EventFilter.all(), listener);
+  }
+
+  /**
+   * <p>Registers a listener which receives all events that match a given filter.</p>
+   *
+   * <p>When the listener falls behind, its oldest queued events are discarded and reported as a
+   * gap (as per {@link OverflowPolicy#DROP_OLDEST}).</p>
+   *
+   * @param filter a filter.
+   * @param listener a listener.
+   * @return a registration handle.
+   */
+  @NonNull
+  public Registration register(
+      @NonNull EventFilter filter,
+      @NonNull ResumableEventObserver listener) {
+    return this.register(filter, listener, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Registers a listener which receives all events that match a given filter.
+   *
+   * @param filter a filter.
+   * @param listener a listener.
+   * @param capacity a maximum amount of events which may be queued for this listener.
+   * @param policy a policy which is applied when the queue of this listener is exhausted.
+   * @return a registration handle.
+   */
+  @NonNull
+  public Registration register(
+      @NonNull EventFilter filter,
+      @NonNull ResumableEventObserver listener,
+      int capacity,
+      @NonNull OverflowPolicy policy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal capacity: Expected a positive value but got " + capacity);
+    }
+
+    Registration registration = new Registration(filter.isUnrestricted() ? null : filter,
+        listener, capacity, policy);
+
+    synchronized (this.lock) {
+      if (this.closed) {
+        throw new IllegalStateException("Cannot register listener: Client has been closed");
+      }
+
+      this.registrations.add(registration);
+
+      if (this.subscription == null) {
+        this.subscription = this.operations.subscribe(this.upstream);
+      }
+    }
+
+    return registration;
+  }
+
+  /**
+   * Removes a registration and closes the underlying stream when no listeners remain.
+   *
+   * @param registration a registration.
+   */
+  private void unregister(@NonNull Registration registration) {
+    synchronized (this.lock) {
+      this.registrations.remove(registration);
+
+      if (this.registrations.isEmpty() && this.subscription != null) {
+        this.subscription.cancel();
+        this.subscription = null;
+      }
+    }
+  }
+
+  /**
+   * Cancels all registrations along with the underlying stream and rejects further
+   * registrations.
+   */
+  void close() {
+    synchronized (this.lock) {
+      this.closed = true;
+
+      if (this.subscription != null) {
+        this.subscription.cancel();
+        this.subscription = null;
+      }
+    }
+
+    for (Registration registration : this.registrations) {
+      registration.cancel();
+    }
+  }
+
+  /**
+   * Retrieves the amount of currently registered listeners.
+   *
+   * @return an amount of listeners.
+   */
+  public int getListenerCount() {
+    return this.registrations.size();
+  }
+
+  /**
+   * Provides a list of strategies which are applied when a listener falls behind.
+   */
+  public enum OverflowPolicy {
+
+    /**
+     * <p>Pauses the stream (and thus all other listeners) until the listener has caught up.</p>
+     *
+     * <p>Note that this policy requires the callback executor to provide at least one additional
+     * thread for the listener while the stream is blocked. When the stream is delivered on a
+     * {@link ForkJoinPool}, the pool is permitted to compensate for the blocked thread.</p>
+     */
+    BLOCK,
+
+    /**
+     * Discards the oldest queued event and reports it to the listener as a gap.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Replaces queued events with more recent events for the same key (e.g. the same event type
+     * and key). When the queue is exhausted regardless, the oldest queued event is discarded and
+     * reported as a gap.
+     */
+    COALESCE_BY_KEY
+  }
+
+  /**
+   * Represents a listener registration along with its queue and statistics.
+   */
+  public final class Registration {
+
+    private final EventFilter filter;
+    private final ResumableEventObserver listener;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+
+    private final Object lock = new Object();
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private final Map<EventKey, Entry> pending = new HashMap<>();
+    private int queuedEvents;
+    private int maximumLag;
+    private boolean scheduled;
+    private volatile boolean cancelled;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+      @Override
+      public boolean block() throws InterruptedException {
+        // invoked while holding the queue lock
+        Registration.this.lock.wait();
+        return this.isReleasable();
+      }
+
+      @Override
+      public boolean isReleasable() {
+        return Registration.this.queuedEvents < Registration.this.capacity
+            || Registration.this.cancelled;
+      }
+    };
+
+    private Registration(
+        @Nullable EventFilter filter,
+        @NonNull ResumableEventObserver listener,
+        int capacity,
+        @NonNull OverflowPolicy policy) {
+      this.filter = filter;
+      this.listener = listener;
+      this.capacity = capacity;
+      this.policy = policy;
+      this.executor = new SerialExecutor(EventDispatcher.this.executor);
+    }
+
+    /**
+     * Queues an event for delivery to this listener (if it matches the listener's filter).
+     *
+     * @param event an event.
+     */
+    private void offer(@NonNull Event<?, ?> event) {
+      if (this.cancelled) {
+        return;
+      }
+
+      if (this.filter != null) {
+        try {
+          if (!this.filter.matches(event)) {
+            return;
+          }
+        } catch (IllegalArgumentException ex) {
+          // malformed payloads cannot be matched against profile filters and are thus skipped
+          return;
+        }
+      }
+
+      boolean coalesce = this.policy == OverflowPolicy.COALESCE_BY_KEY;
+      EventKey key = coalesce ? EventKey.of(event) : null;
+
+      synchronized (this.lock) {
+        if (coalesce) {
+          Entry existing = this.pending.get(key);
+
+          if (existing != null) {
+            existing.event = event;
+            this.coalesced.incrementAndGet();
+            return;
+          }
+        }
+
+        while (this.queuedEvents >= this.capacity && !this.cancelled) {
+          if (this.policy != OverflowPolicy.BLOCK) {
+            this.dropOldest();
+            continue;
+          }
+
+          try {
+            ForkJoinPool.managedBlock(this.blocker);
+          } catch (InterruptedException ex) {
+            // we cannot wait for the listener any longer and thus fall back to discarding events
+            Thread.currentThread().interrupt();
+            this.dropOldest();
+          }
+        }
+
+        if (this.cancelled) {
+          return;
+        }
+
+        Entry entry = new Entry(event, null);
+        this.queue.addLast(entry);
+        this.maximumLag = Math.max(this.maximumLag, ++this.queuedEvents);
+
+        if (coalesce) {
+          this.pending.put(key, entry);
+        }
+      }
+
+      this.schedule();
+    }
+
+    /**
+     * Queues a gap for delivery to this listener.
+     *
+     * @param gap a gap.
+     */
+    private void offerGap(@NonNull EventGap gap) {
+      if (this.cancelled) {
+        return;
+      }
+
+      synchronized (this.lock) {
+        Entry tail = this.queue.peekLast();
+
+        if (tail != null && tail.gap != null) {
+          tail.gap = tail.gap.union(gap);
+        } else {
+          this.queue.addLast(new Entry(null, gap));
+        }
+
+        // events must not be coalesced into entries which precede the gap as the listener would
+        // otherwise discard their state when processing the gap
+        this.pending.clear();
+      }
+
+      this.schedule();
+    }
+
+    /**
+     * Discards the oldest queued event and replaces it with a gap (must be called while holding
+     * the queue lock).
+     */
+    private void dropOldest() {
+      Iterator<Entry> it = this.queue.iterator();
+
+      while (it.hasNext()) {
+        Entry entry = it.next();
+        if (entry.event == null) {
+          continue;
+        }
+
+        it.remove();
+        --this.queuedEvents;
+        this.pending.remove(EventKey.of(entry.event), entry);
+        this.dropped.incrementAndGet();
+
+        EventGap gap = EventGap.of(entry.event);
+
+        Entry head = this.queue.peekFirst();
+        if (head != null && head.gap != null) {
+          head.gap = head.gap.union(gap);
+        } else {
+          this.queue.addFirst(new Entry(null, gap));
+        }
+        return;
+      }
+    }
+
+    /**
+     * Schedules the delivery of queued entries unless a delivery is already in progress.
+     */
+    private void schedule() {
+      synchronized (this.lock) {
+        if (this.scheduled) {
+          return;
+        }
+        this.scheduled = true;
+      }
+
+      this.executor.execute(this::drain);
+    }
+
+    /**
+     * Delivers queued entries to the listener until the queue has been exhausted.
+     */
+    private void drain() {
+      while (true) {
+        Event<?, ?> event;
+        EventGap gap;
+
+        synchronized (this.lock) {
+          Entry entry = this.queue.poll();
+          if (entry == null || this.cancelled) {
+            this.scheduled = false;
+            return;
+          }
+
+          event = entry.event;
+          gap = entry.gap;
+
+          if (event != null) {
+            --this.queuedEvents;
+            this.pending.remove(EventKey.of(event), entry);
+            this.lock.notifyAll();
+          }
+        }
+
+        if (event == null) {
+          this.deliverGap(gap);
+          continue;
+        }
+
+        try {
+          this.listener.onEvent(event);
+          this.delivered.incrementAndGet();
+        } catch (RuntimeException ex) {
+          // the queue is not stalled by a misbehaving listener but the state it derived from the
+          // failed event is likely inconsistent
+          this.failed.incrementAndGet();
+          this.deliverGap(EventGap.of(event));
+        }
+      }
+    }
+
+    /**
+     * Passes a gap to the listener (must be called on the callback executor).
+     *
+     * @param gap a gap.
+     */
+    private void deliverGap(@NonNull EventGap gap) {
+      try {
+        this.listener.onGap(gap);
+      } catch (RuntimeException ignore) {
+        // there is nothing left to report to a listener which fails to handle gaps
+      }
+    }
+
+    /**
+     * Removes this listener from the dispatcher and discards all of its queued events.
+     */
+    public void cancel() {
+      this.cancelled = true;
+
+      synchronized (this.lock) {
+        this.queue.clear();
+        this.pending.clear();
+        this.queuedEvents = 0;
+        this.lock.notifyAll();
+      }
+
+      EventDispatcher.this.unregister(this);
+    }
+
+    /**
+     * Evaluates whether this registration has been cancelled.
+     *
+     * @return true if cancelled, false otherwise.
+     */
+    public boolean isCancelled() {
+      return this.cancelled;
+    }
+
+    @NonNull
+    public OverflowPolicy getPolicy() {
+      return this.policy;
+    }
+
+    public int getCapacity() {
+      return this.capacity;
+    }
+
+    /**
+     * Retrieves the amount of events which have been queued but not yet delivered to the
+     * listener.
+     *
+     * @return an amount of events.
+     */
+    public int getLag() {
+      synchronized (this.lock) {
+        return this.queuedEvents;
+      }
+    }
+
+    /**
+     * Retrieves the largest amount of events which has been queued for this listener at any given
+     * time.
+     *
+     * @return an amount of events.
+     */
+    public int getMaximumLag() {
+      synchronized (this.lock) {
+        return this.maximumLag;
+      }
+    }
+
+    /**
+     * Retrieves the amount of events which have been delivered to the listener.
+     *
+     * @return an amount of events.
+     */
+    public long getDeliveredCount() {
+      return this.delivered.get();
+    }
+
+    /**
+     * Retrieves the amount of events which have been discarded since the listener fell behind.
+     *
+     * @return an amount of events.
+     */
+    public long getDroppedCount() {
+      return this.dropped.get();
+    }
+
+    /**
+     * Retrieves the amount of events which the listener failed to process.
+     *
+     * @return an amount of events.
+     */
+    public long getFailedCount() {
+      return this.failed.get();
+    }
+
+    /**
+     * Retrieves the amount of events which have been replaced by more recent events for the same
+     * key.
+     *
+     * @return an amount of events.
+     */
+    public long getCoalescedCount() {
+      return this.coalesced.get();
+    }
+  }
+
+  /**
+   * Represents a queued event or gap.
+   */
+  private static final class Entry {
+
+    private Event<?, ?> event;
+    private EventGap gap;
+
+    private Entry(@Nullable Event<?, ?> event, @Nullable EventGap gap) {
+      this.event = event;
+      this.gap = gap;
+    }
+  }
+}
@@ -17,11 +17,24 @@
 package io.github.dotstart.stockpile.operations;
 
 import com.google.common.collect.Iterators;
-import com.google.protobuf.Empty;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
 import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
 import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceBlockingStub;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceStub;
+import io.github.dotstart.stockpile.utility.Backoff;
+import io.github.dotstart.stockpile.utility.SerialExecutor;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provides various event related operations.
@@ -30,10 +43,54 @@ import java.util.Iterator;
  */
 public class EventOperations {
 
-  private final EventServiceBlockingStub service;
+  /**
+   * Specifies the amount of events which are requested ahead of an observer by default.
+   */
+  public static final int DEFAULT_PREFETCH = 32;
+
+  /**
+   * Specifies the backoff which is applied when resuming interrupted streams by default.
+   */
+  public static final Backoff DEFAULT_RECONNECT_BACKOFF = new Backoff(Duration.ofSeconds(1),
+      Duration.ofMinutes(1), 2, 0.5);
 
+  private final EventServiceBlockingStub blockingService;
+  private final EventServiceStub service;
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private final Set<ResumableEventSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private volatile EventDispatcher dispatcher;
+  private volatile boolean closed;
+
+  /**
+   * @param service a blocking stub.
+   * @deprecated Use {@link #EventOperations(EventServiceBlockingStub, EventServiceStub, Executor)}
+   * instead. Asynchronous subscriptions only retain the deadline of the passed stub and notify
+   * their observers on the common fork join pool.
+   */
+  @Deprecated
   public EventOperations(@NonNull EventServiceBlockingStub service) {
+    this(service, EventServiceGrpc.newStub(service.getChannel())
+            .withDeadline(service.getCallOptions().getDeadline()),
+        ForkJoinPool.commonPool());
+  }
+
+  public EventOperations(
+      @NonNull EventServiceBlockingStub blockingService,
+      @NonNull EventServiceStub service,
+      @NonNull Executor executor) {
+    this(blockingService, service, executor, null);
+  }
+
+  public EventOperations(
+      @NonNull EventServiceBlockingStub blockingService,
+      @NonNull EventServiceStub service,
+      @NonNull Executor executor,
+      @Nullable ScheduledExecutorService scheduler) {
+    this.blockingService = blockingService;
     this.service = service;
+    this.executor = executor;
+    this.scheduler = scheduler;
   }
 
   /**
@@ -43,6 +100,361 @@ public class EventOperations {
    */
   @NonNull
   public Iterator<Event<?, ?>> stream() {
-    return Iterators.transform(this.service.streamEvents(Empty.getDefaultInstance()), Event::new);
+    return this.stream(EventFilter.all());
+  }
+
+  /**
+   * Subscribes to a filtered view of the server's cache event stream.
+   *
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @return an iterator of matching cache events.
+   */
+  @NonNull
+  public Iterator<Event<?, ?>> stream(@NonNull EventFilter filter) {
+    Iterator<Event<?, ?>> it = Iterators.transform(
+        this.blockingService.streamEvents(createRequest(filter, 0)), Event::new);
+    if (filter.isUnrestricted()) {
+      return it;
+    }
+
+    return Iterators.filter(it, filter::matches);
+  }
+
+  /**
+   * <p>Subscribes to the server's cache event stream without blocking the calling thread.</p>
+   *
+   * <p>Events are converted and passed to the observer on the configured callback executor. They
+   * are guaranteed to be delivered in order and one at a time. At most {@link #DEFAULT_PREFETCH}
+   * events are requested from the server ahead of the observer.</p>
+   *
+   * @param observer an observer which is notified about incoming events.
+   * @return a subscription handle.
+   */
+  @NonNull
+  public EventSubscription stream(@NonNull StreamObserver<? super Event<?, ?>> observer) {
+    return this.stream(EventFilter.all(), observer, DEFAULT_PREFETCH);
+  }
+
+  /**
+   * Subscribes to a filtered view of the server's cache event stream without blocking the calling
+   * thread.
+   *
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @param observer an observer which is notified about incoming events.
+   * @return a subscription handle.
+   * @see #stream(StreamObserver)
+   */
+  @NonNull
+  public EventSubscription stream(
+      @NonNull EventFilter filter,
+      @NonNull StreamObserver<? super Event<?, ?>> observer) {
+    return this.stream(filter, observer, DEFAULT_PREFETCH);
+  }
+
+  /**
+   * <p>Subscribes to the server's cache event stream without blocking the calling thread.</p>
+   *
+   * <p>Events are converted and passed to the observer on the configured callback executor. They
+   * are guaranteed to be delivered in order and one at a time.</p>
+   *
+   * <p>When a positive prefetch is given, the specified amount of events is requested from the
+   * server ahead of time and another event is requested whenever the observer returns from
+   * processing an event. When zero is given, no events will be delivered until they are explicitly
+   * requested via {@link EventSubscription#request(int)}.</p>
+   *
+   * @param observer an observer which is notified about incoming events.
+   * @param prefetch an amount of events to request ahead of the observer or zero to rely on
+   * explicit requests.
+   * @return a subscription handle.
+   */
+  @NonNull
+  public EventSubscription stream(
+      @NonNull StreamObserver<? super Event<?, ?>> observer,
+      int prefetch) {
+    return this.stream(EventFilter.all(), observer, prefetch);
+  }
+
+  /**
+   * <p>Subscribes to a filtered view of the server's cache event stream without blocking the
+   * calling thread.</p>
+   *
+   * <p>Filters are evaluated by the server. Servers which do not support filtering pass all
+   * events in which case the filter is applied when events are received instead.</p>
+   *
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @param observer an observer which is notified about incoming events.
+   * @param prefetch an amount of events to request ahead of the observer or zero to rely on
+   * explicit requests.
+   * @return a subscription handle.
+   * @see #stream(StreamObserver, int)
+   */
+  @NonNull
+  public EventSubscription stream(
+      @NonNull EventFilter filter,
+      @NonNull StreamObserver<? super Event<?, ?>> observer,
+      int prefetch) {
+    if (prefetch < 0) {
+      throw new IllegalArgumentException(
+          "Illegal prefetch: Expected a positive value or zero but got " + prefetch);
+    }
+
+    return this.open(filter, 0, observer, null, prefetch);
+  }
+
+  /**
+   * Subscribes to the server's cache event stream and transparently resumes the stream when it is
+   * interrupted.
+   *
+   * @param observer an observer which is notified about incoming events and gaps.
+   * @return a subscription handle.
+   * @see ResumableEventSubscription
+   */
+  @NonNull
+  public ResumableEventSubscription subscribe(@NonNull ResumableEventObserver observer) {
+    return this.subscribe(EventFilter.all(), observer);
+  }
+
+  /**
+   * Subscribes to a filtered view of the server's cache event stream and transparently resumes the
+   * stream when it is interrupted.
+   *
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @param observer an observer which is notified about incoming events and gaps.
+   * @return a subscription handle.
+   * @see ResumableEventSubscription
+   */
+  @NonNull
+  public ResumableEventSubscription subscribe(
+      @NonNull EventFilter filter,
+      @NonNull ResumableEventObserver observer) {
+    return this.subscribe(filter, observer, 0, DEFAULT_RECONNECT_BACKOFF);
+  }
+
+  /**
+   * <p>Subscribes to a filtered view of the server's cache event stream and transparently resumes
+   * the stream when it is interrupted.</p>
+   *
+   * <p>When a sequence number is given, the server is asked to replay all events which have been
+   * emitted after the respective event (e.g. in order to continue where a previous subscription
+   * left off).</p>
+   *
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @param observer an observer which is notified about incoming events and gaps.
+   * @param resumeAfter the sequence number of the last processed event or zero to start with new
+   * events.
+   * @param backoff a backoff which computes the delay between reconnects.
+   * @return a subscription handle.
+   * @throws IllegalStateException when no scheduler has been configured.
+   * @see ResumableEventSubscription
+   */
+  @NonNull
+  public ResumableEventSubscription subscribe(
+      @NonNull EventFilter filter,
+      @NonNull ResumableEventObserver observer,
+      long resumeAfter,
+      @NonNull Backoff backoff) {
+    if (resumeAfter < 0) {
+      throw new IllegalArgumentException(
+          "Illegal sequence number: Expected a positive value or zero but got " + resumeAfter);
+    }
+    if (this.scheduler == null) {
+      throw new IllegalStateException("Cannot resume streams: No scheduler configured");
+    }
+    if (this.closed) {
+      throw new IllegalStateException("Cannot resume streams: Client has been closed");
+    }
+
+    ResumableEventSubscription subscription = new ResumableEventSubscription(this, observer,
+        filter, this.scheduler, backoff, DEFAULT_PREFETCH, resumeAfter);
+    this.subscriptions.add(subscription);
+
+    // the client may have been closed while we were registering the subscription in which case
+    // it would never be cancelled
+    if (this.closed) {
+      subscription.cancel();
+      throw new IllegalStateException("Cannot resume streams: Client has been closed");
+    }
+
+    subscription.connect();
+    return subscription;
+  }
+
+  /**
+   * Removes a cancelled subscription from the set of subscriptions which are cancelled when the
+   * client is closed.
+   *
+   * @param subscription a subscription.
+   */
+  void release(@NonNull ResumableEventSubscription subscription) {
+    this.subscriptions.remove(subscription);
+  }
+
+  /**
+   * <p>Closes the shared event dispatcher as well as all resumable subscriptions which have been
+   * opened through this instance.</p>
+   *
+   * <p>Subscriptions are not resumed afterwards and no new subscriptions may be opened.</p>
+   */
+  public void close() {
+    this.closed = true;
+
+    EventDispatcher dispatcher = this.dispatcher;
+    if (dispatcher != null) {
+      dispatcher.close();
+    }
+
+    for (ResumableEventSubscription subscription : this.subscriptions) {
+      subscription.cancel();
+    }
+  }
+
+  /**
+   * <p>Wraps an observer in order to collapse bursts of events which refer to the same entry.</p>
+   *
+   * <p>Within the specified window, only the most recent event for each combination of event type
+   * and key is passed to the observer. The resulting observer may be passed to
+   * {@link #subscribe(EventFilter, ResumableEventObserver)} or registered with the
+   * {@link #dispatcher()}.</p>
+   *
+   * @param observer an observer which receives the coalesced events.
+   * @param window a collection window.
+   * @return a coalescing observer.
+   * @throws IllegalStateException when no scheduler has been configured.
+   * @see CoalescingEventObserver
+   */
+  @NonNull
+  public CoalescingEventObserver coalesce(
+      @NonNull ResumableEventObserver observer,
+      @NonNull Duration window) {
+    if (this.scheduler == null) {
+      throw new IllegalStateException("Cannot coalesce events: No scheduler configured");
+    }
+
+    return new CoalescingEventObserver(observer, this.scheduler, this.executor, window,
+        CoalescingEventObserver.DEFAULT_MAXIMUM_KEYS);
+  }
+
+  /**
+   * Wraps an observer in order to process events in parallel using one lane per available
+   * processor.
+   *
+   * @param observer a thread safe observer which processes the events.
+   * @return a parallel observer.
+   * @see #parallelize(ResumableEventObserver, int)
+   */
+  @NonNull
+  public ParallelEventObserver parallelize(@NonNull ResumableEventObserver observer) {
+    return this.parallelize(observer, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * <p>Wraps an observer in order to process events in parallel.</p>
+   *
+   * <p>Events which share a key are processed in order on the same lane while events for
+   * different keys are spread across all lanes. Keyless events (such as blacklist updates) are
+   * processed on a lane of their own.</p>
+   *
+   * @param observer a thread safe observer which processes the events.
+   * @param lanes an amount of lanes to which keyed events are distributed.
+   * @return a parallel observer.
+   * @see ParallelEventObserver
+   */
+  @NonNull
+  public ParallelEventObserver parallelize(
+      @NonNull ResumableEventObserver observer,
+      int lanes) {
+    return new ParallelEventObserver(observer, this.executor, lanes);
+  }
+
+  /**
+   * <p>Retrieves the shared event dispatcher of this client.</p>
+   *
+   * <p>Components which are interested in the event stream should prefer registering with the
+   * dispatcher over opening streams of their own as all listeners share a single stream.</p>
+   *
+   * @return a dispatcher.
+   * @throws IllegalStateException when no scheduler has been configured.
+   */
+  @NonNull
+  public EventDispatcher dispatcher() {
+    if (this.scheduler == null) {
+      throw new IllegalStateException("Cannot create dispatcher: No scheduler configured");
+    }
+
+    EventDispatcher dispatcher = this.dispatcher;
+    if (dispatcher == null) {
+      synchronized (this) {
+        dispatcher = this.dispatcher;
+
+        if (dispatcher == null) {
+          dispatcher = this.dispatcher = new EventDispatcher(this, this.executor);
+
+          if (this.closed) {
+            dispatcher.close();
+          }
+        }
+      }
+    }
+
+    return dispatcher;
+  }
+
+  /**
+   * Opens a new event stream.
+   *
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @param resumeAfter the sequence number of the last processed event or zero to start with new
+   * events.
+   * @param observer an observer which is notified about incoming events.
+   * @param listener a listener which is notified about the state of the stream and discarded
+   * events or null.
+   * @param prefetch an amount of events to request ahead of the observer or zero to rely on
+   * explicit requests.
+   * @return a subscription handle.
+   */
+  @NonNull
+  EventSubscription open(
+      @NonNull EventFilter filter,
+      long resumeAfter,
+      @NonNull StreamObserver<? super Event<?, ?>> observer,
+      @Nullable EventSubscription.StreamListener listener,
+      int prefetch) {
+    EventSubscription subscription = new EventSubscription(observer, listener,
+        filter.isUnrestricted() ? null : filter, new SerialExecutor(this.executor),
+        prefetch != 0);
+    this.service.withInterceptors(subscription.getHeaderInterceptor())
+        .streamEvents(createRequest(filter, resumeAfter), subscription.getCallObserver());
+    subscription.started();
+
+    if (prefetch != 0) {
+      subscription.request(prefetch);
+    }
+
+    return subscription;
+  }
+
+  /**
+   * Converts a filter into its respective RPC representation.
+   *
+   * @param filter a filter.
+   * @param resumeAfter the sequence number of the last processed event or zero to start with new
+   * events.
+   * @return a subscription request.
+   */
+  @NonNull
+  private static StreamEventsRequest createRequest(@NonNull EventFilter filter, long resumeAfter) {
+    StreamEventsRequest.Builder builder = StreamEventsRequest.newBuilder()
+        .setResumeAfter(resumeAfter);
+
+    // empty lists are interpreted as "match all" and are thus omitted whenever possible
+    if (filter.getTypes().size() != Event.Type.values().length) {
+      filter.getTypes().forEach((type) -> builder.addTypesValue(type.ordinal()));
+    }
+    if (filter.getActions().size() != Event.Action.values().length) {
+      filter.getActions().forEach((action) -> builder.addActionsValue(action.ordinal()));
+    }
+    filter.getProfileIds().forEach((id) -> builder.addProfileIds(id.toString()));
+
+    return builder.build();
   }
 }
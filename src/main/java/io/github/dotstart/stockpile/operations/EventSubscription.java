@@ -0,0 +1,476 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Represents an active event stream subscription which may be cancelled at any given time.</p>
+ *
+ * <p>Subscriptions apply backpressure to the server: Events are only requested from the server
+ * when the subscriber has signalled demand for them (either explicitly via {@link #request(int)}
+ * or implicitly by processing previously delivered events when a prefetch has been configured). As
+ * such, a slow subscriber will cause the server to pause the stream rather than causing events to
+ * be buffered on the client.</p>
+ *
+ * <p>Events which cannot be decoded (for instance, because their key is malformed) are skipped
+ * and reported to the skip listener as lost rather than terminating the stream as the server would
+ * otherwise replay them upon every attempt to resume the stream.</p>
+ *
+ * <p>The stream listener is notified once the server has accepted the stream along with the
+ * position of the most recent event within the server's stream (if passed by the server).</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class EventSubscription {
+
+  private static final Event.Type[] TYPES = Event.Type.values();
+
+  /**
+   * Identifies the response header which carries the sequence number of the most recent event
+   * within the server's stream.
+   */
+  private static final Metadata.Key<String> HEAD_SEQUENCE_HEADER = Metadata.Key
+      .of("stockpile-head-sequence", Metadata.ASCII_STRING_MARSHALLER);
+
+  private final StreamObserver<? super Event<?, ?>> observer;
+  private final StreamListener listener;
+  private final EventFilter filter;
+  private final Executor executor;
+  private final boolean replenish;
+
+  private final Object lock = new Object();
+  private final Queue<Object> buffer = new ArrayDeque<>();
+  private ClientCallStreamObserver<?> call;
+  private boolean started;
+  private long demand;
+  private int pendingRequests;
+  private boolean implicitRequestConsumed;
+  private Throwable error;
+  private boolean completed;
+  private boolean terminated;
+  private volatile boolean cancelled;
+
+  private final ClientResponseObserver<StreamEventsRequest, Events.Event> callObserver =
+      new ClientResponseObserver<StreamEventsRequest, Events.Event>() {
+        @Override
+        public void beforeStart(ClientCallStreamObserver<StreamEventsRequest> requestStream) {
+          requestStream.disableAutoInboundFlowControl();
+
+          synchronized (EventSubscription.this.lock) {
+            EventSubscription.this.call = requestStream;
+          }
+
+          if (EventSubscription.this.cancelled) {
+            requestStream.cancel("Subscription cancelled", null);
+          }
+        }
+
+        @Override
+        public void onNext(Events.Event value) {
+          EventSubscription.this.executor.execute(() -> EventSubscription.this.handleNext(value));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          EventSubscription.this.executor
+              .execute(() -> EventSubscription.this.handleTermination(t));
+        }
+
+        @Override
+        public void onCompleted() {
+          EventSubscription.this.executor
+              .execute(() -> EventSubscription.this.handleTermination(null));
+        }
+      };
+
+  private final ClientInterceptor headerInterceptor = new ClientInterceptor() {
+    @Override
+    public <I, O> ClientCall<I, O> interceptCall(
+        MethodDescriptor<I, O> method,
+        CallOptions callOptions,
+        Channel next) {
+      return new SimpleForwardingClientCall<I, O>(next.newCall(method, callOptions)) {
+        @Override
+        public void start(Listener<O> responseListener, Metadata headers) {
+          super.start(new SimpleForwardingClientCallListener<O>(responseListener) {
+            @Override
+            public void onHeaders(Metadata headers) {
+              // headers are always received ahead of the first event and are thus passed through
+              // the delivery executor in order to retain their position within the stream
+              EventSubscription.this.executor
+                  .execute(() -> EventSubscription.this.handleHeaders(headers));
+              super.onHeaders(headers);
+            }
+          }, headers);
+        }
+      };
+    }
+  };
+
+  /**
+   * @param observer an observer which is notified about events.
+   * @param listener a listener which is notified about the state of the stream and discarded
+   * events or null.
+   * @param filter a filter which is applied to incoming events or null to pass all events.
+   * @param executor an executor on which the observer is notified (must execute tasks serially).
+   * @param replenish true if demand is signalled automatically once an event has been delivered.
+   */
+  EventSubscription(
+      @NonNull StreamObserver<? super Event<?, ?>> observer,
+      @Nullable StreamListener listener,
+      @Nullable EventFilter filter,
+      @NonNull Executor executor,
+      boolean replenish) {
+    this.observer = observer;
+    this.listener = listener;
+    this.filter = filter;
+    this.executor = executor;
+    this.replenish = replenish;
+  }
+
+  /**
+   * Retrieves the observer which receives the responses of the underlying call.
+   *
+   * @return an observer.
+   */
+  @NonNull
+  ClientResponseObserver<StreamEventsRequest, Events.Event> getCallObserver() {
+    return this.callObserver;
+  }
+
+  /**
+   * Retrieves the interceptor which passes the response headers of the underlying call to the
+   * subscription.
+   *
+   * @return an interceptor.
+   */
+  @NonNull
+  ClientInterceptor getHeaderInterceptor() {
+    return this.headerInterceptor;
+  }
+
+  /**
+   * Notifies the subscription that the underlying call has been started (and thus accepts
+   * requests).
+   */
+  void started() {
+    synchronized (this.lock) {
+      this.started = true;
+
+      int requests = this.pendingRequests;
+      this.pendingRequests = 0;
+
+      if (requests > 0) {
+        this.call.request(requests);
+      }
+    }
+  }
+
+  /**
+   * Handles the response headers of the underlying call (must be called on the delivery
+   * executor).
+   *
+   * @param headers a set of headers.
+   */
+  private void handleHeaders(@NonNull Metadata headers) {
+    if (this.terminated || this.listener == null) {
+      return;
+    }
+
+    long headSequence = 0;
+    String value = headers.get(HEAD_SEQUENCE_HEADER);
+    if (value != null) {
+      try {
+        headSequence = Long.parseUnsignedLong(value);
+      } catch (NumberFormatException ignore) {
+        // malformed positions are treated as if they had been omitted
+      }
+    }
+
+    this.listener.onEstablished(headSequence);
+  }
+
+  /**
+   * Handles an incoming event (must be called on the delivery executor).
+   *
+   * @param value an event.
+   */
+  private void handleNext(@NonNull Events.Event value) {
+    if (this.terminated) {
+      return;
+    }
+
+    Event<?, ?> event = null;
+    EventKey lost = null;
+    try {
+      // events of types and actions which have been introduced by a newer version of the server
+      // cannot be represented and are thus skipped
+      if (value.getType() != Events.EventType.UNRECOGNIZED
+          && value.getAction() != Events.EventAction.UNRECOGNIZED) {
+        event = new Event<>(value);
+
+        if (this.filter != null && !this.filter.matches(event)) {
+          event = null;
+        }
+      }
+    } catch (IllegalArgumentException ex) {
+      // the entry to which a malformed event refers cannot be identified reliably and thus all
+      // entries of its type are considered affected
+      lost = identify(value);
+    }
+
+    synchronized (this.lock) {
+      if (event == null) {
+        // servers which do not support filtering pass all events - since the discarded event has
+        // consumed a request without satisfying any demand, we'll have to replace it (the same
+        // applies to events which cannot be represented)
+        this.call.request(1);
+
+        if (this.listener == null || (lost == null && value.getSequence() == 0)) {
+          return;
+        }
+
+        this.buffer.add(new Skip(value.getSequence(), value.getPreviousSequence(), lost));
+      } else {
+        this.buffer.add(event);
+      }
+    }
+    this.drain();
+  }
+
+  /**
+   * Identifies the entries to which a malformed event may refer.
+   *
+   * @param value an event.
+   * @return a key which identifies all entries of the event's type or null if the type is
+   * unknown.
+   */
+  @Nullable
+  private static EventKey identify(@NonNull Events.Event value) {
+    int type = value.getTypeValue();
+    if (type < 0 || type >= TYPES.length) {
+      return null;
+    }
+
+    return EventKey.of(TYPES[type]);
+  }
+
+  /**
+   * Handles the termination of the underlying call (must be called on the delivery executor).
+   *
+   * @param error an error or null if the call completed normally.
+   */
+  private void handleTermination(Throwable error) {
+    synchronized (this.lock) {
+      if (error != null) {
+        this.error = error;
+      } else {
+        this.completed = true;
+      }
+    }
+
+    this.drain();
+  }
+
+  /**
+   * Delivers buffered events to the observer for as long as there is outstanding demand and
+   * passes terminal signals once all events have been delivered (must be called on the delivery
+   * executor).
+   */
+  private void drain() {
+    while (true) {
+      Event<?, ?> event = null;
+      Skip skip = null;
+      Throwable error = null;
+      boolean completed = false;
+
+      synchronized (this.lock) {
+        if (this.terminated) {
+          return;
+        }
+
+        Object head = this.buffer.peek();
+        if (head instanceof Skip) {
+          // discarded events do not satisfy any demand and are thus reported right away
+          skip = (Skip) this.buffer.poll();
+        } else if (this.demand > 0 && head != null) {
+          event = (Event<?, ?>) this.buffer.poll();
+          --this.demand;
+        } else if (head == null && (this.error != null || this.completed)) {
+          event = null;
+          error = this.error;
+          completed = this.error == null;
+          this.terminated = true;
+        } else {
+          return;
+        }
+      }
+
+      if (skip != null) {
+        this.listener.onSkipped(skip.sequence, skip.previousSequence, skip.lost);
+      } else if (event != null) {
+        try {
+          this.observer.onNext(event);
+        } catch (RuntimeException ex) {
+          // observers are not permitted to fail - treat this as a fatal error just like gRPC
+          // itself would
+          this.cancel();
+
+          synchronized (this.lock) {
+            this.terminated = true;
+          }
+          this.observer.onError(ex);
+          return;
+        }
+
+        if (this.replenish) {
+          this.request(1);
+        }
+      } else if (completed) {
+        this.observer.onCompleted();
+      } else {
+        this.observer.onError(error);
+      }
+    }
+  }
+
+  /**
+   * Requests the given amount of additional events from the server.
+   *
+   * @param count an amount of events.
+   * @throws IllegalArgumentException when a negative or zero count is passed.
+   */
+  public void request(int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal request count: Expected a positive value but got " + count);
+    }
+
+    synchronized (this.lock) {
+      this.demand += count;
+
+      // the transport implicitly requests the first message when the call is started - as such, we
+      // will subtract it from the first request in order to honor the requested demand exactly
+      int transportRequests = count;
+      if (!this.implicitRequestConsumed) {
+        this.implicitRequestConsumed = true;
+        --transportRequests;
+      }
+
+      if (transportRequests > 0) {
+        if (!this.started) {
+          this.pendingRequests += transportRequests;
+        } else {
+          this.call.request(transportRequests);
+        }
+      }
+    }
+
+    this.executor.execute(this::drain);
+  }
+
+  /**
+   * Cancels this subscription and closes the underlying stream.
+   */
+  public void cancel() {
+    this.cancelled = true;
+
+    ClientCallStreamObserver<?> call;
+    synchronized (this.lock) {
+      call = this.call;
+    }
+
+    if (call != null) {
+      call.cancel("Subscription cancelled", null);
+    }
+  }
+
+  /**
+   * Evaluates whether this subscription has been cancelled by the client.
+   *
+   * @return true if cancelled, false otherwise.
+   */
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * <p>Receives the state of the stream as well as the positions of events which have been
+   * discarded by the client (for instance, because they do not match the filter of a server which
+   * does not support filtering or because they cannot be decoded).</p>
+   *
+   * <p>Listeners are notified on the delivery executor in stream order (e.g. after all preceding
+   * events have been passed to the observer).</p>
+   */
+  interface StreamListener {
+
+    /**
+     * Handles the establishment of the stream (e.g. the receipt of its response headers).
+     *
+     * @param headSequence the sequence number of the most recent event within the server's stream
+     * or zero if unknown.
+     */
+    void onEstablished(long headSequence);
+
+    /**
+     * Handles a discarded event.
+     *
+     * @param sequence the sequence number of the discarded event.
+     * @param previousSequence the sequence number of its preceding event or zero if unknown.
+     * @param lost a key which identifies the entries to which the event may refer if it has been
+     * discarded because it could not be decoded or null if it was not relevant to the observer.
+     */
+    void onSkipped(long sequence, long previousSequence, @Nullable EventKey lost);
+  }
+
+  /**
+   * Represents the position of a discarded event within the buffer.
+   */
+  private static final class Skip {
+
+    private final long sequence;
+    private final long previousSequence;
+    private final EventKey lost;
+
+    private Skip(long sequence, long previousSequence, @Nullable EventKey lost) {
+      this.sequence = sequence;
+      this.previousSequence = previousSequence;
+      this.lost = lost;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.utility.Credits;
+import io.github.dotstart.stockpile.utility.KeyAffinityExecutor;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Passes events to a delegate observer in parallel while preserving the order of events which
+ * refer to the same key.</p>
+ *
+ * <p>Events are distributed to a fixed set of lanes based on their key (e.g. the profile
+ * identifier or name). Keyless events (such as blacklist updates) are processed on a dedicated
+ * lane. As such, the delegate may be invoked concurrently for different keys and has to be
+ * thread safe.</p>
+ *
+ * <p>Gaps are passed to the delegate once all preceding events have been processed. Events which
+ * are received after a gap may, however, be processed before the delegate is notified about the
+ * gap. Note that events are acknowledged to the underlying subscription as soon as they have been
+ * handed to a lane. As such, events which the delegate fails to process cannot be delivered again
+ * and are reported to the delegate as a gap instead.</p>
+ *
+ * <p>The amount of events which have been handed to a lane but not yet processed is bounded. Once
+ * this limit has been reached, the stream is paused until the delegate has caught up. Lanes which
+ * the executor has not started processing yet (for instance, because its threads are delivering
+ * the stream) are processed on the stream thread instead. When the stream is delivered on a
+ * {@link java.util.concurrent.ForkJoinPool}, the pool is permitted to compensate for the blocked
+ * thread.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ParallelEventObserver implements ResumableEventObserver {
+
+  /**
+   * Specifies the amount of events which may await processing per lane (on average) before the
+   * stream is paused.
+   */
+  private static final int LANE_CAPACITY = 64;
+
+  private final ResumableEventObserver delegate;
+  private final KeyAffinityExecutor executor;
+  private final Credits credits;
+
+  /**
+   * @param delegate an observer which processes the events.
+   * @param executor an executor on which the delegate is notified.
+   * @param lanes an amount of lanes to which keyed events are distributed.
+   */
+  public ParallelEventObserver(
+      @NonNull ResumableEventObserver delegate,
+      @NonNull Executor executor,
+      int lanes) {
+    this.delegate = delegate;
+    this.executor = new KeyAffinityExecutor(executor, lanes);
+    this.credits = new Credits(
+        (int) Math.min(Integer.MAX_VALUE, (lanes + 1L) * LANE_CAPACITY));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onEvent(@NonNull Event<?, ?> event) {
+    this.credits.acquire(this.executor::tryDrain);
+
+    try {
+      this.executor.execute(event.getKey(), () -> {
+        try {
+          this.delegate.onEvent(event);
+        } catch (RuntimeException ex) {
+          // the event has already been acknowledged and will thus never be delivered again
+          this.onGap(EventGap.of(event));
+        } finally {
+          this.credits.release();
+        }
+      });
+    } catch (RuntimeException ex) {
+      this.credits.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onGap(@NonNull EventGap gap) {
+    this.executor.executeAfterAll(() -> this.delegate.onGap(gap));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onDisconnect(@Nullable Throwable cause, long reconnectDelay) {
+    this.executor.execute(null, () -> this.delegate.onDisconnect(cause, reconnectDelay));
+  }
+
+  /**
+   * Retrieves the amount of lanes to which keyed events are distributed.
+   *
+   * @return an amount of lanes.
+   */
+  public int getLaneCount() {
+    return this.executor.getLaneCount();
+  }
+}
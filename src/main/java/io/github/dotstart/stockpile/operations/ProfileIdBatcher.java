@@ -0,0 +1,246 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import io.github.dotstart.stockpile.utility.FutureUtility;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>Merges individual name lookups into bulk requests.</p>
+ *
+ * <p>Names which are submitted within the configured window (or until the maximum batch size has
+ * been reached) are resolved using a single bulk request. Each submitted name is completed with its
+ * own association once the bulk request completes. Names which are submitted multiple times within
+ * the same window are only requested once.</p>
+ *
+ * <p>Since bulk requests always resolve associations at the current time, only lookups for the
+ * current time may be batched.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileIdBatcher {
+
+  private final ScheduledExecutorService scheduler;
+  private final Duration window;
+  private final int maximumBatchSize;
+
+  private final Object lock = new Object();
+  private Function<List<String>, CompletableFuture<List<ProfileId>>> request;
+  private Map<String, Entry> pending = new HashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean closed;
+
+  public ProfileIdBatcher(
+      @NonNull ScheduledExecutorService scheduler,
+      @NonNull Duration window,
+      int maximumBatchSize) {
+    if (window.isNegative()) {
+      throw new IllegalArgumentException(
+          "Illegal batch window: Expected a positive duration or zero but got " + window);
+    }
+    if (maximumBatchSize <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal batch size: Expected a positive value but got " + maximumBatchSize);
+    }
+
+    this.scheduler = scheduler;
+    this.window = window;
+    this.maximumBatchSize = maximumBatchSize;
+  }
+
+  /**
+   * Attaches the function which performs the actual bulk requests.
+   *
+   * @param request a bulk request function.
+   */
+  void attach(@NonNull Function<List<String>, CompletableFuture<List<ProfileId>>> request) {
+    this.request = request;
+  }
+
+  /**
+   * Evaluates whether a lookup for the given timestamp may be batched.
+   *
+   * @param at a timestamp.
+   * @return true if batchable, false otherwise.
+   */
+  boolean isBatchable(@NonNull Instant at) {
+    // timestamps are passed with second precision - as such we'll permit a slight deviation from
+    // the current time in order to account for lookups which were created just before a flip over
+    return Math.abs(at.getEpochSecond() - Instant.now().getEpochSecond()) <= 1;
+  }
+
+  /**
+   * Submits a name for resolution with the next batch.
+   *
+   * @param name a display name.
+   * @return a future which completes with the association of the name or, if none exists, an
+   * empty optional.
+   */
+  @NonNull
+  public CompletableFuture<Optional<ProfileId>> submit(@NonNull String name) {
+    String key = name.toLowerCase(Locale.ROOT);
+    Map<String, Entry> batch = null;
+    CompletableFuture<Optional<ProfileId>> future;
+
+    synchronized (this.lock) {
+      Entry entry = this.pending.get(key);
+
+      if (entry == null) {
+        entry = new Entry(name);
+        this.pending.put(key, entry);
+
+        if (this.closed || this.pending.size() >= this.maximumBatchSize) {
+          batch = this.swap();
+        } else if (this.scheduledFlush == null) {
+          try {
+            this.scheduledFlush = this.scheduler
+                .schedule(this::flush, this.window.toNanos(), TimeUnit.NANOSECONDS);
+          } catch (RejectedExecutionException ex) {
+            // the scheduler has been shut down - the name is thus looked up right away
+            batch = this.swap();
+          }
+        }
+      }
+
+      future = entry.future;
+    }
+
+    if (batch != null) {
+      this.dispatch(batch);
+    }
+
+    return future.thenApply(Function.identity());
+  }
+
+  /**
+   * Dispatches all pending names immediately.
+   */
+  public void flush() {
+    Map<String, Entry> batch;
+
+    synchronized (this.lock) {
+      batch = this.swap();
+    }
+
+    this.dispatch(batch);
+  }
+
+  /**
+   * Dispatches all pending names immediately and disables batching for all subsequently
+   * submitted names.
+   *
+   * <p>This method is invoked before the scheduler is shut down since pending names would
+   * otherwise never be dispatched (and their lookups would never complete).</p>
+   */
+  public void close() {
+    synchronized (this.lock) {
+      this.closed = true;
+    }
+
+    this.flush();
+  }
+
+  /**
+   * Replaces the current batch with an empty batch and cancels its scheduled flush (must be called
+   * while holding the lock).
+   *
+   * @return the previously pending batch.
+   */
+  @NonNull
+  private Map<String, Entry> swap() {
+    Map<String, Entry> batch = this.pending;
+    this.pending = new HashMap<>();
+
+    if (this.scheduledFlush != null) {
+      this.scheduledFlush.cancel(false);
+      this.scheduledFlush = null;
+    }
+
+    return batch;
+  }
+
+  /**
+   * Issues a bulk request for a given batch and completes its entries once a response has been
+   * received.
+   *
+   * @param batch a batch.
+   */
+  private void dispatch(@NonNull Map<String, Entry> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    List<String> names = new ArrayList<>(batch.size());
+    batch.values().forEach((e) -> names.add(e.name));
+
+    CompletableFuture<List<ProfileId>> future;
+    try {
+      future = this.request.apply(names);
+    } catch (RuntimeException ex) {
+      batch.values().forEach((e) -> e.future.completeExceptionally(ex));
+      return;
+    }
+
+    future.whenComplete((ids, ex) -> {
+      if (ex != null) {
+        Throwable cause = FutureUtility.unwrap(ex);
+        batch.values().forEach((e) -> e.future.completeExceptionally(cause));
+        return;
+      }
+
+      for (ProfileId id : ids) {
+        Entry entry = batch.get(id.getName().toLowerCase(Locale.ROOT));
+
+        if (entry != null) {
+          entry.future.complete(Optional.of(id));
+        }
+      }
+
+      // the server omits names without association - as such, anything which is left at this
+      // point has simply not been found
+      batch.values().forEach((e) -> e.future.complete(Optional.empty()));
+    });
+  }
+
+  /**
+   * Represents a single name within a batch.
+   */
+  private static final class Entry {
+
+    private final String name;
+    private final CompletableFuture<Optional<ProfileId>> future = new CompletableFuture<>();
+
+    private Entry(@NonNull String name) {
+      this.name = name;
+    }
+  }
+}
@@ -16,7 +16,14 @@
  */
 package io.github.dotstart.stockpile.operations;
 
+import com.google.common.collect.Lists;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.cache.ProfileCache;
+import io.github.dotstart.stockpile.cache.ProfileIdCache;
+import io.github.dotstart.stockpile.channel.CallPriority;
+import io.github.dotstart.stockpile.channel.LimitingInterceptor;
+import io.github.dotstart.stockpile.entity.event.ProfileIdKey;
 import io.github.dotstart.stockpile.entity.profile.NameChangeHistory;
 import io.github.dotstart.stockpile.entity.profile.ProfileId;
 import io.github.dotstart.stockpile.rpc.Common;
@@ -25,25 +32,144 @@ import io.github.dotstart.stockpile.rpc.Profile.BulkIdRequest;
 import io.github.dotstart.stockpile.rpc.Profile.GetIdRequest;
 import io.github.dotstart.stockpile.rpc.Profile.IdRequest;
 import io.github.dotstart.stockpile.rpc.Profile.NameHistory;
+import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc;
 import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc.ProfileServiceBlockingStub;
+import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc.ProfileServiceFutureStub;
+import io.github.dotstart.stockpile.utility.FutureUtility;
+import io.github.dotstart.stockpile.utility.RequestCoalescer;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
- * Provides access to various profile related operations.
+ * <p>Provides access to various profile related operations.</p>
+ *
+ * <p>Each operation is available in a blocking and a non-blocking variant. Non-blocking variants
+ * return a {@link CompletableFuture} which is completed on the configured callback executor (this
+ * also applies to the conversion of RPC messages into their respective entity
+ * representations).</p>
+ *
+ * <p>When a {@link ProfileIdCache} has been configured, name lookups are answered from memory for
+ * as long as the respective association remains valid. Similarly, profiles are served from a
+ * {@link ProfileCache} when one is present.</p>
+ *
+ * <p>Concurrent lookups for the same key (such as the same profile identifier or the same name and
+ * timestamp) are coalesced into a single request while they are in flight. Additionally, lookups
+ * of associations at the current time may be merged into bulk requests when a
+ * {@link ProfileIdBatcher} has been configured.</p>
  *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
 public class ProfileOperations {
 
-  private final ProfileServiceBlockingStub service;
+  /**
+   * Specifies the default maximum amount of names which are passed to the server within a single
+   * bulk request.
+   */
+  public static final int DEFAULT_BULK_CHUNK_SIZE = 1000;
+
+  /**
+   * Specifies the default maximum amount of bulk requests which are in flight at the same time
+   * when resolving large inputs.
+   */
+  public static final int DEFAULT_BULK_PARALLELISM = 4;
+
+  private final ProfileServiceFutureStub service;
+  private final Executor executor;
+  private final ProfileIdCache idCache;
+  private final ProfileCache profileCache;
+  private final ProfileIdBatcher batcher;
+  private final int bulkChunkSize;
+  private final int bulkParallelism;
 
+  private final RequestCoalescer<ProfileIdKey, Optional<ProfileId>> idRequests =
+      new RequestCoalescer<>();
+  private final RequestCoalescer<UUID, Optional<NameChangeHistory>> nameHistoryRequests =
+      new RequestCoalescer<>();
+  private final RequestCoalescer<UUID, Optional<io.github.dotstart.stockpile.entity.profile.Profile>> profileRequests =
+      new RequestCoalescer<>();
+
+  /**
+   * @param service a blocking stub.
+   * @deprecated Use {@link #ProfileOperations(ProfileServiceFutureStub, Executor)} instead.
+   * Only the deadline of the passed stub is retained and results are converted on the common
+   * fork join pool.
+   */
+  @Deprecated
   public ProfileOperations(@NonNull ProfileServiceBlockingStub service) {
+    this(ProfileServiceGrpc.newFutureStub(service.getChannel())
+            .withDeadline(service.getCallOptions().getDeadline()),
+        ForkJoinPool.commonPool());
+  }
+
+  public ProfileOperations(
+      @NonNull ProfileServiceFutureStub service,
+      @NonNull Executor executor) {
+    this(service, executor, null, null, null, DEFAULT_BULK_CHUNK_SIZE, DEFAULT_BULK_PARALLELISM);
+  }
+
+  public ProfileOperations(
+      @NonNull ProfileServiceFutureStub service,
+      @NonNull Executor executor,
+      @Nullable ProfileIdCache idCache,
+      @Nullable ProfileCache profileCache,
+      @Nullable ProfileIdBatcher batcher,
+      int bulkChunkSize,
+      int bulkParallelism) {
+    if (bulkChunkSize <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal chunk size: Expected a positive value but got " + bulkChunkSize);
+    }
+    if (bulkParallelism <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal parallelism: Expected a positive value but got " + bulkParallelism);
+    }
+
     this.service = service;
+    this.executor = executor;
+    this.idCache = idCache;
+    this.profileCache = profileCache;
+    this.batcher = batcher;
+    this.bulkChunkSize = bulkChunkSize;
+    this.bulkParallelism = bulkParallelism;
+
+    if (batcher != null) {
+      // batches replace individual lookups and are thus not subject to the priority of explicit
+      // bulk lookups
+      ProfileServiceFutureStub batchService = service
+          .withOption(LimitingInterceptor.PRIORITY, CallPriority.NORMAL);
+      batcher.attach((names) -> this.bulkGetProfileIdAsync(batchService, names));
+    }
+  }
+
+  /**
+   * Retrieves the cache which stores name to profile associations.
+   *
+   * @return a cache or, if caching of associations has been disabled, an empty optional.
+   */
+  @NonNull
+  public Optional<ProfileIdCache> getProfileIdCache() {
+    return Optional.ofNullable(this.idCache);
+  }
+
+  /**
+   * Retrieves the cache which stores complete profiles.
+   *
+   * @return a cache or, if caching of profiles has been disabled, an empty optional.
+   */
+  @NonNull
+  public Optional<ProfileCache> getProfileCache() {
+    return Optional.ofNullable(this.profileCache);
   }
 
   /**
@@ -55,18 +181,57 @@ public class ProfileOperations {
    */
   @NonNull
   public Optional<ProfileId> getProfileId(@NonNull String displayName, @NonNull Instant at) {
-    Profile.ProfileId rpc = this.service.getId(
-        GetIdRequest.newBuilder()
-            .setName(displayName)
-            .setTimestamp(at.getEpochSecond())
-            .build()
-    );
+    return FutureUtility.await(this.getProfileIdAsync(displayName, at));
+  }
 
-    if (rpc.getName().isEmpty()) {
-      return Optional.empty();
+  /**
+   * Retrieves the profile Id which is associated with a given name at a given time without
+   * blocking the calling thread.
+   *
+   * @param displayName a display name.
+   * @param at a timestamp.
+   * @return a future which completes with a profile association or, if none is associated, an
+   * empty optional.
+   * @see #getProfileId(String, Instant)
+   */
+  @NonNull
+  public CompletableFuture<Optional<ProfileId>> getProfileIdAsync(
+      @NonNull String displayName,
+      @NonNull Instant at) {
+    if (this.idCache != null) {
+      Optional<ProfileId> cached = this.idCache.get(displayName, at);
+
+      if (cached.isPresent()) {
+        return CompletableFuture.completedFuture(cached);
+      }
+    }
+
+    ProfileIdKey key = new ProfileIdKey(displayName.toLowerCase(Locale.ROOT),
+        Instant.ofEpochSecond(at.getEpochSecond()));
+    if (this.batcher != null && this.batcher.isBatchable(at)) {
+      return this.idRequests.execute(key, () -> this.batcher.submit(displayName));
     }
 
-    return Optional.of(new ProfileId(rpc));
+    return this.idRequests.execute(key, () -> FutureUtility.toCompletableFuture(
+        this.service.getId(
+            GetIdRequest.newBuilder()
+                .setName(displayName)
+                .setTimestamp(at.getEpochSecond())
+                .build()
+        ),
+        (rpc) -> {
+          if (rpc.getName().isEmpty()) {
+            return Optional.empty();
+          }
+
+          ProfileId id = new ProfileId(rpc);
+          if (this.idCache != null) {
+            this.idCache.put(id);
+          }
+          return Optional.of(id);
+        },
+        this.executor
+    ));
   }
 
   /**
@@ -78,15 +243,90 @@ public class ProfileOperations {
    */
   @NonNull
   public List<ProfileId> bulkGetProfileId(@NonNull Collection<String> names) {
-    Profile.BulkIdResponse rpc = this.service.bulkGetId(
-        BulkIdRequest.newBuilder()
-            .addAllNames(names)
-            .build()
-    );
+    return FutureUtility.await(this.bulkGetProfileIdAsync(names));
+  }
+
+  /**
+   * <p>Retrieves multiple profile Ids which are associated with the given names at the current
+   * time without blocking the calling thread.</p>
+   *
+   * <p>Names are de-duplicated (ignoring their case) before they are passed to the server. Large
+   * inputs are split into chunks which are requested concurrently.</p>
+   *
+   * @param names a collection of display names.
+   * @return a future which completes with a list of associations and their case corrected names
+   * or, if no associations were found, an empty list.
+   * @see #bulkGetProfileId(Collection)
+   */
+  @NonNull
+  public CompletableFuture<List<ProfileId>> bulkGetProfileIdAsync(
+      @NonNull Collection<String> names) {
+    return this.bulkGetProfileIdAsync(this.service, names);
+  }
+
+  /**
+   * Retrieves multiple profile Ids using a given stub.
+   *
+   * @param service a stub.
+   * @param names a collection of display names.
+   * @return a future which completes with a list of associations.
+   * @see #bulkGetProfileIdAsync(Collection)
+   */
+  @NonNull
+  private CompletableFuture<List<ProfileId>> bulkGetProfileIdAsync(
+      @NonNull ProfileServiceFutureStub service,
+      @NonNull Collection<String> names) {
+    Set<String> seen = new HashSet<>();
+    List<String> unique = new ArrayList<>(names.size());
+
+    for (String name : names) {
+      if (seen.add(name.toLowerCase(Locale.ROOT))) {
+        unique.add(name);
+      }
+    }
+
+    if (unique.size() <= this.bulkChunkSize) {
+      return this.requestBulkProfileId(service, unique);
+    }
+
+    return FutureUtility.fanOut(
+        Lists.partition(unique, this.bulkChunkSize),
+        (chunk) -> this.requestBulkProfileId(service, chunk),
+        this.bulkParallelism
+    ).thenApply((chunks) -> chunks.stream()
+        .flatMap(List::stream)
+        .collect(Collectors.toList()));
+  }
+
+  /**
+   * Issues a single bulk request for the given set of names.
+   *
+   * @param service a stub.
+   * @param names a list of unique display names.
+   * @return a future which completes with a list of associations.
+   */
+  @NonNull
+  private CompletableFuture<List<ProfileId>> requestBulkProfileId(
+      @NonNull ProfileServiceFutureStub service,
+      @NonNull List<String> names) {
+    return FutureUtility.toCompletableFuture(
+        service.bulkGetId(
+            BulkIdRequest.newBuilder()
+                .addAllNames(names)
+                .build()
+        ),
+        (Profile.BulkIdResponse rpc) -> {
+          List<ProfileId> ids = rpc.getIdsList().stream()
+              .map(ProfileId::new)
+              .collect(Collectors.toList());
 
-    return rpc.getIdsList().stream()
-        .map(ProfileId::new)
-        .collect(Collectors.toList());
+          if (this.idCache != null) {
+            ids.forEach(this.idCache::put);
+          }
+          return ids;
+        },
+        this.executor
+    );
   }
 
   /**
@@ -97,17 +337,29 @@ public class ProfileOperations {
    */
   @NonNull
   public Optional<NameChangeHistory> getNameHistory(@NonNull UUID id) {
-    NameHistory rpc = this.service.getNameHistory(
-        IdRequest.newBuilder()
-            .setId(id.toString())
-            .build()
-    );
-
-    if (rpc.getHistoryList().isEmpty()) {
-      return Optional.empty();
-    }
+    return FutureUtility.await(this.getNameHistoryAsync(id));
+  }
 
-    return Optional.of(new NameChangeHistory(rpc));
+  /**
+   * Retrieves a history of name changes for a given profile without blocking the calling thread.
+   *
+   * @param id a profile Id.
+   * @return a future which completes with a list of name changes or, if no such profile exists, an
+   * empty optional.
+   * @see #getNameHistory(UUID)
+   */
+  @NonNull
+  public CompletableFuture<Optional<NameChangeHistory>> getNameHistoryAsync(@NonNull UUID id) {
+    return this.nameHistoryRequests.execute(id, () -> FutureUtility.toCompletableFuture(
+        this.service.getNameHistory(
+            IdRequest.newBuilder()
+                .setId(id.toString())
+                .build()
+        ),
+        (NameHistory rpc) -> rpc.getHistoryList().isEmpty() ? Optional.empty()
+            : Optional.of(new NameChangeHistory(rpc)),
+        this.executor
+    ));
   }
 
   /**
@@ -119,16 +371,48 @@ public class ProfileOperations {
   @NonNull
   public Optional<io.github.dotstart.stockpile.entity.profile.Profile> getProfile(
       @NonNull UUID id) {
-    Common.Profile rpc = this.service.getProfile(
-        IdRequest.newBuilder()
-            .setId(id.toString())
-            .build()
-    );
+    return FutureUtility.await(this.getProfileAsync(id));
+  }
 
-    if (rpc.getId().isEmpty()) {
-      return Optional.empty();
+  /**
+   * Retrieves a profile based on its identifier without blocking the calling thread.
+   *
+   * @param id a profile Id.
+   * @return a future which completes with a profile or, if no such profile exists, an empty
+   * optional.
+   * @see #getProfile(UUID)
+   */
+  @NonNull
+  public CompletableFuture<Optional<io.github.dotstart.stockpile.entity.profile.Profile>> getProfileAsync(
+      @NonNull UUID id) {
+    if (this.profileCache != null) {
+      Optional<io.github.dotstart.stockpile.entity.profile.Profile> cached = this.profileCache
+          .get(id);
+
+      if (cached.isPresent()) {
+        return CompletableFuture.completedFuture(cached);
+      }
     }
 
-    return Optional.of(new io.github.dotstart.stockpile.entity.profile.Profile(rpc));
+    return this.profileRequests.execute(id, () -> FutureUtility.toCompletableFuture(
+        this.service.getProfile(
+            IdRequest.newBuilder()
+                .setId(id.toString())
+                .build()
+        ),
+        (Common.Profile rpc) -> {
+          if (rpc.getId().isEmpty()) {
+            return Optional.empty();
+          }
+
+          io.github.dotstart.stockpile.entity.profile.Profile profile =
+              new io.github.dotstart.stockpile.entity.profile.Profile(rpc);
+          if (this.profileCache != null) {
+            this.profileCache.put(profile);
+          }
+          return Optional.of(profile);
+        },
+        this.executor
+    ));
   }
 }
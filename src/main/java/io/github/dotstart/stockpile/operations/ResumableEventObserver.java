@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+
+/**
+ * Receives the events of a {@link ResumableEventSubscription}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public interface ResumableEventObserver {
+
+  /**
+   * Handles a single event. The event is considered acknowledged once this method returns.
+   *
+   * @param event an event.
+   */
+  void onEvent(@NonNull Event<?, ?> event);
+
+  /**
+   * Handles a range of events which have been lost and will never be delivered.
+   *
+   * @param gap a gap.
+   */
+  void onGap(@NonNull EventGap gap);
+
+  /**
+   * Handles the interruption of the underlying stream.
+   *
+   * @param cause a cause or null if the server closed the stream normally.
+   * @param reconnectDelay a delay (in milliseconds) after which the stream will be resumed.
+   */
+  default void onDisconnect(@Nullable Throwable cause, long reconnectDelay) {
+  }
+}
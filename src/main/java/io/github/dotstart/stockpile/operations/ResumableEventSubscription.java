@@ -0,0 +1,340 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.utility.Backoff;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Represents an event stream subscription which survives interruptions of the underlying
+ * stream.</p>
+ *
+ * <p>Whenever the stream fails or is closed by the server, a new stream is opened after a jittered
+ * exponential delay. The new stream resumes after the last event which has been acknowledged by
+ * the observer (e.g. the last event for which {@link ResumableEventObserver#onEvent(Event)}
+ * returned normally). Events which are replayed more than once are discarded.</p>
+ *
+ * <p>When an event does not directly succeed the last acknowledged event (for instance, because
+ * the server no longer retains the events which were emitted during an interruption), the observer
+ * is notified about the range of sequence numbers which may contain missed events. Streams which
+ * are interrupted before any event has been acknowledged are resumed after the most recent event
+ * which the server reported when the stream was established. If the server does not assign
+ * sequence numbers (as indicated by the events it has passed so far) or has not reported any
+ * position, the stream cannot be resumed at a known position and an unbounded gap is reported
+ * whenever the stream is interrupted instead.</p>
+ *
+ * <p>The reconnect delay is reset once the server has accepted a new stream.</p>
+ *
+ * <p>Exceptions thrown by the observer terminate the current stream. The failed event has not been
+ * acknowledged and is thus delivered again once the stream has been resumed. Events which
+ * repeatedly fail to be processed are eventually acknowledged regardless and reported to the
+ * observer as a gap.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ResumableEventSubscription {
+
+  /**
+   * Specifies the amount of times an event is passed to an observer which fails to process it
+   * before the event is skipped.
+   */
+  private static final int MAXIMUM_DELIVERY_ATTEMPTS = 3;
+
+  private final EventOperations operations;
+  private final ResumableEventObserver observer;
+  private final EventFilter filter;
+  private final ScheduledExecutorService scheduler;
+  private final Backoff backoff;
+  private final int prefetch;
+
+  private final Object lock = new Object();
+  private Connection connection;
+  private ScheduledFuture<?> reconnect;
+  private int attempt;
+  private boolean cancelled;
+  private volatile long acknowledged;
+  private volatile boolean unsequenced;
+  private long failedSequence;
+  private int failures;
+
+  /**
+   * @param operations an operations instance which is used to open the underlying streams.
+   * @param observer an observer which is notified about events and gaps.
+   * @param filter a filter which restricts the stream to a subset of events.
+   * @param scheduler an executor on which reconnects are scheduled.
+   * @param backoff a backoff which computes the delay between reconnects.
+   * @param prefetch an amount of events to request ahead of the observer.
+   * @param resumeAfter the sequence number of the last processed event or zero to start with new
+   * events.
+   */
+  ResumableEventSubscription(
+      @NonNull EventOperations operations,
+      @NonNull ResumableEventObserver observer,
+      @NonNull EventFilter filter,
+      @NonNull ScheduledExecutorService scheduler,
+      @NonNull Backoff backoff,
+      int prefetch,
+      long resumeAfter) {
+    this.operations = operations;
+    this.observer = observer;
+    this.filter = filter;
+    this.scheduler = scheduler;
+    this.backoff = backoff;
+    this.prefetch = prefetch;
+    this.acknowledged = resumeAfter;
+  }
+
+  /**
+   * Opens a new stream which resumes after the last acknowledged event.
+   */
+  void connect() {
+    synchronized (this.lock) {
+      if (this.cancelled) {
+        return;
+      }
+
+      Connection connection = new Connection();
+      this.reconnect = null;
+      this.connection = connection;
+      connection.subscription = this.operations
+          .open(this.filter, this.acknowledged, connection, connection, this.prefetch);
+    }
+  }
+
+  /**
+   * Retrieves the sequence number of the last event which has been acknowledged by the observer.
+   *
+   * @return a sequence number or zero if no sequenced event has been acknowledged yet.
+   */
+  public long getAcknowledgedSequence() {
+    return this.acknowledged;
+  }
+
+  /**
+   * Cancels this subscription and its underlying stream (if any).
+   */
+  public void cancel() {
+    this.operations.release(this);
+
+    synchronized (this.lock) {
+      this.cancelled = true;
+
+      if (this.reconnect != null) {
+        this.reconnect.cancel(false);
+        this.reconnect = null;
+      }
+      if (this.connection != null) {
+        this.connection.subscription.cancel();
+        this.connection = null;
+      }
+    }
+  }
+
+  /**
+   * Evaluates whether this subscription has been cancelled.
+   *
+   * @return true if cancelled, false otherwise.
+   */
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * Represents a single stream (e.g. the lifetime of the subscription between two interruptions).
+   */
+  private final class Connection implements StreamObserver<Event<?, ?>>,
+      EventSubscription.StreamListener {
+
+    private EventSubscription subscription;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEstablished(long headSequence) {
+      ResumableEventSubscription self = ResumableEventSubscription.this;
+
+      synchronized (self.lock) {
+        self.attempt = 0;
+      }
+
+      // streams which are opened without a position only carry events which are emitted once they
+      // have been established and are thus resumed after the most recent event at this point
+      if (self.acknowledged == 0) {
+        self.acknowledged = headSequence;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onNext(Event<?, ?> value) {
+      ResumableEventSubscription self = ResumableEventSubscription.this;
+
+      long sequence = value.getSequence();
+      if (!this.advance(sequence, value.getPreviousSequence())) {
+        return;
+      }
+
+      if (sequence == 0) {
+        self.unsequenced = true;
+        self.observer.onEvent(value);
+        return;
+      }
+
+      try {
+        self.observer.onEvent(value);
+      } catch (RuntimeException ex) {
+        if (!this.skipFailed(sequence)) {
+          throw ex;
+        }
+
+        // the stream would otherwise be resumed at the very same event indefinitely
+        self.acknowledged = sequence;
+        self.observer.onGap(EventGap.of(value));
+        return;
+      }
+
+      self.acknowledged = sequence;
+    }
+
+    /**
+     * Records a failure of the observer to process a given event.
+     *
+     * @param sequence the sequence number of the failed event.
+     * @return true if the event has failed too often and is to be skipped, false otherwise.
+     */
+    private boolean skipFailed(long sequence) {
+      ResumableEventSubscription self = ResumableEventSubscription.this;
+
+      synchronized (self.lock) {
+        if (self.failedSequence != sequence) {
+          self.failedSequence = sequence;
+          self.failures = 0;
+        }
+
+        return ++self.failures >= MAXIMUM_DELIVERY_ATTEMPTS;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSkipped(long sequence, long previousSequence, @Nullable EventKey lost) {
+      ResumableEventSubscription self = ResumableEventSubscription.this;
+
+      if (!this.advance(sequence, previousSequence)) {
+        return;
+      }
+
+      // events which are discarded by the client are acknowledged right away as the next event
+      // would otherwise appear to be preceded by a gap
+      if (sequence == 0) {
+        self.unsequenced = true;
+      } else {
+        self.acknowledged = sequence;
+      }
+
+      if (lost != null) {
+        self.observer.onGap(EventGap.of(sequence, lost));
+      }
+    }
+
+    /**
+     * Discards replayed events and reports the gap between the last acknowledged event and a
+     * given event (if any).
+     *
+     * @param sequence the sequence number of an event.
+     * @param previousSequence the sequence number of its preceding event or zero if unknown.
+     * @return true if the event has not been processed yet, false otherwise.
+     */
+    private boolean advance(long sequence, long previousSequence) {
+      ResumableEventSubscription self = ResumableEventSubscription.this;
+
+      long acknowledged = self.acknowledged;
+      if (sequence != 0 && acknowledged != 0) {
+        if (sequence <= acknowledged) {
+          return false;
+        }
+
+        // filtered streams are not contiguous and thus reference their preceding event explicitly
+        long previous = previousSequence != 0 ? previousSequence : sequence - 1;
+        if (previous > acknowledged) {
+          self.observer.onGap(EventGap.of(acknowledged + 1, previous));
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(Throwable t) {
+      this.terminate(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCompleted() {
+      this.terminate(null);
+    }
+
+    /**
+     * Schedules the re-establishment of the stream.
+     *
+     * @param cause a cause or null if the stream was closed normally.
+     */
+    private void terminate(@Nullable Throwable cause) {
+      ResumableEventSubscription self = ResumableEventSubscription.this;
+      long delay;
+
+      synchronized (self.lock) {
+        if (self.cancelled || self.connection != this) {
+          return;
+        }
+
+        delay = self.backoff.getDelay(self.attempt++);
+        self.connection = null;
+        self.reconnect = self.scheduler.schedule(self::connect, delay, TimeUnit.MILLISECONDS);
+      }
+
+      // without a sequence number to resume after (e.g. when the server neither assigns sequence
+      // numbers nor reports its position), the new stream will only carry events which are emitted
+      // once it has been established - as such, we cannot tell which events will be missed during
+      // the interruption and thus have to assume the worst
+      if (self.unsequenced || self.acknowledged == 0) {
+        self.observer.onGap(EventGap.unbounded());
+      }
+      self.observer.onDisconnect(cause, delay);
+    }
+  }
+}
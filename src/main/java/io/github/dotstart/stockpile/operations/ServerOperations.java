@@ -19,27 +19,82 @@ package io.github.dotstart.stockpile.operations;
 import com.google.protobuf.Empty;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import io.github.dotstart.stockpile.cache.BlacklistCache;
 import io.github.dotstart.stockpile.entity.profile.Profile;
 import io.github.dotstart.stockpile.entity.server.Blacklist;
+import io.github.dotstart.stockpile.rpc.Server.BlacklistUpdate;
+import io.github.dotstart.stockpile.rpc.Server.BlacklistUpdateRequest;
 import io.github.dotstart.stockpile.rpc.Server.CheckBlacklistRequest;
 import io.github.dotstart.stockpile.rpc.Server.CheckBlacklistResponse;
 import io.github.dotstart.stockpile.rpc.Server.LoginRequest;
+import io.github.dotstart.stockpile.rpc.ServerServiceGrpc;
 import io.github.dotstart.stockpile.rpc.ServerServiceGrpc.ServerServiceBlockingStub;
+import io.github.dotstart.stockpile.rpc.ServerServiceGrpc.ServerServiceFutureStub;
+import io.github.dotstart.stockpile.utility.FutureUtility;
+import io.grpc.Status.Code;
+import io.grpc.StatusRuntimeException;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Provides access to various server related operations.
+ * <p>Provides access to various server related operations.</p>
+ *
+ * <p>Each operation is available in a blocking and a non-blocking variant. Non-blocking variants
+ * complete on the configured callback executor.</p>
+ *
+ * <p>When a {@link BlacklistCache} has been configured, blacklist checks are evaluated locally
+ * using the most recently retrieved copy of the blacklist (given that one has been retrieved
+ * already).</p>
  *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
 public class ServerOperations {
 
-  private final ServerServiceBlockingStub service;
+  private final ServerServiceFutureStub service;
+  private final Executor executor;
+  private final BlacklistCache blacklistCache;
 
+  /**
+   * @param service a blocking stub.
+   * @deprecated Use {@link #ServerOperations(ServerServiceFutureStub, Executor)} instead.
+   * Only the deadline of the passed stub is retained and results are converted on the common
+   * fork join pool.
+   */
+  @Deprecated
   public ServerOperations(@NonNull ServerServiceBlockingStub service) {
+    this(ServerServiceGrpc.newFutureStub(service.getChannel())
+            .withDeadline(service.getCallOptions().getDeadline()),
+        ForkJoinPool.commonPool());
+  }
+
+  public ServerOperations(
+      @NonNull ServerServiceFutureStub service,
+      @NonNull Executor executor) {
+    this(service, executor, null);
+  }
+
+  public ServerOperations(
+      @NonNull ServerServiceFutureStub service,
+      @NonNull Executor executor,
+      @Nullable BlacklistCache blacklistCache) {
     this.service = service;
+    this.executor = executor;
+    this.blacklistCache = blacklistCache;
+  }
+
+  /**
+   * Retrieves the cache which stores the local copy of the server blacklist.
+   *
+   * @return a cache or, if blacklist checks are evaluated by the server, an empty optional.
+   */
+  @NonNull
+  public Optional<BlacklistCache> getBlacklistCache() {
+    return Optional.ofNullable(this.blacklistCache);
   }
 
   /**
@@ -49,7 +104,143 @@ public class ServerOperations {
    */
   @NonNull
   public Blacklist getBlacklist() {
-    return new Blacklist(this.service.getBlacklist(Empty.getDefaultInstance()));
+    return FutureUtility.await(this.getBlacklistAsync());
+  }
+
+  /**
+   * Retrieves the complete server blacklist without blocking the calling thread.
+   *
+   * @return a future which completes with the blacklist.
+   * @see #getBlacklist()
+   */
+  @NonNull
+  public CompletableFuture<Blacklist> getBlacklistAsync() {
+    return this.fetchBlacklistAsync(this.getCachedBlacklist());
+  }
+
+  /**
+   * Retrieves the complete server blacklist and replaces the local copy of the blacklist unless it
+   * has been replaced while the request was in flight.
+   *
+   * @param cached the local copy at the time the request is issued or null if not present.
+   * @return a future which completes with the blacklist.
+   */
+  @NonNull
+  private CompletableFuture<Blacklist> fetchBlacklistAsync(@Nullable Blacklist cached) {
+    return FutureUtility.toCompletableFuture(
+        this.service.getBlacklist(Empty.getDefaultInstance()),
+        (rpc) -> this.updateBlacklistCache(cached, new Blacklist(rpc)),
+        this.executor
+    );
+  }
+
+  /**
+   * Retrieves the server blacklist given a previously retrieved version.
+   *
+   * @param previous a previously retrieved blacklist.
+   * @return the passed blacklist (if unmodified) or an updated blacklist.
+   */
+  @NonNull
+  public Blacklist getBlacklist(@NonNull Blacklist previous) {
+    return FutureUtility.await(this.getBlacklistAsync(previous));
+  }
+
+  /**
+   * <p>Retrieves the server blacklist given a previously retrieved version without blocking the
+   * calling thread.</p>
+   *
+   * <p>When the previous blacklist carries a version token, only the changes since this version are
+   * transferred (or nothing at all if the blacklist remains unmodified). Otherwise, or if the
+   * server does not support conditional retrieval, the complete blacklist is retrieved
+   * instead.</p>
+   *
+   * @param previous a previously retrieved blacklist.
+   * @return a future which completes with the passed blacklist (if unmodified) or an updated
+   * blacklist.
+   * @see #getBlacklist(Blacklist)
+   */
+  @NonNull
+  public CompletableFuture<Blacklist> getBlacklistAsync(@NonNull Blacklist previous) {
+    // responses are only applied to the local copy while it remains unchanged (for instance, a
+    // more recent version may be received via the event stream while the request is in flight)
+    Blacklist cached = this.getCachedBlacklist();
+
+    Optional<String> version = previous.getVersion();
+    if (!version.isPresent()) {
+      return this.fetchBlacklistAsync(cached);
+    }
+
+    CompletableFuture<Blacklist> result = new CompletableFuture<>();
+    FutureUtility.toCompletableFuture(
+        this.service.getBlacklistUpdate(
+            BlacklistUpdateRequest.newBuilder()
+                .setVersion(version.get())
+                .build()
+        ),
+        (BlacklistUpdate rpc) -> {
+          switch (rpc.getType()) {
+            case NOT_MODIFIED:
+              // the local copy has been confirmed to be current and is thus marked as such
+              return this.updateBlacklistCache(cached, previous);
+            case DELTA:
+              return this.updateBlacklistCache(cached, previous.apply(
+                  rpc.getAddedHashesList(), rpc.getRemovedHashesList(), rpc.getVersion()));
+            default:
+              return this.updateBlacklistCache(cached, new Blacklist(rpc.getBlacklist()));
+          }
+        },
+        this.executor
+    ).whenComplete((blacklist, ex) -> {
+      if (ex == null) {
+        result.complete(blacklist);
+        return;
+      }
+
+      Throwable cause = FutureUtility.unwrap(ex);
+      if (cause instanceof StatusRuntimeException
+          && ((StatusRuntimeException) cause).getStatus().getCode() == Code.UNIMPLEMENTED) {
+        this.fetchBlacklistAsync(cached).whenComplete((fallback, fallbackEx) -> {
+          if (fallbackEx != null) {
+            result.completeExceptionally(FutureUtility.unwrap(fallbackEx));
+          } else {
+            result.complete(fallback);
+          }
+        });
+        return;
+      }
+
+      result.completeExceptionally(cause);
+    });
+    return result;
+  }
+
+  /**
+   * Retrieves the local copy of the blacklist (if local evaluation is enabled).
+   *
+   * @return a blacklist or null if not present.
+   */
+  @Nullable
+  private Blacklist getCachedBlacklist() {
+    return this.blacklistCache == null ? null : this.blacklistCache.get().orElse(null);
+  }
+
+  /**
+   * Replaces the local copy of the blacklist (if local evaluation is enabled) unless it has been
+   * replaced since the request which produced the new blacklist has been issued.
+   *
+   * @param cached the local copy at the time the request was issued or null if not present.
+   * @param blacklist a blacklist.
+   * @return the passed blacklist.
+   */
+  @NonNull
+  private Blacklist updateBlacklistCache(
+      @Nullable Blacklist cached,
+      @NonNull Blacklist blacklist) {
+    if (this.blacklistCache != null) {
+      this.blacklistCache.update(cached, blacklist);
+    }
+
+    return blacklist;
   }
 
   /**
@@ -61,13 +252,48 @@ public class ServerOperations {
    */
   @NonNull
   public Set<String> checkBlacklist(@NonNull Collection<String> addresses) {
-    CheckBlacklistResponse rpc = this.service.checkBlacklist(
-        CheckBlacklistRequest.newBuilder()
-            .addAllAddresses(addresses)
-            .build()
-    );
+    return FutureUtility.await(this.checkBlacklistAsync(addresses));
+  }
+
+  /**
+   * Checks the collection of hostnames or IP addresses against the blacklist without blocking the
+   * calling thread.
+   *
+   * @param addresses a collection of addresses.
+   * @return a future which completes with a collection of matched addresses.
+   * @see #checkBlacklist(Collection)
+   */
+  @NonNull
+  public CompletableFuture<Set<String>> checkBlacklistAsync(
+      @NonNull Collection<String> addresses) {
+    if (this.blacklistCache != null) {
+      Optional<Blacklist> blacklist = this.blacklistCache.get();
+
+      if (blacklist.isPresent()) {
+        Set<String> matches = new HashSet<>();
+        try {
+          for (String address : addresses) {
+            if (blacklist.get().isBlacklisted(address)) {
+              matches.add(address);
+            }
+          }
+        } catch (IllegalArgumentException ex) {
+          // malformed addresses are reported through the future just like server side failures
+          return FutureUtility.failed(ex);
+        }
+        return CompletableFuture.completedFuture(matches);
+      }
+    }
 
-    return new HashSet<>(rpc.getMatchedAddressesList());
+    return FutureUtility.toCompletableFuture(
+        this.service.checkBlacklist(
+            CheckBlacklistRequest.newBuilder()
+                .addAllAddresses(addresses)
+                .build()
+        ),
+        (CheckBlacklistResponse rpc) -> new HashSet<>(rpc.getMatchedAddressesList()),
+        this.executor
+    );
   }
 
   /**
@@ -80,12 +306,33 @@ public class ServerOperations {
    */
   @NonNull
   public Profile login(@NonNull String displayName, @NonNull String serverId, @Nullable String ip) {
-    return new Profile(this.service.login(
-        LoginRequest.newBuilder()
-            .setDisplayName(displayName)
-            .setServerId(serverId)
-            .setIp(ip == null ? "" : ip)
-            .build()
-    ));
+    return FutureUtility.await(this.loginAsync(displayName, serverId, ip));
+  }
+
+  /**
+   * Performs a cache assisted login against the session API without blocking the calling thread.
+   *
+   * @param displayName a display name.
+   * @param serverId a server Id.
+   * @param ip an ip address.
+   * @return a future which completes with the authenticated profile.
+   * @see #login(String, String, String)
+   */
+  @NonNull
+  public CompletableFuture<Profile> loginAsync(
+      @NonNull String displayName,
+      @NonNull String serverId,
+      @Nullable String ip) {
+    return FutureUtility.toCompletableFuture(
+        this.service.login(
+            LoginRequest.newBuilder()
+                .setDisplayName(displayName)
+                .setServerId(serverId)
+                .setIp(ip == null ? "" : ip)
+                .build()
+        ),
+        Profile::new,
+        this.executor
+    );
   }
 }
@@ -21,21 +21,47 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import io.github.dotstart.stockpile.entity.system.PluginMetadata;
 import io.github.dotstart.stockpile.entity.system.Status;
 import io.github.dotstart.stockpile.rpc.System.PluginList;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
 import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceBlockingStub;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceFutureStub;
+import io.github.dotstart.stockpile.utility.FutureUtility;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
- * Provides access to various system related operations.
+ * <p>Provides access to various system related operations.</p>
+ *
+ * <p>Each operation is available in a blocking and a non-blocking variant. Non-blocking variants
+ * complete on the configured callback executor.</p>
  *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
 public class SystemOperations {
 
-  private final SystemServiceBlockingStub service;
+  private final SystemServiceFutureStub service;
+  private final Executor executor;
 
+  /**
+   * @param service a blocking stub.
+   * @deprecated Use {@link #SystemOperations(SystemServiceFutureStub, Executor)} instead.
+   * Only the deadline of the passed stub is retained and results are converted on the common
+   * fork join pool.
+   */
+  @Deprecated
   public SystemOperations(@NonNull SystemServiceBlockingStub service) {
+    this(SystemServiceGrpc.newFutureStub(service.getChannel())
+            .withDeadline(service.getCallOptions().getDeadline()),
+        ForkJoinPool.commonPool());
+  }
+
+  public SystemOperations(
+      @NonNull SystemServiceFutureStub service,
+      @NonNull Executor executor) {
     this.service = service;
+    this.executor = executor;
   }
 
   /**
@@ -45,7 +71,22 @@ public class SystemOperations {
    */
   @NonNull
   public Status getStatus() {
-    return new Status(this.service.getStatus(Empty.getDefaultInstance()));
+    return FutureUtility.await(this.getStatusAsync());
+  }
+
+  /**
+   * Retrieves the server status without blocking the calling thread.
+   *
+   * @return a future which completes with a representation of the current server status.
+   * @see #getStatus()
+   */
+  @NonNull
+  public CompletableFuture<Status> getStatusAsync() {
+    return FutureUtility.toCompletableFuture(
+        this.service.getStatus(Empty.getDefaultInstance()),
+        Status::new,
+        this.executor
+    );
   }
 
   /**
@@ -55,9 +96,23 @@ public class SystemOperations {
    */
   @NonNull
   public Set<PluginMetadata> getPluginList() {
-    PluginList rpc = this.service.getPlugins(Empty.getDefaultInstance());
-    return rpc.getPluginsList().stream()
-        .map(PluginMetadata::new)
-        .collect(Collectors.toSet());
+    return FutureUtility.await(this.getPluginListAsync());
+  }
+
+  /**
+   * Retrieves a set of loaded server plugins without blocking the calling thread.
+   *
+   * @return a future which completes with a list of plugins.
+   * @see #getPluginList()
+   */
+  @NonNull
+  public CompletableFuture<Set<PluginMetadata>> getPluginListAsync() {
+    return FutureUtility.toCompletableFuture(
+        this.service.getPlugins(Empty.getDefaultInstance()),
+        (PluginList rpc) -> rpc.getPluginsList().stream()
+            .map(PluginMetadata::new)
+            .collect(Collectors.toSet()),
+        this.executor
+    );
   }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>Computes jittered exponential delays for repeated attempts.</p>
+ *
+ * <p>The base delay of an attempt is computed as {@code initial * multiplier^attempt} and is capped
+ * at the configured maximum. A random fraction (up to the configured jitter) is subtracted from
+ * this base delay in order to prevent clients which failed at the same time from retrying in
+ * lockstep.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class Backoff {
+
+  private final long initial;
+  private final long maximum;
+  private final double multiplier;
+  private final double jitter;
+
+  /**
+   * @param initial a delay for the first attempt.
+   * @param maximum an upper bound for the delay of any attempt.
+   * @param multiplier a factor by which the delay grows with each attempt.
+   * @param jitter a fraction of the delay which is randomized (between zero and one).
+   */
+  public Backoff(
+      @NonNull Duration initial,
+      @NonNull Duration maximum,
+      double multiplier,
+      double jitter) {
+    if (initial.isNegative() || initial.isZero()) {
+      throw new IllegalArgumentException(
+          "Illegal initial delay: Expected a positive duration but got " + initial);
+    }
+    if (maximum.compareTo(initial) < 0) {
+      throw new IllegalArgumentException(
+          "Illegal maximum delay: Expected a duration of at least " + initial + " but got "
+              + maximum);
+    }
+    if (multiplier < 1) {
+      throw new IllegalArgumentException(
+          "Illegal multiplier: Expected a value of at least 1 but got " + multiplier);
+    }
+    if (jitter < 0 || jitter > 1) {
+      throw new IllegalArgumentException(
+          "Illegal jitter: Expected a value between 0 and 1 but got " + jitter);
+    }
+
+    this.initial = initial.toMillis();
+    this.maximum = maximum.toMillis();
+    this.multiplier = multiplier;
+    this.jitter = jitter;
+  }
+
+  /**
+   * Computes the delay which shall be observed before a given attempt.
+   *
+   * @param attempt a zero based attempt number.
+   * @return a delay in milliseconds.
+   */
+  public long getDelay(int attempt) {
+    double base = Math.min(this.maximum,
+        this.initial * Math.pow(this.multiplier, Math.max(0, attempt)));
+
+    return Math.round(base * (1 - this.jitter * ThreadLocalRandom.current().nextDouble()));
+  }
+
+  @NonNull
+  public Duration getInitial() {
+    return Duration.ofMillis(this.initial);
+  }
+
+  @NonNull
+  public Duration getMaximum() {
+    return Duration.ofMillis(this.maximum);
+  }
+
+  public double getMultiplier() {
+    return this.multiplier;
+  }
+
+  public double getJitter() {
+    return this.jitter;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <p>Limits the amount of work items which have been handed off to an executor but have not yet
+ * been completed.</p>
+ *
+ * <p>Producers acquire a credit before handing off an item and block while all credits are in
+ * use. Credits are returned once the respective item has been completed. When the producer is
+ * running within a {@link ForkJoinPool}, the pool is permitted to compensate for the blocked
+ * thread.</p>
+ *
+ * <p>Since the items may be waiting for the very thread which is blocked by the producer (for
+ * instance, when both share an executor with a single thread), producers pass a task which
+ * completes pending items on the calling thread instead of waiting where possible.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class Credits {
+
+  private final int capacity;
+
+  private final Object lock = new Object();
+  private int used;
+
+  private final ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+    @Override
+    public boolean block() throws InterruptedException {
+      // invoked while holding the lock - once a credit has been returned, the caller re-evaluates
+      // whether it is able to assist
+      Credits.this.lock.wait();
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return Credits.this.used < Credits.this.capacity;
+    }
+  };
+
+  /**
+   * @param capacity a maximum amount of credits which may be in use at the same time.
+   */
+  public Credits(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal capacity: Expected a positive value but got " + capacity);
+    }
+
+    this.capacity = capacity;
+  }
+
+  /**
+   * <p>Acquires a single credit and waits until a credit becomes available if necessary.</p>
+   *
+   * <p>While all credits are in use, the passed task is invoked in order to complete pending items
+   * on the calling thread. The calling thread only blocks when the task reports that there is no
+   * work it could assist with (for instance, because the pending items are already being
+   * processed by other threads).</p>
+   *
+   * <p>When the calling thread is interrupted while waiting, the credit is acquired regardless
+   * (thus temporarily exceeding the capacity) and the interrupt flag is restored.</p>
+   *
+   * @param assist a task which completes pending items and returns true if it made progress or
+   * false if the caller has to wait for other threads.
+   */
+  public void acquire(@NonNull BooleanSupplier assist) {
+    while (true) {
+      synchronized (this.lock) {
+        if (this.used < this.capacity) {
+          ++this.used;
+          return;
+        }
+      }
+
+      if (assist.getAsBoolean()) {
+        continue;
+      }
+
+      synchronized (this.lock) {
+        if (this.used < this.capacity) {
+          continue;
+        }
+
+        try {
+          ForkJoinPool.managedBlock(this.blocker);
+        } catch (InterruptedException ex) {
+          // we cannot wait for the consumer any longer and thus exceed the capacity instead of
+          // discarding the item
+          Thread.currentThread().interrupt();
+          ++this.used;
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a single credit.
+   */
+  public void release() {
+    synchronized (this.lock) {
+      --this.used;
+      this.lock.notifyAll();
+    }
+  }
+
+  /**
+   * Retrieves the amount of credits which are currently in use.
+   *
+   * @return an amount of credits.
+   */
+  public int getUsed() {
+    synchronized (this.lock) {
+      return this.used;
+    }
+  }
+
+  public int getCapacity() {
+    return this.capacity;
+  }
+}
@@ -16,16 +16,26 @@
  */
 package io.github.dotstart.stockpile.utility;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.Any;
+import com.google.protobuf.Internal;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 
 /**
- * Provides a registry which maps the types inside of DynamicAny to Java types.
+ * <p>Provides a registry which maps the types inside of DynamicAny to Java types.</p>
+ *
+ * <p>Each registered type is resolved to its message parser and POJO factory at registration time.
+ * Decoding thus only requires a single lookup based on the full type URL followed by a direct parse
+ * of the encoded value (no reflection is involved).</p>
+ *
+ * <p>Registrations are published as immutable snapshots. As such, the registry may be read from
+ * any amount of threads without synchronization while types are registered.</p>
  *
  * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
  */
@@ -36,22 +46,40 @@ public class DynamicAnyRegistry {
    */
   private static final String TYPE_PREFIX = "type.googleapis.com/";
 
-  private final Map<String, Class<? extends Message>> rpcMap = new HashMap<>();
-  private final Map<String, Function> pojoFactoryMap = new HashMap<>();
+  private volatile Map<String, Entry<?>> entries = ImmutableMap.of();
 
   /**
    * Registers a new message type.
    *
    * @param fqn a fully qualified type name (typically &lt;package&gt;.&lt;type&gt;).
    * @param rpcType a message type.
-   * @param pojoType a Java type.
+   * @param pojoFactory a factory which converts messages into their Java representation.
    */
   protected <M extends Message> void register(
       @NonNull String fqn,
       @NonNull Class<M> rpcType,
       @NonNull Function<M, ?> pojoFactory) {
-    this.rpcMap.put(fqn, rpcType);
-    this.pojoFactoryMap.put(fqn, pojoFactory);
+    @SuppressWarnings("unchecked")
+    Parser<M> parser = (Parser<M>) Internal.getDefaultInstance(rpcType).getParserForType();
+    this.register(fqn, parser, pojoFactory);
+  }
+
+  /**
+   * Registers a new message type.
+   *
+   * @param fqn a fully qualified type name (typically &lt;package&gt;.&lt;type&gt;).
+   * @param parser a message parser.
+   * @param pojoFactory a factory which converts messages into their Java representation.
+   */
+  protected synchronized <M extends Message> void register(
+      @NonNull String fqn,
+      @NonNull Parser<M> parser,
+      @NonNull Function<M, ?> pojoFactory) {
+    String typeUrl = TYPE_PREFIX + fqn;
+    Map<String, Entry<?>> entries = new HashMap<>(this.entries);
+    entries.put(typeUrl, new Entry<>(typeUrl, parser, pojoFactory));
+
+    this.entries = ImmutableMap.copyOf(entries);
   }
 
   /**
@@ -61,29 +89,50 @@ public class DynamicAnyRegistry {
    * @return a POJO object.
    */
   @NonNull
-  @SuppressWarnings("unchecked")
   public Object read(@NonNull Any any) {
-    String typeUrl = any.getTypeUrl();
-    if (!typeUrl.startsWith(TYPE_PREFIX)) {
+    Entry<?> entry = this.entries.get(any.getTypeUrl());
+    if (entry == null) {
       throw new IllegalArgumentException(
-          "Cannot decode object of type \"" + typeUrl + "\": Unknown type");
+          "Cannot decode object of type \"" + any.getTypeUrl() + "\": Unknown type");
     }
-    typeUrl = typeUrl.substring(TYPE_PREFIX.length());
 
-    Class<? extends Message> messageType = this.rpcMap.get(typeUrl);
-    if (messageType == null) {
-      throw new IllegalArgumentException(
-          "Cannot decode object of type \"" + any.getTypeUrl() + "\": Unknown type");
+    return entry.read(any);
+  }
+
+  /**
+   * Represents a single registered type.
+   *
+   * @param <M> a message type.
+   */
+  private static final class Entry<M extends Message> {
+
+    private final String typeUrl;
+    private final Parser<M> parser;
+    private final Function<M, ?> pojoFactory;
+
+    private Entry(
+        @NonNull String typeUrl,
+        @NonNull Parser<M> parser,
+        @NonNull Function<M, ?> pojoFactory) {
+      this.typeUrl = typeUrl;
+      this.parser = parser;
+      this.pojoFactory = pojoFactory;
     }
-    Function pojoFactory = this.pojoFactoryMap.get(typeUrl);
 
-    try {
-      Message rpcObject = any.unpack(messageType);
-      return pojoFactory.apply(rpcObject);
-    } catch (InvalidProtocolBufferException ex) {
-      throw new IllegalArgumentException(
-          "Failed to convert object of type \"" + any.getTypeUrl() + "\" to RPC type " + messageType
-              .getName(), ex);
+    /**
+     * Decodes the value of a given any field.
+     *
+     * @param any an any message field.
+     * @return a POJO object.
+     */
+    @NonNull
+    private Object read(@NonNull Any any) {
+      try {
+        return this.pojoFactory.apply(this.parser.parseFrom(any.getValue()));
+      } catch (InvalidProtocolBufferException ex) {
+        throw new IllegalArgumentException(
+            "Failed to convert object of type \"" + this.typeUrl + "\"", ex);
+      }
     }
   }
 }
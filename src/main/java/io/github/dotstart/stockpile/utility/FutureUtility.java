@@ -0,0 +1,238 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Provides utility methods which bridge between the future implementations used by gRPC and the
+ * Java standard library.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class FutureUtility {
+
+  private FutureUtility() {
+  }
+
+  /**
+   * Converts a listenable future into a completable future and applies the passed converter
+   * function on the given executor once a result becomes available.
+   *
+   * @param future a listenable future.
+   * @param converter a converter function.
+   * @param executor an executor on which the conversion is performed.
+   * @param <I> an input type.
+   * @param <O> an output type.
+   * @return a completable future.
+   */
+  @NonNull
+  public static <I, O> CompletableFuture<O> toCompletableFuture(
+      @NonNull ListenableFuture<I> future,
+      @NonNull Function<? super I, ? extends O> converter,
+      @NonNull Executor executor) {
+    CompletableFuture<O> result = new CompletableFuture<O>() {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        future.cancel(mayInterruptIfRunning);
+        return super.cancel(mayInterruptIfRunning);
+      }
+    };
+
+    future.addListener(() -> {
+      try {
+        result.complete(converter.apply(future.get()));
+      } catch (ExecutionException ex) {
+        result.completeExceptionally(ex.getCause());
+      } catch (Throwable ex) {
+        result.completeExceptionally(ex);
+      }
+    }, executor);
+
+    return result;
+  }
+
+  /**
+   * <p>Applies an asynchronous task to each of the passed inputs while keeping at most the
+   * specified amount of tasks in flight at any given time.</p>
+   *
+   * <p>The resulting future completes with the results in input order once all tasks have
+   * completed or exceptionally as soon as the first task fails (in which case no further tasks are
+   * started).</p>
+   *
+   * @param inputs a list of inputs.
+   * @param task a task.
+   * @param parallelism a maximum amount of concurrently executed tasks.
+   * @param <I> an input type.
+   * @param <O> an output type.
+   * @return a future which completes with a list of results.
+   */
+  @NonNull
+  public static <I, O> CompletableFuture<List<O>> fanOut(
+      @NonNull List<I> inputs,
+      @NonNull Function<? super I, CompletableFuture<O>> task,
+      int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal parallelism: Expected a positive value but got " + parallelism);
+    }
+
+    CompletableFuture<List<O>> result = new CompletableFuture<>();
+    if (inputs.isEmpty()) {
+      result.complete(new ArrayList<>());
+      return result;
+    }
+
+    Object[] outputs = new Object[inputs.size()];
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger remaining = new AtomicInteger(inputs.size());
+
+    Runnable launcher = new Runnable() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public void run() {
+        int i = next.getAndIncrement();
+        if (i >= inputs.size() || result.isDone()) {
+          return;
+        }
+
+        CompletableFuture<O> future;
+        try {
+          future = task.apply(inputs.get(i));
+        } catch (RuntimeException ex) {
+          result.completeExceptionally(ex);
+          return;
+        }
+
+        future.whenComplete((output, ex) -> {
+          if (ex != null) {
+            result.completeExceptionally(unwrap(ex));
+            return;
+          }
+
+          outputs[i] = output;
+          if (remaining.decrementAndGet() == 0) {
+            result.complete((List<O>) Arrays.asList(outputs));
+            return;
+          }
+
+          this.run();
+        });
+      }
+    };
+
+    for (int i = 0; i < Math.min(parallelism, inputs.size()); ++i) {
+      launcher.run();
+    }
+
+    return result;
+  }
+
+  /**
+   * Creates a future which has already failed with a given cause.
+   *
+   * @param cause a cause.
+   * @param <T> a result type.
+   * @return a failed future.
+   */
+  @NonNull
+  public static <T> CompletableFuture<T> failed(@NonNull Throwable cause) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(cause);
+    return future;
+  }
+
+  /**
+   * Waits for a given future to complete and returns its result or re-throws its original cause
+   * when the computation failed.
+   *
+   * @param future a future.
+   * @param <T> a result type.
+   * @return the result.
+   * @throws io.grpc.StatusRuntimeException when the thread is interrupted or the call fails.
+   */
+  public static <T> T await(@NonNull CompletableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+
+      throw Status.CANCELLED
+          .withDescription("Thread interrupted")
+          .withCause(ex)
+          .asRuntimeException();
+    } catch (CancellationException ex) {
+      throw Status.CANCELLED
+          .withCause(ex)
+          .asRuntimeException();
+    } catch (ExecutionException ex) {
+      throw propagate(ex.getCause());
+    }
+  }
+
+  /**
+   * Unwraps the actual cause of a failed completion stage.
+   *
+   * @param ex an arbitrary exception.
+   * @return the actual cause.
+   */
+  @NonNull
+  public static Throwable unwrap(@NonNull Throwable ex) {
+    while ((ex instanceof CompletionException || ex instanceof ExecutionException)
+        && ex.getCause() != null) {
+      ex = ex.getCause();
+    }
+
+    return ex;
+  }
+
+  /**
+   * Re-throws an unchecked cause directly or wraps a checked cause in order to pass it up the call
+   * stack.
+   *
+   * @param cause an arbitrary cause.
+   * @return never returns (declared for use in throw statements).
+   */
+  @NonNull
+  private static RuntimeException propagate(@NonNull Throwable cause) {
+    cause = unwrap(cause);
+
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+
+    throw Status.UNKNOWN
+        .withCause(cause)
+        .asRuntimeException();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Executes tasks in parallel while preserving the submission order of tasks which share a
+ * key.</p>
+ *
+ * <p>Keys are hashed to a fixed set of lanes, each of which executes its tasks one at a time on
+ * the delegate executor. Tasks without a key are executed on a dedicated lane of their own.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class KeyAffinityExecutor {
+
+  private final SerialExecutor[] lanes;
+  private final SerialExecutor keylessLane;
+
+  /**
+   * @param delegate an executor on which tasks are executed.
+   * @param lanes an amount of lanes to which keyed tasks are distributed.
+   */
+  public KeyAffinityExecutor(@NonNull Executor delegate, int lanes) {
+    if (lanes <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal amount of lanes: Expected a positive value but got " + lanes);
+    }
+
+    this.lanes = new SerialExecutor[lanes];
+    for (int i = 0; i < lanes; ++i) {
+      this.lanes[i] = new SerialExecutor(delegate);
+    }
+    this.keylessLane = new SerialExecutor(delegate);
+  }
+
+  /**
+   * Executes a task after all previously submitted tasks for the same key.
+   *
+   * @param key a key or null to execute the task on the keyless lane.
+   * @param task a task.
+   */
+  public void execute(@Nullable Object key, @NonNull Runnable task) {
+    this.getLane(key).execute(task);
+  }
+
+  /**
+   * <p>Executes a task once all previously submitted tasks (regardless of their key) have been
+   * executed.</p>
+   *
+   * <p>Note that lanes do not wait for the task. As such, tasks which are submitted afterwards may
+   * be executed before the task on lanes which have drained their earlier tasks first.</p>
+   *
+   * @param task a task.
+   */
+  public void executeAfterAll(@NonNull Runnable task) {
+    AtomicInteger remaining = new AtomicInteger(this.lanes.length + 1);
+    Runnable barrier = () -> {
+      if (remaining.decrementAndGet() == 0) {
+        task.run();
+      }
+    };
+
+    for (SerialExecutor lane : this.lanes) {
+      lane.execute(barrier);
+    }
+    this.keylessLane.execute(barrier);
+  }
+
+  /**
+   * Executes the queued tasks of all lanes which have not been picked up by the delegate executor
+   * yet on the calling thread.
+   *
+   * @return true if tasks have been executed, false if all lanes are either empty or being
+   * processed by other threads.
+   * @see SerialExecutor#tryDrain()
+   */
+  public boolean tryDrain() {
+    boolean drained = false;
+    for (SerialExecutor lane : this.lanes) {
+      drained |= lane.tryDrain();
+    }
+
+    return this.keylessLane.tryDrain() | drained;
+  }
+
+  /**
+   * Retrieves the amount of lanes to which keyed tasks are distributed.
+   *
+   * @return an amount of lanes.
+   */
+  public int getLaneCount() {
+    return this.lanes.length;
+  }
+
+  /**
+   * Selects the lane which is responsible for a given key.
+   *
+   * @param key a key or null.
+   * @return a lane.
+   */
+  @NonNull
+  private SerialExecutor getLane(@Nullable Object key) {
+    if (key == null) {
+      return this.keylessLane;
+    }
+
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return this.lanes[(hash & Integer.MAX_VALUE) % this.lanes.length];
+  }
+}
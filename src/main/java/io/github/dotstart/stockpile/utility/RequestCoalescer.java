@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>Deduplicates concurrent requests for the same key.</p>
+ *
+ * <p>While a request for a given key is in flight, all further callers for that key are attached
+ * to the pending request instead of issuing a request of their own. Once the request completes,
+ * its result (or failure) is passed to all attached callers and the key is released.</p>
+ *
+ * <p>Each caller receives its own dependent future. As such, cancelling the future of a single
+ * caller will not affect any other callers.</p>
+ *
+ * @param <K> a key type.
+ * @param <V> a result type.
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class RequestCoalescer<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inflight = new ConcurrentHashMap<>();
+
+  /**
+   * Executes a request for the given key or attaches to an identical request which is already in
+   * flight.
+   *
+   * @param key a request key.
+   * @param request a function which issues the actual request.
+   * @return a future which completes with the shared result.
+   */
+  @NonNull
+  public CompletableFuture<V> execute(
+      @NonNull K key,
+      @NonNull Supplier<? extends CompletableFuture<V>> request) {
+    CompletableFuture<V> pending = new CompletableFuture<>();
+    CompletableFuture<V> existing = this.inflight.putIfAbsent(key, pending);
+
+    if (existing != null) {
+      return existing.thenApply(Function.identity());
+    }
+
+    CompletableFuture<V> future;
+    try {
+      future = request.get();
+    } catch (RuntimeException ex) {
+      this.inflight.remove(key, pending);
+      pending.completeExceptionally(ex);
+      return pending;
+    }
+
+    future.whenComplete((result, ex) -> {
+      this.inflight.remove(key, pending);
+
+      if (ex != null) {
+        pending.completeExceptionally(FutureUtility.unwrap(ex));
+      } else {
+        pending.complete(result);
+      }
+    });
+
+    return pending.thenApply(Function.identity());
+  }
+
+  /**
+   * Retrieves the amount of requests which are currently in flight.
+   *
+   * @return an amount of requests.
+   */
+  public int size() {
+    return this.inflight.size();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+/**
+ * <p>Limits the amount of retries relative to the amount of original requests.</p>
+ *
+ * <p>Each original request deposits a fraction of a token (the configured ratio) into the budget
+ * while each retry withdraws a whole token. As such, retries never exceed the configured ratio of
+ * requests over time (aside from an initial burst of up to the configured capacity). When the
+ * server fails most requests, retries are thus quickly suspended rather than multiplying the load
+ * on the server.</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class RetryBudget {
+
+  private final double ratio;
+  private final int capacity;
+  private double tokens;
+  private long retries;
+  private long rejections;
+
+  /**
+   * @param ratio a maximum ratio of retries to original requests (between zero and one).
+   * @param capacity a maximum amount of retries which may be performed in a single burst.
+   */
+  public RetryBudget(double ratio, int capacity) {
+    if (ratio <= 0 || ratio > 1) {
+      throw new IllegalArgumentException(
+          "Illegal ratio: Expected a value between 0 and 1 but got " + ratio);
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Illegal capacity: Expected a positive value but got " + capacity);
+    }
+
+    this.ratio = ratio;
+    this.capacity = capacity;
+    this.tokens = capacity;
+  }
+
+  /**
+   * Records an original request.
+   */
+  public synchronized void deposit() {
+    this.tokens = Math.min(this.capacity, this.tokens + this.ratio);
+  }
+
+  /**
+   * Attempts to withdraw a token for a retry.
+   *
+   * @return true if the retry may be performed, false otherwise.
+   */
+  public synchronized boolean tryWithdraw() {
+    if (this.tokens < 1) {
+      this.rejections++;
+      return false;
+    }
+
+    this.tokens--;
+    this.retries++;
+    return true;
+  }
+
+  /**
+   * Retrieves the amount of retries which may currently be performed.
+   *
+   * @return an amount of retries.
+   */
+  public synchronized int getAvailable() {
+    return (int) this.tokens;
+  }
+
+  public double getRatio() {
+    return this.ratio;
+  }
+
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Retrieves the total amount of retries which have been permitted by this budget.
+   *
+   * @return an amount of retries.
+   */
+  public synchronized long getRetryCount() {
+    return this.retries;
+  }
+
+  /**
+   * Retrieves the total amount of retries which have been rejected due to an exhausted budget.
+   *
+   * @return an amount of retries.
+   */
+  public synchronized long getRejectedCount() {
+    return this.rejections;
+  }
+}
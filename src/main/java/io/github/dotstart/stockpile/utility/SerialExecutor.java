@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Provides an executor which executes its tasks one at a time and in submission order on a
+ * delegate executor.</p>
+ *
+ * <p>This permits callbacks which must be delivered in order (such as stream elements) to be
+ * passed to an arbitrary (potentially multi-threaded) executor.</p>
+ *
+ * <p>Callers which are waiting for queued tasks to complete may execute them on their own thread
+ * via {@link #tryDrain()} when the delegate has not started executing them yet (for instance,
+ * because all of its threads are occupied by the caller itself).</p>
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class SerialExecutor implements Executor {
+
+  private final Executor delegate;
+  private final Queue<Runnable> queue = new ArrayDeque<>();
+  private boolean running;
+  private boolean active;
+
+  public SerialExecutor(@NonNull Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void execute(@NonNull Runnable command) {
+    synchronized (this.queue) {
+      this.queue.add(command);
+
+      if (this.running) {
+        return;
+      }
+      this.running = true;
+    }
+
+    try {
+      this.delegate.execute(this::drain);
+    } catch (RuntimeException ex) {
+      synchronized (this.queue) {
+        this.queue.clear();
+        this.running = false;
+      }
+
+      throw ex;
+    }
+  }
+
+  /**
+   * Executes all queued tasks on the calling thread unless another thread is already executing
+   * them.
+   *
+   * @return true if tasks have been executed, false if the queue is empty or is being processed by
+   * another thread.
+   */
+  public boolean tryDrain() {
+    synchronized (this.queue) {
+      if (this.active || this.queue.isEmpty()) {
+        return false;
+      }
+
+      this.active = true;
+    }
+
+    this.run();
+    return true;
+  }
+
+  /**
+   * Executes all queued tasks on the delegate executor unless another thread is already executing
+   * them.
+   */
+  private void drain() {
+    synchronized (this.queue) {
+      // the queue may have been drained by a waiting caller in the meantime - as such, the caller
+      // will also take care of all tasks which are submitted while it is still active
+      if (this.active) {
+        return;
+      }
+
+      this.active = true;
+    }
+
+    this.run();
+  }
+
+  /**
+   * Executes all queued tasks until the queue has been exhausted.
+   */
+  private void run() {
+    while (true) {
+      Runnable task;
+
+      synchronized (this.queue) {
+        task = this.queue.poll();
+
+        if (task == null) {
+          this.running = false;
+          this.active = false;
+          return;
+        }
+      }
+
+      try {
+        task.run();
+      } catch (RuntimeException ignore) {
+        // tasks are expected to handle their own errors - we simply guarantee that a misbehaving
+        // task does not stall the remaining queue
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.channel.Transport;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link Stockpile}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class StockpileTest {
+
+  private String name;
+  private Server server;
+
+  @Before
+  public void setUp() throws Exception {
+    this.name = InProcessServerBuilder.generateName();
+    this.server = InProcessServerBuilder.forName(this.name)
+        .addService(new SystemServiceImplBase() {
+          @Override
+          public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+            responseObserver.onNext(System.Status.getDefaultInstance());
+            responseObserver.onCompleted();
+          }
+        })
+        .build()
+        .start();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Evaluates whether clients which are constructed from a pre-configured channel make use of
+   * this channel and release it when closed.
+   */
+  @Test
+  public void testChannel() {
+    ManagedChannel channel = InProcessChannelBuilder.forName(this.name).build();
+
+    try (Stockpile client = Stockpile.builder()
+        .channel(channel)
+        .directExecutor()
+        .build()) {
+      assertNotNull(client.systemOperations().getStatus());
+    }
+    assertTrue(channel.isTerminated());
+  }
+
+  /**
+   * Evaluates whether optional features remain disabled unless they are explicitly enabled.
+   */
+  @Test
+  public void testDefaults() {
+    try (Stockpile client = Stockpile.builder()
+        .channel(InProcessChannelBuilder.forName(this.name).build())
+        .build()) {
+      assertFalse(client.hedging().isPresent());
+      assertFalse(client.retries().isPresent());
+      assertFalse(client.limiting().isPresent());
+      assertFalse(client.profileOperations().getProfileIdCache().isPresent());
+      assertFalse(client.serverOperations().getBlacklistCache().isPresent());
+    }
+  }
+
+  /**
+   * Evaluates whether shared transports remain usable once a client which uses them has been
+   * closed.
+   */
+  @Test
+  public void testSharedTransport() {
+    Transport transport = Transport.create(1, false);
+
+    try {
+      Stockpile.builder()
+          .address("localhost")
+          .transport(transport)
+          .build()
+          .close();
+      assertFalse(transport.getEventLoopGroup().isShuttingDown());
+    } finally {
+      transport.close();
+    }
+  }
+
+  /**
+   * Evaluates whether clients without a server address are rejected.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testMissingAddress() {
+    Stockpile.builder().build();
+  }
+
+  /**
+   * Evaluates whether invalid flow control windows are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalFlowControlWindow() {
+    Stockpile.builder().flowControlWindow(0);
+  }
+}
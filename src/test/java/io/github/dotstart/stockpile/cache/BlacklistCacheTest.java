@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.server.Blacklist;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link BlacklistCache}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class BlacklistCacheTest {
+
+  /**
+   * Evaluates whether the local copy is replaced as a whole.
+   */
+  @Test
+  public void testUpdate() {
+    BlacklistCache cache = new BlacklistCache();
+    assertEquals(Optional.empty(), cache.get());
+    assertEquals(Optional.empty(), cache.getLastUpdated());
+
+    Blacklist blacklist = new Blacklist(Collections.emptySet());
+    cache.update(blacklist);
+    assertSame(blacklist, cache.get().orElse(null));
+    assertTrue(cache.getLastUpdated().isPresent());
+  }
+
+  /**
+   * Evaluates whether conditional updates are rejected once the local copy has been replaced
+   * since the previous version was retrieved.
+   */
+  @Test
+  public void testConditionalUpdate() {
+    BlacklistCache cache = new BlacklistCache();
+    Blacklist first = new Blacklist(Collections.emptySet(), "1");
+    Blacklist second = new Blacklist(Collections.emptySet(), "2");
+    Blacklist third = new Blacklist(Collections.emptySet(), "3");
+
+    assertTrue(cache.update(null, first));
+    assertFalse(cache.update(null, second));
+    assertSame(first, cache.get().orElse(null));
+
+    assertTrue(cache.update(first, second));
+    assertFalse(cache.update(first, third));
+    assertSame(second, cache.get().orElse(null));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.profile.Profile;
+import io.github.dotstart.stockpile.entity.profile.ProfileProperty;
+import io.github.dotstart.stockpile.entity.profile.ProfileTextures;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link ProfileCache}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileCacheTest {
+
+  /**
+   * Creates a profile which carries a single property of the given size.
+   */
+  private static Profile createProfile(int propertySize) {
+    UUID id = UUID.randomUUID();
+    Map<String, ProfileProperty> properties = Collections.singletonMap("textures",
+        new ProfileProperty("textures", new byte[propertySize], "signature"));
+
+    return new Profile(id, "Notch", properties,
+        new ProfileTextures(Instant.now(), id, "Notch", null, null));
+  }
+
+  /**
+   * Evaluates whether the estimated weight is dominated by the size of the property payloads.
+   */
+  @Test
+  public void testWeight() {
+    int small = ProfileCache.estimateWeight(createProfile(16));
+    int large = ProfileCache.estimateWeight(createProfile(16 * 1024));
+
+    assertEquals(16 * 1024 - 16, large - small);
+  }
+
+  /**
+   * Evaluates whether profiles are stored, replaced and removed.
+   */
+  @Test
+  public void testLookup() {
+    ProfileCache cache = new ProfileCache(1024 * 1024, null);
+    Profile profile = createProfile(16);
+
+    assertEquals(Optional.empty(), cache.get(profile.getId()));
+    cache.put(profile);
+    assertEquals(Optional.of(profile), cache.get(profile.getId()));
+    assertTrue(cache.contains(profile.getId()));
+
+    cache.invalidate(profile.getId());
+    assertFalse(cache.contains(profile.getId()));
+  }
+
+  /**
+   * Evaluates whether profiles are evicted once the weight limit has been reached.
+   */
+  @Test
+  public void testEviction() {
+    int weight = ProfileCache.estimateWeight(createProfile(4096));
+    ProfileCache cache = new ProfileCache(weight * 16L, null);
+
+    Profile last = null;
+    for (int i = 0; i < 64; ++i) {
+      last = createProfile(4096);
+      cache.put(last);
+    }
+
+    assertTrue(cache.size() <= 16);
+    assertEquals(64 - cache.size(), cache.stats().evictionCount());
+    assertTrue(cache.contains(last.getId()));
+  }
+
+  /**
+   * Evaluates whether profiles expire once the configured duration has passed.
+   */
+  @Test
+  public void testExpiration() throws InterruptedException {
+    ProfileCache cache = new ProfileCache(1024 * 1024, Duration.ofMillis(50));
+    Profile profile = createProfile(16);
+
+    cache.put(profile);
+    assertTrue(cache.get(profile.getId()).isPresent());
+
+    Thread.sleep(100);
+    assertFalse(cache.get(profile.getId()).isPresent());
+  }
+
+  /**
+   * Evaluates whether illegal expiration durations are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalExpiration() {
+    new ProfileCache(1024, Duration.ZERO);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link ProfileIdCache}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileIdCacheTest {
+
+  /**
+   * Creates an association which is valid within the given period.
+   */
+  private static ProfileId createId(String name, Instant firstSeenAt, Instant validUntil) {
+    return new ProfileId(UUID.randomUUID(), name, firstSeenAt, firstSeenAt, validUntil);
+  }
+
+  /**
+   * Evaluates whether associations are looked up regardless of the case of their name.
+   */
+  @Test
+  public void testCaseInsensitiveLookup() {
+    ProfileIdCache cache = new ProfileIdCache(16);
+    Instant now = Instant.now();
+    ProfileId id = createId("Notch", now.minus(Duration.ofDays(1)), now.plus(Duration.ofDays(1)));
+
+    cache.put(id);
+    assertEquals(Optional.of(id), cache.get("notch", now));
+    assertEquals(Optional.of(id), cache.get("NOTCH", now));
+    assertTrue(cache.contains("nOtCh"));
+
+    cache.invalidate("NoTcH");
+    assertFalse(cache.contains("Notch"));
+  }
+
+  /**
+   * Evaluates whether associations are only returned for timestamps within their validity
+   * period.
+   */
+  @Test
+  public void testValidityPeriod() {
+    ProfileIdCache cache = new ProfileIdCache(16);
+    Instant now = Instant.now();
+    ProfileId id = createId("Notch", now.minus(Duration.ofDays(1)), now.plus(Duration.ofDays(1)));
+
+    cache.put(id);
+    assertEquals(Optional.empty(), cache.get("Notch", now.minus(Duration.ofDays(2))));
+    assertEquals(Optional.empty(), cache.get("Notch", now.plus(Duration.ofDays(2))));
+
+    // lookups outside of the validity period do not affect the entry itself
+    assertTrue(cache.contains("Notch"));
+    assertEquals(Optional.of(id), cache.get("Notch", now));
+  }
+
+  /**
+   * Evaluates whether expired associations are neither stored nor returned.
+   */
+  @Test
+  public void testExpiration() throws InterruptedException {
+    ProfileIdCache cache = new ProfileIdCache(16);
+    Instant now = Instant.now();
+
+    cache.put(createId("Notch", now.minus(Duration.ofDays(2)), now.minus(Duration.ofDays(1))));
+    assertFalse(cache.contains("Notch"));
+
+    cache.put(createId("jeb_", now.minus(Duration.ofDays(1)), Instant.now().plusMillis(250)));
+    assertTrue(cache.contains("jeb_"));
+    Thread.sleep(300);
+
+    // entries are discarded once they are found to have expired
+    assertEquals(Optional.empty(), cache.get("jeb_", now));
+    assertFalse(cache.contains("jeb_"));
+  }
+
+  /**
+   * Evaluates whether the least recently used entries are evicted once the size limit has been
+   * reached.
+   */
+  @Test
+  public void testEviction() {
+    ProfileIdCache cache = new ProfileIdCache(2);
+    Instant now = Instant.now();
+    Instant validUntil = now.plus(Duration.ofDays(1));
+
+    cache.put(createId("a", now, validUntil));
+    cache.put(createId("b", now, validUntil));
+    cache.get("a", now);
+    cache.put(createId("c", now, validUntil));
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.contains("a"));
+    assertFalse(cache.contains("b"));
+    assertTrue(cache.contains("c"));
+    assertEquals(1, cache.stats().evictionCount());
+  }
+
+  /**
+   * Evaluates whether illegal sizes are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalSize() {
+    new ProfileIdCache(0);
+  }
+}
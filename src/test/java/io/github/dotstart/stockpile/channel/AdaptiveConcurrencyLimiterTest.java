@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.channel.Limiter.Permit;
+import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link AdaptiveConcurrencyLimiter}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+  private static final MethodDescriptor<?, ?> METHOD = ProfileServiceGrpc.getGetIdMethod();
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * Completes a single call with the given outcome.
+   */
+  private static void call(AdaptiveConcurrencyLimiter limiter, Status status, long latency) {
+    Permit permit = limiter.tryAcquire(METHOD);
+    assertNotNull(permit);
+    permit.release(status, latency);
+  }
+
+  /**
+   * Evaluates whether calls are rejected once the limit has been reached.
+   */
+  @Test
+  public void testLimit() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 2);
+
+    Permit first = limiter.tryAcquire(METHOD);
+    Permit second = limiter.tryAcquire(METHOD);
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNull(limiter.tryAcquire(METHOD));
+    assertEquals(-1, limiter.getRefillDelay(METHOD));
+
+    first.release(null, 0);
+    assertEquals(1, limiter.getInFlight());
+    assertEquals(0, limiter.getRefillDelay(METHOD));
+    assertNotNull(limiter.tryAcquire(METHOD));
+  }
+
+  /**
+   * Evaluates whether the limit is reduced upon overload and at most once for calls which have
+   * been in flight at the same time.
+   */
+  @Test
+  public void testDecrease() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10, 2);
+
+    Permit first = limiter.tryAcquire(METHOD);
+    Permit second = limiter.tryAcquire(METHOD);
+    assertNotNull(first);
+    assertNotNull(second);
+
+    first.release(Status.UNAVAILABLE, FAST);
+    second.release(Status.UNAVAILABLE, FAST);
+    assertEquals(9, limiter.getLimit());
+
+    call(limiter, Status.UNAVAILABLE, FAST);
+    assertEquals(8, limiter.getLimit());
+
+    // calls which have never been passed to the server or which failed for unrelated reasons do
+    // not affect the limit
+    call(limiter, null, 0);
+    call(limiter, Status.NOT_FOUND, FAST);
+    assertEquals(8, limiter.getLimit());
+  }
+
+  /**
+   * Evaluates whether calls which take considerably longer than the lowest observed latency are
+   * considered to indicate overload.
+   */
+  @Test
+  public void testSlowCallDecrease() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10, 2);
+
+    call(limiter, Status.OK, FAST);
+    assertEquals(10, limiter.getLimit());
+
+    call(limiter, Status.OK, SLOW);
+    assertEquals(9, limiter.getLimit());
+  }
+
+  /**
+   * Evaluates whether the limit recovers once the server has become slower permanently.
+   */
+  @Test
+  public void testLatencyIncreaseRecovery() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 2);
+
+    for (int i = 0; i < 10; ++i) {
+      call(limiter, Status.OK, FAST);
+    }
+
+    // the latency window is re-evaluated every 500 calls - since the first window still contains
+    // the fast calls, all of the slow calls within the first two windows are considered to
+    // indicate overload
+    for (int i = 0; i < 990; ++i) {
+      call(limiter, Status.OK, SLOW);
+    }
+    assertEquals(1, limiter.getLimit());
+
+    // once the window has been re-evaluated, slow calls are considered normal again and the limit
+    // is raised while it is being used
+    for (int i = 0; i < 50; ++i) {
+      List<Permit> permits = new ArrayList<>();
+      for (int j = 0; j < limiter.getLimit(); ++j) {
+        Permit permit = limiter.tryAcquire(METHOD);
+        assertNotNull(permit);
+        permits.add(permit);
+      }
+
+      permits.forEach((p) -> p.release(Status.OK, SLOW));
+    }
+
+    assertTrue("Expected limit to recover but got " + limiter.getLimit(),
+        limiter.getLimit() > 5);
+  }
+}
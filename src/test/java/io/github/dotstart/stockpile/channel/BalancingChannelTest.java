@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link BalancingChannel}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class BalancingChannelTest {
+
+  private final List<Server> servers = new ArrayList<>();
+  private final List<FakeService> services = new ArrayList<>();
+  private final List<ManagedChannel> channels = new ArrayList<>();
+
+  private ScheduledExecutorService scheduler;
+  private BalancingChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    for (int i = 0; i < 2; ++i) {
+      String name = InProcessServerBuilder.generateName();
+      FakeService service = new FakeService();
+
+      this.services.add(service);
+      this.servers.add(InProcessServerBuilder.forName(name)
+          .addService(service)
+          .build()
+          .start());
+      this.channels.add(InProcessChannelBuilder.forName(name).build());
+    }
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.channel != null) {
+      this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    for (ManagedChannel channel : this.channels) {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    for (Server server : this.servers) {
+      server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Creates a balancing channel across all fake servers.
+   */
+  private BalancingChannel createChannel(Duration probeInterval) {
+    return this.channel = new BalancingChannel(this.channels, this.scheduler, probeInterval, 3,
+        Duration.ofMinutes(1));
+  }
+
+  /**
+   * Issues a single call and discards its outcome.
+   */
+  private void call() {
+    try {
+      SystemServiceGrpc.newBlockingStub(this.channel).getStatus(Empty.getDefaultInstance());
+    } catch (StatusRuntimeException ignore) {
+    }
+  }
+
+  /**
+   * Waits until a server reaches the given ejection state or the timeout elapses.
+   */
+  private static void awaitEjection(BalancingChannel.Endpoint endpoint, boolean ejected)
+      throws InterruptedException {
+    for (int i = 0; i < 1000 && endpoint.isEjected() != ejected; ++i) {
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * Evaluates whether servers which repeatedly fail calls are ejected and no longer receive
+   * calls.
+   */
+  @Test
+  public void testEjection() {
+    BalancingChannel channel = this.createChannel(null);
+    this.services.get(0).failure = Status.UNAVAILABLE;
+
+    for (int i = 0; i < 50; ++i) {
+      this.call();
+    }
+    assertTrue(channel.getEndpoints().get(0).isEjected());
+    assertFalse(channel.getEndpoints().get(1).isEjected());
+
+    int calls = this.services.get(0).calls.get();
+    for (int i = 0; i < 20; ++i) {
+      this.call();
+    }
+    assertEquals(calls, this.services.get(0).calls.get());
+  }
+
+  /**
+   * Evaluates whether calls are distributed across all servers once all of them have been
+   * ejected.
+   */
+  @Test
+  public void testAllEjected() {
+    BalancingChannel channel = this.createChannel(null);
+    this.services.forEach((s) -> s.failure = Status.UNAVAILABLE);
+
+    for (int i = 0; i < 50; ++i) {
+      this.call();
+    }
+    assertTrue(channel.getEndpoints().stream().allMatch(BalancingChannel.Endpoint::isEjected));
+
+    int calls = this.services.get(0).calls.get() + this.services.get(1).calls.get();
+    this.call();
+    assertEquals(calls + 1,
+        this.services.get(0).calls.get() + this.services.get(1).calls.get());
+  }
+
+  /**
+   * Evaluates whether failures which are caused by the call rather than the server do not cause
+   * servers to be ejected.
+   */
+  @Test
+  public void testClientFailures() throws Exception {
+    BalancingChannel channel = this.createChannel(null);
+    this.services.forEach((s) -> s.hang = true);
+
+    for (int i = 0; i < 10; ++i) {
+      ListenableFuture<System.Status> future = SystemServiceGrpc.newFutureStub(channel)
+          .getStatus(Empty.getDefaultInstance());
+      future.cancel(true);
+    }
+    for (int i = 0; i < 10; ++i) {
+      try {
+        SystemServiceGrpc.newBlockingStub(channel)
+            .withDeadlineAfter(10, TimeUnit.MILLISECONDS)
+            .getStatus(Empty.getDefaultInstance());
+      } catch (StatusRuntimeException ignore) {
+      }
+    }
+
+    for (BalancingChannel.Endpoint endpoint : channel.getEndpoints()) {
+      assertFalse(endpoint.isEjected());
+    }
+
+    // timed out calls indicate that the server took at least this long to respond
+    Duration latency = channel.getEndpoints().stream()
+        .map(BalancingChannel.Endpoint::getLatency)
+        .max(Duration::compareTo)
+        .orElse(Duration.ZERO);
+    assertTrue("Expected latency to be sampled but got " + latency,
+        latency.compareTo(Duration.ofMillis(5)) >= 0);
+  }
+
+  /**
+   * Evaluates whether servers are ejected when they fail health probes and re-admitted once they
+   * pass them again.
+   */
+  @Test
+  public void testProbes() throws InterruptedException {
+    BalancingChannel channel = this.createChannel(Duration.ofMillis(10));
+    BalancingChannel.Endpoint endpoint = channel.getEndpoints().get(0);
+    this.services.get(0).failure = Status.UNAVAILABLE;
+
+    awaitEjection(endpoint, true);
+    assertTrue(endpoint.isEjected());
+
+    this.services.get(0).failure = null;
+    awaitEjection(endpoint, false);
+    assertFalse(endpoint.isEjected());
+  }
+
+  /**
+   * Evaluates whether empty channel lists are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalChannels() {
+    new BalancingChannel(Collections.emptyList(), this.scheduler, null, 3, Duration.ofMinutes(1));
+  }
+
+  /**
+   * Evaluates whether invalid failure thresholds are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalFailureThreshold() {
+    new BalancingChannel(Arrays.asList(this.channels.get(0)), this.scheduler, null, 0,
+        Duration.ofMinutes(1));
+  }
+
+  /**
+   * Provides a status service which fails or stalls calls on demand.
+   */
+  private static final class FakeService extends SystemServiceImplBase {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile Status failure;
+    private volatile boolean hang;
+
+    @Override
+    public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+      this.calls.incrementAndGet();
+
+      if (this.hang) {
+        return;
+      }
+
+      Status failure = this.failure;
+      if (failure != null) {
+        responseObserver.onError(failure.asException());
+        return;
+      }
+
+      responseObserver.onNext(System.Status.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.channel.ChannelPool.Strategy;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceImplBase;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link ChannelPool}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ChannelPoolTest {
+
+  private static final int SIZE = 3;
+
+  private final List<Server> servers = new ArrayList<>();
+  private final List<FakeService> services = new ArrayList<>();
+  private final List<String> names = new ArrayList<>();
+  private final List<ManagedChannel> channels = new ArrayList<>();
+
+  private ChannelPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    // each pooled channel (as well as the streaming channel) connects to a server of its own in
+    // order to tell the channels apart
+    for (int i = 0; i <= SIZE; ++i) {
+      String name = InProcessServerBuilder.generateName();
+      FakeService service = new FakeService();
+
+      this.names.add(name);
+      this.services.add(service);
+      this.servers.add(InProcessServerBuilder.forName(name)
+          .addService(service)
+          .addService(service.events)
+          .build()
+          .start());
+    }
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.pool != null) {
+      this.pool.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    for (Server server : this.servers) {
+      server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Creates a pool which connects its channels to the fake servers in order.
+   */
+  private ChannelPool createPool(Strategy strategy) {
+    return this.pool = new ChannelPool(() -> {
+      ManagedChannel channel = InProcessChannelBuilder
+          .forName(this.names.get(this.channels.size()))
+          .build();
+      this.channels.add(channel);
+      return channel;
+    }, SIZE, strategy);
+  }
+
+  /**
+   * Retrieves the amount of unary calls which have been received by each server.
+   */
+  private int[] getCalls() {
+    int[] calls = new int[this.services.size()];
+    for (int i = 0; i < calls.length; ++i) {
+      calls[i] = this.services.get(i).calls.get();
+    }
+    return calls;
+  }
+
+  /**
+   * Evaluates whether unary calls are passed to each channel in turn.
+   */
+  @Test
+  public void testRoundRobin() {
+    ChannelPool pool = this.createPool(Strategy.ROUND_ROBIN);
+
+    for (int i = 0; i < 9; ++i) {
+      SystemServiceGrpc.newBlockingStub(pool).getStatus(Empty.getDefaultInstance());
+    }
+    assertArrayEquals(new int[]{3, 3, 3, 0}, this.getCalls());
+    assertArrayEquals(new int[]{0, 0, 0}, pool.getInFlightCalls());
+  }
+
+  /**
+   * Evaluates whether unary calls are passed to the channel with the least amount of calls in
+   * flight.
+   */
+  @Test
+  public void testLeastInFlight() throws Exception {
+    ChannelPool pool = this.createPool(Strategy.LEAST_IN_FLIGHT);
+    this.services.get(1).hang = true;
+    this.services.get(2).hang = true;
+
+    for (int i = 0; i < 10; ++i) {
+      ListenableFuture<System.Status> future = SystemServiceGrpc.newFutureStub(pool)
+          .getStatus(Empty.getDefaultInstance());
+
+      try {
+        future.get(50, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException ignore) {
+        // calls to stalled servers remain in flight
+      }
+    }
+
+    int[] inFlight = pool.getInFlightCalls();
+    assertEquals(0, inFlight[0]);
+    assertEquals(1, inFlight[1]);
+    assertEquals(1, inFlight[2]);
+    assertEquals(8, this.services.get(0).calls.get());
+  }
+
+  /**
+   * Evaluates whether streaming calls are passed to a dedicated channel.
+   */
+  @Test
+  public void testStreaming() {
+    ChannelPool pool = this.createPool(Strategy.ROUND_ROBIN);
+
+    Iterator<Events.Event> it = EventServiceGrpc.newBlockingStub(pool)
+        .streamEvents(StreamEventsRequest.getDefaultInstance());
+    assertTrue(!it.hasNext());
+
+    for (int i = 0; i < SIZE; ++i) {
+      assertEquals(0, this.services.get(i).streams.get());
+    }
+    assertEquals(1, this.services.get(SIZE).streams.get());
+    assertEquals(SIZE + 1, this.channels.size());
+  }
+
+  /**
+   * Evaluates whether channels which have been constructed already are released when the factory
+   * fails.
+   */
+  @Test
+  public void testFactoryFailure() {
+    try {
+      new ChannelPool(() -> {
+        if (this.channels.size() == 2) {
+          throw new IllegalStateException();
+        }
+
+        ManagedChannel channel = InProcessChannelBuilder
+            .forName(this.names.get(this.channels.size()))
+            .build();
+        this.channels.add(channel);
+        return channel;
+      }, SIZE, Strategy.ROUND_ROBIN);
+      fail("Expected pool construction to fail");
+    } catch (IllegalStateException ignore) {
+    }
+
+    assertEquals(2, this.channels.size());
+    this.channels.forEach((c) -> assertTrue(c.isShutdown()));
+  }
+
+  /**
+   * Evaluates whether invalid pool sizes are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalSize() {
+    new ChannelPool(() -> {
+      throw new AssertionError();
+    }, 0, Strategy.ROUND_ROBIN);
+  }
+
+  /**
+   * Provides a status and event service which counts its calls.
+   */
+  private static final class FakeService extends SystemServiceImplBase {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger streams = new AtomicInteger();
+    private volatile boolean hang;
+
+    private final EventServiceImplBase events = new EventServiceImplBase() {
+      @Override
+      public void streamEvents(
+          StreamEventsRequest request,
+          StreamObserver<Events.Event> responseObserver) {
+        FakeService.this.streams.incrementAndGet();
+        responseObserver.onCompleted();
+      }
+    };
+
+    @Override
+    public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+      this.calls.incrementAndGet();
+
+      if (this.hang) {
+        return;
+      }
+
+      responseObserver.onNext(System.Status.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceImplBase;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.Deadline;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link DeadlineInterceptor}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class DeadlineInterceptorTest {
+
+  private Server server;
+  private ManagedChannel channel;
+  private volatile boolean hang;
+  private volatile Deadline deadline;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new SystemServiceImplBase() {
+          @Override
+          public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+            if (DeadlineInterceptorTest.this.hang) {
+              return;
+            }
+
+            responseObserver.onNext(System.Status.getDefaultInstance());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void getPlugins(Empty request,
+              StreamObserver<System.PluginList> responseObserver) {
+            responseObserver.onNext(System.PluginList.getDefaultInstance());
+            responseObserver.onCompleted();
+          }
+        })
+        .addService(new EventServiceImplBase() {
+          @Override
+          public void streamEvents(
+              StreamEventsRequest request,
+              StreamObserver<Events.Event> responseObserver) {
+            responseObserver.onCompleted();
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Creates a channel which applies the given interceptor and records the deadline which has
+   * been passed to the server.
+   */
+  private Channel intercept(DeadlineInterceptor interceptor) {
+    ClientInterceptor capture = new ClientInterceptor() {
+      @Override
+      public <I, O> ClientCall<I, O> interceptCall(
+          MethodDescriptor<I, O> method,
+          CallOptions callOptions,
+          Channel next) {
+        DeadlineInterceptorTest.this.deadline = callOptions.getDeadline();
+        return next.newCall(method, callOptions);
+      }
+    };
+
+    return ClientInterceptors.intercept(this.channel, capture, interceptor);
+  }
+
+  /**
+   * Asserts that the recorded deadline expires within the given bounds.
+   */
+  private void assertDeadline(Duration minimum, Duration maximum) {
+    assertNotNull(this.deadline);
+
+    long remaining = this.deadline.timeRemaining(TimeUnit.MILLISECONDS);
+    assertTrue("Expected deadline of at least " + minimum + " but got " + remaining + "ms",
+        remaining >= minimum.toMillis());
+    assertTrue("Expected deadline of at most " + maximum + " but got " + remaining + "ms",
+        remaining <= maximum.toMillis());
+  }
+
+  /**
+   * Evaluates whether methods receive their configured deadline.
+   */
+  @Test
+  public void testMethodDeadline() {
+    Channel channel = this.intercept(new DeadlineInterceptor(Collections.singletonMap(
+        SystemServiceGrpc.getGetStatusMethod().getFullMethodName(), Duration.ofMinutes(1)),
+        null));
+
+    SystemServiceGrpc.newBlockingStub(channel).getStatus(Empty.getDefaultInstance());
+    this.assertDeadline(Duration.ofSeconds(50), Duration.ofMinutes(1));
+
+    SystemServiceGrpc.newBlockingStub(channel).getPlugins(Empty.getDefaultInstance());
+    assertNull(this.deadline);
+  }
+
+  /**
+   * Evaluates whether the default deadline is applied to unary calls only.
+   */
+  @Test
+  public void testDefaultDeadline() {
+    Channel channel = this.intercept(new DeadlineInterceptor(Collections.singletonMap(
+        SystemServiceGrpc.getGetStatusMethod().getFullMethodName(), Duration.ofMinutes(1)),
+        Duration.ofHours(1)));
+
+    SystemServiceGrpc.newBlockingStub(channel).getPlugins(Empty.getDefaultInstance());
+    this.assertDeadline(Duration.ofMinutes(59), Duration.ofHours(1));
+
+    SystemServiceGrpc.newBlockingStub(channel).getStatus(Empty.getDefaultInstance());
+    this.assertDeadline(Duration.ofSeconds(50), Duration.ofMinutes(1));
+
+    Iterator<Events.Event> it = EventServiceGrpc.newBlockingStub(channel)
+        .streamEvents(StreamEventsRequest.getDefaultInstance());
+    assertFalse(it.hasNext());
+    assertNull(this.deadline);
+  }
+
+  /**
+   * Evaluates whether deadlines which have been specified by the caller are retained.
+   */
+  @Test
+  public void testExistingDeadline() {
+    Channel channel = this.intercept(new DeadlineInterceptor(Collections.singletonMap(
+        SystemServiceGrpc.getGetStatusMethod().getFullMethodName(), Duration.ofMinutes(1)),
+        Duration.ofMinutes(1)));
+
+    SystemServiceGrpc.newBlockingStub(channel)
+        .withDeadlineAfter(2, TimeUnit.HOURS)
+        .getStatus(Empty.getDefaultInstance());
+    this.assertDeadline(Duration.ofMinutes(119), Duration.ofHours(2));
+  }
+
+  /**
+   * Evaluates whether calls which exceed their deadline fail rather than wait indefinitely.
+   */
+  @Test
+  public void testDeadlineExceeded() {
+    Channel channel = this.intercept(new DeadlineInterceptor(Collections.emptyMap(),
+        Duration.ofMillis(20)));
+    this.hang = true;
+
+    try {
+      SystemServiceGrpc.newBlockingStub(channel).getStatus(Empty.getDefaultInstance());
+      fail("Expected call to exceed its deadline");
+    } catch (StatusRuntimeException ex) {
+      assertEquals(Status.Code.DEADLINE_EXCEEDED, ex.getStatus().getCode());
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link HedgingInterceptor}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class HedgingInterceptorTest {
+
+  private static final Collection<MethodDescriptor<?, ?>> METHODS =
+      Collections.singletonList(SystemServiceGrpc.getGetStatusMethod());
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final AtomicBoolean stallNext = new AtomicBoolean();
+  private final CountDownLatch stalledCancelled = new CountDownLatch(1);
+
+  private ScheduledExecutorService scheduler;
+  private Server server;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new SystemServiceImplBase() {
+          @Override
+          public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+            HedgingInterceptorTest.this.calls.incrementAndGet();
+
+            if (HedgingInterceptorTest.this.stallNext.compareAndSet(true, false)) {
+              ((ServerCallStreamObserver<System.Status>) responseObserver)
+                  .setOnCancelHandler(HedgingInterceptorTest.this.stalledCancelled::countDown);
+              return;
+            }
+
+            responseObserver.onNext(System.Status.getDefaultInstance());
+            responseObserver.onCompleted();
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Issues the given amount of calls through an interceptor.
+   */
+  private static void call(Channel channel, int amount) {
+    for (int i = 0; i < amount; ++i) {
+      SystemServiceGrpc.newBlockingStub(channel).getStatus(Empty.getDefaultInstance());
+    }
+  }
+
+  /**
+   * Evaluates whether calls are only hedged once enough latencies have been observed.
+   */
+  @Test
+  public void testWarmup() {
+    HedgingInterceptor interceptor = new HedgingInterceptor(METHODS, this.scheduler,
+        Duration.ofMillis(20), HedgingInterceptor.DEFAULT_PERCENTILE);
+    Channel channel = ClientInterceptors.intercept(this.channel, interceptor);
+
+    call(channel, 31);
+    assertNull(interceptor.getDelay(SystemServiceGrpc.getGetStatusMethod()));
+
+    call(channel, 1);
+    Duration delay = interceptor.getDelay(SystemServiceGrpc.getGetStatusMethod());
+    assertNotNull(delay);
+    assertTrue(delay.compareTo(Duration.ofMillis(20)) >= 0);
+    assertEquals(0, interceptor.getHedgedCallCount());
+  }
+
+  /**
+   * Evaluates whether a second attempt completes calls whose first attempt stalls and whether the
+   * stalled attempt is cancelled.
+   */
+  @Test
+  public void testHedge() throws InterruptedException {
+    HedgingInterceptor interceptor = new HedgingInterceptor(METHODS, this.scheduler,
+        Duration.ofMillis(20), HedgingInterceptor.DEFAULT_PERCENTILE);
+    Channel channel = ClientInterceptors.intercept(this.channel, interceptor);
+    call(channel, 32);
+
+    this.calls.set(0);
+    this.stallNext.set(true);
+    call(channel, 1);
+
+    assertEquals(2, this.calls.get());
+    assertEquals(1, interceptor.getHedgedCallCount());
+    assertEquals(1, interceptor.getHedgeWinCount());
+    assertTrue(this.stalledCancelled.await(5, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Evaluates whether calls to methods which have not been marked as idempotent are never hedged.
+   */
+  @Test
+  public void testUnhedgedMethod() {
+    HedgingInterceptor interceptor = new HedgingInterceptor(
+        Collections.singletonList(SystemServiceGrpc.getGetPluginsMethod()), this.scheduler,
+        Duration.ZERO, HedgingInterceptor.DEFAULT_PERCENTILE);
+    Channel channel = ClientInterceptors.intercept(this.channel, interceptor);
+    call(channel, 64);
+    assertNull(interceptor.getDelay(SystemServiceGrpc.getGetStatusMethod()));
+
+    this.calls.set(0);
+    this.stallNext.set(true);
+    try {
+      SystemServiceGrpc.newBlockingStub(channel)
+          .withDeadlineAfter(100, TimeUnit.MILLISECONDS)
+          .getStatus(Empty.getDefaultInstance());
+      fail("Expected call to exceed its deadline");
+    } catch (StatusRuntimeException ex) {
+      assertEquals(Status.Code.DEADLINE_EXCEEDED, ex.getStatus().getCode());
+    }
+
+    assertEquals(1, this.calls.get());
+    assertEquals(0, interceptor.getHedgedCallCount());
+  }
+
+  /**
+   * Evaluates whether invalid percentiles are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalPercentile() {
+    new HedgingInterceptor(METHODS, this.scheduler, Duration.ZERO, 1);
+  }
+
+  /**
+   * Evaluates whether negative minimum delays are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalMinimumDelay() {
+    new HedgingInterceptor(METHODS, this.scheduler, Duration.ofMillis(-1),
+        HedgingInterceptor.DEFAULT_PERCENTILE);
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link LimitingInterceptor}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class LimitingInterceptorTest {
+
+  private static final String STATUS = SystemServiceGrpc.getGetStatusMethod().getFullMethodName();
+  private static final String PLUGINS =
+      SystemServiceGrpc.getGetPluginsMethod().getFullMethodName();
+
+  private final List<String> arrivals = new CopyOnWriteArrayList<>();
+  private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+  private ScheduledExecutorService scheduler;
+  private Server server;
+  private ManagedChannel channel;
+  private LimitingInterceptor interceptor;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new SystemServiceImplBase() {
+          @Override
+          public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+            LimitingInterceptorTest.this.hold(STATUS, responseObserver,
+                System.Status.getDefaultInstance());
+          }
+
+          @Override
+          public void getPlugins(Empty request,
+              StreamObserver<System.PluginList> responseObserver) {
+            LimitingInterceptorTest.this.hold(PLUGINS, responseObserver,
+                System.PluginList.getDefaultInstance());
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (this.interceptor != null) {
+      this.interceptor.close();
+    }
+
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Records the arrival of a call and holds its response until it is released.
+   */
+  private <O> void hold(String method, StreamObserver<O> responseObserver, O response) {
+    this.arrivals.add(method);
+    this.pending.add(() -> {
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    });
+  }
+
+  /**
+   * Completes the oldest call which is currently held by the server.
+   */
+  private void release() {
+    Runnable completion = this.pending.poll();
+    assertTrue("Expected a call to be held by the server", completion != null);
+    completion.run();
+  }
+
+  /**
+   * Waits until the server has received the given amount of calls.
+   */
+  private void awaitArrivals(int amount) throws InterruptedException {
+    for (int i = 0; i < 1000 && this.arrivals.size() < amount; ++i) {
+      Thread.sleep(5);
+    }
+    assertEquals(amount, this.arrivals.size());
+  }
+
+  /**
+   * Creates a channel which passes interactive status calls and batch plugin calls through a
+   * limiting interceptor.
+   */
+  private Channel intercept(
+      Limiter limiter,
+      int maximumQueueSize,
+      Map<CallPriority, Integer> concurrencyLimits) {
+    Map<String, CallPriority> priorities = new HashMap<>();
+    priorities.put(STATUS, CallPriority.INTERACTIVE);
+    priorities.put(PLUGINS, CallPriority.BATCH);
+
+    this.interceptor = new LimitingInterceptor(limiter, this.scheduler, maximumQueueSize,
+        priorities, concurrencyLimits);
+    return ClientInterceptors.intercept(this.channel, this.interceptor);
+  }
+
+  /**
+   * Waits for a call to complete and returns its status code.
+   */
+  private static Status.Code getCode(ListenableFuture<?> future) throws InterruptedException {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      return Status.Code.OK;
+    } catch (ExecutionException ex) {
+      return Status.fromThrowable(ex).getCode();
+    } catch (TimeoutException ex) {
+      throw new AssertionError("Expected call to complete", ex);
+    }
+  }
+
+  /**
+   * Evaluates whether queued calls are passed to the server in the order of their priority.
+   */
+  @Test
+  public void testPriorityOrder() throws InterruptedException {
+    Channel channel = this.intercept(new SingleCallLimiter(), 10,
+        new EnumMap<>(CallPriority.class));
+    SystemServiceGrpc.SystemServiceFutureStub stub = SystemServiceGrpc.newFutureStub(channel);
+
+    stub.getStatus(Empty.getDefaultInstance());
+    this.awaitArrivals(1);
+
+    for (int i = 0; i < 3; ++i) {
+      stub.getPlugins(Empty.getDefaultInstance());
+    }
+    stub.getStatus(Empty.getDefaultInstance());
+    assertEquals(3, this.interceptor.getQueueDepth(CallPriority.BATCH));
+    assertEquals(1, this.interceptor.getQueueDepth(CallPriority.INTERACTIVE));
+
+    for (int i = 2; i <= 5; ++i) {
+      this.release();
+      this.awaitArrivals(i);
+    }
+    assertEquals(Arrays.asList(STATUS, STATUS, PLUGINS, PLUGINS, PLUGINS), this.arrivals);
+  }
+
+  /**
+   * Evaluates whether calls may override the priority of their method.
+   */
+  @Test
+  public void testPriorityOverride() throws InterruptedException {
+    Channel channel = this.intercept(new SingleCallLimiter(), 10,
+        new EnumMap<>(CallPriority.class));
+    SystemServiceGrpc.SystemServiceFutureStub stub = SystemServiceGrpc.newFutureStub(channel);
+
+    stub.getStatus(Empty.getDefaultInstance());
+    this.awaitArrivals(1);
+
+    stub.getPlugins(Empty.getDefaultInstance());
+    stub.withOption(LimitingInterceptor.PRIORITY, CallPriority.BATCH)
+        .getStatus(Empty.getDefaultInstance());
+    assertEquals(2, this.interceptor.getQueueDepth(CallPriority.BATCH));
+    assertEquals(0, this.interceptor.getQueueDepth(CallPriority.INTERACTIVE));
+  }
+
+  /**
+   * Evaluates whether saturated batch calls do not delay interactive calls.
+   */
+  @Test
+  public void testConcurrencyLimit() throws InterruptedException {
+    Channel channel = this.intercept(Limiter.unlimited(), 10,
+        new EnumMap<>(Collections.singletonMap(CallPriority.BATCH, 1)));
+    SystemServiceGrpc.SystemServiceFutureStub stub = SystemServiceGrpc.newFutureStub(channel);
+
+    stub.getPlugins(Empty.getDefaultInstance());
+    stub.getPlugins(Empty.getDefaultInstance());
+    this.awaitArrivals(1);
+    assertEquals(1, this.interceptor.getInFlight(CallPriority.BATCH));
+    assertEquals(1, this.interceptor.getQueueDepth(CallPriority.BATCH));
+
+    stub.getStatus(Empty.getDefaultInstance());
+    this.awaitArrivals(2);
+    assertEquals(STATUS, this.arrivals.get(1));
+    assertEquals(1, this.interceptor.getInFlight(CallPriority.INTERACTIVE));
+
+    this.release();
+    this.awaitArrivals(3);
+    assertEquals(PLUGINS, this.arrivals.get(2));
+  }
+
+  /**
+   * Evaluates whether lower priority calls are rejected in favor of higher priority calls when
+   * the queue is full.
+   */
+  @Test
+  public void testRejection() throws InterruptedException {
+    Channel channel = this.intercept(new SingleCallLimiter(), 1,
+        new EnumMap<>(CallPriority.class));
+    SystemServiceGrpc.SystemServiceFutureStub stub = SystemServiceGrpc.newFutureStub(channel);
+
+    stub.getStatus(Empty.getDefaultInstance());
+    this.awaitArrivals(1);
+
+    ListenableFuture<?> batch = stub.getPlugins(Empty.getDefaultInstance());
+    ListenableFuture<?> interactive = stub.getStatus(Empty.getDefaultInstance());
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, getCode(batch));
+    assertFalse(interactive.isDone());
+
+    ListenableFuture<?> rejected = stub.getPlugins(Empty.getDefaultInstance());
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, getCode(rejected));
+    assertEquals(2, this.interceptor.getRejectedCount());
+
+    this.release();
+    this.awaitArrivals(2);
+    this.release();
+    assertEquals(Status.Code.OK, getCode(interactive));
+  }
+
+  /**
+   * Evaluates whether queued calls fail once their deadline expires.
+   */
+  @Test
+  public void testExpiration() throws InterruptedException {
+    Channel channel = this.intercept(new SingleCallLimiter(), 10,
+        new EnumMap<>(CallPriority.class));
+    SystemServiceGrpc.SystemServiceFutureStub stub = SystemServiceGrpc.newFutureStub(channel);
+
+    stub.getStatus(Empty.getDefaultInstance());
+    this.awaitArrivals(1);
+
+    ListenableFuture<?> future = stub.withDeadlineAfter(20, TimeUnit.MILLISECONDS)
+        .getPlugins(Empty.getDefaultInstance());
+    assertEquals(Status.Code.DEADLINE_EXCEEDED, getCode(future));
+    assertEquals(1, this.interceptor.getExpiredCount());
+    assertEquals(0, this.interceptor.getQueueDepth());
+  }
+
+  /**
+   * Evaluates whether queued calls fail when the interceptor is closed.
+   */
+  @Test
+  public void testClose() throws InterruptedException {
+    Channel channel = this.intercept(new SingleCallLimiter(), 10,
+        new EnumMap<>(CallPriority.class));
+    SystemServiceGrpc.SystemServiceFutureStub stub = SystemServiceGrpc.newFutureStub(channel);
+
+    stub.getStatus(Empty.getDefaultInstance());
+    this.awaitArrivals(1);
+
+    ListenableFuture<?> future = stub.getPlugins(Empty.getDefaultInstance());
+    this.interceptor.close();
+    assertEquals(Status.Code.UNAVAILABLE, getCode(future));
+  }
+
+  /**
+   * Evaluates whether invalid concurrency limits are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalConcurrencyLimit() {
+    new LimitingInterceptor(Limiter.unlimited(), this.scheduler, 10, new HashMap<>(),
+        new EnumMap<>(Collections.singletonMap(CallPriority.BATCH, 0)));
+  }
+
+  /**
+   * Permits a single call at a time.
+   */
+  private static final class SingleCallLimiter implements Limiter {
+
+    private boolean acquired;
+
+    @Override
+    public synchronized Permit tryAcquire(MethodDescriptor<?, ?> method) {
+      if (this.acquired) {
+        return null;
+      }
+
+      this.acquired = true;
+      return (status, latency) -> {
+        synchronized (this) {
+          this.acquired = false;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.rpc.System;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc;
+import io.github.dotstart.stockpile.rpc.SystemServiceGrpc.SystemServiceImplBase;
+import io.github.dotstart.stockpile.utility.Backoff;
+import io.github.dotstart.stockpile.utility.RetryBudget;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link RetryInterceptor}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class RetryInterceptorTest {
+
+  private static final Collection<MethodDescriptor<?, ?>> METHODS =
+      Collections.singletonList(SystemServiceGrpc.getGetStatusMethod());
+  private static final Backoff BACKOFF = new Backoff(Duration.ofMillis(1), Duration.ofMillis(10),
+      2, 0);
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final AtomicInteger failures = new AtomicInteger();
+  private volatile Status failure = Status.UNAVAILABLE;
+
+  private ScheduledExecutorService scheduler;
+  private Server server;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new SystemServiceImplBase() {
+          @Override
+          public void getStatus(Empty request, StreamObserver<System.Status> responseObserver) {
+            RetryInterceptorTest.this.respond(responseObserver, System.Status.getDefaultInstance());
+          }
+
+          @Override
+          public void getPlugins(Empty request,
+              StreamObserver<System.PluginList> responseObserver) {
+            RetryInterceptorTest.this
+                .respond(responseObserver, System.PluginList.getDefaultInstance());
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Fails the configured amount of calls and completes all remaining calls successfully.
+   */
+  private <O> void respond(StreamObserver<O> responseObserver, O response) {
+    this.calls.incrementAndGet();
+
+    if (this.failures.getAndDecrement() > 0) {
+      responseObserver.onError(this.failure.asException());
+      return;
+    }
+
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Issues a single call through an interceptor and returns the status code of its failure (or
+   * OK if the call succeeds).
+   */
+  private static Status.Code call(Channel channel) {
+    try {
+      SystemServiceGrpc.newBlockingStub(channel).getStatus(Empty.getDefaultInstance());
+      return Status.Code.OK;
+    } catch (StatusRuntimeException ex) {
+      return ex.getStatus().getCode();
+    }
+  }
+
+  /**
+   * Evaluates whether calls which fail transiently are retried until they succeed.
+   */
+  @Test
+  public void testRetry() {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 3, BACKOFF,
+        new RetryBudget(0.1, 10));
+    this.failures.set(2);
+
+    assertEquals(Status.Code.OK, call(ClientInterceptors.intercept(this.channel, interceptor)));
+    assertEquals(3, this.calls.get());
+    assertEquals(2, interceptor.getBudget().getRetryCount());
+  }
+
+  /**
+   * Evaluates whether the failure of the final attempt is reported once a call runs out of
+   * retries.
+   */
+  @Test
+  public void testMaximumRetries() {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 2, BACKOFF,
+        new RetryBudget(0.1, 10));
+    this.failures.set(10);
+
+    assertEquals(Status.Code.UNAVAILABLE,
+        call(ClientInterceptors.intercept(this.channel, interceptor)));
+    assertEquals(3, this.calls.get());
+  }
+
+  /**
+   * Evaluates whether permanent failures are reported without retrying the call.
+   */
+  @Test
+  public void testPermanentFailure() {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 3, BACKOFF,
+        new RetryBudget(0.1, 10));
+    this.failure = Status.INVALID_ARGUMENT;
+    this.failures.set(10);
+
+    assertEquals(Status.Code.INVALID_ARGUMENT,
+        call(ClientInterceptors.intercept(this.channel, interceptor)));
+    assertEquals(1, this.calls.get());
+  }
+
+  /**
+   * Evaluates whether calls to methods which have not been marked as idempotent are never
+   * retried.
+   */
+  @Test
+  public void testNonIdempotentMethod() {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 3, BACKOFF,
+        new RetryBudget(0.1, 10));
+    this.failures.set(10);
+
+    try {
+      SystemServiceGrpc.newBlockingStub(ClientInterceptors.intercept(this.channel, interceptor))
+          .getPlugins(Empty.getDefaultInstance());
+      fail("Expected call to fail");
+    } catch (StatusRuntimeException ex) {
+      assertEquals(Status.Code.UNAVAILABLE, ex.getStatus().getCode());
+    }
+    assertEquals(1, this.calls.get());
+  }
+
+  /**
+   * Evaluates whether retries are rejected once the retry budget has been exhausted.
+   */
+  @Test
+  public void testBudget() {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 3, BACKOFF,
+        new RetryBudget(0.1, 1));
+    this.failures.set(10);
+
+    assertEquals(Status.Code.UNAVAILABLE,
+        call(ClientInterceptors.intercept(this.channel, interceptor)));
+    assertEquals(2, this.calls.get());
+    assertEquals(1, interceptor.getBudget().getRetryCount());
+    assertEquals(1, interceptor.getBudget().getRejectedCount());
+  }
+
+  /**
+   * Evaluates whether calls are not retried when their deadline would expire before the retry.
+   */
+  @Test
+  public void testDeadline() {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 3,
+        new Backoff(Duration.ofHours(1), Duration.ofHours(1), 2, 0), new RetryBudget(0.1, 10));
+    this.failures.set(10);
+
+    try {
+      SystemServiceGrpc.newBlockingStub(ClientInterceptors.intercept(this.channel, interceptor))
+          .withDeadlineAfter(1, TimeUnit.MINUTES)
+          .getStatus(Empty.getDefaultInstance());
+      fail("Expected call to fail");
+    } catch (StatusRuntimeException ex) {
+      assertEquals(Status.Code.UNAVAILABLE, ex.getStatus().getCode());
+    }
+    assertEquals(1, this.calls.get());
+    assertEquals(0, interceptor.getBudget().getRetryCount());
+  }
+
+  /**
+   * Evaluates whether calls which are waiting for a retry are completed when the interceptor is
+   * closed.
+   */
+  @Test
+  public void testClose() throws InterruptedException {
+    RetryInterceptor interceptor = new RetryInterceptor(METHODS, this.scheduler, 3,
+        new Backoff(Duration.ofHours(1), Duration.ofHours(1), 2, 0), new RetryBudget(0.1, 10));
+    this.failures.set(10);
+
+    ListenableFuture<System.Status> future = SystemServiceGrpc
+        .newFutureStub(ClientInterceptors.intercept(this.channel, interceptor))
+        .getStatus(Empty.getDefaultInstance());
+    for (int i = 0; i < 1000 && interceptor.getBudget().getRetryCount() == 0; ++i) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, interceptor.getBudget().getRetryCount());
+
+    interceptor.close();
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected call to fail");
+    } catch (ExecutionException ex) {
+      assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(ex).getCode());
+    } catch (TimeoutException ex) {
+      fail("Expected call to complete once the interceptor has been closed");
+    }
+    assertTrue(future.isDone());
+    assertEquals(1, this.calls.get());
+  }
+
+  /**
+   * Evaluates whether invalid amounts of retries are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalRetries() {
+    new RetryInterceptor(METHODS, this.scheduler, 0, BACKOFF, new RetryBudget(0.1, 10));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link Transport}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class TransportTest {
+
+  /**
+   * Evaluates whether the portable transport is used when the native transport is not requested.
+   */
+  @Test
+  public void testPortable() {
+    try (Transport transport = Transport.create(1, false)) {
+      assertFalse(transport.isNative());
+      assertTrue(transport.getEventLoopGroup() instanceof NioEventLoopGroup);
+      assertEquals(NioSocketChannel.class, transport.getChannelType());
+    }
+  }
+
+  /**
+   * Evaluates whether the native transport is only used when it is available on this system.
+   */
+  @Test
+  public void testNative() {
+    try (Transport transport = Transport.create(1, true)) {
+      assertEquals(Transport.isNativeAvailable(), transport.isNative());
+
+      if (!transport.isNative()) {
+        assertEquals(NioSocketChannel.class, transport.getChannelType());
+      }
+    }
+  }
+
+  /**
+   * Evaluates whether closing a transport terminates its network threads.
+   */
+  @Test
+  public void testClose() {
+    Transport transport = Transport.create(1, false);
+    transport.getEventLoopGroup().submit(() -> {
+    }).syncUninterruptibly();
+
+    transport.close();
+    assertTrue(transport.getEventLoopGroup().isTerminated());
+  }
+
+  /**
+   * Evaluates whether closing a transport restores the interrupt flag of the calling thread
+   * rather than failing.
+   */
+  @Test
+  public void testCloseInterrupted() {
+    Transport transport = Transport.create(1, false);
+
+    Thread.currentThread().interrupt();
+    transport.close();
+    assertTrue(Thread.interrupted());
+    assertTrue(transport.getEventLoopGroup().isShuttingDown());
+  }
+
+  /**
+   * Evaluates whether negative amounts of threads are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalThreads() {
+    Transport.create(-1, false);
+  }
+}
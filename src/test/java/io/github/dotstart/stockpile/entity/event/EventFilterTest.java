@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.Any;
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import io.github.dotstart.stockpile.entity.server.Blacklist;
+import io.github.dotstart.stockpile.rpc.Events;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link EventFilter}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class EventFilterTest {
+
+  /**
+   * Creates a profile related event which is keyed by a profile identifier.
+   */
+  private static Event<?, ?> createEvent(
+      Events.EventType type,
+      Events.EventAction action,
+      UUID profileId) {
+    return new Event<>(Events.Event.newBuilder()
+        .setType(type)
+        .setAction(action)
+        .setKey(Any.pack(Events.IdKey.newBuilder().setId(profileId.toString()).build()))
+        .build());
+  }
+
+  /**
+   * Creates a profile Id event for a given profile.
+   */
+  private static Event<?, ?> createProfileIdEvent(UUID profileId) {
+    Instant now = Instant.now();
+    return new Event<>(Event.Type.PROFILE_ID, new ProfileIdKey("Notch", now),
+        new ProfileId(profileId, "Notch", now, now, now.plus(Duration.ofDays(1))));
+  }
+
+  /**
+   * Evaluates whether empty builders produce a filter which matches all events.
+   */
+  @Test
+  public void testAll() {
+    EventFilter filter = EventFilter.builder().build();
+
+    assertTrue(filter.isUnrestricted());
+    assertEquals(EventFilter.all(), filter);
+    assertEquals(EnumSet.allOf(Event.Type.class), filter.getTypes());
+    assertEquals(EnumSet.allOf(Event.Action.class), filter.getActions());
+    assertTrue(filter.getProfileIds().isEmpty());
+  }
+
+  /**
+   * Evaluates whether events are matched based on their type and action.
+   */
+  @Test
+  public void testTypesAndActions() {
+    EventFilter filter = EventFilter.builder()
+        .types(Event.Type.PROFILE)
+        .actions(Event.Action.UPDATED)
+        .build();
+    UUID profileId = UUID.randomUUID();
+
+    assertFalse(filter.isUnrestricted());
+    assertTrue(filter.matches(
+        createEvent(Events.EventType.PROFILE, Events.EventAction.UPDATED, profileId)));
+    assertFalse(filter.matches(
+        createEvent(Events.EventType.PROFILE, Events.EventAction.POPULATED, profileId)));
+    assertFalse(filter.matches(
+        createEvent(Events.EventType.NAME_HISTORY, Events.EventAction.UPDATED, profileId)));
+  }
+
+  /**
+   * Evaluates whether profile restrictions apply to profile related events only.
+   */
+  @Test
+  public void testProfiles() {
+    UUID profileId = UUID.randomUUID();
+    EventFilter filter = EventFilter.builder()
+        .profiles(profileId)
+        .build();
+
+    assertTrue(filter.matches(
+        createEvent(Events.EventType.PROFILE, Events.EventAction.UPDATED, profileId)));
+    assertTrue(filter.matches(
+        createEvent(Events.EventType.NAME_HISTORY, Events.EventAction.UPDATED, profileId)));
+    assertFalse(filter.matches(createEvent(Events.EventType.PROFILE, Events.EventAction.UPDATED,
+        UUID.randomUUID())));
+
+    assertTrue(filter.matches(createProfileIdEvent(profileId)));
+    assertFalse(filter.matches(createProfileIdEvent(UUID.randomUUID())));
+
+    assertTrue(filter.matches(
+        new Event<>(Event.Type.BLACKLIST, null, new Blacklist(Collections.emptySet()))));
+  }
+
+  /**
+   * Evaluates whether filters with identical restrictions are considered equal.
+   */
+  @Test
+  public void testEquality() {
+    UUID profileId = UUID.randomUUID();
+
+    EventFilter first = EventFilter.builder()
+        .types(Event.Type.PROFILE, Event.Type.NAME_HISTORY)
+        .profiles(profileId)
+        .build();
+    EventFilter second = EventFilter.builder()
+        .types(Event.Type.NAME_HISTORY)
+        .types(Event.Type.PROFILE)
+        .profiles(Collections.singleton(profileId))
+        .build();
+
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+  }
+}
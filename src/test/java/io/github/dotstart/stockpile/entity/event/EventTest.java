@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import io.github.dotstart.stockpile.entity.server.Blacklist;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Server;
+import java.util.Collections;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link Event}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class EventTest {
+
+  /**
+   * Creates a blacklist event with the given payload.
+   */
+  private static Events.Event createEvent(Any payload) {
+    return Events.Event.newBuilder()
+        .setType(Events.EventType.BLACKLIST)
+        .setAction(Events.EventAction.UPDATED)
+        .setObject(payload)
+        .setSequence(2)
+        .setPreviousSequence(1)
+        .build();
+  }
+
+  /**
+   * Evaluates whether events are converted from their RPC representation.
+   */
+  @Test
+  public void testConversion() {
+    UUID profileId = UUID.randomUUID();
+    Event<?, ?> event = new Event<>(Events.Event.newBuilder()
+        .setType(Events.EventType.PROFILE)
+        .setAction(Events.EventAction.POPULATED)
+        .setKey(Any.pack(Events.IdKey.newBuilder().setId(profileId.toString()).build()))
+        .setSequence(5)
+        .setPreviousSequence(3)
+        .build());
+
+    assertEquals(Event.Type.PROFILE, event.getType());
+    assertEquals(Event.Action.POPULATED, event.getAction());
+    assertEquals(profileId, event.getKey());
+    assertEquals(5, event.getSequence());
+    assertEquals(3, event.getPreviousSequence());
+  }
+
+  /**
+   * Evaluates whether payloads are decoded upon access and whether the result is retained.
+   */
+  @Test
+  public void testLazyDecoding() {
+    Event<?, ?> event = new Event<>(createEvent(Any.pack(Server.Blacklist.newBuilder()
+        .addHashes("0000000000000000000000000000000000000000")
+        .build())));
+
+    Object value = event.getValue();
+    assertEquals(new Blacklist(
+        Collections.singleton("0000000000000000000000000000000000000000")), value);
+    assertSame(value, event.getValue());
+  }
+
+  /**
+   * Evaluates whether malformed payloads are only reported once they are accessed.
+   */
+  @Test
+  public void testMalformedPayload() {
+    Event<?, ?> event = new Event<>(createEvent(Any.newBuilder()
+        .setTypeUrl("type.googleapis.com/rpc.Blacklist")
+        .setValue(ByteString.copyFrom(new byte[]{(byte) 0xFF, (byte) 0xFF}))
+        .build()));
+    assertEquals(Event.Type.BLACKLIST, event.getType());
+
+    try {
+      event.getValue();
+      fail("Expected decoding to fail");
+    } catch (IllegalArgumentException ignore) {
+    }
+  }
+
+  /**
+   * Evaluates whether payloads which do not match the event type are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMismatchedPayload() {
+    new Event<>(createEvent(Any.pack(Events.IdKey.newBuilder()
+        .setId(UUID.randomUUID().toString())
+        .build())))
+        .getValue();
+  }
+
+  /**
+   * Evaluates whether malformed keys are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedKey() {
+    new Event<>(Events.Event.newBuilder()
+        .setType(Events.EventType.PROFILE)
+        .setKey(Any.pack(Events.IdKey.newBuilder().setId("not a uuid").build()))
+        .build());
+  }
+
+  /**
+   * Evaluates whether event types which have been introduced by newer versions of the server are
+   * rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownType() {
+    new Event<>(Events.Event.newBuilder()
+        .setTypeValue(42)
+        .build());
+  }
+
+  /**
+   * Evaluates whether events are compared regardless of whether their payload has been decoded.
+   */
+  @Test
+  public void testEquality() {
+    Events.Event rpc = createEvent(Any.pack(Server.Blacklist.getDefaultInstance()));
+    Event<?, ?> first = new Event<>(rpc);
+    Event<?, ?> second = new Event<>(rpc);
+
+    assertEquals(first, second);
+    first.getValue();
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+
+    assertNotEquals(first, new Event<>(createEvent(Any.pack(Server.Blacklist.newBuilder()
+        .addHashes("0000000000000000000000000000000000000000")
+        .build()))));
+  }
+}
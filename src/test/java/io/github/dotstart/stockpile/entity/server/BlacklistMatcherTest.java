@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.entity.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link BlacklistMatcher}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class BlacklistMatcherTest {
+
+  /**
+   * Computes the hex encoded sha1 hash of a given address.
+   */
+  private static String hash(String address) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1")
+          .digest(address.getBytes(StandardCharsets.ISO_8859_1));
+
+      StringBuilder builder = new StringBuilder();
+      for (byte b : digest) {
+        builder.append(String.format("%02x", b));
+      }
+      return builder.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new AssertionError(ex);
+    }
+  }
+
+  /**
+   * Compiles a matcher for the given addresses.
+   */
+  private static BlacklistMatcher compile(String... addresses) {
+    List<String> hashes = new ArrayList<>();
+    for (String address : addresses) {
+      hashes.add(hash(address));
+    }
+    return BlacklistMatcher.compile(hashes);
+  }
+
+  /**
+   * Evaluates whether hostnames are matched exactly and via their wildcards.
+   */
+  @Test
+  public void testHostname() {
+    BlacklistMatcher matcher = compile("exact.example.org", "*.example.com");
+
+    assertTrue(matcher.matches("exact.example.org"));
+    assertFalse(matcher.matches("other.example.org"));
+    assertFalse(matcher.matches("example.org"));
+
+    assertTrue(matcher.matches("mc.example.com"));
+    assertTrue(matcher.matches("a.b.example.com"));
+    assertFalse(matcher.matches("example.net"));
+  }
+
+  /**
+   * Evaluates whether hostnames are matched regardless of their case.
+   */
+  @Test
+  public void testHostnameCase() {
+    BlacklistMatcher matcher = compile("*.example.com");
+
+    assertTrue(matcher.matchesHostname("MC.Example.COM"));
+  }
+
+  /**
+   * Evaluates whether IP addresses are matched exactly and via their wildcards.
+   */
+  @Test
+  public void testInetAddress() {
+    BlacklistMatcher matcher = compile("10.0.0.1", "192.168.*");
+
+    assertTrue(matcher.matches("10.0.0.1"));
+    assertFalse(matcher.matches("10.0.0.2"));
+
+    assertTrue(matcher.matches("192.168.1.1"));
+    assertTrue(matcher.matchesInetAddress("192.168.255.3"));
+    assertFalse(matcher.matches("192.169.1.1"));
+  }
+
+  /**
+   * Evaluates whether checks do not leak state between subsequent calls on the same thread.
+   */
+  @Test
+  public void testBufferReuse() {
+    BlacklistMatcher matcher = compile("*.example.com");
+
+    assertTrue(matcher.matches("a-very-long-hostname-which-grows-the-buffer.example.com"));
+    assertFalse(matcher.matches("example.net"));
+    assertTrue(matcher.matches("b.example.com"));
+  }
+
+  /**
+   * Evaluates whether malformed and duplicate hashes are skipped.
+   */
+  @Test
+  public void testMalformedHashes() {
+    String valid = hash("example.org");
+    BlacklistMatcher matcher = BlacklistMatcher.compile(
+        Arrays.asList(valid, valid.toUpperCase(), "not a hash", valid.substring(1)));
+
+    assertEquals(1, matcher.size());
+    assertEquals(2, matcher.getMalformedCount());
+    assertTrue(matcher.matches("example.org"));
+  }
+
+  /**
+   * Evaluates whether empty blacklists do not match any address.
+   */
+  @Test
+  public void testEmpty() {
+    BlacklistMatcher matcher = BlacklistMatcher.compile(Collections.emptyList());
+
+    assertFalse(matcher.matches("example.org"));
+    assertFalse(matcher.matches("127.0.0.1"));
+  }
+
+  /**
+   * Evaluates whether IP addresses with an illegal amount of elements are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalInetAddress() {
+    compile().matchesInetAddress("10.0.1");
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.await;
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.createProfileEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link CoalescingEventObserver}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class CoalescingEventObserverTest {
+
+  private final List<Object> received = new CopyOnWriteArrayList<>();
+  private final ResumableEventObserver delegate = new ResumableEventObserver() {
+    @Override
+    public void onEvent(Event<?, ?> event) {
+      CoalescingEventObserverTest.this.received.add(event);
+    }
+
+    @Override
+    public void onGap(EventGap gap) {
+      CoalescingEventObserverTest.this.received.add(gap);
+    }
+  };
+
+  private ScheduledExecutorService scheduler;
+
+  @Before
+  public void setUp() {
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Retrieves the sequence numbers of all events which have been passed to the delegate.
+   */
+  private List<Long> getSequences() {
+    return this.received.stream()
+        .filter((o) -> o instanceof Event)
+        .map((o) -> ((Event<?, ?>) o).getSequence())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Evaluates whether only the most recent event for each key is retained within a window and
+   * whether events are passed in the order in which their keys were first seen.
+   */
+  @Test
+  public void testCoalescing() {
+    CoalescingEventObserver observer = new CoalescingEventObserver(this.delegate, this.scheduler,
+        Runnable::run, Duration.ofHours(1), 16);
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+
+    observer.onEvent(new Event<>(createProfileEvent(1, first)));
+    observer.onEvent(new Event<>(createProfileEvent(2, second)));
+    observer.onEvent(new Event<>(createProfileEvent(3, first)));
+    assertTrue(this.received.isEmpty());
+
+    observer.flush();
+    assertEquals(Arrays.asList(3L, 2L), this.getSequences());
+    assertEquals(1, observer.getCoalescedCount());
+  }
+
+  /**
+   * Evaluates whether windows are passed on once they have elapsed.
+   */
+  @Test
+  public void testWindow() throws InterruptedException {
+    CoalescingEventObserver observer = new CoalescingEventObserver(this.delegate, this.scheduler,
+        Runnable::run, Duration.ofMillis(10), 16);
+
+    observer.onEvent(new Event<>(createProfileEvent(1, UUID.randomUUID())));
+    await(() -> !this.received.isEmpty());
+    assertEquals(Collections.singletonList(1L), this.getSequences());
+  }
+
+  /**
+   * Evaluates whether windows are passed on once the maximum amount of keys has been reached.
+   */
+  @Test
+  public void testMaximumKeys() {
+    CoalescingEventObserver observer = new CoalescingEventObserver(this.delegate, this.scheduler,
+        Runnable::run, Duration.ofHours(1), 2);
+
+    observer.onEvent(new Event<>(createProfileEvent(1, UUID.randomUUID())));
+    assertTrue(this.received.isEmpty());
+    observer.onEvent(new Event<>(createProfileEvent(2, UUID.randomUUID())));
+    assertEquals(Arrays.asList(1L, 2L), this.getSequences());
+  }
+
+  /**
+   * Evaluates whether collected events are passed on ahead of a gap.
+   */
+  @Test
+  public void testGap() {
+    CoalescingEventObserver observer = new CoalescingEventObserver(this.delegate, this.scheduler,
+        Runnable::run, Duration.ofHours(1), 16);
+    Event<?, ?> event = new Event<>(createProfileEvent(1, UUID.randomUUID()));
+
+    observer.onEvent(event);
+    observer.onGap(EventGap.unbounded());
+    assertEquals(Arrays.asList(event, EventGap.unbounded()), this.received);
+  }
+
+  /**
+   * Evaluates whether events which the delegate fails to process are reported as a gap.
+   */
+  @Test
+  public void testFailure() {
+    List<EventGap> gaps = new CopyOnWriteArrayList<>();
+    CoalescingEventObserver observer = new CoalescingEventObserver(new ResumableEventObserver() {
+      @Override
+      public void onEvent(Event<?, ?> event) {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public void onGap(EventGap gap) {
+        gaps.add(gap);
+      }
+    }, this.scheduler, Runnable::run, Duration.ofHours(1), 16);
+    Event<?, ?> event = new Event<>(createProfileEvent(1, UUID.randomUUID()));
+
+    observer.onEvent(event);
+    observer.flush();
+    assertEquals(Collections.singletonList(EventGap.of(1, EventKey.of(event))), gaps);
+  }
+
+  /**
+   * Evaluates whether the stream does not wait for the delegate indefinitely when both share an
+   * executor with a single thread.
+   */
+  @Test
+  public void testSingleThreadedExecutor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      CoalescingEventObserver observer = new CoalescingEventObserver(this.delegate,
+          this.scheduler, executor, Duration.ofHours(1), 2);
+
+      Future<?> future = executor.submit(() -> {
+        for (int i = 1; i <= 100; ++i) {
+          observer.onEvent(new Event<>(createProfileEvent(i, UUID.randomUUID())));
+        }
+      });
+      future.get(5, TimeUnit.SECONDS);
+
+      await(() -> this.received.size() >= 100);
+      assertEquals(100, this.received.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Evaluates whether invalid maximum amounts of keys are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalMaximumKeys() {
+    new CoalescingEventObserver(this.delegate, this.scheduler, Runnable::run, Duration.ZERO, 0);
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.await;
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.createEvent;
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.createProfileEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.operations.EventDispatcher.OverflowPolicy;
+import io.github.dotstart.stockpile.operations.EventDispatcher.Registration;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceImplBase;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link EventDispatcher}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class EventDispatcherTest {
+
+  private final BlockingQueue<StreamObserver<Events.Event>> streams =
+      new LinkedBlockingQueue<>();
+
+  private ExecutorService executor;
+  private ScheduledExecutorService scheduler;
+  private Server server;
+  private ManagedChannel channel;
+  private EventOperations operations;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.executor = Executors.newCachedThreadPool();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new EventServiceImplBase() {
+          @Override
+          public void streamEvents(
+              StreamEventsRequest request,
+              StreamObserver<Events.Event> responseObserver) {
+            EventDispatcherTest.this.streams.add(responseObserver);
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.operations = new EventOperations(EventServiceGrpc.newBlockingStub(this.channel),
+        EventServiceGrpc.newStub(this.channel), this.executor, this.scheduler);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.operations.close();
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.scheduler.shutdownNow();
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Waits for the dispatcher to open its stream.
+   */
+  private StreamObserver<Events.Event> nextStream() throws InterruptedException {
+    StreamObserver<Events.Event> stream = this.streams.poll(5, TimeUnit.SECONDS);
+    assertNotNull("Expected stream to be opened", stream);
+    return stream;
+  }
+
+  /**
+   * Evaluates whether all listeners share a single stream which is closed once the last listener
+   * has been removed.
+   */
+  @Test
+  public void testFanOut() throws Exception {
+    EventDispatcher dispatcher = this.operations.dispatcher();
+    RecordingListener first = new RecordingListener(null);
+    RecordingListener second = new RecordingListener(null);
+
+    Registration firstRegistration = dispatcher.register(first);
+    Registration secondRegistration = dispatcher.register(second);
+    assertEquals(2, dispatcher.getListenerCount());
+
+    StreamObserver<Events.Event> stream = this.nextStream();
+    for (int i = 1; i <= 3; ++i) {
+      stream.onNext(createEvent(i));
+    }
+
+    await(() -> first.events.size() >= 3 && second.events.size() >= 3);
+    assertEquals(Arrays.asList(1L, 2L, 3L), first.getSequences());
+    assertEquals(Arrays.asList(1L, 2L, 3L), second.getSequences());
+    assertEquals(3, firstRegistration.getDeliveredCount());
+    assertTrue(this.streams.isEmpty());
+
+    firstRegistration.cancel();
+    secondRegistration.cancel();
+    assertEquals(0, dispatcher.getListenerCount());
+  }
+
+  /**
+   * Evaluates whether listeners only receive events which match their filter.
+   */
+  @Test
+  public void testFilter() throws Exception {
+    UUID profileId = UUID.randomUUID();
+    RecordingListener listener = new RecordingListener(null);
+    this.operations.dispatcher()
+        .register(EventFilter.builder().profiles(profileId).build(), listener);
+
+    StreamObserver<Events.Event> stream = this.nextStream();
+    stream.onNext(createProfileEvent(1, UUID.randomUUID()));
+    stream.onNext(createProfileEvent(2, profileId));
+    stream.onNext(createProfileEvent(3, UUID.randomUUID()));
+    stream.onNext(createProfileEvent(4, profileId));
+
+    await(() -> listener.events.size() >= 2);
+    Thread.sleep(50);
+    assertEquals(Arrays.asList(2L, 4L), listener.getSequences());
+  }
+
+  /**
+   * Evaluates whether the oldest queued events are discarded and reported as a gap when a
+   * listener falls behind.
+   */
+  @Test
+  public void testDropOldest() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener(gate);
+    Registration registration = this.operations.dispatcher()
+        .register(EventFilter.all(), listener, 2, OverflowPolicy.DROP_OLDEST);
+
+    StreamObserver<Events.Event> stream = this.nextStream();
+    stream.onNext(createEvent(1));
+    assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+
+    for (int i = 2; i <= 5; ++i) {
+      stream.onNext(createEvent(i));
+    }
+    await(() -> registration.getDroppedCount() >= 2);
+    gate.countDown();
+
+    await(() -> listener.events.size() >= 3);
+    assertEquals(Arrays.asList(1L, 4L, 5L), listener.getSequences());
+    assertEquals(1, listener.gaps.size());
+
+    EventGap gap = listener.gaps.get(0);
+    assertEquals(2, gap.getFirst());
+    assertEquals(3, gap.getLast());
+    assertEquals(Collections.singleton(EventKey.of(Event.Type.BLACKLIST)),
+        gap.getKeys().orElse(null));
+    assertEquals(2, registration.getMaximumLag());
+  }
+
+  /**
+   * Evaluates whether queued events are replaced by more recent events for the same key.
+   */
+  @Test
+  public void testCoalesceByKey() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener(gate);
+    Registration registration = this.operations.dispatcher()
+        .register(EventFilter.all(), listener, 2, OverflowPolicy.COALESCE_BY_KEY);
+
+    StreamObserver<Events.Event> stream = this.nextStream();
+    stream.onNext(createEvent(1));
+    assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+
+    for (int i = 2; i <= 5; ++i) {
+      stream.onNext(createEvent(i));
+    }
+    await(() -> registration.getCoalescedCount() >= 3);
+    gate.countDown();
+
+    await(() -> listener.events.size() >= 2);
+    Thread.sleep(50);
+    assertEquals(Arrays.asList(1L, 5L), listener.getSequences());
+    assertTrue(listener.gaps.isEmpty());
+    assertEquals(0, registration.getDroppedCount());
+  }
+
+  /**
+   * Evaluates whether the stream waits for listeners which fall behind when configured to do so.
+   */
+  @Test
+  public void testBlock() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener(gate);
+    Registration registration = this.operations.dispatcher()
+        .register(EventFilter.all(), listener, 1, OverflowPolicy.BLOCK);
+
+    StreamObserver<Events.Event> stream = this.nextStream();
+    stream.onNext(createEvent(1));
+    assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+
+    for (int i = 2; i <= 4; ++i) {
+      stream.onNext(createEvent(i));
+    }
+    await(() -> registration.getLag() >= 1);
+    Thread.sleep(50);
+    assertEquals(1, registration.getLag());
+    gate.countDown();
+
+    await(() -> listener.events.size() >= 4);
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L), listener.getSequences());
+    assertEquals(0, registration.getDroppedCount());
+  }
+
+  /**
+   * Evaluates whether events which the listener fails to process are reported as a gap without
+   * stalling its queue.
+   */
+  @Test
+  public void testFailure() throws Exception {
+    RecordingListener listener = new RecordingListener(null) {
+      @Override
+      public void onEvent(Event<?, ?> event) {
+        if (event.getSequence() == 2) {
+          throw new IllegalStateException();
+        }
+
+        super.onEvent(event);
+      }
+    };
+    Registration registration = this.operations.dispatcher().register(listener);
+
+    StreamObserver<Events.Event> stream = this.nextStream();
+    for (int i = 1; i <= 3; ++i) {
+      stream.onNext(createEvent(i));
+    }
+
+    await(() -> listener.events.size() >= 2);
+    assertEquals(Arrays.asList(1L, 3L), listener.getSequences());
+    assertEquals(Collections.singletonList(EventGap.of(2, EventKey.of(Event.Type.BLACKLIST))),
+        listener.gaps);
+    assertEquals(1, registration.getFailedCount());
+    assertEquals(2, registration.getDeliveredCount());
+  }
+
+  /**
+   * Evaluates whether invalid capacities are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalCapacity() {
+    this.operations.dispatcher()
+        .register(EventFilter.all(), new RecordingListener(null), 0, OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Records all events and gaps while optionally blocking upon the first event until released.
+   */
+  private static class RecordingListener implements ResumableEventObserver {
+
+    private final List<Event<?, ?>> events = new CopyOnWriteArrayList<>();
+    private final List<EventGap> gaps = new CopyOnWriteArrayList<>();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch gate;
+
+    private RecordingListener(CountDownLatch gate) {
+      this.gate = gate;
+    }
+
+    @Override
+    public void onEvent(Event<?, ?> event) {
+      this.events.add(event);
+      this.entered.countDown();
+
+      if (this.gate != null) {
+        try {
+          this.gate.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @Override
+    public void onGap(EventGap gap) {
+      this.gaps.add(gap);
+    }
+
+    private List<Long> getSequences() {
+      return this.events.stream()
+          .map(Event::getSequence)
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.Any;
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceImplBase;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.github.dotstart.stockpile.rpc.Server;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link EventSubscription}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class EventSubscriptionTest {
+
+  private final CompletableFuture<StreamObserver<Events.Event>> stream =
+      new CompletableFuture<>();
+
+  private ExecutorService executor;
+  private io.grpc.Server server;
+  private ManagedChannel channel;
+  private EventOperations operations;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.executor = Executors.newCachedThreadPool();
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new EventServiceImplBase() {
+          @Override
+          public void streamEvents(
+              StreamEventsRequest request,
+              StreamObserver<Events.Event> responseObserver) {
+            EventSubscriptionTest.this.stream.complete(responseObserver);
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.operations = new EventOperations(EventServiceGrpc.newBlockingStub(this.channel),
+        EventServiceGrpc.newStub(this.channel), this.executor);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Creates a blacklist event at the given position within the stream.
+   */
+  static Events.Event createEvent(long sequence) {
+    return Events.Event.newBuilder()
+        .setType(Events.EventType.BLACKLIST)
+        .setAction(Events.EventAction.UPDATED)
+        .setObject(Any.pack(Server.Blacklist.getDefaultInstance()))
+        .setSequence(sequence)
+        .setPreviousSequence(sequence - 1)
+        .build();
+  }
+
+  /**
+   * Creates a profile event for a given profile.
+   */
+  static Events.Event createProfileEvent(long sequence, UUID profileId) {
+    return Events.Event.newBuilder()
+        .setType(Events.EventType.PROFILE)
+        .setAction(Events.EventAction.UPDATED)
+        .setKey(Any.pack(Events.IdKey.newBuilder().setId(profileId.toString()).build()))
+        .setSequence(sequence)
+        .setPreviousSequence(sequence - 1)
+        .build();
+  }
+
+  /**
+   * Waits until a condition is met or the timeout elapses.
+   */
+  static void await(Condition condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.isMet() && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * Evaluates whether events are only delivered once they have been requested.
+   */
+  @Test
+  public void testExplicitDemand() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    EventSubscription subscription = this.operations.stream(observer, 0);
+
+    StreamObserver<Events.Event> stream = this.stream.get(5, TimeUnit.SECONDS);
+    for (int i = 1; i <= 10; ++i) {
+      stream.onNext(createEvent(i));
+    }
+
+    Thread.sleep(100);
+    assertTrue(observer.events.isEmpty());
+
+    subscription.request(2);
+    await(() -> observer.events.size() >= 2);
+    Thread.sleep(100);
+    assertEquals(2, observer.events.size());
+
+    subscription.request(3);
+    await(() -> observer.events.size() >= 5);
+    Thread.sleep(100);
+    assertEquals(5, observer.events.size());
+
+    for (int i = 0; i < observer.events.size(); ++i) {
+      assertEquals(i + 1, observer.events.get(i).getSequence());
+    }
+  }
+
+  /**
+   * Evaluates whether demand is replenished once events have been processed when a prefetch has
+   * been configured.
+   */
+  @Test
+  public void testPrefetch() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    this.operations.stream(observer, 2);
+
+    StreamObserver<Events.Event> stream = this.stream.get(5, TimeUnit.SECONDS);
+    for (int i = 1; i <= 10; ++i) {
+      stream.onNext(createEvent(i));
+    }
+    stream.onCompleted();
+
+    observer.completion.get(5, TimeUnit.SECONDS);
+    assertEquals(10, observer.events.size());
+  }
+
+  /**
+   * Evaluates whether the filter is applied to events which have been passed by servers which do
+   * not support filtering and whether their requests are replaced.
+   */
+  @Test
+  public void testClientSideFilter() throws Exception {
+    UUID profileId = UUID.randomUUID();
+    RecordingObserver observer = new RecordingObserver();
+    this.operations.stream(EventFilter.builder().profiles(profileId).build(), observer, 1);
+
+    StreamObserver<Events.Event> stream = this.stream.get(5, TimeUnit.SECONDS);
+    stream.onNext(createProfileEvent(1, UUID.randomUUID()));
+    stream.onNext(createProfileEvent(2, UUID.randomUUID()));
+    stream.onNext(createProfileEvent(3, profileId));
+    stream.onCompleted();
+
+    observer.completion.get(5, TimeUnit.SECONDS);
+    assertEquals(1, observer.events.size());
+    assertEquals(profileId, observer.events.get(0).getKey());
+  }
+
+  /**
+   * Evaluates whether events which cannot be decoded are skipped and reported to the listener
+   * without terminating the stream.
+   */
+  @Test
+  public void testUndecodableEvent() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    List<EventKey> lost = new CopyOnWriteArrayList<>();
+    this.operations.open(EventFilter.all(), 0, observer, new EventSubscription.StreamListener() {
+      @Override
+      public void onEstablished(long headSequence) {
+      }
+
+      @Override
+      public void onSkipped(long sequence, long previousSequence, EventKey key) {
+        assertEquals(2, sequence);
+        lost.add(key);
+      }
+    }, 1);
+
+    StreamObserver<Events.Event> stream = this.stream.get(5, TimeUnit.SECONDS);
+    stream.onNext(createEvent(1));
+    stream.onNext(Events.Event.newBuilder()
+        .setType(Events.EventType.PROFILE)
+        .setKey(Any.pack(Events.IdKey.newBuilder().setId("not a uuid").build()))
+        .setSequence(2)
+        .setPreviousSequence(1)
+        .build());
+    stream.onNext(createEvent(3));
+    stream.onCompleted();
+
+    observer.completion.get(5, TimeUnit.SECONDS);
+    assertEquals(2, observer.events.size());
+    assertEquals(3, observer.events.get(1).getSequence());
+    assertEquals(Collections.singletonList(EventKey.of(Event.Type.PROFILE)), lost);
+  }
+
+  /**
+   * Evaluates whether cancelled subscriptions are terminated.
+   */
+  @Test
+  public void testCancel() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    EventSubscription subscription = this.operations.stream(observer, 1);
+    this.stream.get(5, TimeUnit.SECONDS);
+
+    subscription.cancel();
+    assertTrue(subscription.isCancelled());
+    await(observer.completion::isDone);
+    assertTrue(observer.completion.isCompletedExceptionally());
+  }
+
+  /**
+   * Represents a condition which is polled by {@link #await(Condition)}.
+   */
+  @FunctionalInterface
+  interface Condition {
+
+    boolean isMet();
+  }
+
+  /**
+   * Records all events and the termination of a stream.
+   */
+  static final class RecordingObserver implements StreamObserver<Event<?, ?>> {
+
+    final List<Event<?, ?>> events = new CopyOnWriteArrayList<>();
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    @Override
+    public void onNext(Event<?, ?> value) {
+      this.events.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      this.completion.completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      this.completion.complete(null);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.await;
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.createProfileEvent;
+import static org.junit.Assert.assertEquals;
+
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.entity.event.EventKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link ParallelEventObserver}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ParallelEventObserverTest {
+
+  /**
+   * Evaluates whether events which refer to the same key are processed in order and whether gaps
+   * are passed once all preceding events have been processed.
+   */
+  @Test
+  public void testOrder() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      Map<Object, List<Long>> processed = new ConcurrentHashMap<>();
+      AtomicInteger processedCount = new AtomicInteger();
+      List<Integer> processedBeforeGap = new CopyOnWriteArrayList<>();
+      ParallelEventObserver observer = new ParallelEventObserver(new ResumableEventObserver() {
+        @Override
+        public void onEvent(Event<?, ?> event) {
+          processed.computeIfAbsent(event.getKey(),
+              (k) -> Collections.synchronizedList(new ArrayList<>())).add(event.getSequence());
+          processedCount.incrementAndGet();
+        }
+
+        @Override
+        public void onGap(EventGap gap) {
+          processedBeforeGap.add(processedCount.get());
+        }
+      }, executor, 4);
+
+      List<UUID> keys = new ArrayList<>();
+      for (int i = 0; i < 8; ++i) {
+        keys.add(UUID.randomUUID());
+      }
+
+      long sequence = 0;
+      for (int i = 0; i < 50; ++i) {
+        for (UUID key : keys) {
+          observer.onEvent(new Event<>(createProfileEvent(++sequence, key)));
+        }
+      }
+      observer.onGap(EventGap.unbounded());
+
+      await(() -> !processedBeforeGap.isEmpty());
+      assertEquals(Collections.singletonList(400), processedBeforeGap);
+      for (List<Long> sequences : processed.values()) {
+        assertEquals(50, sequences.size());
+        for (int i = 1; i < sequences.size(); ++i) {
+          assertEquals(sequences.get(i - 1) + keys.size(), (long) sequences.get(i));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Evaluates whether events which the delegate fails to process are reported as a gap.
+   */
+  @Test
+  public void testFailure() throws InterruptedException {
+    List<EventGap> gaps = new CopyOnWriteArrayList<>();
+    ParallelEventObserver observer = new ParallelEventObserver(new ResumableEventObserver() {
+      @Override
+      public void onEvent(Event<?, ?> event) {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public void onGap(EventGap gap) {
+        gaps.add(gap);
+      }
+    }, Runnable::run, 2);
+    Event<?, ?> event = new Event<>(createProfileEvent(1, UUID.randomUUID()));
+
+    observer.onEvent(event);
+    await(() -> !gaps.isEmpty());
+    assertEquals(Collections.singletonList(EventGap.of(1, EventKey.of(event))), gaps);
+  }
+
+  /**
+   * Evaluates whether the stream does not wait for the delegate indefinitely when both share an
+   * executor with a single thread.
+   */
+  @Test
+  public void testSingleThreadedExecutor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      AtomicInteger processed = new AtomicInteger();
+      ParallelEventObserver observer = new ParallelEventObserver(new ResumableEventObserver() {
+        @Override
+        public void onEvent(Event<?, ?> event) {
+          processed.incrementAndGet();
+        }
+
+        @Override
+        public void onGap(EventGap gap) {
+        }
+      }, executor, 1);
+
+      Future<?> future = executor.submit(() -> {
+        for (int i = 1; i <= 1000; ++i) {
+          observer.onEvent(new Event<>(createProfileEvent(i, UUID.randomUUID())));
+        }
+      });
+      future.get(5, TimeUnit.SECONDS);
+
+      await(() -> processed.get() >= 1000);
+      assertEquals(1000, processed.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link ProfileIdBatcher}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileIdBatcherTest {
+
+  private ScheduledExecutorService scheduler;
+  private List<List<String>> requests;
+  private List<CompletableFuture<List<ProfileId>>> responses;
+
+  @Before
+  public void setUp() {
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.requests = Collections.synchronizedList(new ArrayList<>());
+    this.responses = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @After
+  public void tearDown() {
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Creates a batcher which records its bulk requests.
+   */
+  private ProfileIdBatcher createBatcher(Duration window, int maximumBatchSize) {
+    ProfileIdBatcher batcher = new ProfileIdBatcher(this.scheduler, window, maximumBatchSize);
+    batcher.attach((names) -> {
+      CompletableFuture<List<ProfileId>> response = new CompletableFuture<>();
+      this.requests.add(names);
+      this.responses.add(response);
+      return response;
+    });
+    return batcher;
+  }
+
+  /**
+   * Creates a valid association for a given name.
+   */
+  private static ProfileId createId(String name) {
+    Instant now = Instant.now();
+    return new ProfileId(UUID.randomUUID(), name, now, now, now.plus(Duration.ofDays(1)));
+  }
+
+  /**
+   * Evaluates whether names which are submitted within the same window are resolved with a single
+   * request and whether each name receives its own association.
+   */
+  @Test
+  public void testBatching() throws Exception {
+    ProfileIdBatcher batcher = this.createBatcher(Duration.ofHours(1), 16);
+
+    CompletableFuture<Optional<ProfileId>> notch = batcher.submit("Notch");
+    CompletableFuture<Optional<ProfileId>> duplicate = batcher.submit("notch");
+    CompletableFuture<Optional<ProfileId>> jeb = batcher.submit("jeb_");
+    CompletableFuture<Optional<ProfileId>> unknown = batcher.submit("unknown");
+    assertTrue(this.requests.isEmpty());
+
+    batcher.flush();
+    assertEquals(1, this.requests.size());
+    assertEquals(3, this.requests.get(0).size());
+
+    ProfileId notchId = createId("Notch");
+    ProfileId jebId = createId("jeb_");
+    this.responses.get(0).complete(Arrays.asList(jebId, notchId));
+
+    assertEquals(Optional.of(notchId), notch.get());
+    assertEquals(Optional.of(notchId), duplicate.get());
+    assertEquals(Optional.of(jebId), jeb.get());
+    assertEquals(Optional.empty(), unknown.get());
+  }
+
+  /**
+   * Evaluates whether batches are dispatched once the window has passed.
+   */
+  @Test
+  public void testWindow() throws Exception {
+    ProfileIdBatcher batcher = this.createBatcher(Duration.ofMillis(10), 16);
+
+    CompletableFuture<Optional<ProfileId>> future = batcher.submit("Notch");
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (this.requests.isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+
+    assertEquals(Collections.singletonList(Collections.singletonList("Notch")), this.requests);
+    this.responses.get(0).complete(Collections.emptyList());
+    assertEquals(Optional.empty(), future.get(5, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Evaluates whether batches are dispatched right away once the maximum size has been reached.
+   */
+  @Test
+  public void testMaximumBatchSize() {
+    ProfileIdBatcher batcher = this.createBatcher(Duration.ofHours(1), 2);
+
+    batcher.submit("a");
+    assertTrue(this.requests.isEmpty());
+    batcher.submit("b");
+    assertEquals(1, this.requests.size());
+    batcher.submit("c");
+    assertEquals(1, this.requests.size());
+  }
+
+  /**
+   * Evaluates whether failed requests are passed to all names within the batch.
+   */
+  @Test
+  public void testFailure() throws InterruptedException {
+    ProfileIdBatcher batcher = this.createBatcher(Duration.ofHours(1), 16);
+    IllegalStateException cause = new IllegalStateException();
+
+    CompletableFuture<Optional<ProfileId>> first = batcher.submit("a");
+    CompletableFuture<Optional<ProfileId>> second = batcher.submit("b");
+    batcher.flush();
+    this.responses.get(0).completeExceptionally(cause);
+
+    for (CompletableFuture<Optional<ProfileId>> future : Arrays.asList(first, second)) {
+      try {
+        future.get();
+        fail("Expected lookup to fail");
+      } catch (ExecutionException ex) {
+        assertSame(cause, ex.getCause());
+      }
+    }
+  }
+
+  /**
+   * Evaluates whether pending names are dispatched upon close and subsequent names are no longer
+   * batched.
+   */
+  @Test
+  public void testClose() {
+    ProfileIdBatcher batcher = this.createBatcher(Duration.ofHours(1), 16);
+
+    batcher.submit("a");
+    batcher.close();
+    assertEquals(1, this.requests.size());
+
+    batcher.submit("b");
+    assertEquals(2, this.requests.size());
+  }
+
+  /**
+   * Evaluates whether only lookups for the current time are considered batchable.
+   */
+  @Test
+  public void testBatchable() {
+    ProfileIdBatcher batcher = this.createBatcher(Duration.ofHours(1), 16);
+
+    assertTrue(batcher.isBatchable(Instant.now()));
+    assertFalse(batcher.isBatchable(Instant.now().minus(Duration.ofDays(1))));
+  }
+}
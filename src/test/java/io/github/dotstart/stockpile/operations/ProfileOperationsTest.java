@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.profile.ProfileId;
+import io.github.dotstart.stockpile.rpc.Profile.BulkIdRequest;
+import io.github.dotstart.stockpile.rpc.Profile.BulkIdResponse;
+import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc;
+import io.github.dotstart.stockpile.rpc.ProfileServiceGrpc.ProfileServiceImplBase;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for the bulk lookups of {@link ProfileOperations}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ProfileOperationsTest {
+
+  private final List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maximumInFlight = new AtomicInteger();
+
+  private ExecutorService serverExecutor;
+  private Server server;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.serverExecutor = Executors.newCachedThreadPool();
+    this.server = InProcessServerBuilder.forName(name)
+        .executor(this.serverExecutor)
+        .addService(new ProfileServiceImplBase() {
+          @Override
+          public void bulkGetId(
+              BulkIdRequest request,
+              StreamObserver<BulkIdResponse> responseObserver) {
+            ProfileOperationsTest.this.handleBulkGetId(request, responseObserver);
+          }
+        })
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.serverExecutor.shutdownNow();
+  }
+
+  /**
+   * Resolves every name to an association while keeping track of the amount of concurrent
+   * requests.
+   */
+  private void handleBulkGetId(
+      BulkIdRequest request,
+      StreamObserver<BulkIdResponse> responseObserver) {
+    this.requests.add(new ArrayList<>(request.getNamesList()));
+    this.maximumInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+
+    try {
+      // give concurrent chunks a chance to overlap
+      Thread.sleep(20);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    long now = Instant.now().getEpochSecond();
+    BulkIdResponse.Builder response = BulkIdResponse.newBuilder();
+    for (String name : request.getNamesList()) {
+      response.addIds(io.github.dotstart.stockpile.rpc.Profile.ProfileId.newBuilder()
+          .setId(UUID.nameUUIDFromBytes(name.getBytes()).toString())
+          .setName(name)
+          .setFirstSeenAt(now)
+          .setLastSeenAt(now)
+          .setValidUntil(now + 3600));
+    }
+
+    this.inFlight.decrementAndGet();
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Creates an operations instance with the given chunking parameters.
+   */
+  private ProfileOperations createOperations(int chunkSize, int parallelism) {
+    return new ProfileOperations(ProfileServiceGrpc.newFutureStub(this.channel),
+        ForkJoinPool.commonPool(), null, null, null, chunkSize, parallelism);
+  }
+
+  /**
+   * Evaluates whether names are de-duplicated regardless of their case before they are passed to
+   * the server.
+   */
+  @Test
+  public void testDeduplication() {
+    ProfileOperations operations = this.createOperations(10, 2);
+
+    List<ProfileId> ids = operations.bulkGetProfileId(Arrays.asList("Notch", "notch", "jeb_"));
+    assertEquals(2, ids.size());
+    assertEquals(Collections.singletonList(Arrays.asList("Notch", "jeb_")), this.requests);
+  }
+
+  /**
+   * Evaluates whether large inputs are split into chunks which are requested with bounded
+   * concurrency and whether all results are merged.
+   */
+  @Test
+  public void testChunking() {
+    ProfileOperations operations = this.createOperations(10, 2);
+
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 95; ++i) {
+      names.add("name" + i);
+    }
+
+    List<ProfileId> ids = operations.bulkGetProfileId(names);
+    assertEquals(new HashSet<>(names),
+        ids.stream().map(ProfileId::getName).collect(Collectors.toSet()));
+
+    assertEquals(10, this.requests.size());
+    for (List<String> request : this.requests) {
+      assertTrue(request.size() <= 10);
+    }
+
+    Set<String> requested = this.requests.stream()
+        .flatMap(List::stream)
+        .collect(Collectors.toSet());
+    assertEquals(95, requested.size());
+    assertTrue("Expected at most 2 concurrent requests but got " + this.maximumInFlight.get(),
+        this.maximumInFlight.get() <= 2);
+  }
+}
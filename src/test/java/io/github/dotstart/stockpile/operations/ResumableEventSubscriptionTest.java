@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.await;
+import static io.github.dotstart.stockpile.operations.EventSubscriptionTest.createEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.dotstart.stockpile.entity.event.Event;
+import io.github.dotstart.stockpile.entity.event.EventFilter;
+import io.github.dotstart.stockpile.entity.event.EventGap;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc;
+import io.github.dotstart.stockpile.rpc.EventServiceGrpc.EventServiceImplBase;
+import io.github.dotstart.stockpile.rpc.Events;
+import io.github.dotstart.stockpile.rpc.Events.StreamEventsRequest;
+import io.github.dotstart.stockpile.utility.Backoff;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link ResumableEventSubscription}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ResumableEventSubscriptionTest {
+
+  private static final Metadata.Key<String> HEAD_SEQUENCE_HEADER = Metadata.Key
+      .of("stockpile-head-sequence", Metadata.ASCII_STRING_MARSHALLER);
+  private static final Context.Key<HeaderCall<?, ?>> CALL_KEY = Context.key("call");
+  private static final Backoff BACKOFF = new Backoff(Duration.ofMillis(10), Duration.ofSeconds(1),
+      2, 0);
+
+  private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+
+  private ExecutorService executor;
+  private ScheduledExecutorService scheduler;
+  private Server server;
+  private ManagedChannel channel;
+  private EventOperations operations;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.executor = Executors.newCachedThreadPool();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(ServerInterceptors.intercept(new EventServiceImplBase() {
+          @Override
+          public void streamEvents(
+              StreamEventsRequest request,
+              StreamObserver<Events.Event> responseObserver) {
+            ResumableEventSubscriptionTest.this.calls
+                .add(new Call(request, responseObserver, CALL_KEY.get()));
+          }
+        }, new ServerInterceptor() {
+          @Override
+          public <I, O> ServerCall.Listener<I> interceptCall(
+              ServerCall<I, O> call,
+              Metadata headers,
+              ServerCallHandler<I, O> next) {
+            HeaderCall<I, O> headerCall = new HeaderCall<>(call);
+            return Contexts.interceptCall(Context.current().withValue(CALL_KEY, headerCall),
+                headerCall, headers, next);
+          }
+        }))
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+    this.operations = new EventOperations(EventServiceGrpc.newBlockingStub(this.channel),
+        EventServiceGrpc.newStub(this.channel), this.executor, this.scheduler);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.operations.close();
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.scheduler.shutdownNow();
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Waits for the client to open the next stream.
+   */
+  private Call nextCall() throws InterruptedException {
+    Call call = this.calls.poll(5, TimeUnit.SECONDS);
+    assertNotNull("Expected stream to be opened", call);
+    return call;
+  }
+
+  /**
+   * Evaluates whether interrupted streams are resumed after the last acknowledged event and
+   * whether replayed events are discarded while missed events are reported as a gap.
+   */
+  @Test
+  public void testResume() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    this.operations.subscribe(EventFilter.all(), observer, 0, BACKOFF);
+
+    Call first = this.nextCall();
+    first.establish(5);
+    first.observer.onNext(createEvent(6));
+    first.observer.onNext(createEvent(7));
+    await(() -> observer.events.size() >= 2);
+    first.observer.onError(Status.UNAVAILABLE.asException());
+
+    Call second = this.nextCall();
+    assertEquals(7, second.request.getResumeAfter());
+    second.observer.onNext(createEvent(7));
+    second.observer.onNext(createEvent(10));
+    await(() -> observer.events.size() >= 3);
+
+    assertEquals(Arrays.asList(6L, 7L, 10L), observer.getSequences());
+    assertEquals(Collections.singletonList(EventGap.of(8, 9)), observer.gaps);
+  }
+
+  /**
+   * Evaluates whether streams which are interrupted before any event has been received are
+   * resumed after the position which has been reported by the server.
+   */
+  @Test
+  public void testResumeAtHead() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    this.operations.subscribe(EventFilter.all(), observer, 0, BACKOFF);
+
+    Call first = this.nextCall();
+    first.establish(5);
+    first.observer.onCompleted();
+
+    Call second = this.nextCall();
+    assertEquals(5, second.request.getResumeAfter());
+    assertTrue(observer.gaps.isEmpty());
+  }
+
+  /**
+   * Evaluates whether an unbounded gap is reported when the stream is interrupted before its
+   * position is known.
+   */
+  @Test
+  public void testUnknownPosition() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    this.operations.subscribe(EventFilter.all(), observer, 0, BACKOFF);
+
+    Call first = this.nextCall();
+    first.establish(0);
+    first.observer.onCompleted();
+
+    Call second = this.nextCall();
+    assertEquals(0, second.request.getResumeAfter());
+    await(() -> !observer.gaps.isEmpty());
+    assertEquals(Collections.singletonList(EventGap.unbounded()), observer.gaps);
+  }
+
+  /**
+   * Evaluates whether the reconnect delay grows while the server rejects streams and is reset once
+   * a stream has been accepted.
+   */
+  @Test
+  public void testBackoffReset() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    this.operations.subscribe(EventFilter.all(), observer, 0, BACKOFF);
+
+    for (int i = 0; i < 3; ++i) {
+      this.nextCall().observer.onError(Status.UNAVAILABLE.asException());
+    }
+
+    Call accepted = this.nextCall();
+    accepted.establish(5);
+    accepted.observer.onError(Status.UNAVAILABLE.asException());
+    this.nextCall();
+
+    await(() -> observer.delays.size() >= 4);
+    assertEquals(Arrays.asList(10L, 20L, 40L, 10L), observer.delays);
+  }
+
+  /**
+   * Passes the position of the most recent event along with the response headers.
+   */
+  private static final class HeaderCall<I, O> extends SimpleForwardingServerCall<I, O> {
+
+    private volatile long headSequence;
+    private boolean sent;
+
+    private HeaderCall(ServerCall<I, O> delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public void sendHeaders(Metadata headers) {
+      if (this.sent) {
+        return;
+      }
+      this.sent = true;
+
+      if (this.headSequence != 0) {
+        headers.put(HEAD_SEQUENCE_HEADER, Long.toUnsignedString(this.headSequence));
+      }
+      super.sendHeaders(headers);
+    }
+  }
+
+  /**
+   * Represents a stream which has been opened by the client.
+   */
+  private static final class Call {
+
+    private final StreamEventsRequest request;
+    private final StreamObserver<Events.Event> observer;
+    private final HeaderCall<?, ?> call;
+
+    private Call(
+        StreamEventsRequest request,
+        StreamObserver<Events.Event> observer,
+        HeaderCall<?, ?> call) {
+      this.request = request;
+      this.observer = observer;
+      this.call = call;
+    }
+
+    /**
+     * Accepts the stream and reports the given position (if non-zero) to the client.
+     */
+    private void establish(long headSequence) {
+      this.call.headSequence = headSequence;
+      this.call.sendHeaders(new Metadata());
+    }
+  }
+
+  /**
+   * Records all events, gaps and reconnect delays.
+   */
+  private static final class RecordingObserver implements ResumableEventObserver {
+
+    private final List<Event<?, ?>> events = new CopyOnWriteArrayList<>();
+    private final List<EventGap> gaps = new CopyOnWriteArrayList<>();
+    private final List<Long> delays = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onEvent(Event<?, ?> event) {
+      this.events.add(event);
+    }
+
+    @Override
+    public void onGap(EventGap gap) {
+      this.gaps.add(gap);
+    }
+
+    @Override
+    public void onDisconnect(Throwable cause, long reconnectDelay) {
+      this.delays.add(reconnectDelay);
+    }
+
+    private List<Long> getSequences() {
+      return this.events.stream()
+          .map(Event::getSequence)
+          .collect(Collectors.toList());
+    }
+  }
+}
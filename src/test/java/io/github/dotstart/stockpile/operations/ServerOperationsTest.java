@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.Empty;
+import io.github.dotstart.stockpile.cache.BlacklistCache;
+import io.github.dotstart.stockpile.entity.server.Blacklist;
+import io.github.dotstart.stockpile.rpc.Server.BlacklistUpdate;
+import io.github.dotstart.stockpile.rpc.Server.BlacklistUpdateRequest;
+import io.github.dotstart.stockpile.rpc.Server.BlacklistUpdateType;
+import io.github.dotstart.stockpile.rpc.Server.CheckBlacklistRequest;
+import io.github.dotstart.stockpile.rpc.Server.CheckBlacklistResponse;
+import io.github.dotstart.stockpile.rpc.ServerServiceGrpc;
+import io.github.dotstart.stockpile.rpc.ServerServiceGrpc.ServerServiceImplBase;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provides test cases for the blacklist related functions of {@link ServerOperations}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class ServerOperationsTest {
+
+  private final AtomicInteger blacklistRequests = new AtomicInteger();
+  private final AtomicInteger checkRequests = new AtomicInteger();
+  private final List<String> updateRequests = new CopyOnWriteArrayList<>();
+  private final CountDownLatch updateGate = new CountDownLatch(1);
+  private volatile BlacklistUpdate update;
+  private volatile io.github.dotstart.stockpile.rpc.Server.Blacklist blacklist =
+      io.github.dotstart.stockpile.rpc.Server.Blacklist.getDefaultInstance();
+
+  private Server server;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = InProcessServerBuilder.generateName();
+
+    this.server = InProcessServerBuilder.forName(name)
+        .addService(new Service())
+        .build()
+        .start();
+    this.channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Computes the hex encoded sha1 hash of a given address.
+   */
+  static String hash(String address) {
+    return Hashing.sha1().hashString(address, StandardCharsets.ISO_8859_1).toString();
+  }
+
+  /**
+   * Creates an operations instance which optionally maintains a local copy of the blacklist.
+   */
+  private ServerOperations createOperations(BlacklistCache cache) {
+    return new ServerOperations(ServerServiceGrpc.newFutureStub(this.channel),
+        ForkJoinPool.commonPool(), cache);
+  }
+
+  /**
+   * Evaluates whether blacklist checks are evaluated against the local copy when present.
+   */
+  @Test
+  public void testLocalCheck() {
+    BlacklistCache cache = new BlacklistCache();
+    ServerOperations operations = this.createOperations(cache);
+
+    cache.update(new Blacklist(Arrays.asList(hash("*.example.com"), hash("10.0.0.1"))));
+    assertEquals(new HashSet<>(Arrays.asList("mc.example.com", "10.0.0.1")),
+        operations.checkBlacklist(Arrays.asList("mc.example.com", "example.org", "10.0.0.1")));
+    assertEquals(0, this.checkRequests.get());
+  }
+
+  /**
+   * Evaluates whether blacklist checks are passed to the server while no local copy has been
+   * retrieved.
+   */
+  @Test
+  public void testRemoteCheck() {
+    ServerOperations operations = this.createOperations(new BlacklistCache());
+
+    assertEquals(Collections.singleton("mc.example.com"),
+        operations.checkBlacklist(Collections.singletonList("mc.example.com")));
+    assertEquals(1, this.checkRequests.get());
+  }
+
+  /**
+   * Evaluates whether malformed addresses are reported through the future.
+   */
+  @Test
+  public void testLocalCheckFailure() {
+    BlacklistCache cache = new BlacklistCache();
+    ServerOperations operations = this.createOperations(cache);
+    cache.update(new Blacklist(Collections.emptySet()));
+
+    try {
+      operations.checkBlacklistAsync(Collections.singletonList("")).join();
+      fail("Expected check to fail");
+    } catch (CompletionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  /**
+   * Evaluates whether retrieving the blacklist populates the local copy.
+   */
+  @Test
+  public void testRetrievalPopulatesCache() {
+    BlacklistCache cache = new BlacklistCache();
+    ServerOperations operations = this.createOperations(cache);
+    this.blacklist = io.github.dotstart.stockpile.rpc.Server.Blacklist.newBuilder()
+        .addHashes(hash("example.org"))
+        .build();
+
+    Blacklist blacklist = operations.getBlacklist();
+    assertEquals(blacklist, cache.get().orElse(null));
+    assertEquals(1, this.blacklistRequests.get());
+  }
+
+  /**
+   * Evaluates whether the previous blacklist is returned as-is when the server reports that it
+   * remains unmodified.
+   */
+  @Test
+  public void testNotModified() {
+    this.updateGate.countDown();
+    ServerOperations operations = this.createOperations(new BlacklistCache());
+    Blacklist previous = new Blacklist(Collections.singleton(hash("example.org")), "1");
+    this.update = BlacklistUpdate.newBuilder()
+        .setType(BlacklistUpdateType.NOT_MODIFIED)
+        .setVersion("1")
+        .build();
+
+    assertSame(previous, operations.getBlacklist(previous));
+    assertEquals(Collections.singletonList("1"), this.updateRequests);
+    assertEquals(0, this.blacklistRequests.get());
+  }
+
+  /**
+   * Evaluates whether deltas are applied to the previous blacklist.
+   */
+  @Test
+  public void testDelta() {
+    this.updateGate.countDown();
+    BlacklistCache cache = new BlacklistCache();
+    ServerOperations operations = this.createOperations(cache);
+    Blacklist previous = new Blacklist(Arrays.asList(hash("a.org"), hash("b.org")), "1");
+    cache.update(previous);
+    this.update = BlacklistUpdate.newBuilder()
+        .setType(BlacklistUpdateType.DELTA)
+        .setVersion("2")
+        .addAddedHashes(hash("c.org"))
+        .addRemovedHashes(hash("a.org"))
+        .build();
+
+    Blacklist blacklist = operations.getBlacklist(previous);
+    assertEquals(new HashSet<>(Arrays.asList(hash("b.org"), hash("c.org"))),
+        blacklist.getHashes());
+    assertEquals("2", blacklist.getVersion().orElse(null));
+    assertSame(blacklist, cache.get().orElse(null));
+  }
+
+  /**
+   * Evaluates whether complete blacklists replace the previous blacklist.
+   */
+  @Test
+  public void testFull() {
+    this.updateGate.countDown();
+    ServerOperations operations = this.createOperations(new BlacklistCache());
+    Blacklist previous = new Blacklist(Collections.singleton(hash("a.org")), "1");
+    this.update = BlacklistUpdate.newBuilder()
+        .setType(BlacklistUpdateType.FULL)
+        .setVersion("3")
+        .setBlacklist(io.github.dotstart.stockpile.rpc.Server.Blacklist.newBuilder()
+            .addHashes(hash("d.org"))
+            .setVersion("3"))
+        .build();
+
+    Blacklist blacklist = operations.getBlacklist(previous);
+    assertEquals(Collections.singleton(hash("d.org")), blacklist.getHashes());
+    assertEquals("3", blacklist.getVersion().orElse(null));
+  }
+
+  /**
+   * Evaluates whether the complete blacklist is retrieved when the previous blacklist does not
+   * carry a version or the server does not support conditional retrieval.
+   */
+  @Test
+  public void testFallback() {
+    this.updateGate.countDown();
+    ServerOperations operations = this.createOperations(new BlacklistCache());
+    this.blacklist = io.github.dotstart.stockpile.rpc.Server.Blacklist.newBuilder()
+        .addHashes(hash("example.org"))
+        .build();
+
+    operations.getBlacklist(new Blacklist(Collections.emptySet()));
+    assertTrue(this.updateRequests.isEmpty());
+    assertEquals(1, this.blacklistRequests.get());
+
+    Blacklist blacklist = operations.getBlacklist(new Blacklist(Collections.emptySet(), "1"));
+    assertEquals(Collections.singletonList("1"), this.updateRequests);
+    assertEquals(2, this.blacklistRequests.get());
+    assertEquals(Collections.singleton(hash("example.org")), blacklist.getHashes());
+  }
+
+  /**
+   * Evaluates whether responses do not overwrite local copies which have been replaced while the
+   * request was in flight.
+   */
+  @Test
+  public void testConcurrentReplacement() throws Exception {
+    BlacklistCache cache = new BlacklistCache();
+    ServerOperations operations = this.createOperations(cache);
+    Blacklist previous = new Blacklist(Collections.singleton(hash("a.org")), "1");
+    cache.update(previous);
+    this.update = BlacklistUpdate.newBuilder()
+        .setType(BlacklistUpdateType.DELTA)
+        .setVersion("2")
+        .addAddedHashes(hash("b.org"))
+        .build();
+
+    CompletableFuture<Blacklist> future = operations.getBlacklistAsync(previous);
+    Blacklist replacement = new Blacklist(Collections.singleton(hash("c.org")), "3");
+    cache.update(replacement);
+    this.updateGate.countDown();
+
+    Blacklist blacklist = future.get(5, TimeUnit.SECONDS);
+    assertEquals("2", blacklist.getVersion().orElse(null));
+    assertSame(replacement, cache.get().orElse(null));
+  }
+
+  /**
+   * Provides a fake blacklist service.
+   */
+  private class Service extends ServerServiceImplBase {
+
+    @Override
+    public void getBlacklist(
+        Empty request,
+        StreamObserver<io.github.dotstart.stockpile.rpc.Server.Blacklist> responseObserver) {
+      ServerOperationsTest.this.blacklistRequests.incrementAndGet();
+      responseObserver.onNext(ServerOperationsTest.this.blacklist);
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getBlacklistUpdate(
+        BlacklistUpdateRequest request,
+        StreamObserver<BlacklistUpdate> responseObserver) {
+      ServerOperationsTest.this.updateRequests.add(request.getVersion());
+
+      BlacklistUpdate update = ServerOperationsTest.this.update;
+      if (update == null) {
+        super.getBlacklistUpdate(request, responseObserver);
+        return;
+      }
+
+      try {
+        ServerOperationsTest.this.updateGate.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+
+      responseObserver.onNext(update);
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void checkBlacklist(
+        CheckBlacklistRequest request,
+        StreamObserver<CheckBlacklistResponse> responseObserver) {
+      ServerOperationsTest.this.checkRequests.incrementAndGet();
+      responseObserver.onNext(CheckBlacklistResponse.newBuilder()
+          .addAllMatchedAddresses(request.getAddressesList())
+          .build());
+      responseObserver.onCompleted();
+    }
+  }
+}
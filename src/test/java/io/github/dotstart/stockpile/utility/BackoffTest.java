@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link Backoff}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class BackoffTest {
+
+  /**
+   * Evaluates whether delays grow exponentially up to their maximum.
+   */
+  @Test
+  public void testDelay() {
+    Backoff backoff = new Backoff(Duration.ofMillis(10), Duration.ofMillis(100), 2, 0);
+
+    assertEquals(10, backoff.getDelay(0));
+    assertEquals(20, backoff.getDelay(1));
+    assertEquals(40, backoff.getDelay(2));
+    assertEquals(80, backoff.getDelay(3));
+    assertEquals(100, backoff.getDelay(4));
+    assertEquals(100, backoff.getDelay(Integer.MAX_VALUE));
+  }
+
+  /**
+   * Evaluates whether randomized delays remain within the permitted fraction of their base
+   * delay.
+   */
+  @Test
+  public void testJitter() {
+    Backoff backoff = new Backoff(Duration.ofMillis(100), Duration.ofMillis(100), 2, 0.5);
+
+    for (int i = 0; i < 1000; ++i) {
+      long delay = backoff.getDelay(0);
+      assertTrue("Expected delay between 50 and 100 but got " + delay,
+          delay >= 50 && delay <= 100);
+    }
+  }
+
+  /**
+   * Evaluates whether maximum delays below the initial delay are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalMaximum() {
+    new Backoff(Duration.ofSeconds(1), Duration.ofMillis(10), 2, 0);
+  }
+
+  /**
+   * Evaluates whether multipliers which would shrink the delay are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalMultiplier() {
+    new Backoff(Duration.ofMillis(10), Duration.ofSeconds(1), 0.5, 0);
+  }
+
+  /**
+   * Evaluates whether jitter fractions outside of the permitted range are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalJitter() {
+    new Backoff(Duration.ofMillis(10), Duration.ofSeconds(1), 2, 1.5);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import io.github.dotstart.stockpile.rpc.Events;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link DynamicAnyRegistry}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class DynamicAnyRegistryTest {
+
+  private final DynamicAnyRegistry registry = new DynamicAnyRegistry() {
+    {
+      this.register("rpc.IdKey", Events.IdKey.parser(),
+          (Events.IdKey key) -> UUID.fromString(key.getId()));
+      this.register("rpc.ProfileIdKey", Events.ProfileIdKey.class, Events.ProfileIdKey::getName);
+    }
+  };
+
+  /**
+   * Evaluates whether registered types are decoded using their respective factory.
+   */
+  @Test
+  public void testRead() {
+    UUID id = UUID.randomUUID();
+
+    assertEquals(id, this.registry.read(Any.pack(Events.IdKey.newBuilder()
+        .setId(id.toString())
+        .build())));
+    assertEquals("Notch", this.registry.read(Any.pack(Events.ProfileIdKey.newBuilder()
+        .setName("Notch")
+        .build())));
+  }
+
+  /**
+   * Evaluates whether unknown types are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownType() {
+    this.registry.read(Any.pack(Events.Event.getDefaultInstance()));
+  }
+
+  /**
+   * Evaluates whether malformed values are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedValue() {
+    this.registry.read(Any.newBuilder()
+        .setTypeUrl("type.googleapis.com/rpc.IdKey")
+        .setValue(ByteString.copyFrom(new byte[]{(byte) 0xFF, (byte) 0xFF}))
+        .build());
+  }
+}
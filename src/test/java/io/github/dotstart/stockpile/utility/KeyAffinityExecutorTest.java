@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link KeyAffinityExecutor}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class KeyAffinityExecutorTest {
+
+  /**
+   * Evaluates whether tasks which share a key are executed in submission order.
+   */
+  @Test
+  public void testOrder() throws InterruptedException {
+    ExecutorService delegate = Executors.newFixedThreadPool(4);
+
+    try {
+      KeyAffinityExecutor executor = new KeyAffinityExecutor(delegate, 4);
+      Map<Object, List<Integer>> executed = new ConcurrentHashMap<>();
+      CountDownLatch completion = new CountDownLatch(800);
+
+      for (int i = 0; i < 100; ++i) {
+        for (Object key : Arrays.asList("a", "b", "c", "d", "e", "f", "g", null)) {
+          int value = i;
+          executor.execute(key, () -> {
+            executed.computeIfAbsent(key == null ? "" : key,
+                (k) -> Collections.synchronizedList(new ArrayList<>())).add(value);
+            completion.countDown();
+          });
+        }
+      }
+
+      assertTrue(completion.await(5, TimeUnit.SECONDS));
+      for (List<Integer> values : executed.values()) {
+        for (int i = 0; i < values.size(); ++i) {
+          assertEquals(i, (int) values.get(i));
+        }
+      }
+    } finally {
+      delegate.shutdownNow();
+    }
+  }
+
+  /**
+   * Evaluates whether barrier tasks are executed once all previously submitted tasks have been
+   * executed.
+   */
+  @Test
+  public void testExecuteAfterAll() {
+    List<String> executed = new CopyOnWriteArrayList<>();
+    KeyAffinityExecutor executor = new KeyAffinityExecutor(Runnable::run, 4);
+
+    executor.execute("a", () -> executed.add("a"));
+    executor.execute(null, () -> executed.add("keyless"));
+    executor.executeAfterAll(() -> executed.add("barrier"));
+
+    assertEquals(Arrays.asList("a", "keyless", "barrier"), executed);
+  }
+
+  /**
+   * Evaluates whether queued tasks are executed on the calling thread when the delegate has not
+   * picked them up yet.
+   */
+  @Test
+  public void testTryDrain() {
+    List<Runnable> submitted = new ArrayList<>();
+    List<String> executed = new ArrayList<>();
+    KeyAffinityExecutor executor = new KeyAffinityExecutor(submitted::add, 2);
+
+    assertFalse(executor.tryDrain());
+
+    executor.execute("a", () -> executed.add("a"));
+    executor.execute(null, () -> executed.add("keyless"));
+    assertTrue(executed.isEmpty());
+
+    assertTrue(executor.tryDrain());
+    assertEquals(2, executed.size());
+    assertFalse(executor.tryDrain());
+
+    // the delegate eventually picks up its tasks which have been completed in the meantime
+    submitted.forEach(Runnable::run);
+    assertEquals(2, executed.size());
+  }
+
+  /**
+   * Evaluates whether invalid amounts of lanes are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalLanes() {
+    new KeyAffinityExecutor(Runnable::run, 0);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link RequestCoalescer}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class RequestCoalescerTest {
+
+  /**
+   * Evaluates whether concurrent requests for the same key share a single request.
+   */
+  @Test
+  public void testCoalescing() throws Exception {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+    AtomicInteger requests = new AtomicInteger();
+    CompletableFuture<String> response = new CompletableFuture<>();
+
+    CompletableFuture<String> first = coalescer.execute("a", () -> {
+      requests.incrementAndGet();
+      return response;
+    });
+    CompletableFuture<String> second = coalescer.execute("a", () -> {
+      requests.incrementAndGet();
+      return new CompletableFuture<>();
+    });
+
+    assertEquals(1, requests.get());
+    assertEquals(1, coalescer.size());
+    assertFalse(first.isDone());
+
+    response.complete("result");
+    assertEquals("result", first.get());
+    assertEquals("result", second.get());
+    assertEquals(0, coalescer.size());
+
+    // once released, the key issues a new request
+    coalescer.execute("a", () -> {
+      requests.incrementAndGet();
+      return new CompletableFuture<>();
+    });
+    assertEquals(2, requests.get());
+  }
+
+  /**
+   * Evaluates whether requests for different keys are issued independently.
+   */
+  @Test
+  public void testDistinctKeys() {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+    AtomicInteger requests = new AtomicInteger();
+
+    coalescer.execute("a", () -> {
+      requests.incrementAndGet();
+      return new CompletableFuture<>();
+    });
+    coalescer.execute("b", () -> {
+      requests.incrementAndGet();
+      return new CompletableFuture<>();
+    });
+
+    assertEquals(2, requests.get());
+    assertEquals(2, coalescer.size());
+  }
+
+  /**
+   * Evaluates whether failures are passed to all attached callers and release the key.
+   */
+  @Test
+  public void testFailure() throws InterruptedException {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+    CompletableFuture<String> response = new CompletableFuture<>();
+    IllegalStateException cause = new IllegalStateException();
+
+    CompletableFuture<String> first = coalescer.execute("a", () -> response);
+    CompletableFuture<String> second = coalescer.execute("a", CompletableFuture::new);
+    response.completeExceptionally(cause);
+
+    for (CompletableFuture<String> future : new CompletableFuture[]{first, second}) {
+      try {
+        future.get();
+        fail("Expected request to fail");
+      } catch (ExecutionException ex) {
+        assertSame(cause, ex.getCause());
+      }
+    }
+    assertEquals(0, coalescer.size());
+  }
+
+  /**
+   * Evaluates whether requests which fail to be issued release the key.
+   */
+  @Test
+  public void testIssueFailure() {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+
+    CompletableFuture<String> future = coalescer.execute("a", () -> {
+      throw new IllegalStateException();
+    });
+
+    assertTrue(future.isCompletedExceptionally());
+    assertEquals(0, coalescer.size());
+  }
+
+  /**
+   * Evaluates whether cancelling the future of a single caller does not affect other callers.
+   */
+  @Test
+  public void testCancellation() throws Exception {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+    CompletableFuture<String> response = new CompletableFuture<>();
+
+    CompletableFuture<String> first = coalescer.execute("a", () -> response);
+    CompletableFuture<String> second = coalescer.execute("a", CompletableFuture::new);
+    first.cancel(false);
+
+    assertFalse(response.isDone());
+    response.complete("result");
+    assertEquals("result", second.get());
+  }
+}
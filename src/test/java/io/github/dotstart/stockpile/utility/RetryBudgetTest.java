@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.dotstart.stockpile.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Provides test cases for {@link RetryBudget}.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public class RetryBudgetTest {
+
+  /**
+   * Evaluates whether bursts of retries are limited to the budget capacity.
+   */
+  @Test
+  public void testCapacity() {
+    RetryBudget budget = new RetryBudget(0.1, 3);
+
+    assertEquals(3, budget.getAvailable());
+    assertTrue(budget.tryWithdraw());
+    assertTrue(budget.tryWithdraw());
+    assertTrue(budget.tryWithdraw());
+    assertFalse(budget.tryWithdraw());
+
+    assertEquals(3, budget.getRetryCount());
+    assertEquals(1, budget.getRejectedCount());
+  }
+
+  /**
+   * Evaluates whether retries are earned back at the configured ratio of requests.
+   */
+  @Test
+  public void testDeposit() {
+    RetryBudget budget = new RetryBudget(0.25, 2);
+    assertTrue(budget.tryWithdraw());
+    assertTrue(budget.tryWithdraw());
+
+    for (int i = 0; i < 3; ++i) {
+      budget.deposit();
+    }
+    assertFalse(budget.tryWithdraw());
+
+    budget.deposit();
+    assertTrue(budget.tryWithdraw());
+  }
+
+  /**
+   * Evaluates whether deposits never exceed the budget capacity.
+   */
+  @Test
+  public void testDepositCapacity() {
+    RetryBudget budget = new RetryBudget(1, 2);
+
+    for (int i = 0; i < 10; ++i) {
+      budget.deposit();
+    }
+    assertEquals(2, budget.getAvailable());
+  }
+
+  /**
+   * Evaluates whether ratios outside of the permitted range are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalRatio() {
+    new RetryBudget(0, 1);
+  }
+
+  /**
+   * Evaluates whether invalid capacities are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalCapacity() {
+    new RetryBudget(0.1, 0);
+  }
+}